@@ -2,6 +2,12 @@ package io.cooly.crawler.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Properties specific to Indexer.
  * <p>
@@ -11,4 +17,1219 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
 
+    private final Bulk bulk = new Bulk();
+
+    private final BulkTasks bulkTasks = new BulkTasks();
+
+    private final Indexing indexing = new Indexing();
+
+    private final Reindex reindex = new Reindex();
+
+    private final Pagination pagination = new Pagination();
+
+    private final ContentStore contentStore = new ContentStore();
+
+    private final Dedup dedup = new Dedup();
+
+    private final NearDuplicates nearDuplicates = new NearDuplicates();
+
+    private final Frontier frontier = new Frontier();
+
+    private final Politeness politeness = new Politeness();
+
+    private final SeenUrls seenUrls = new SeenUrls();
+
+    private final UrlNormalization urlNormalization = new UrlNormalization();
+
+    private final LinkGraph linkGraph = new LinkGraph();
+
+    private final PageRank pageRank = new PageRank();
+
+    private final RankedSearch rankedSearch = new RankedSearch();
+
+    private final StructuredSearch structuredSearch = new StructuredSearch();
+
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    private final Export export = new Export();
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public BulkTasks getBulkTasks() {
+        return bulkTasks;
+    }
+
+    public Indexing getIndexing() {
+        return indexing;
+    }
+
+    public Reindex getReindex() {
+        return reindex;
+    }
+
+    public Pagination getPagination() {
+        return pagination;
+    }
+
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+    public Dedup getDedup() {
+        return dedup;
+    }
+
+    public NearDuplicates getNearDuplicates() {
+        return nearDuplicates;
+    }
+
+    public Frontier getFrontier() {
+        return frontier;
+    }
+
+    public Politeness getPoliteness() {
+        return politeness;
+    }
+
+    public SeenUrls getSeenUrls() {
+        return seenUrls;
+    }
+
+    public UrlNormalization getUrlNormalization() {
+        return urlNormalization;
+    }
+
+    public LinkGraph getLinkGraph() {
+        return linkGraph;
+    }
+
+    public PageRank getPageRank() {
+        return pageRank;
+    }
+
+    public RankedSearch getRankedSearch() {
+        return rankedSearch;
+    }
+
+    public StructuredSearch getStructuredSearch() {
+        return structuredSearch;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public Export getExport() {
+        return export;
+    }
+
+    public static class Bulk {
+
+        /**
+         * Number of documents sent to MongoDB and Elasticsearch in a single bulk request.
+         */
+        private int chunkSize = 500;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class Indexing {
+
+        /**
+         * Maximum number of pending Elasticsearch operations held in memory.
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * Maximum number of operations sent in a single bulk request.
+         */
+        private int batchSize = 500;
+
+        /**
+         * Maximum time an operation waits for its batch to fill up before it is flushed.
+         */
+        private long flushIntervalMs = 1000;
+
+        /**
+         * How long a writer blocks on a full queue before logging a warning and waiting again; changes are
+         * never indexed out of the queue, so that an older version of a dataFeed cannot overwrite a newer one.
+         */
+        private long offerTimeoutMs = 5000;
+
+        private int maxRetries = 5;
+
+        private long retryBackoffMs = 500;
+
+        private long maxRetryBackoffMs = 30000;
+
+        private final ChangeStream changeStream = new ChangeStream();
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public long getOfferTimeoutMs() {
+            return offerTimeoutMs;
+        }
+
+        public void setOfferTimeoutMs(long offerTimeoutMs) {
+            this.offerTimeoutMs = offerTimeoutMs;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public long getRetryBackoffMs() {
+            return retryBackoffMs;
+        }
+
+        public void setRetryBackoffMs(long retryBackoffMs) {
+            this.retryBackoffMs = retryBackoffMs;
+        }
+
+        public long getMaxRetryBackoffMs() {
+            return maxRetryBackoffMs;
+        }
+
+        public void setMaxRetryBackoffMs(long maxRetryBackoffMs) {
+            this.maxRetryBackoffMs = maxRetryBackoffMs;
+        }
+
+        public ChangeStream getChangeStream() {
+            return changeStream;
+        }
+
+        public static class ChangeStream {
+
+            /**
+             * Feed Elasticsearch from the data_feed change stream instead of the service writes.
+             * Requires a MongoDB 3.6+ replica set.
+             */
+            private boolean enabled = false;
+
+            /**
+             * How long the server waits for new changes before answering an empty batch.
+             */
+            private long maxAwaitMs = 1000;
+
+            /**
+             * Number of times the changes of a batch still failing are indexed again, with an exponential
+             * backoff, before they are dead-lettered and the stream moves past them.
+             */
+            private int maxBatchRetries = 10;
+
+            public boolean isEnabled() {
+                return enabled;
+            }
+
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+
+            public long getMaxAwaitMs() {
+                return maxAwaitMs;
+            }
+
+            public void setMaxAwaitMs(long maxAwaitMs) {
+                this.maxAwaitMs = maxAwaitMs;
+            }
+
+            public int getMaxBatchRetries() {
+                return maxBatchRetries;
+            }
+
+            public void setMaxBatchRetries(int maxBatchRetries) {
+                this.maxBatchRetries = maxBatchRetries;
+            }
+        }
+    }
+
+    public static class Reindex {
+
+        /**
+         * Number of partitions scanned from MongoDB in parallel.
+         */
+        private int threads = 4;
+
+        /**
+         * Number of id ranges the collection is split into, more partitions balance the load better.
+         */
+        private int partitions = 32;
+
+        /**
+         * Number of documents sent to Elasticsearch in a single bulk request.
+         */
+        private int batchSize = 1000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public void setPartitions(int partitions) {
+            this.partitions = partitions;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class Pagination {
+
+        public enum CountMode {
+            /**
+             * Count every matching document, for the X-Total-Count header and the last page link.
+             */
+            EXACT,
+            /**
+             * Report the approximate size of the collection in an X-Total-Count-Estimate header.
+             */
+            ESTIMATED,
+            /**
+             * Do not count, only link to the previous and next pages.
+             */
+            NONE
+        }
+
+        /**
+         * How paginated endpoints count the total number of items, when the request does not say.
+         */
+        private CountMode count = CountMode.EXACT;
+
+        public CountMode getCount() {
+            return count;
+        }
+
+        public void setCount(CountMode count) {
+            this.count = count;
+        }
+    }
+
+    public static class ContentStore {
+
+        /**
+         * Whether the html of saved DataFeeds is moved to the content store; html already stored
+         * there is read back either way, only by the reads which return it.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Name of the GridFS bucket holding the compressed contents.
+         */
+        private String bucket = "data_feed_content";
+
+        /**
+         * Number of streamed DataFeeds whose html is read from the content store at once, such as by an export.
+         */
+        private int readBatchSize = 100;
+
+        /**
+         * Whether the contents which no DataFeed references any more are deleted.
+         */
+        private boolean sweepEnabled = true;
+
+        /**
+         * Delay between the end of a sweep of the unreferenced contents and the start of the next one.
+         */
+        private long sweepIntervalMs = 86400000;
+
+        /**
+         * Age of the last save of a content before a sweep may delete it, longer than a DataFeed takes to be
+         * written once its content is saved.
+         */
+        private long sweepGracePeriodMs = 3600000;
+
+        /**
+         * Number of contents checked for references at once by a sweep.
+         */
+        private int sweepBatchSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public int getReadBatchSize() {
+            return readBatchSize;
+        }
+
+        public void setReadBatchSize(int readBatchSize) {
+            this.readBatchSize = readBatchSize;
+        }
+
+        public boolean isSweepEnabled() {
+            return sweepEnabled;
+        }
+
+        public void setSweepEnabled(boolean sweepEnabled) {
+            this.sweepEnabled = sweepEnabled;
+        }
+
+        public long getSweepIntervalMs() {
+            return sweepIntervalMs;
+        }
+
+        public void setSweepIntervalMs(long sweepIntervalMs) {
+            this.sweepIntervalMs = sweepIntervalMs;
+        }
+
+        public long getSweepGracePeriodMs() {
+            return sweepGracePeriodMs;
+        }
+
+        public void setSweepGracePeriodMs(long sweepGracePeriodMs) {
+            this.sweepGracePeriodMs = sweepGracePeriodMs;
+        }
+
+        public int getSweepBatchSize() {
+            return sweepBatchSize;
+        }
+
+        public void setSweepBatchSize(int sweepBatchSize) {
+            this.sweepBatchSize = sweepBatchSize;
+        }
+    }
+
+    public static class Dedup {
+
+        /**
+         * Whether saving a new DataFeed with the url and html of a stored one only updates the stored one.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Number of urls whose latest content hash is remembered, to skip the database lookup for changed pages.
+         */
+        private int cacheSize = 100000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getCacheSize() {
+            return cacheSize;
+        }
+
+        public void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+    }
+
+    public static class NearDuplicates {
+
+        /**
+         * Whether the SimHash of saved DataFeeds is computed and added to the near-duplicate index.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Largest number of differing SimHash bits for two pages to be near-duplicates.
+         */
+        private int maxDistance = 6;
+
+        /**
+         * Number of bands the SimHash is cut into by the index, at most one more than the maximum distance.
+         * Fewer bands make wider keys, so fewer candidates per lookup, but more keys to probe around each
+         * band: 4 bands of 16 bits probe 68 keys for a maximum distance of 6.
+         */
+        private int bands = 4;
+
+        /**
+         * Whether new DataFeeds with a near-duplicate are kept out of Elasticsearch.
+         */
+        private boolean skipIndexing = false;
+
+        /**
+         * File the index is saved to, and loaded from at startup; it is rebuilt from MongoDB when missing.
+         */
+        private String snapshotFile = "near-duplicates.bin";
+
+        /**
+         * Interval between two saves of the index.
+         */
+        private long snapshotIntervalMs = 300000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxDistance() {
+            return maxDistance;
+        }
+
+        public void setMaxDistance(int maxDistance) {
+            this.maxDistance = maxDistance;
+        }
+
+        public int getBands() {
+            return bands;
+        }
+
+        public void setBands(int bands) {
+            this.bands = bands;
+        }
+
+        public boolean isSkipIndexing() {
+            return skipIndexing;
+        }
+
+        public void setSkipIndexing(boolean skipIndexing) {
+            this.skipIndexing = skipIndexing;
+        }
+
+        public String getSnapshotFile() {
+            return snapshotFile;
+        }
+
+        public void setSnapshotFile(String snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+
+        public long getSnapshotIntervalMs() {
+            return snapshotIntervalMs;
+        }
+
+        public void setSnapshotIntervalMs(long snapshotIntervalMs) {
+            this.snapshotIntervalMs = snapshotIntervalMs;
+        }
+    }
+
+    public static class Frontier {
+
+        /**
+         * Largest number of urls waiting in memory; the frontier is refilled from MongoDB below half of it.
+         */
+        private int capacity = 100000;
+
+        /**
+         * Time a crawler worker has to complete or release its urls before they are leased again.
+         */
+        private long leaseTtlMs = 300000;
+
+        /**
+         * Largest number of urls in a single lease.
+         */
+        private int maxLeaseSize = 10000;
+
+        /**
+         * Interval between two checks for expired leases.
+         */
+        private long sweepIntervalMs = 1000;
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public long getLeaseTtlMs() {
+            return leaseTtlMs;
+        }
+
+        public void setLeaseTtlMs(long leaseTtlMs) {
+            this.leaseTtlMs = leaseTtlMs;
+        }
+
+        public int getMaxLeaseSize() {
+            return maxLeaseSize;
+        }
+
+        public void setMaxLeaseSize(int maxLeaseSize) {
+            this.maxLeaseSize = maxLeaseSize;
+        }
+
+        public long getSweepIntervalMs() {
+            return sweepIntervalMs;
+        }
+
+        public void setSweepIntervalMs(long sweepIntervalMs) {
+            this.sweepIntervalMs = sweepIntervalMs;
+        }
+    }
+
+    public static class Politeness {
+
+        /**
+         * Whether the urls of a domain are spaced out by its crawl delay.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Minimal interval between two urls of a domain handed out to crawler workers.
+         */
+        private long crawlDelayMs = 1000;
+
+        /**
+         * Crawl delay of specific domains, overriding the default one; domains with dots are written
+         * between brackets, such as {@code "[www.example.com]": 5000}.
+         */
+        private Map<String, Long> crawlDelays = new HashMap<>();
+
+        /**
+         * Number of urls of a domain which may be handed out at once after it was idle.
+         */
+        private int burst = 1;
+
+        /**
+         * Precision of the timing wheel of the domains waiting for their crawl delay.
+         */
+        private long wheelTickMs = 100;
+
+        /**
+         * Number of ticks of the timing wheel; delays longer than a revolution cost one more check per revolution.
+         */
+        private int wheelSlots = 1024;
+
+        /**
+         * Interval between two removals of the domains which waited longer than their crawl delay.
+         */
+        private long evictionIntervalMs = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getCrawlDelayMs() {
+            return crawlDelayMs;
+        }
+
+        public void setCrawlDelayMs(long crawlDelayMs) {
+            this.crawlDelayMs = crawlDelayMs;
+        }
+
+        public Map<String, Long> getCrawlDelays() {
+            return crawlDelays;
+        }
+
+        public void setCrawlDelays(Map<String, Long> crawlDelays) {
+            this.crawlDelays = crawlDelays;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        public long getWheelTickMs() {
+            return wheelTickMs;
+        }
+
+        public void setWheelTickMs(long wheelTickMs) {
+            this.wheelTickMs = wheelTickMs;
+        }
+
+        public int getWheelSlots() {
+            return wheelSlots;
+        }
+
+        public void setWheelSlots(int wheelSlots) {
+            this.wheelSlots = wheelSlots;
+        }
+
+        public long getEvictionIntervalMs() {
+            return evictionIntervalMs;
+        }
+
+        public void setEvictionIntervalMs(long evictionIntervalMs) {
+            this.evictionIntervalMs = evictionIntervalMs;
+        }
+    }
+
+    public static class SeenUrls {
+
+        /**
+         * Whether the urls of new DataFeeds are checked against a Bloom filter before being looked up in MongoDB.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Number of urls the filter is first sized for; it grows in stages beyond that.
+         */
+        private long capacity = 10000000;
+
+        /**
+         * False positive rate of the first stage of the filter.
+         */
+        private double falsePositiveRate = 0.01;
+
+        /**
+         * Path of the memory-mapped files of the filter, without the stage number and extension.
+         */
+        private String file = "seen-urls";
+
+        /**
+         * Interval between two writes of the filter to its files.
+         */
+        private long flushIntervalMs = 60000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+    }
+
+    public static class UrlNormalization {
+
+        /**
+         * Whether the urls of DataFeeds are stored in their canonical form.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Query parameters removed from the urls, ignoring case; a name ending with {@code *} removes all the
+         * names starting with it.
+         */
+        private List<String> removedParameters = new ArrayList<>(Arrays.asList(
+            "utm_*", "gclid", "fbclid", "msclkid", "jsessionid", "phpsessid"));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getRemovedParameters() {
+            return removedParameters;
+        }
+
+        public void setRemovedParameters(List<String> removedParameters) {
+            this.removedParameters = removedParameters;
+        }
+    }
+
+    public static class LinkGraph {
+
+        /**
+         * Whether the links of DataFeeds are kept in a link graph.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Path of the files of the graph, without their extension.
+         */
+        private String file = "link-graph";
+
+        /**
+         * Interval between two checks for a compaction of the changed links into the graph file.
+         */
+        private long compactionIntervalMs = 300000;
+
+        /**
+         * Number of pages whose links changed from which the graph file is rewritten.
+         */
+        private int compactionMinChanges = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public long getCompactionIntervalMs() {
+            return compactionIntervalMs;
+        }
+
+        public void setCompactionIntervalMs(long compactionIntervalMs) {
+            this.compactionIntervalMs = compactionIntervalMs;
+        }
+
+        public int getCompactionMinChanges() {
+            return compactionMinChanges;
+        }
+
+        public void setCompactionMinChanges(int compactionMinChanges) {
+            this.compactionMinChanges = compactionMinChanges;
+        }
+    }
+
+    public static class PageRank {
+
+        /**
+         * Whether the PageRank of the pages is computed from the link graph and written to the search index.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Interval between two computations.
+         */
+        private long intervalMs = 3600000;
+
+        /**
+         * Probability to follow a link rather than to jump to a random page.
+         */
+        private double damping = 0.85;
+
+        /**
+         * Sum of the absolute changes of the ranks below which iterations stop.
+         */
+        private double tolerance = 0.000001;
+
+        /**
+         * Maximum number of iterations of a computation.
+         */
+        private int maxIterations = 50;
+
+        /**
+         * Number of threads of a computation, the number of processors when 0.
+         */
+        private int parallelism = 0;
+
+        /**
+         * Relative change of the rank of a page from which it is written again to the search index.
+         */
+        private double minRankChange = 0.01;
+
+        /**
+         * Number of partial updates per bulk request to Elasticsearch.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * Path of the file of the last computed ranks, from which the next computation starts.
+         */
+        private String file = "page-rank.bin";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+
+        public void setIntervalMs(long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+
+        public double getDamping() {
+            return damping;
+        }
+
+        public void setDamping(double damping) {
+            this.damping = damping;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        public void setMaxIterations(int maxIterations) {
+            this.maxIterations = maxIterations;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public double getMinRankChange() {
+            return minRankChange;
+        }
+
+        public void setMinRankChange(double minRankChange) {
+            this.minRankChange = minRankChange;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+    }
+
+    public static class RankedSearch {
+
+        /**
+         * Number of top hits per shard whose text score is blended with their rank and freshness.
+         */
+        private int windowSize = 100;
+
+        /**
+         * Function applied to the rank of a page, one of none, log, log1p, log2p, ln, ln1p, ln2p, square,
+         * sqrt or reciprocal.
+         */
+        private String rankModifier = "log2p";
+
+        /**
+         * Factor applied to the rank of a page before its modifier.
+         */
+        private double rankFactor = 1;
+
+        /**
+         * Age from which the score of a page starts decaying.
+         */
+        private String freshnessOffset = "1d";
+
+        /**
+         * Age past the offset at which the score of a page is multiplied by the decay.
+         */
+        private String freshnessScale = "30d";
+
+        /**
+         * Factor applied to the score of a page at the scale.
+         */
+        private double freshnessDecay = 0.5;
+
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        public void setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public String getRankModifier() {
+            return rankModifier;
+        }
+
+        public void setRankModifier(String rankModifier) {
+            this.rankModifier = rankModifier;
+        }
+
+        public double getRankFactor() {
+            return rankFactor;
+        }
+
+        public void setRankFactor(double rankFactor) {
+            this.rankFactor = rankFactor;
+        }
+
+        public String getFreshnessOffset() {
+            return freshnessOffset;
+        }
+
+        public void setFreshnessOffset(String freshnessOffset) {
+            this.freshnessOffset = freshnessOffset;
+        }
+
+        public String getFreshnessScale() {
+            return freshnessScale;
+        }
+
+        public void setFreshnessScale(String freshnessScale) {
+            this.freshnessScale = freshnessScale;
+        }
+
+        public double getFreshnessDecay() {
+            return freshnessDecay;
+        }
+
+        public void setFreshnessDecay(double freshnessDecay) {
+            this.freshnessDecay = freshnessDecay;
+        }
+    }
+
+    public static class StructuredSearch {
+
+        /**
+         * Maximum number of characters of the text of a structured search.
+         */
+        private int maxTextLength = 1024;
+
+        /**
+         * Maximum number of words of the text and filter values of a structured search, together.
+         */
+        private int maxTerms = 64;
+
+        /**
+         * Minimum number of characters before the {@code *} of a prefix in the text of a structured search.
+         */
+        private int minPrefixLength = 3;
+
+        public int getMaxTextLength() {
+            return maxTextLength;
+        }
+
+        public void setMaxTextLength(int maxTextLength) {
+            this.maxTextLength = maxTextLength;
+        }
+
+        public int getMaxTerms() {
+            return maxTerms;
+        }
+
+        public void setMaxTerms(int maxTerms) {
+            this.maxTerms = maxTerms;
+        }
+
+        public int getMinPrefixLength() {
+            return minPrefixLength;
+        }
+
+        public void setMinPrefixLength(int minPrefixLength) {
+            this.minPrefixLength = minPrefixLength;
+        }
+    }
+
+    public static class SearchIndex {
+
+        /**
+         * Number of primary shards of the DataFeed index, only used when an index is created.
+         */
+        private int shards = 5;
+
+        /**
+         * Number of replicas of each shard.
+         */
+        private int replicas = 1;
+
+        /**
+         * Interval between two refreshes, which make the changes searchable; longer intervals index faster.
+         */
+        private String refreshInterval = "1s";
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+
+        public void setReplicas(int replicas) {
+            this.replicas = replicas;
+        }
+
+        public String getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public void setRefreshInterval(String refreshInterval) {
+            this.refreshInterval = refreshInterval;
+        }
+    }
+
+    public static class BulkTasks {
+
+        /**
+         * Documents per second Elasticsearch updates by query in a bulk task, -1 for no throttling.
+         */
+        private float requestsPerSecond = 1000;
+
+        /**
+         * Interval between two polls of the Elasticsearch task of a bulk task.
+         */
+        private long pollIntervalMs = 1000;
+
+        /**
+         * Number of dataFeeds deleted from MongoDB by a single deleteMany of a bulk delete.
+         */
+        private int deleteChunkSize = 1000;
+
+        /**
+         * Pause between two chunks of a bulk delete, leaving room for the other MongoDB and Elasticsearch
+         * operations.
+         */
+        private long deletePauseMs = 100;
+
+        /**
+         * Number of finished bulk tasks whose outcome is kept.
+         */
+        private int retainedTasks = 100;
+
+        public float getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public void setRequestsPerSecond(float requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        public long getPollIntervalMs() {
+            return pollIntervalMs;
+        }
+
+        public void setPollIntervalMs(long pollIntervalMs) {
+            this.pollIntervalMs = pollIntervalMs;
+        }
+
+        public int getDeleteChunkSize() {
+            return deleteChunkSize;
+        }
+
+        public void setDeleteChunkSize(int deleteChunkSize) {
+            this.deleteChunkSize = deleteChunkSize;
+        }
+
+        public long getDeletePauseMs() {
+            return deletePauseMs;
+        }
+
+        public void setDeletePauseMs(long deletePauseMs) {
+            this.deletePauseMs = deletePauseMs;
+        }
+
+        public int getRetainedTasks() {
+            return retainedTasks;
+        }
+
+        public void setRetainedTasks(int retainedTasks) {
+            this.retainedTasks = retainedTasks;
+        }
+    }
+
+    public static class Export {
+
+        /**
+         * How long a streamed export may last; the other asynchronous requests keep the default timeout.
+         */
+        private long timeoutMs = 3600000;
+
+        public long getTimeoutMs() {
+            return timeoutMs;
+        }
+
+        public void setTimeoutMs(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package io.cooly.crawler.config.dbmigrations;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.service.util.UrlNormalizer;
+
+import com.github.mongobee.changeset.ChangeLog;
+import com.github.mongobee.changeset.ChangeSet;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Creates the indexes of the data_feed collection, and migrates its documents to the constraints they enforce.
+ */
+@ChangeLog(order = "001")
+public class DataFeedMigration {
+
+    @ChangeSet(order = "01", author = "initiator", id = "01-addUrlContentHashIndex")
+    public void addUrlContentHashIndex(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("url", Sort.Direction.ASC)
+            .on("content_hash", Sort.Direction.ASC)
+            .named("url_content_hash"));
+    }
+
+    @ChangeSet(order = "02", author = "initiator", id = "02-addFetchedLevelIndex")
+    public void addFetchedLevelIndex(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("fetched", Sort.Direction.ASC)
+            .on("level", Sort.Direction.ASC)
+            .named("fetched_level"));
+    }
+
+    /**
+     * Keeps the latest dataFeed of each url, then makes the urls unique. The other dataFeeds are moved to the
+     * data_feed_duplicates collection, along with the id of the one kept; they are deleted from the search
+     * index at the next startup.
+     */
+    @ChangeSet(order = "03", author = "initiator", id = "03-addUniqueUrlIndex")
+    public void addUniqueUrlIndex(MongoTemplate mongoTemplate) {
+        MongoCollection<Document> collection = mongoTemplate.getCollection("data_feed");
+        MongoCollection<Document> backup = mongoTemplate.getCollection("data_feed_duplicates");
+        Iterable<Document> duplicates = collection.aggregate(Arrays.asList(
+            Aggregates.match(Filters.type("url", BsonType.STRING)),
+            Aggregates.sort(Sorts.descending("created", "_id")),
+            Aggregates.group("$url", Accumulators.push("ids", "$_id"), Accumulators.sum("count", 1)),
+            Aggregates.match(Filters.gt("count", 1))))
+            .allowDiskUse(true);
+        for (Document duplicate : duplicates) {
+            List<Object> ids = new ArrayList<>(duplicate.get("ids", List.class));
+            List<Object> removed = ids.subList(1, ids.size());
+            for (Document dataFeed : collection.find(Filters.in("_id", removed))) {
+                backUpDuplicate(backup, dataFeed, ids.get(0));
+            }
+            collection.deleteMany(Filters.in("_id", removed));
+        }
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("url", Sort.Direction.ASC)
+            .unique()
+            .partial(PartialIndexFilter.of(Criteria.where("url").type(BsonType.STRING.getValue())))
+            .named("url_unique"));
+    }
+
+    /**
+     * Serves the lookups of the urls of a domain; ending with the url, it covers those only reading the
+     * url and level.
+     */
+    @ChangeSet(order = "04", author = "initiator", id = "04-addDomainFetchedLevelIndex")
+    public void addDomainFetchedLevelIndex(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("domain", Sort.Direction.ASC)
+            .on("fetched", Sort.Direction.ASC)
+            .on("level", Sort.Direction.ASC)
+            .on("url", Sort.Direction.ASC)
+            .named("domain_fetched_level_url"));
+    }
+
+    @ChangeSet(order = "05", author = "initiator", id = "05-addCreatedIndex")
+    public void addCreatedIndex(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("created", Sort.Direction.DESC)
+            .named("created_desc"));
+    }
+
+    /**
+     * Stores the urls saved before they were normalized in their canonical form. When the canonical form of
+     * a url is already stored, the latest dataFeed is kept and the other is moved to the data_feed_duplicates
+     * collection, as when the urls were made unique. The renamed dataFeeds are recorded in the data_feed_renamed
+     * collection, so that their url is also updated in the search index at the next startup.
+     */
+    @ChangeSet(order = "06", author = "initiator", id = "06-normalizeUrls")
+    public void normalizeUrls(MongoTemplate mongoTemplate, Environment environment) {
+        Binder binder = Binder.get(environment);
+        if (!binder.bind("application.url-normalization.enabled", Boolean.class).orElse(true)) {
+            return;
+        }
+        UrlNormalizer urlNormalizer = new UrlNormalizer(binder
+            .bind("application.url-normalization.removed-parameters", Bindable.listOf(String.class))
+            .orElseGet(() -> new ApplicationProperties().getUrlNormalization().getRemovedParameters()));
+        MongoCollection<Document> collection = mongoTemplate.getCollection("data_feed");
+        MongoCollection<Document> backup = mongoTemplate.getCollection("data_feed_duplicates");
+        MongoCollection<Document> renamed = mongoTemplate.getCollection("data_feed_renamed");
+        try (MongoCursor<Document> dataFeeds = collection.find(Filters.type("url", BsonType.STRING))
+            .projection(Projections.include("url", "created"))
+            .sort(Sorts.ascending("_id"))
+            .noCursorTimeout(true)
+            .iterator()) {
+            while (dataFeeds.hasNext()) {
+                Document dataFeed = dataFeeds.next();
+                String url = dataFeed.getString("url");
+                String canonicalUrl = urlNormalizer.normalize(url);
+                if (canonicalUrl.equals(url)) {
+                    continue;
+                }
+                Document stored = collection.find(Filters.eq("url", canonicalUrl))
+                    .projection(Projections.include("created")).first();
+                if (stored != null) {
+                    boolean keepStored = compareCreated(stored, dataFeed) >= 0;
+                    Document removed = keepStored ? dataFeed : stored;
+                    Object keptId = keepStored ? stored.get("_id") : dataFeed.get("_id");
+                    backUpDuplicate(backup, collection.find(Filters.eq("_id", removed.get("_id"))).first(), keptId);
+                    collection.deleteOne(Filters.eq("_id", removed.get("_id")));
+                    if (keepStored) {
+                        continue;
+                    }
+                }
+                collection.updateOne(Filters.eq("_id", dataFeed.get("_id")), Updates.set("url", canonicalUrl));
+                Document rename = new Document("_id", dataFeed.get("_id"))
+                    .append("data_feed_id", dataFeed.get("_id").toString())
+                    .append("url", canonicalUrl)
+                    .append("reindexed", false);
+                renamed.replaceOne(Filters.eq("_id", rename.get("_id")), rename, new UpdateOptions().upsert(true));
+            }
+        }
+    }
+
+    /**
+     * Serves the checks for references of the content store sweeps, on the dataFeeds and their backed up
+     * duplicates.
+     */
+    @ChangeSet(order = "07", author = "initiator", id = "07-addHtmlRefIndexes")
+    public void addHtmlRefIndexes(MongoTemplate mongoTemplate) {
+        mongoTemplate.indexOps("data_feed").ensureIndex(new Index()
+            .on("html_ref", Sort.Direction.ASC)
+            .sparse()
+            .named("html_ref"));
+        mongoTemplate.indexOps("data_feed_duplicates").ensureIndex(new Index()
+            .on("data_feed.html_ref", Sort.Direction.ASC)
+            .sparse()
+            .named("data_feed_html_ref"));
+    }
+
+    /**
+     * Copy a duplicate dataFeed to the data_feed_duplicates collection before it is deleted, with the id of the
+     * dataFeed kept for its url; upserted, should the changeset run again after a failure.
+     */
+    private static void backUpDuplicate(MongoCollection<Document> backup, Document dataFeed, Object keptId) {
+        Document copy = new Document("_id", dataFeed.get("_id"))
+            .append("data_feed_id", dataFeed.get("_id").toString())
+            .append("kept_id", keptId.toString())
+            .append("data_feed", dataFeed)
+            .append("unindexed", false);
+        backup.replaceOne(Filters.eq("_id", copy.get("_id")), copy, new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Orders dataFeeds by created date then id, like the unique url migration.
+     */
+    private static int compareCreated(Document a, Document b) {
+        Date createdA = a.get("created") instanceof Date ? a.getDate("created") : null;
+        Date createdB = b.get("created") instanceof Date ? b.getDate("created") : null;
+        int byCreated = Comparator.nullsFirst(Comparator.<Date>naturalOrder()).compare(createdA, createdB);
+        if (byCreated != 0) {
+            return byCreated;
+        }
+        return a.get("_id").toString().compareTo(b.get("_id").toString());
+    }
+}
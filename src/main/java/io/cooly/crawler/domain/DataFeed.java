@@ -2,6 +2,7 @@ package io.cooly.crawler.domain;
 
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -13,7 +14,7 @@ import java.util.Objects;
  * A DataFeed.
  */
 @Document(collection = "data_feed")
-@org.springframework.data.elasticsearch.annotations.Document(indexName = "datafeed")
+@org.springframework.data.elasticsearch.annotations.Document(indexName = "datafeed", createIndex = false)
 public class DataFeed implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -51,6 +52,30 @@ public class DataFeed implements Serializable {
     @Field("file_name")
     private String fileName;
 
+    /**
+     * Address of the html in the content store, in which case the html is not stored in this document.
+     */
+    @Field("html_ref")
+    private String htmlRef;
+
+    /**
+     * Fingerprint of the html, to recognize pages fetched again unchanged.
+     */
+    @Field("content_hash")
+    private Long contentHash;
+
+    /**
+     * SimHash of the text of the html, to find near-duplicate pages.
+     */
+    @Field("simhash")
+    private Long simhash;
+
+    /**
+     * PageRank of the page, 1 for an average page; only kept in the search index.
+     */
+    @Transient
+    private Double rank;
+
     // coolybot-needle-entity-add-field - Coolybot will add fields here, do not remove
     public String getId() {
         return id;
@@ -189,6 +214,58 @@ public class DataFeed implements Serializable {
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
+
+    public String getHtmlRef() {
+        return htmlRef;
+    }
+
+    public DataFeed htmlRef(String htmlRef) {
+        this.htmlRef = htmlRef;
+        return this;
+    }
+
+    public void setHtmlRef(String htmlRef) {
+        this.htmlRef = htmlRef;
+    }
+
+    public Long getContentHash() {
+        return contentHash;
+    }
+
+    public DataFeed contentHash(Long contentHash) {
+        this.contentHash = contentHash;
+        return this;
+    }
+
+    public void setContentHash(Long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Long getSimhash() {
+        return simhash;
+    }
+
+    public DataFeed simhash(Long simhash) {
+        this.simhash = simhash;
+        return this;
+    }
+
+    public void setSimhash(Long simhash) {
+        this.simhash = simhash;
+    }
+
+    public Double getRank() {
+        return rank;
+    }
+
+    public DataFeed rank(Double rank) {
+        this.rank = rank;
+        return this;
+    }
+
+    public void setRank(Double rank) {
+        this.rank = rank;
+    }
     // coolybot-needle-entity-add-getters-setters - Coolybot will add getters and setters here, do not remove
 
     @Override
@@ -225,6 +302,10 @@ public class DataFeed implements Serializable {
             ", links='" + getLinks() + "'" +
             ", level=" + getLevel() +
             ", fileName='" + getFileName() + "'" +
+            ", htmlRef='" + getHtmlRef() + "'" +
+            ", contentHash=" + getContentHash() +
+            ", simhash=" + getSimhash() +
+            ", rank=" + getRank() +
             "}";
     }
 }
@@ -0,0 +1,212 @@
+package io.cooly.crawler.repository;
+
+import io.cooly.crawler.config.ApplicationProperties;
+
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores large text contents out of the documents referencing them, deflate-compressed in a GridFS bucket.
+ * <p>
+ * Contents are addressed by the SHA-256 of their text, so that identical contents are stored once and a
+ * reference never changes meaning. Contents are shared and therefore never deleted with a document: the
+ * contents no longer referenced are swept instead, and only when they were last saved before a grace period,
+ * since a content is saved before the document referencing it is written.
+ */
+@Repository
+public class ContentStore {
+
+    private final Logger log = LoggerFactory.getLogger(ContentStore.class);
+
+    private final GridFSBucket bucket;
+
+    private final MongoCollection<Document> files;
+
+    private final MongoCollection<Document> chunks;
+
+    public ContentStore(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        String bucketName = applicationProperties.getContentStore().getBucket();
+        this.bucket = GridFSBuckets.create(mongoTemplate.getDb(), bucketName);
+        this.files = mongoTemplate.getDb().getCollection(bucketName + ".files");
+        this.chunks = mongoTemplate.getDb().getCollection(bucketName + ".chunks");
+    }
+
+    /**
+     * Store a content, unless the same content is already stored, in which case it is marked as saved now.
+     *
+     * @param content the content to store
+     * @return the reference of the content
+     */
+    public String save(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String ref = hash(bytes);
+        // Saved again, so that a sweep which found it unreferenced does not delete it
+        if (files.updateMany(Filters.eq("filename", ref), Updates.set("uploadDate", new Date()))
+            .getMatchedCount() > 0) {
+            return ref;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Concurrent saves of a new content may both upload it, reads then pick either copy
+        bucket.uploadFromStream(ref, new ByteArrayInputStream(compressed.toByteArray()), new GridFSUploadOptions()
+            .metadata(new Document("encoding", "deflate").append("length", bytes.length)));
+        return ref;
+    }
+
+    /**
+     * @param ref the reference returned when the content was saved
+     * @return the content, empty if it is not stored
+     */
+    public Optional<String> findByRef(String ref) {
+        try (GridFSDownloadStream download = bucket.openDownloadStream(ref);
+             InputStream in = new InflaterInputStream(download)) {
+            return Optional.of(new String(StreamUtils.copyToByteArray(in), StandardCharsets.UTF_8));
+        } catch (MongoGridFSException e) {
+            log.warn("Content {} not found: {}", ref, e.getMessage());
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read several contents with two queries, one on the files and one on their chunks, instead of two
+     * per content.
+     *
+     * @param refs the references returned when the contents were saved
+     * @return the contents by reference, without those which are not stored
+     */
+    public Map<String, String> findByRefs(Collection<String> refs) {
+        Map<String, String> contents = new HashMap<>();
+        if (refs.isEmpty()) {
+            return contents;
+        }
+        Map<ObjectId, String> refsById = new HashMap<>();
+        for (GridFSFile file : bucket.find(Filters.in("filename", refs))) {
+            // Concurrent saves may have stored a content twice, either copy will do
+            if (!refsById.containsValue(file.getFilename())) {
+                refsById.put(file.getObjectId(), file.getFilename());
+            }
+        }
+        if (refsById.isEmpty()) {
+            return contents;
+        }
+        Map<ObjectId, ByteArrayOutputStream> compressed = new HashMap<>();
+        for (Document chunk : chunks.find(Filters.in("files_id", refsById.keySet()))
+            .sort(Sorts.ascending("files_id", "n"))) {
+            Binary data = chunk.get("data", Binary.class);
+            compressed.computeIfAbsent(chunk.getObjectId("files_id"), id -> new ByteArrayOutputStream())
+                .write(data.getData(), 0, data.length());
+        }
+        compressed.forEach((id, bytes) -> contents.put(refsById.get(id), inflate(bytes.toByteArray())));
+        return contents;
+    }
+
+    /**
+     * List the references of the contents last saved before the given time, in ascending order, a page at a time.
+     *
+     * @param savedBefore the time the contents were last saved before
+     * @param after the last reference of the previous page, empty for the first page
+     * @param limit the maximum number of references
+     * @return the references, empty after the last page
+     */
+    public List<String> findRefsSavedBefore(Instant savedBefore, String after, int limit) {
+        Set<String> refs = new LinkedHashSet<>();
+        for (Document file : files.find(Filters.and(Filters.gt("filename", after),
+            Filters.lt("uploadDate", Date.from(savedBefore))))
+            .projection(Projections.include("filename"))
+            .sort(Sorts.ascending("filename"))
+            .limit(limit)) {
+            refs.add(file.getString("filename"));
+        }
+        return new ArrayList<>(refs);
+    }
+
+    /**
+     * Delete contents, unless they were saved again since the given time.
+     *
+     * @param refs the references of the contents
+     * @param savedBefore the time the contents were last saved before
+     * @return the number of stored copies deleted
+     */
+    public long deleteSavedBefore(Collection<String> refs, Instant savedBefore) {
+        if (refs.isEmpty()) {
+            return 0;
+        }
+        Date before = Date.from(savedBefore);
+        List<ObjectId> ids = new ArrayList<>();
+        for (Document file : files.find(Filters.and(Filters.in("filename", refs), Filters.lt("uploadDate", before)))
+            .projection(Projections.include("_id"))) {
+            ids.add(file.getObjectId("_id"));
+        }
+        long deleted = 0;
+        for (ObjectId id : ids) {
+            // The file goes first and only if it was not saved again meanwhile, reads never see partial chunks
+            if (files.deleteOne(Filters.and(Filters.eq("_id", id), Filters.lt("uploadDate", before)))
+                .getDeletedCount() > 0) {
+                chunks.deleteMany(Filters.eq("files_id", id));
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static String inflate(byte[] compressed) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(StreamUtils.copyToByteArray(in), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return String.format("%064x", new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(bytes)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.cooly.crawler.repository;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Moves the html of DataFeeds to the {@link ContentStore} when they are saved.
+ * <p>
+ * Loaded DataFeeds only have the reference: the html is read back by
+ * {@link DataFeedRepositoryCustom#loadHtml(Collection)}, for the callers which need it and a whole batch at
+ * a time. DataFeeds saved before the content store was enabled keep their inline html.
+ */
+@Component
+public class DataFeedContentListener extends AbstractMongoEventListener<DataFeed> {
+
+    private final ContentStore contentStore;
+
+    private final ApplicationProperties applicationProperties;
+
+    public DataFeedContentListener(ContentStore contentStore, ApplicationProperties applicationProperties) {
+        this.contentStore = contentStore;
+        this.applicationProperties = applicationProperties;
+    }
+
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<DataFeed> event) {
+        DataFeed dataFeed = event.getSource();
+        Document document = event.getDocument();
+        if (!applicationProperties.getContentStore().isEnabled() || dataFeed.getHtml() == null || document == null) {
+            return;
+        }
+        dataFeed.setHtmlRef(contentStore.save(dataFeed.getHtml()));
+        document.remove("html");
+        document.put("html_ref", dataFeed.getHtmlRef());
+    }
+}
@@ -1,16 +1,49 @@
 package io.cooly.crawler.repository;
 
 import io.cooly.crawler.domain.DataFeed;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+
 
 /**
  * Spring Data MongoDB repository for the DataFeed entity.
  */
 @SuppressWarnings("unused")
 @Repository
-public interface DataFeedRepository extends MongoRepository<DataFeed, String> {
+public interface DataFeedRepository extends MongoRepository<DataFeed, String>, DataFeedRepositoryCustom {
+
+    /**
+     * Find the urls of a domain, only loading their url and level so that the domain_fetched_level_url
+     * index covers the query; sorted by level then url, the index also provides the order.
+     *
+     * @param domain the domain
+     * @param fetched whether the urls were fetched
+     * @param maxLevel the maximum level of the urls
+     * @param pageable the pagination information, sorted by level then url
+     * @return the slice of dataFeeds, with only their url and level
+     */
+    @Query(value = "{ 'domain': ?0, 'fetched': ?1, 'level': { '$lte': ?2 } }", fields = "{ '_id': 0, 'url': 1, 'level': 1 }")
+    Slice<DataFeed> findUrlsByDomain(String domain, Boolean fetched, Integer maxLevel, Pageable pageable);
+
+    /**
+     * Count the dataFeeds of a domain from the domain_fetched_level_url index, without reading them.
+     *
+     * @param domain the domain
+     * @param fetched whether the dataFeeds were fetched
+     * @return the number of dataFeeds
+     */
+    long countByDomainAndFetched(String domain, Boolean fetched);
 
+    /**
+     * Count the dataFeeds created since a date from the created_desc index, without reading them.
+     *
+     * @param since the earliest creation date, inclusive
+     * @return the number of dataFeeds
+     */
+    long countByCreatedGreaterThanEqual(Instant since);
 }
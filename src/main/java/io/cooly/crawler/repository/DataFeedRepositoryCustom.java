@@ -0,0 +1,254 @@
+package io.cooly.crawler.repository;
+
+import io.cooly.crawler.domain.DataFeed;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Custom MongoDB operations for the DataFeed entity that cannot be expressed
+ * as derived queries.
+ */
+public interface DataFeedRepositoryCustom {
+
+    /**
+     * Insert or replace the given dataFeeds with a single unordered bulk write.
+     * <p>
+     * DataFeeds without an id are inserted and get a generated id, the others replace
+     * (or upsert) the stored document with the same id.
+     *
+     * @param dataFeeds the entities to write
+     * @return the error message of every failed write, keyed by its position in {@code dataFeeds}
+     */
+    Map<Integer, String> bulkSave(List<DataFeed> dataFeeds);
+
+    /**
+     * @return the smallest ObjectId used as a dataFeed id, if any
+     */
+    Optional<ObjectId> findMinObjectId();
+
+    /**
+     * @return the largest ObjectId used as a dataFeed id, if any
+     */
+    Optional<ObjectId> findMaxObjectId();
+
+    /**
+     * Stream the dataFeeds whose ObjectId falls in the given range, in no particular order, as they
+     * are indexed: without the html kept in the content store. The cursor does not time out, it must
+     * be closed by the caller.
+     *
+     * @param from the lower bound, inclusive
+     * @param to the upper bound, exclusive
+     * @return the matching entities
+     */
+    CloseableIterator<DataFeed> streamByObjectIdRange(ObjectId from, ObjectId to);
+
+    /**
+     * Stream the dataFeeds whose id is not an ObjectId, which range scans cannot reach, as they
+     * are indexed: without the html kept in the content store. The cursor does not time out, it must
+     * be closed by the caller.
+     *
+     * @return the matching entities
+     */
+    CloseableIterator<DataFeed> streamWithoutObjectId();
+
+    /**
+     * Stream the dataFeeds matching the given query through a cursor, without loading them all in memory.
+     * The cursor does not time out, it must be closed by the caller.
+     *
+     * @param query the filters and projection
+     * @return the matching entities
+     */
+    CloseableIterator<DataFeed> stream(Query query);
+
+    /**
+     * @param query the filters, sort, limit and projection
+     * @return the dataFeeds matching the query
+     */
+    List<DataFeed> findByQuery(Query query);
+
+    /**
+     * Read the html kept in the content store of loaded dataFeeds, with one batch read for all of them.
+     *
+     * @param dataFeeds the dataFeeds, those with a reference and no html get the html
+     */
+    void loadHtml(Collection<DataFeed> dataFeeds);
+
+    /**
+     * @param query the filters and projection
+     * @param pageable the pagination information
+     * @return the page of dataFeeds matching the query, and their total count
+     */
+    Page<DataFeed> findPage(Query query, Pageable pageable);
+
+    /**
+     * Get a page of dataFeeds without counting them: one more dataFeed is read to know whether there is a next page.
+     *
+     * @param query the filters and projection
+     * @param pageable the pagination information
+     * @return the slice of entities
+     */
+    Slice<DataFeed> findSlice(Query query, Pageable pageable);
+
+    /**
+     * @return the number of dataFeeds according to the collection statistics, which may be slightly off
+     */
+    long estimateCount();
+
+    /**
+     * Record a new fetch of an unchanged page: the dataFeed with the same url and content hash, if any,
+     * only gets the new created and fetched values.
+     *
+     * @param url the url of the page
+     * @param contentHash the hash of its content
+     * @param created the time of the fetch
+     * @param fetched the fetched flag, left unchanged when null
+     * @return the updated dataFeed without its html, empty if no dataFeed matches
+     */
+    Optional<DataFeed> touchDuplicate(String url, long contentHash, Instant created, Boolean fetched);
+
+    /**
+     * Stream the dataFeeds to crawl: not fetched yet nor leased, lowest level first. Only the url, domain
+     * and level are loaded. The cursor does not time out, it must be closed by the caller.
+     *
+     * @param now the current time, leases ending before it are over
+     * @return the dataFeeds to crawl
+     */
+    CloseableIterator<DataFeed> streamFrontier(Instant now);
+
+    /**
+     * Record the lease of dataFeeds to a crawler worker, so that they are not handed out again until it expires.
+     * Only the dataFeeds not fetched yet nor leased, or whose lease is over, are leased: another instance may
+     * have handed out some of them since they were read.
+     *
+     * @param ids the ids of the dataFeeds
+     * @param now the current time, leases ending before it are over
+     * @param until the end of the lease
+     * @return the ids of the leased dataFeeds
+     */
+    Set<String> acquireLease(Collection<String> ids, Instant now, Instant until);
+
+    /**
+     * End the lease of dataFeeds, so that they are handed out again.
+     *
+     * @param ids the ids of the dataFeeds
+     * @return the number of dataFeeds updated
+     */
+    long releaseLease(Collection<String> ids);
+
+    /**
+     * Mark dataFeeds as fetched, ending their lease.
+     *
+     * @param ids the ids of the dataFeeds
+     * @return the number of dataFeeds updated
+     */
+    long markFetched(Collection<String> ids);
+
+    /**
+     * @param limit the maximum number of ids
+     * @return the ids of the duplicate dataFeeds moved out of the collection when the urls were made unique,
+     * which are still to be deleted from the search index
+     */
+    List<String> findDuplicateIdsToUnindex(int limit);
+
+    /**
+     * Record that duplicate dataFeeds moved out of the collection were deleted from the search index.
+     *
+     * @param ids the ids of the dataFeeds
+     */
+    void markDuplicatesUnindexed(Collection<String> ids);
+
+    /**
+     * @param limit the maximum number of dataFeeds
+     * @return the canonical urls of the dataFeeds renamed when the stored urls were normalized, by id, which are
+     * still to be updated in the search index
+     */
+    Map<String, String> findRenamedUrlsToReindex(int limit);
+
+    /**
+     * Record that the urls of dataFeeds renamed when the stored urls were normalized were updated in the search
+     * index.
+     *
+     * @param ids the ids of the dataFeeds
+     */
+    void markRenamedReindexed(Collection<String> ids);
+
+    /**
+     * @param htmlRefs references of contents of the {@link ContentStore}
+     * @return those still referenced, by a dataFeed or by a duplicate dataFeed moved out of the collection
+     */
+    Set<String> findReferencedHtmlRefs(Collection<String> htmlRefs);
+
+    /**
+     * Mark the dataFeeds matching a query as fetched or not with one updateMany, ending their lease.
+     *
+     * @param query the dataFeeds to update
+     * @param fetched whether they are fetched
+     * @return the number of dataFeeds updated, those already in that state are left as is
+     */
+    long setFetched(Query query, boolean fetched);
+
+    /**
+     * Delete dataFeeds with one deleteMany.
+     *
+     * @param ids the ids of the dataFeeds
+     * @return the number of dataFeeds deleted
+     */
+    long deleteByIds(Collection<String> ids);
+
+    /**
+     * Update some properties of a dataFeed with one findAndModify, leaving the rest of the document as is.
+     *
+     * @param query the dataFeed to update, and the fields to return
+     * @param update the changes, on property names
+     * @return the updated dataFeed, or empty if no dataFeed matches
+     */
+    Optional<DataFeed> findAndUpdate(Query query, Update update);
+
+    /**
+     * Update some properties of the dataFeeds matching a query with one updateMany, leaving the rest of the
+     * documents as is.
+     *
+     * @param query the dataFeeds to update
+     * @param update the changes, on property names
+     * @return the number of dataFeeds matched
+     */
+    long updateAll(Query query, Update update);
+
+    /**
+     * Find the ids of the dataFeeds with some urls, using the unique index of the urls.
+     *
+     * @param urls the urls
+     * @return the ids of the dataFeeds by url, without the urls of no dataFeed
+     */
+    Map<String, String> findIdsByUrl(Collection<String> urls);
+
+    /**
+     * Insert a dataFeed, or replace the stored dataFeed with the same url, in a single atomic findAndModify
+     * on the unique url index; the id of the stored dataFeed is kept, and set on {@code dataFeed}.
+     *
+     * @param dataFeed the dataFeed to save, with a url; its id is ignored
+     * @return the replaced dataFeed without its html, empty if {@code dataFeed} was inserted
+     */
+    Optional<DataFeed> upsertByUrl(DataFeed dataFeed);
+
+    /**
+     * Explain the queries this repository runs on indexed properties, to find those which the query planner
+     * answers with a collection scan because an index is missing.
+     *
+     * @return the descriptions of the queries planned as collection scans
+     */
+    List<String> findCollectionScans();
+}
@@ -0,0 +1,468 @@
+package io.cooly.crawler.repository;
+
+import io.cooly.crawler.domain.DataFeed;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Implementation of {@link DataFeedRepositoryCustom}, picked up by Spring Data
+ * and merged into {@link DataFeedRepository}.
+ */
+public class DataFeedRepositoryImpl implements DataFeedRepositoryCustom {
+
+    /**
+     * Frontier state, kept out of the entity: saving a DataFeed through the entity drops its lease.
+     */
+    private static final String LEASE_UNTIL = "lease_until";
+
+    /**
+     * Random value set with each lease, to read back which dataFeeds were leased by one call.
+     */
+    private static final String LEASE_TOKEN = "lease_token";
+
+    /**
+     * Duplicate dataFeeds moved out of the collection by the migration making the urls unique.
+     */
+    private static final String DUPLICATES_COLLECTION = "data_feed_duplicates";
+
+    /**
+     * DataFeeds whose url was rewritten by the migration normalizing the stored urls.
+     */
+    private static final String RENAMED_COLLECTION = "data_feed_renamed";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ContentStore contentStore;
+
+    public DataFeedRepositoryImpl(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher,
+                                  ContentStore contentStore) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+        this.contentStore = contentStore;
+    }
+
+    @Override
+    public Map<Integer, String> bulkSave(List<DataFeed> dataFeeds) {
+        Map<Integer, String> failures = new HashMap<>();
+        if (dataFeeds.isEmpty()) {
+            return failures;
+        }
+        String collectionName = mongoTemplate.getCollectionName(DataFeed.class);
+        List<WriteModel<Document>> writes = new ArrayList<>(dataFeeds.size());
+        for (DataFeed dataFeed : dataFeeds) {
+            boolean isNew = dataFeed.getId() == null;
+            if (isNew) {
+                // Assign the id up front so that callers get it back without reading the document again
+                dataFeed.setId(new ObjectId().toHexString());
+            }
+            Document document = new Document();
+            mongoTemplate.getConverter().write(dataFeed, document);
+            // Let the listeners adjust the document, as they do for saves through the template
+            eventPublisher.publishEvent(new BeforeSaveEvent<>(dataFeed, document, collectionName));
+            if (isNew) {
+                writes.add(new InsertOneModel<>(document));
+            } else {
+                writes.add(new ReplaceOneModel<>(Filters.eq("_id", document.get("_id")), document,
+                    new UpdateOptions().upsert(true)));
+            }
+        }
+        try {
+            mongoTemplate.getCollection(collectionName)
+                .bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failures.put(error.getIndex(), error.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public Optional<DataFeed> upsertByUrl(DataFeed dataFeed) {
+        String collectionName = mongoTemplate.getCollectionName(DataFeed.class);
+        ObjectId newId = new ObjectId();
+        dataFeed.setId(newId.toHexString());
+        Document document = new Document();
+        mongoTemplate.getConverter().write(dataFeed, document);
+        eventPublisher.publishEvent(new BeforeSaveEvent<>(dataFeed, document, collectionName));
+        document.remove("_id");
+        // Like a replacement, the properties the dataFeed does not have are removed, and so is its lease
+        Document unset = new Document(LEASE_UNTIL, "").append(LEASE_TOKEN, "");
+        mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(DataFeed.class)
+            .doWithProperties((PropertyHandler<MongoPersistentProperty>) property -> {
+                if (!property.isIdProperty() && !document.containsKey(property.getFieldName())) {
+                    unset.put(property.getFieldName(), "");
+                }
+            });
+        Document update = new Document("$set", document)
+            .append("$unset", unset)
+            .append("$setOnInsert", new Document("_id", newId));
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+            .upsert(true)
+            .returnDocument(ReturnDocument.BEFORE)
+            .projection(Projections.exclude("html"));
+        MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+        Document previous;
+        try {
+            previous = collection.findOneAndUpdate(Filters.eq("url", dataFeed.getUrl()), update, options);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != DUPLICATE_KEY) {
+                throw e;
+            }
+            // Inserted since by a concurrent upsert, which this one now replaces
+            previous = collection.findOneAndUpdate(Filters.eq("url", dataFeed.getUrl()), update, options);
+        }
+        if (previous == null) {
+            return Optional.empty();
+        }
+        dataFeed.setId(previous.get("_id").toString());
+        return Optional.of(mongoTemplate.getConverter().read(DataFeed.class, previous));
+    }
+
+    @Override
+    public Optional<ObjectId> findMinObjectId() {
+        return findObjectIdBoundary(Sorts.ascending("_id"));
+    }
+
+    @Override
+    public Optional<ObjectId> findMaxObjectId() {
+        return findObjectIdBoundary(Sorts.descending("_id"));
+    }
+
+    private Optional<ObjectId> findObjectIdBoundary(Bson sort) {
+        Document first = mongoTemplate.getCollection(mongoTemplate.getCollectionName(DataFeed.class))
+            .find(Filters.type("_id", BsonType.OBJECT_ID))
+            .projection(Projections.include("_id"))
+            .sort(sort)
+            .first();
+        return Optional.ofNullable(first).map(document -> document.getObjectId("_id"));
+    }
+
+    @Override
+    public CloseableIterator<DataFeed> streamByObjectIdRange(ObjectId from, ObjectId to) {
+        Query query = new Query(Criteria.where("_id").gte(from).lt(to)).noCursorTimeout();
+        query.fields().exclude("htmlRef");
+        return mongoTemplate.stream(query, DataFeed.class);
+    }
+
+    @Override
+    public CloseableIterator<DataFeed> streamWithoutObjectId() {
+        Query query = new Query(Criteria.where("_id").not().type(BsonType.OBJECT_ID.getValue())).noCursorTimeout();
+        query.fields().exclude("htmlRef");
+        return mongoTemplate.stream(query, DataFeed.class);
+    }
+
+    @Override
+    public void loadHtml(Collection<DataFeed> dataFeeds) {
+        Set<String> refs = new HashSet<>();
+        for (DataFeed dataFeed : dataFeeds) {
+            if (dataFeed.getHtml() == null && dataFeed.getHtmlRef() != null) {
+                refs.add(dataFeed.getHtmlRef());
+            }
+        }
+        if (refs.isEmpty()) {
+            return;
+        }
+        Map<String, String> contents = contentStore.findByRefs(refs);
+        for (DataFeed dataFeed : dataFeeds) {
+            if (dataFeed.getHtml() == null && dataFeed.getHtmlRef() != null) {
+                dataFeed.setHtml(contents.get(dataFeed.getHtmlRef()));
+            }
+        }
+    }
+
+    @Override
+    public CloseableIterator<DataFeed> stream(Query query) {
+        return mongoTemplate.stream(query.noCursorTimeout(), DataFeed.class);
+    }
+
+    @Override
+    public List<DataFeed> findByQuery(Query query) {
+        return mongoTemplate.find(query, DataFeed.class);
+    }
+
+    @Override
+    public Page<DataFeed> findPage(Query query, Pageable pageable) {
+        long total = mongoTemplate.count(query, DataFeed.class);
+        List<DataFeed> content = mongoTemplate.find(query.with(pageable), DataFeed.class);
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    @Override
+    public Slice<DataFeed> findSlice(Query query, Pageable pageable) {
+        query.with(pageable).limit(pageable.getPageSize() + 1);
+        List<DataFeed> content = mongoTemplate.find(query, DataFeed.class);
+        boolean hasNext = content.size() > pageable.getPageSize();
+        return new SliceImpl<>(hasNext ? content.subList(0, pageable.getPageSize()) : content, pageable, hasNext);
+    }
+
+    @Override
+    public long estimateCount() {
+        // Without a filter, the count command answers from the collection metadata instead of scanning
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(DataFeed.class)).count();
+    }
+
+    @Override
+    public Optional<DataFeed> touchDuplicate(String url, long contentHash, Instant created, Boolean fetched) {
+        Query query = duplicateQuery(url, contentHash);
+        // The caller has the html already
+        query.fields().exclude("html").exclude("htmlRef");
+        Update update = new Update().set("created", created);
+        if (fetched != null) {
+            update.set("fetched", fetched);
+        }
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+            FindAndModifyOptions.options().returnNew(true), DataFeed.class));
+    }
+
+    @Override
+    public Set<String> acquireLease(Collection<String> ids, Instant now, Instant until) {
+        String token = UUID.randomUUID().toString();
+        Query available = new Query(Criteria.where("id").in(ids).and("fetched").ne(true)
+            .orOperator(Criteria.where(LEASE_UNTIL).exists(false), Criteria.where(LEASE_UNTIL).lt(now)));
+        Update update = new Update().set(LEASE_UNTIL, until).set(LEASE_TOKEN, token);
+        if (mongoTemplate.updateMulti(available, update, DataFeed.class).getModifiedCount() == 0) {
+            return new HashSet<>();
+        }
+        Query leased = new Query(Criteria.where("id").in(ids).and(LEASE_TOKEN).is(token));
+        leased.fields().include("id");
+        return mongoTemplate.find(leased, DataFeed.class).stream().map(DataFeed::getId).collect(Collectors.toSet());
+    }
+
+    @Override
+    public long releaseLease(Collection<String> ids) {
+        Update update = new Update().unset(LEASE_UNTIL).unset(LEASE_TOKEN);
+        return mongoTemplate.updateMulti(new Query(Criteria.where("id").in(ids)), update, DataFeed.class)
+            .getModifiedCount();
+    }
+
+    @Override
+    public List<String> findDuplicateIdsToUnindex(int limit) {
+        List<String> ids = new ArrayList<>();
+        for (Document duplicate : mongoTemplate.getCollection(DUPLICATES_COLLECTION)
+            .find(Filters.eq("unindexed", false))
+            .projection(Projections.include("data_feed_id"))
+            .limit(limit)) {
+            ids.add(duplicate.getString("data_feed_id"));
+        }
+        return ids;
+    }
+
+    @Override
+    public void markDuplicatesUnindexed(Collection<String> ids) {
+        mongoTemplate.getCollection(DUPLICATES_COLLECTION)
+            .updateMany(Filters.in("data_feed_id", ids), new Document("$set", new Document("unindexed", true)));
+    }
+
+    @Override
+    public Map<String, String> findRenamedUrlsToReindex(int limit) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (Document renamed : mongoTemplate.getCollection(RENAMED_COLLECTION)
+            .find(Filters.eq("reindexed", false))
+            .projection(Projections.include("data_feed_id", "url"))
+            .limit(limit)) {
+            urls.put(renamed.getString("data_feed_id"), renamed.getString("url"));
+        }
+        return urls;
+    }
+
+    @Override
+    public void markRenamedReindexed(Collection<String> ids) {
+        mongoTemplate.getCollection(RENAMED_COLLECTION)
+            .updateMany(Filters.in("data_feed_id", ids), new Document("$set", new Document("reindexed", true)));
+    }
+
+    @Override
+    public Set<String> findReferencedHtmlRefs(Collection<String> htmlRefs) {
+        Set<String> referenced = new HashSet<>();
+        if (htmlRefs.isEmpty()) {
+            return referenced;
+        }
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(DataFeed.class))
+            .distinct("html_ref", Filters.in("html_ref", htmlRefs), String.class)
+            .into(referenced);
+        mongoTemplate.getCollection(DUPLICATES_COLLECTION)
+            .distinct("data_feed.html_ref", Filters.in("data_feed.html_ref", htmlRefs), String.class)
+            .into(referenced);
+        return referenced;
+    }
+
+    @Override
+    public long markFetched(Collection<String> ids) {
+        Update update = new Update().set("fetched", true).unset(LEASE_UNTIL).unset(LEASE_TOKEN);
+        return mongoTemplate.updateMulti(new Query(Criteria.where("id").in(ids)), update, DataFeed.class)
+            .getModifiedCount();
+    }
+
+    @Override
+    public long setFetched(Query query, boolean fetched) {
+        query.addCriteria(Criteria.where("fetched").ne(fetched));
+        Update update = new Update().set("fetched", fetched).unset(LEASE_UNTIL).unset(LEASE_TOKEN);
+        return mongoTemplate.updateMulti(query, update, DataFeed.class).getModifiedCount();
+    }
+
+    @Override
+    public long deleteByIds(Collection<String> ids) {
+        return mongoTemplate.remove(new Query(Criteria.where("id").in(ids)), DataFeed.class).getDeletedCount();
+    }
+
+    @Override
+    public Optional<DataFeed> findAndUpdate(Query query, Update update) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+            FindAndModifyOptions.options().returnNew(true), DataFeed.class));
+    }
+
+    @Override
+    public long updateAll(Query query, Update update) {
+        return mongoTemplate.updateMulti(query, update, DataFeed.class).getMatchedCount();
+    }
+
+    @Override
+    public CloseableIterator<DataFeed> streamFrontier(Instant now) {
+        Query query = frontierQuery(now).noCursorTimeout();
+        query.fields().include("url").include("domain").include("level");
+        return mongoTemplate.stream(query, DataFeed.class);
+    }
+
+    @Override
+    public Map<String, String> findIdsByUrl(Collection<String> urls) {
+        Query query = urlsQuery(urls);
+        query.fields().include("url");
+        Map<String, String> ids = new HashMap<>();
+        for (DataFeed dataFeed : mongoTemplate.find(query, DataFeed.class)) {
+            ids.put(dataFeed.getUrl(), dataFeed.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public List<String> findCollectionScans() {
+        Instant now = Instant.now();
+        Map<String, Query> queries = new LinkedHashMap<>();
+        queries.put("dataFeeds by url", urlsQuery(Collections.singleton("http://example.com/")));
+        queries.put("dataFeed by url and content hash", duplicateQuery("http://example.com/", 0));
+        queries.put("frontier", frontierQuery(now));
+        queries.put("urls by domain", new Query(Criteria.where("domain").is("example.com").and("fetched").is(false)
+            .and("level").lte(0)).with(Sort.by("level", "url")));
+        queries.put("dataFeeds created since", new Query(Criteria.where("created").gte(now)));
+        queries.put("latest dataFeeds", new Query().with(Sort.by(Sort.Direction.DESC, "created")).limit(20));
+
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+            .getRequiredPersistentEntity(DataFeed.class);
+        QueryMapper queryMapper = new QueryMapper(mongoTemplate.getConverter());
+        List<String> collectionScans = new ArrayList<>();
+        queries.forEach((description, query) -> {
+            Document find = new Document("find", mongoTemplate.getCollectionName(DataFeed.class))
+                .append("filter", queryMapper.getMappedObject(query.getQueryObject(), entity));
+            if (!query.getSortObject().isEmpty()) {
+                find.append("sort", queryMapper.getMappedSort(query.getSortObject(), entity));
+            }
+            if (query.getLimit() > 0) {
+                find.append("limit", query.getLimit());
+            }
+            Document explain = mongoTemplate.getDb().runCommand(new Document("explain", find)
+                .append("verbosity", "queryPlanner"));
+            if (hasStage(explain.get("queryPlanner", Document.class).get("winningPlan", Document.class), "COLLSCAN")) {
+                collectionScans.add(description + " " + find.toJson());
+            }
+        });
+        return collectionScans;
+    }
+
+    private static Query urlsQuery(Collection<String> urls) {
+        return new Query(Criteria.where("url").in(urls));
+    }
+
+    private static Query duplicateQuery(String url, long contentHash) {
+        return new Query(Criteria.where("url").is(url).and("contentHash").is(contentHash));
+    }
+
+    private static Query frontierQuery(Instant now) {
+        return new Query(Criteria.where("fetched").ne(true).and("url").ne(null)
+            .orOperator(Criteria.where(LEASE_UNTIL).exists(false), Criteria.where(LEASE_UNTIL).lt(now)))
+            .with(Sort.by("level"));
+    }
+
+    /**
+     * @return true if the plan or one of its input plans, including those of the shards, is at the stage
+     */
+    private static boolean hasStage(Document plan, String stage) {
+        if (plan == null) {
+            return false;
+        }
+        if (stage.equals(plan.getString("stage"))) {
+            return true;
+        }
+        if (hasStage(plan.get("inputStage", Document.class), stage)
+            || hasStage(plan.get("queryPlan", Document.class), stage)) {
+            return true;
+        }
+        for (String key : Arrays.asList("inputStages", "shards")) {
+            List<?> plans = plan.get(key, List.class);
+            if (plans != null) {
+                for (Object input : plans) {
+                    Document inputPlan = (Document) input;
+                    Document winningPlan = inputPlan.get("winningPlan", Document.class);
+                    if (hasStage(winningPlan != null ? winningPlan : inputPlan, stage)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package io.cooly.crawler.repository.search;
+
+/**
+ * Progress of an update by query running as an Elasticsearch task.
+ */
+public class ByQueryProgress {
+
+    private final boolean completed;
+
+    private final long total;
+
+    private final long processed;
+
+    private final long versionConflicts;
+
+    private final String failure;
+
+    public ByQueryProgress(boolean completed, long total, long processed, long versionConflicts, String failure) {
+        this.completed = completed;
+        this.total = total;
+        this.processed = processed;
+        this.versionConflicts = versionConflicts;
+        this.failure = failure;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the number of documents matching the query, once the task has counted them
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the number of documents updated or deleted so far
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return the number of documents skipped because they were changed since the task read them
+     */
+    public long getVersionConflicts() {
+        return versionConflicts;
+    }
+
+    /**
+     * @return the first failure of a completed task, null if it succeeded
+     */
+    public String getFailure() {
+        return failure;
+    }
+}
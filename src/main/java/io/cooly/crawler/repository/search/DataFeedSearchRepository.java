@@ -6,5 +6,5 @@ import org.springframework.data.elasticsearch.repository.ElasticsearchRepository
 /**
  * Spring Data Elasticsearch repository for the DataFeed entity.
  */
-public interface DataFeedSearchRepository extends ElasticsearchRepository<DataFeed, String> {
+public interface DataFeedSearchRepository extends ElasticsearchRepository<DataFeed, String>, DataFeedSearchRepositoryCustom {
 }
@@ -0,0 +1,195 @@
+package io.cooly.crawler.repository.search;
+
+import io.cooly.crawler.domain.DataFeed;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.rescore.RescoreBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Custom Elasticsearch operations for the DataFeed entity.
+ * <p>
+ * The methods without an index name target the DataFeed index, or the alias of that name
+ * once the data has been reindexed.
+ */
+public interface DataFeedSearchRepositoryCustom {
+
+    /**
+     * Search for a page of dataFeeds, only loading some of their properties from {@code _source}.
+     *
+     * @param query the query
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of hits
+     */
+    Page<DataFeed> search(QueryBuilder query, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Search for a page of dataFeeds, rescoring the top hits of each shard, which cannot be sorted otherwise.
+     *
+     * @param query the query
+     * @param rescorer the rescorer of the top hits
+     * @param pageable the pagination information, unsorted
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of hits
+     */
+    Page<DataFeed> search(QueryBuilder query, RescoreBuilder<?> rescorer, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Search with {@code search_after}, which costs the same whatever the depth, unlike {@code from}.
+     * <p>
+     * Hits are sorted by {@code sort}, or by score when unsorted, then by uid so that the order is total.
+     *
+     * @param query the query
+     * @param sort the sort order
+     * @param searchAfter the sort values of the last hit of the previous slice, null for the first slice
+     * @param size the maximum number of hits
+     * @param fields the properties to load from {@code _source}, all of them when null or empty
+     * @return the hits
+     */
+    SearchAfterSlice<DataFeed> searchAfter(QueryBuilder query, Sort sort, List<Object> searchAfter, int size,
+                                           Collection<String> fields);
+
+    /**
+     * Index the given dataFeeds with a single bulk request, without refreshing the index.
+     *
+     * @param dataFeeds the entities to index, they must all have an id
+     * @return the error message of every failed document, keyed by its id
+     */
+    Map<String, String> bulkIndex(Collection<DataFeed> dataFeeds);
+
+    /**
+     * Delete the given dataFeeds with a single bulk request, without refreshing the index.
+     * Deleting a dataFeed that is not indexed is not a failure.
+     *
+     * @param ids the ids of the entities to delete
+     * @return the error message of every failed deletion, keyed by its id
+     */
+    Map<String, String> bulkDelete(Collection<String> ids);
+
+    /**
+     * Same as {@link #bulkIndex(Collection)}, against the given index.
+     */
+    Map<String, String> bulkIndex(String indexName, Collection<DataFeed> dataFeeds);
+
+    /**
+     * Same as {@link #bulkDelete(Collection)}, against the given index.
+     */
+    Map<String, String> bulkDelete(String indexName, Collection<String> ids);
+
+    /**
+     * Index the given dataFeeds into the given index only if they are not already there, so that
+     * documents written concurrently by the live indexer are never overwritten by older data.
+     * Documents that already exist are not failures.
+     *
+     * @param indexName the target index
+     * @param dataFeeds the entities to index, they must all have an id
+     * @return the error message of every failed document, keyed by its id
+     */
+    Map<String, String> bulkCreate(String indexName, Collection<DataFeed> dataFeeds);
+
+    /**
+     * Set some properties of indexed dataFeeds with a single bulk request of partial updates, without
+     * refreshing the index. Updating a dataFeed that is not indexed is not a failure.
+     *
+     * @param documents the properties to set, keyed by the id of the entity
+     * @return the error message of every failed update, keyed by its id
+     */
+    Map<String, String> bulkUpdate(Map<String, Map<String, Object>> documents);
+
+    /**
+     * Same as {@link #bulkUpdate(Map)}, against the given index.
+     */
+    Map<String, String> bulkUpdate(String indexName, Map<String, Map<String, Object>> documents);
+
+    /**
+     * Start updating the indexed dataFeeds matching a query with a script, as an Elasticsearch task which
+     * skips the documents changed while it runs.
+     *
+     * @param query the dataFeeds to update
+     * @param script the painless script changing {@code ctx._source}
+     * @param params the parameters of the script
+     * @param requestsPerSecond the throttle of the task in documents per second, -1 for none
+     * @return the id of the Elasticsearch task, to pass to {@link #getByQueryProgress(String)}
+     */
+    String startUpdateByQuery(QueryBuilder query, String script, Map<String, Object> params, float requestsPerSecond);
+
+    /**
+     * @param taskId the id of an Elasticsearch task started by this repository
+     * @return the progress of the task
+     */
+    ByQueryProgress getByQueryProgress(String taskId);
+
+    /**
+     * Create an index for dataFeeds, with the managed mapping and analysis settings.
+     *
+     * @param indexName the name of the index
+     * @param settings the other index settings, such as the number of shards
+     */
+    void createIndex(String indexName, Map<String, Object> settings);
+
+    /**
+     * @param indexName the name of an index or alias
+     * @return true if the index, or one of the indices of the alias, maps new properties dynamically, as the
+     * indices created before the mapping was managed
+     */
+    boolean hasDynamicMapping(String indexName);
+
+    /**
+     * Add the properties of the managed mapping missing from an index. Properties whose mapping changed
+     * cannot be updated in place, they only take effect in a new index.
+     *
+     * @param indexName the name of an index or alias
+     * @return the names of the added properties
+     */
+    Set<String> putMissingProperties(String indexName);
+
+    /**
+     * Update the dynamic settings of an index.
+     *
+     * @param indexName the name of the index
+     * @param settings the settings to change
+     */
+    void updateIndexSettings(String indexName, Map<String, Object> settings);
+
+    /**
+     * Refresh an index, so that all its documents become searchable.
+     *
+     * @param indexName the name of the index
+     */
+    void refreshIndex(String indexName);
+
+    /**
+     * @param indexName the name of an index or alias
+     * @return true if it exists
+     */
+    boolean indexExists(String indexName);
+
+    /**
+     * Delete an index.
+     *
+     * @param indexName the name of the index
+     */
+    void deleteIndex(String indexName);
+
+    /**
+     * @return the concrete indices the DataFeed alias points to, or the DataFeed index itself when
+     * it is not an alias yet, empty when neither exists
+     */
+    Set<String> getAliasedIndices();
+
+    /**
+     * Atomically point the DataFeed alias to {@code newIndex} instead of {@code oldIndices}.
+     *
+     * @param newIndex the index to add to the alias
+     * @param oldIndices the indices to remove from the alias
+     */
+    void swapAlias(String newIndex, Collection<String> oldIndices);
+}
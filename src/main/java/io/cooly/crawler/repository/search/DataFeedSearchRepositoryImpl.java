@@ -0,0 +1,514 @@
+package io.cooly.crawler.repository.search;
+
+import io.cooly.crawler.domain.DataFeed;
+
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.cluster.TasksInformation;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import io.searchbox.core.Update;
+import io.searchbox.core.UpdateByQuery;
+import io.searchbox.indices.CreateIndex;
+import io.searchbox.indices.DeleteIndex;
+import io.searchbox.indices.Refresh;
+import io.searchbox.indices.aliases.AddAliasMapping;
+import io.searchbox.indices.aliases.AliasMapping;
+import io.searchbox.indices.aliases.GetAliases;
+import io.searchbox.indices.aliases.ModifyAliases;
+import io.searchbox.indices.aliases.RemoveAliasMapping;
+import io.searchbox.indices.mapping.GetMapping;
+import io.searchbox.indices.mapping.PutMapping;
+import io.searchbox.indices.settings.UpdateSettings;
+import io.searchbox.params.Parameters;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.rescore.RescoreBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.EntityMapper;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Implementation of {@link DataFeedSearchRepositoryCustom}, picked up by Spring Data
+ * and merged into {@link DataFeedSearchRepository}.
+ * <p>
+ * Bulk requests go straight through Jest, so that a whole chunk costs one HTTP round-trip
+ * and no index refresh. Index administration also goes through Jest, as Spring Data
+ * Elasticsearch has no atomic alias swap nor settings update.
+ * <p>
+ * Indices are created with the mapping and analysis settings of the {@code config/elasticsearch}
+ * resources rather than a dynamic mapping.
+ */
+public class DataFeedSearchRepositoryImpl implements DataFeedSearchRepositoryCustom {
+
+    private static final String SETTINGS_PATH = "/config/elasticsearch/datafeed-settings.json";
+
+    private static final String MAPPING_PATH = "/config/elasticsearch/datafeed-mapping.json";
+
+    private final JestClient jestClient;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final EntityMapper entityMapper;
+
+    public DataFeedSearchRepositoryImpl(JestClient jestClient, ElasticsearchOperations elasticsearchOperations,
+                                        EntityMapper entityMapper) {
+        this.jestClient = jestClient;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.entityMapper = entityMapper;
+    }
+
+    @Override
+    public Page<DataFeed> search(QueryBuilder query, Pageable pageable, Collection<String> fields) {
+        return search(query, null, pageable, fields);
+    }
+
+    @Override
+    public Page<DataFeed> search(QueryBuilder query, RescoreBuilder<?> rescorer, Pageable pageable,
+                                 Collection<String> fields) {
+        SearchSourceBuilder source = new SearchSourceBuilder().query(query)
+            .from((int) pageable.getOffset())
+            .size(pageable.getPageSize());
+        for (Sort.Order order : pageable.getSort()) {
+            source.sort(order.getProperty(), order.isAscending() ? SortOrder.ASC : SortOrder.DESC);
+        }
+        if (rescorer != null) {
+            source.addRescorer(rescorer);
+        }
+        JsonObject hits = executeSearch(source, fields);
+        List<DataFeed> content = new ArrayList<>();
+        for (JsonElement hit : hits.getAsJsonArray("hits")) {
+            content.add(toDataFeed(hit.getAsJsonObject()));
+        }
+        return new PageImpl<>(content, pageable, hits.get("total").getAsLong());
+    }
+
+    @Override
+    public SearchAfterSlice<DataFeed> searchAfter(QueryBuilder query, Sort sort, List<Object> searchAfter, int size,
+                                                  Collection<String> fields) {
+        SearchSourceBuilder source = new SearchSourceBuilder().query(query).size(size);
+        if (sort.isSorted()) {
+            for (Sort.Order order : sort) {
+                source.sort(order.getProperty(), order.isAscending() ? SortOrder.ASC : SortOrder.DESC);
+            }
+        } else {
+            source.sort(SortBuilders.scoreSort());
+        }
+        source.sort("_uid", SortOrder.ASC);
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter.toArray());
+        }
+        List<DataFeed> content = new ArrayList<>();
+        List<Object> lastSortValues = null;
+        for (JsonElement element : executeSearch(source, fields).getAsJsonArray("hits")) {
+            JsonObject hit = element.getAsJsonObject();
+            content.add(toDataFeed(hit));
+            lastSortValues = toSortValues(hit.getAsJsonArray("sort"));
+        }
+        return new SearchAfterSlice<>(content, lastSortValues);
+    }
+
+    /**
+     * @return the {@code hits} object of the response
+     */
+    private JsonObject executeSearch(SearchSourceBuilder source, Collection<String> fields) {
+        if (fields != null && !fields.isEmpty()) {
+            source.fetchSource(fields.toArray(new String[0]), null);
+        }
+        ElasticsearchPersistentEntity<?> entity = elasticsearchOperations.getPersistentEntityFor(DataFeed.class);
+        SearchResult result = send(new Search.Builder(source.toString())
+            .addIndex(entity.getIndexName())
+            .addType(entity.getIndexType())
+            .build());
+        if (!result.isSucceeded()) {
+            throw new ElasticsearchException("Search failed: " + result.getErrorMessage());
+        }
+        return result.getJsonObject().getAsJsonObject("hits");
+    }
+
+    private DataFeed toDataFeed(JsonObject hit) {
+        try {
+            DataFeed dataFeed = entityMapper.mapToObject(hit.get("_source").toString(), DataFeed.class);
+            dataFeed.setId(hit.get("_id").getAsString());
+            return dataFeed;
+        } catch (IOException e) {
+            throw new ElasticsearchException("Failed to map search hit " + hit.get("_id"), e);
+        }
+    }
+
+    private static List<Object> toSortValues(JsonArray sortValues) {
+        List<Object> values = new ArrayList<>(sortValues.size());
+        for (JsonElement value : sortValues) {
+            if (value.isJsonNull()) {
+                values.add(null);
+                continue;
+            }
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isString()) {
+                values.add(primitive.getAsString());
+            } else if (primitive.isBoolean()) {
+                values.add(primitive.getAsBoolean());
+            } else if (primitive.getAsString().matches("-?\\d+")) {
+                values.add(primitive.getAsLong());
+            } else {
+                values.add(primitive.getAsDouble());
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, String> bulkIndex(Collection<DataFeed> dataFeeds) {
+        return bulkIndex(getIndexName(), dataFeeds);
+    }
+
+    @Override
+    public Map<String, String> bulkIndex(String indexName, Collection<DataFeed> dataFeeds) {
+        if (dataFeeds.isEmpty()) {
+            return new HashMap<>();
+        }
+        Bulk.Builder bulk = newBulk(indexName);
+        for (DataFeed dataFeed : dataFeeds) {
+            bulk.addAction(new Index.Builder(toSource(dataFeed)).id(dataFeed.getId()).build());
+        }
+        return execute(bulk.build(), 0);
+    }
+
+    @Override
+    public Map<String, String> bulkDelete(Collection<String> ids) {
+        return bulkDelete(getIndexName(), ids);
+    }
+
+    @Override
+    public Map<String, String> bulkDelete(String indexName, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        Bulk.Builder bulk = newBulk(indexName);
+        for (String id : ids) {
+            bulk.addAction(new Delete.Builder(id).build());
+        }
+        return execute(bulk.build(), 0);
+    }
+
+    @Override
+    public Map<String, String> bulkCreate(String indexName, Collection<DataFeed> dataFeeds) {
+        if (dataFeeds.isEmpty()) {
+            return new HashMap<>();
+        }
+        Bulk.Builder bulk = newBulk(indexName);
+        for (DataFeed dataFeed : dataFeeds) {
+            bulk.addAction(new Index.Builder(toSource(dataFeed)).id(dataFeed.getId())
+                .setParameter(Parameters.OP_TYPE, "create")
+                .build());
+        }
+        return execute(bulk.build(), 409);
+    }
+
+    @Override
+    public Map<String, String> bulkUpdate(Map<String, Map<String, Object>> documents) {
+        return bulkUpdate(getIndexName(), documents);
+    }
+
+    @Override
+    public Map<String, String> bulkUpdate(String indexName, Map<String, Map<String, Object>> documents) {
+        if (documents.isEmpty()) {
+            return new HashMap<>();
+        }
+        Bulk.Builder bulk = newBulk(indexName);
+        for (Map.Entry<String, Map<String, Object>> document : documents.entrySet()) {
+            String source;
+            try {
+                // Mapped like whole documents, so that dates and null values are indexed the same way
+                source = entityMapper.mapToString(Collections.singletonMap("doc", document.getValue()));
+            } catch (IOException e) {
+                throw new ElasticsearchException("Failed to map the update of DataFeed " + document.getKey()
+                    + " to JSON", e);
+            }
+            bulk.addAction(new Update.Builder(source)
+                .id(document.getKey())
+                .setParameter(Parameters.RETRY_ON_CONFLICT, 3)
+                .build());
+        }
+        return execute(bulk.build(), 404);
+    }
+
+    @Override
+    public String startUpdateByQuery(QueryBuilder query, String script, Map<String, Object> params,
+                                     float requestsPerSecond) {
+        JsonObject inlineScript = new JsonObject();
+        inlineScript.addProperty("inline", script);
+        inlineScript.addProperty("lang", "painless");
+        inlineScript.add("params", new Gson().toJsonTree(params));
+        JsonObject payload = new JsonObject();
+        payload.add("query", new JsonParser().parse(query.toString()));
+        payload.add("script", inlineScript);
+        ElasticsearchPersistentEntity<?> entity = elasticsearchOperations.getPersistentEntityFor(DataFeed.class);
+        return startTask(new UpdateByQuery.Builder(payload.toString())
+            .addIndex(entity.getIndexName())
+            .addType(entity.getIndexType())
+            .setParameter("conflicts", "proceed")
+            .setParameter("requests_per_second", requestsPerSecond)
+            .setParameter("wait_for_completion", false)
+            .build(), "Update by query");
+    }
+
+    @Override
+    public ByQueryProgress getByQueryProgress(String taskId) {
+        JestResult result = send(new TasksInformation.Builder().task(taskId).build());
+        if (!result.isSucceeded()) {
+            throw new ElasticsearchException("Get task " + taskId + " failed: " + result.getErrorMessage());
+        }
+        JsonObject task = result.getJsonObject();
+        boolean completed = task.has("completed") && task.get("completed").getAsBoolean();
+        JsonObject status = task.getAsJsonObject("task").getAsJsonObject("status");
+        String failure = null;
+        if (task.has("error")) {
+            failure = task.get("error").toString();
+        } else if (task.has("response")) {
+            JsonArray failures = task.getAsJsonObject("response").getAsJsonArray("failures");
+            if (failures != null && failures.size() > 0) {
+                failure = failures.get(0).toString();
+            }
+        }
+        return new ByQueryProgress(completed, getLong(status, "total"),
+            getLong(status, "updated") + getLong(status, "deleted"), getLong(status, "version_conflicts"), failure);
+    }
+
+    @Override
+    public void createIndex(String indexName, Map<String, Object> settings) {
+        JsonObject indexSettings = new JsonParser().parse(readResource(SETTINGS_PATH)).getAsJsonObject();
+        JsonElement otherSettings = new Gson().toJsonTree(settings);
+        otherSettings.getAsJsonObject().entrySet().forEach(entry -> indexSettings.add(entry.getKey(), entry.getValue()));
+        String indexType = elasticsearchOperations.getPersistentEntityFor(DataFeed.class).getIndexType();
+        JsonObject mappings = new JsonObject();
+        mappings.add(indexType, new JsonParser().parse(readResource(MAPPING_PATH)));
+        execute(new CreateIndex.Builder(indexName)
+            .settings(indexSettings.toString())
+            .mappings(mappings.toString())
+            .build(), "Create index " + indexName);
+    }
+
+    @Override
+    public boolean hasDynamicMapping(String indexName) {
+        List<JsonObject> mappings = getMappings(indexName);
+        for (JsonObject mapping : mappings) {
+            JsonElement dynamic = mapping.get("dynamic");
+            if (dynamic == null || "true".equals(dynamic.getAsString())) {
+                return true;
+            }
+        }
+        // Without a mapping, the first DataFeed indexed would be mapped dynamically
+        return mappings.isEmpty();
+    }
+
+    @Override
+    public Set<String> putMissingProperties(String indexName) {
+        JsonObject managed = new JsonParser().parse(readResource(MAPPING_PATH)).getAsJsonObject()
+            .getAsJsonObject("properties");
+        JsonObject missing = new JsonObject();
+        for (JsonObject mapping : getMappings(indexName)) {
+            JsonObject properties = mapping.getAsJsonObject("properties");
+            for (Map.Entry<String, JsonElement> property : managed.entrySet()) {
+                if (properties == null || !properties.has(property.getKey())) {
+                    missing.add(property.getKey(), property.getValue());
+                }
+            }
+        }
+        if (missing.size() > 0) {
+            JsonObject source = new JsonObject();
+            source.add("properties", missing);
+            String indexType = elasticsearchOperations.getPersistentEntityFor(DataFeed.class).getIndexType();
+            execute(new PutMapping.Builder(indexName, indexType, source.toString()).build(),
+                "Put mapping of index " + indexName);
+        }
+        return new TreeSet<>(missing.keySet());
+    }
+
+    @Override
+    public void updateIndexSettings(String indexName, Map<String, Object> settings) {
+        execute(new UpdateSettings.Builder(Collections.singletonMap("index", settings)).addIndex(indexName).build(),
+            "Update settings of index " + indexName);
+    }
+
+    @Override
+    public void refreshIndex(String indexName) {
+        execute(new Refresh.Builder().addIndex(indexName).build(), "Refresh index " + indexName);
+    }
+
+    @Override
+    public boolean indexExists(String indexName) {
+        return elasticsearchOperations.indexExists(indexName);
+    }
+
+    @Override
+    public void deleteIndex(String indexName) {
+        execute(new DeleteIndex.Builder(indexName).build(), "Delete index " + indexName);
+    }
+
+    @Override
+    public Set<String> getAliasedIndices() {
+        JestResult result = send(new GetAliases.Builder().addIndex(getIndexName()).build());
+        if (result.getResponseCode() == 404) {
+            return new TreeSet<>();
+        }
+        if (!result.isSucceeded()) {
+            throw new ElasticsearchException("Get aliases failed: " + result.getErrorMessage());
+        }
+        // The response is keyed by concrete index name
+        return new TreeSet<>(result.getJsonObject().keySet());
+    }
+
+    @Override
+    public void swapAlias(String newIndex, Collection<String> oldIndices) {
+        String alias = getIndexName();
+        List<AliasMapping> actions = new ArrayList<>();
+        for (String oldIndex : oldIndices) {
+            actions.add(new RemoveAliasMapping.Builder(oldIndex, alias).build());
+        }
+        actions.add(new AddAliasMapping.Builder(newIndex, alias).build());
+        execute(new ModifyAliases.Builder(actions).build(), "Point alias " + alias + " to " + newIndex);
+    }
+
+    /**
+     * @return the DataFeed mapping of the index, or of each index of the alias, which have none until a DataFeed
+     * is indexed if they were created without mapping
+     */
+    private List<JsonObject> getMappings(String indexName) {
+        String indexType = elasticsearchOperations.getPersistentEntityFor(DataFeed.class).getIndexType();
+        JestResult result = send(new GetMapping.Builder().addIndex(indexName).addType(indexType).build());
+        if (!result.isSucceeded()) {
+            throw new ElasticsearchException("Get mapping of index " + indexName + " failed: "
+                + result.getErrorMessage());
+        }
+        List<JsonObject> mappings = new ArrayList<>();
+        // The response is keyed by concrete index name
+        for (Map.Entry<String, JsonElement> index : result.getJsonObject().entrySet()) {
+            JsonObject indexMappings = index.getValue().getAsJsonObject().getAsJsonObject("mappings");
+            if (indexMappings != null && indexMappings.has(indexType)) {
+                mappings.add(indexMappings.getAsJsonObject(indexType));
+            }
+        }
+        return mappings;
+    }
+
+    private static String readResource(String path) {
+        try (InputStream in = DataFeedSearchRepositoryImpl.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new ElasticsearchException("Missing resource " + path);
+            }
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ElasticsearchException("Failed to read resource " + path, e);
+        }
+    }
+
+    private String getIndexName() {
+        return elasticsearchOperations.getPersistentEntityFor(DataFeed.class).getIndexName();
+    }
+
+    private Bulk.Builder newBulk(String indexName) {
+        ElasticsearchPersistentEntity<?> entity = elasticsearchOperations.getPersistentEntityFor(DataFeed.class);
+        return new Bulk.Builder()
+            .defaultIndex(indexName)
+            .defaultType(entity.getIndexType());
+    }
+
+    /**
+     * The html kept in the content store is left out of the index, search results get it from MongoDB.
+     */
+    private String toSource(DataFeed dataFeed) {
+        try {
+            String source = entityMapper.mapToString(dataFeed);
+            if (dataFeed.getHtmlRef() == null) {
+                return source;
+            }
+            JsonObject document = new JsonParser().parse(source).getAsJsonObject();
+            document.remove("html");
+            document.remove("htmlRef");
+            return document.toString();
+        } catch (IOException e) {
+            throw new ElasticsearchException("Failed to map DataFeed " + dataFeed.getId() + " to JSON", e);
+        }
+    }
+
+    /**
+     * @param ignoredStatus the status of the items which are not failures, such as 409 for the documents
+     * which already exist
+     */
+    private Map<String, String> execute(Bulk bulk, int ignoredStatus) {
+        BulkResult result = send(bulk);
+        Map<String, String> failures = new HashMap<>();
+        for (BulkResult.BulkResultItem item : result.getFailedItems()) {
+            if (item.status == ignoredStatus) {
+                continue;
+            }
+            failures.put(item.id, item.errorReason != null ? item.errorReason : item.error);
+        }
+        if (!result.isSucceeded() && result.getFailedItems().isEmpty()) {
+            throw new ElasticsearchException("Bulk request failed: " + result.getErrorMessage());
+        }
+        return failures;
+    }
+
+    private void execute(Action<? extends JestResult> action, String description) {
+        JestResult result = send(action);
+        if (!result.isSucceeded()) {
+            throw new ElasticsearchException(description + " failed: " + result.getErrorMessage());
+        }
+    }
+
+    /**
+     * @return the id of the Elasticsearch task run by the action
+     */
+    private String startTask(Action<? extends JestResult> action, String description) {
+        JestResult result = send(action);
+        if (!result.isSucceeded() || !result.getJsonObject().has("task")) {
+            throw new ElasticsearchException(description + " failed: " + result.getErrorMessage());
+        }
+        return result.getJsonObject().get("task").getAsString();
+    }
+
+    private static long getLong(JsonObject object, String property) {
+        return object != null && object.has(property) ? object.get(property).getAsLong() : 0;
+    }
+
+    private <T extends JestResult> T send(Action<T> action) {
+        try {
+            return jestClient.execute(action);
+        } catch (IOException e) {
+            throw new ElasticsearchException("Request to Elasticsearch failed", e);
+        }
+    }
+}
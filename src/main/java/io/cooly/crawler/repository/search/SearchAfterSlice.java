@@ -0,0 +1,32 @@
+package io.cooly.crawler.repository.search;
+
+import java.util.List;
+
+/**
+ * A slice of search hits, with the sort values of the last hit to pass as {@code search_after}
+ * to get the next slice.
+ *
+ * @param <T> the type of the hits
+ */
+public class SearchAfterSlice<T> {
+
+    private final List<T> content;
+
+    private final List<Object> lastSortValues;
+
+    public SearchAfterSlice(List<T> content, List<Object> lastSortValues) {
+        this.content = content;
+        this.lastSortValues = lastSortValues;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the sort values of the last hit, null when the slice is empty
+     */
+    public List<Object> getLastSortValues() {
+        return lastSortValues;
+    }
+}
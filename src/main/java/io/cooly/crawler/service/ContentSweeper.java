@@ -0,0 +1,114 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.repository.ContentStore;
+import io.cooly.crawler.repository.DataFeedRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes the contents of the {@link ContentStore} which no DataFeed references any more, such as the previous
+ * html of a page fetched again with changes, or the html of deleted DataFeeds.
+ * <p>
+ * Contents are shared between DataFeeds, so instead of being deleted with them, the stored contents are checked
+ * for references a batch at a time. Only the contents last saved before the grace period are deleted, and
+ * only if they were not saved again while the sweep ran. Sweeps run on their own thread, so that they do not
+ * hold the threads of the scheduled jobs.
+ */
+@Service
+public class ContentSweeper {
+
+    private final Logger log = LoggerFactory.getLogger(ContentSweeper.class);
+
+    private final ContentStore contentStore;
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final ApplicationProperties.ContentStore properties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter deletedCounter;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "content-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ContentSweeper(ContentStore contentStore, DataFeedRepository dataFeedRepository,
+                          ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.contentStore = contentStore;
+        this.dataFeedRepository = dataFeedRepository;
+        this.properties = applicationProperties.getContentStore();
+        this.deletedCounter = meterRegistry.counter("indexer.content-store.swept");
+    }
+
+    /**
+     * Start sweeping the unreferenced contents, unless a sweep is still running.
+     */
+    @Scheduled(fixedDelayString = "${application.content-store.sweep-interval-ms:86400000}",
+        initialDelayString = "${application.content-store.sweep-interval-ms:86400000}")
+    public void schedule() {
+        if (!properties.isSweepEnabled() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                sweep();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Delete the contents last saved before the grace period which no DataFeed references.
+     */
+    void sweep() {
+        Instant savedBefore = Instant.now().minusMillis(properties.getSweepGracePeriodMs());
+        int batchSize = Math.max(1, properties.getSweepBatchSize());
+        long checked = 0;
+        long deleted = 0;
+        try {
+            String after = "";
+            List<String> refs;
+            while (!(refs = contentStore.findRefsSavedBefore(savedBefore, after, batchSize)).isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                Set<String> referenced = dataFeedRepository.findReferencedHtmlRefs(refs);
+                List<String> unreferenced = refs.stream()
+                    .filter(ref -> !referenced.contains(ref))
+                    .collect(Collectors.toList());
+                long batchDeleted = contentStore.deleteSavedBefore(unreferenced, savedBefore);
+                deletedCounter.increment(batchDeleted);
+                deleted += batchDeleted;
+                checked += refs.size();
+                after = refs.get(refs.size() - 1);
+            }
+            log.info("Deleted {} unreferenced contents of the {} checked", deleted, checked);
+        } catch (RuntimeException e) {
+            log.error("Could not sweep the unreferenced contents, {} deleted so far", deleted, e);
+        }
+    }
+}
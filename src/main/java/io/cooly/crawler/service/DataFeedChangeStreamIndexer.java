@@ -0,0 +1,287 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails the change stream of the data_feed collection and streams inserts, updates and deletes
+ * into Elasticsearch, whoever wrote them.
+ * <p>
+ * The resume token of the last indexed change is persisted in MongoDB, so the stream picks up where it
+ * left off after a restart or an Elasticsearch outage. The changes of a batch that cannot be indexed are
+ * retried with a backoff, and its token is only saved afterwards; changes still failing after
+ * {@code max-batch-retries}, such as a document Elasticsearch always rejects, are recorded in the
+ * {@value #DEAD_LETTER_COLLECTION} collection so that the stream moves on. A reindex indexes them again.
+ * <p>
+ * When the saved resume token has fallen off the oplog, the stream cannot resume from it: the token is dropped,
+ * the stream starts again from now and a full reindex catches up with the changes missed in between.
+ * <p>
+ * Only runs when {@code application.indexing.change-stream.enabled} is set, in which case the service
+ * layer no longer writes to Elasticsearch itself.
+ */
+@Service
+public class DataFeedChangeStreamIndexer {
+
+    static final String RESUME_TOKEN_COLLECTION = "indexer_resume_token";
+
+    static final String DEAD_LETTER_COLLECTION = "indexer_dead_letter";
+
+    /**
+     * Error codes of a change stream which cannot resume from its token: ChangeStreamHistoryLost,
+     * ChangeStreamFatalError and the code of MongoDB 3.6 for a resume point no longer in the oplog.
+     */
+    private static final Set<Integer> HISTORY_LOST_CODES = new HashSet<>(Arrays.asList(286, 280, 40576));
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedChangeStreamIndexer.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final DataFeedIndexer dataFeedIndexer;
+
+    private final DataFeedReindexService dataFeedReindexService;
+
+    private final ApplicationProperties.Indexing properties;
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    public DataFeedChangeStreamIndexer(MongoTemplate mongoTemplate, DataFeedIndexer dataFeedIndexer,
+                                       DataFeedReindexService dataFeedReindexService,
+                                       ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.dataFeedIndexer = dataFeedIndexer;
+        this.dataFeedReindexService = dataFeedReindexService;
+        this.properties = applicationProperties.getIndexing();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!properties.getChangeStream().isEnabled() || running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "indexer-change-stream");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("Started indexing DataFeeds from the change stream");
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private void run() {
+        long backoff = properties.getRetryBackoffMs();
+        boolean historyLost = false;
+        while (running) {
+            try (MongoCursor<ChangeStreamDocument<Document>> cursor = openCursor()) {
+                backoff = properties.getRetryBackoffMs();
+                if (historyLost) {
+                    // Started once the stream is open again, so that no change falls in between
+                    historyLost = false;
+                    if (!dataFeedReindexService.start()) {
+                        log.warn("A reindex is already running, it may miss changes lost by the change stream");
+                    }
+                }
+                consume(cursor);
+            } catch (MongoException e) {
+                if (!running) {
+                    break;
+                }
+                if (HISTORY_LOST_CODES.contains(e.getCode())) {
+                    log.error("The DataFeed change stream cannot resume from its token, which is no longer in "
+                        + "the oplog: indexing restarts from now and a full reindex catches up: {}", e.getMessage());
+                    saveResumeToken(null);
+                    historyLost = true;
+                    continue;
+                }
+                log.warn("DataFeed change stream failed, reopening in {} ms: {}", backoff, e.getMessage());
+                if (!sleep(backoff)) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, properties.getMaxRetryBackoffMs());
+            }
+        }
+        log.info("Stopped indexing DataFeeds from the change stream");
+    }
+
+    private MongoCursor<ChangeStreamDocument<Document>> openCursor() {
+        ChangeStreamIterable<Document> changes = mongoTemplate.getCollection(mongoTemplate.getCollectionName(DataFeed.class))
+            .watch()
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .batchSize(properties.getBatchSize())
+            .maxAwaitTime(properties.getChangeStream().getMaxAwaitMs(), TimeUnit.MILLISECONDS);
+        BsonDocument resumeToken = loadResumeToken();
+        if (resumeToken != null) {
+            changes = changes.resumeAfter(resumeToken);
+        } else {
+            log.warn("No DataFeed change stream resume token found, only changes from now on will be indexed");
+        }
+        return changes.iterator();
+    }
+
+    private void consume(MongoCursor<ChangeStreamDocument<Document>> cursor) {
+        List<ChangeStreamDocument<Document>> batch = new ArrayList<>();
+        long batchStart = 0;
+        while (running) {
+            ChangeStreamDocument<Document> change = cursor.tryNext();
+            if (change != null) {
+                if (batch.isEmpty()) {
+                    batchStart = System.currentTimeMillis();
+                }
+                batch.add(change);
+            }
+            boolean full = batch.size() >= properties.getBatchSize();
+            boolean due = !batch.isEmpty()
+                && (change == null || System.currentTimeMillis() - batchStart >= properties.getFlushIntervalMs());
+            if (full || due) {
+                if (!apply(batch)) {
+                    return;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Index a batch of changes, retrying the failing ones a bounded number of times, then persist its
+     * resume token.
+     *
+     * @return false if the stream must be reopened or stopped
+     */
+    boolean apply(List<ChangeStreamDocument<Document>> batch) {
+        List<DataFeed> toIndex = new ArrayList<>();
+        List<String> toDelete = new ArrayList<>();
+        BsonDocument resumeToken = null;
+        for (ChangeStreamDocument<Document> change : batch) {
+            switch (change.getOperationType()) {
+                case INSERT:
+                case UPDATE:
+                case REPLACE:
+                    // The full document is missing when it was deleted in the meantime, a DELETE follows
+                    if (change.getFullDocument() != null) {
+                        toIndex.add(mongoTemplate.getConverter().read(DataFeed.class, change.getFullDocument()));
+                    }
+                    break;
+                case DELETE:
+                    toDelete.add(toId(change.getDocumentKey().get("_id")));
+                    break;
+                case INVALIDATE:
+                    log.warn("The DataFeed change stream was invalidated, a full reindex is needed");
+                    saveResumeToken(null);
+                    return false;
+                default:
+                    break;
+            }
+            resumeToken = change.getResumeToken();
+        }
+        long backoff = properties.getRetryBackoffMs();
+        Map<String, String> failures = dataFeedIndexer.indexNow(toIndex, toDelete);
+        for (int retry = 0; !failures.isEmpty() && retry < properties.getChangeStream().getMaxBatchRetries(); retry++) {
+            log.warn("Could not index {} DataFeed changes, retrying in {} ms", failures.size(), backoff);
+            if (!running || !sleep(backoff)) {
+                return false;
+            }
+            backoff = Math.min(backoff * 2, properties.getMaxRetryBackoffMs());
+            // Only the failing changes are sent again
+            Set<String> failed = failures.keySet();
+            toIndex.removeIf(dataFeed -> !failed.contains(dataFeed.getId()));
+            toDelete.removeIf(id -> !failed.contains(id));
+            failures = dataFeedIndexer.indexNow(toIndex, toDelete);
+        }
+        if (!failures.isEmpty()) {
+            log.error("Giving up indexing {} DataFeed changes, recorded in {}, first failure: {}",
+                failures.size(), DEAD_LETTER_COLLECTION, failures.values().iterator().next());
+            saveDeadLetters(failures);
+        }
+        saveResumeToken(resumeToken);
+        return true;
+    }
+
+    private void saveDeadLetters(Map<String, String> failures) {
+        Date now = new Date();
+        List<Document> deadLetters = new ArrayList<>(failures.size());
+        failures.forEach((id, reason) -> deadLetters.add(new Document("data_feed_id", id)
+            .append("reason", reason)
+            .append("failed", now)));
+        mongoTemplate.getCollection(DEAD_LETTER_COLLECTION).insertMany(deadLetters);
+    }
+
+    private BsonDocument loadResumeToken() {
+        BsonDocument state = resumeTokenCollection()
+            .withDocumentClass(BsonDocument.class)
+            .find(Filters.eq("_id", DataFeed.class.getSimpleName()))
+            .first();
+        if (state == null || !state.isDocument("token")) {
+            return null;
+        }
+        return state.getDocument("token");
+    }
+
+    private void saveResumeToken(BsonDocument resumeToken) {
+        String key = DataFeed.class.getSimpleName();
+        if (resumeToken == null) {
+            resumeTokenCollection().deleteOne(Filters.eq("_id", key));
+            return;
+        }
+        Document state = new Document("_id", key)
+            .append("token", resumeToken)
+            .append("updated", new Date());
+        resumeTokenCollection().replaceOne(Filters.eq("_id", key), state, new UpdateOptions().upsert(true));
+    }
+
+    private MongoCollection<Document> resumeTokenCollection() {
+        return mongoTemplate.getCollection(RESUME_TOKEN_COLLECTION);
+    }
+
+    private static String toId(BsonValue id) {
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.asString().getValue();
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Recognizes pages fetched again unchanged, so that they only update the fetch time of the stored DataFeed
+ * instead of being written and indexed again.
+ * <p>
+ * A page is a duplicate of a stored DataFeed with the same url and content hash. The latest hash of recently
+ * saved urls is kept in memory: a page whose hash differs from it is new content, and is saved without
+ * looking up the database.
+ */
+@Service
+public class DataFeedDeduplicator {
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Map<String, Long> latestHashes;
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    public DataFeedDeduplicator(DataFeedRepository dataFeedRepository, ApplicationProperties applicationProperties,
+                                MeterRegistry meterRegistry) {
+        this.dataFeedRepository = dataFeedRepository;
+        int cacheSize = applicationProperties.getDedup().getCacheSize();
+        this.latestHashes = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        this.hitCounter = meterRegistry.counter("indexer.datafeed.dedup", "result", "hit");
+        this.missCounter = meterRegistry.counter("indexer.datafeed.dedup", "result", "miss");
+        Gauge.builder("indexer.datafeed.dedup.ratio", this, DataFeedDeduplicator::getHitRatio)
+            .description("Share of the new DataFeeds found to be unchanged pages")
+            .register(meterRegistry);
+    }
+
+    /**
+     * If the dataFeed is an unchanged page, record the new fetch on the stored DataFeed.
+     *
+     * @param dataFeed a new dataFeed, with its content hash
+     * @return the updated DataFeed, with the html of {@code dataFeed}, or empty if the page is new or changed
+     */
+    public Optional<DataFeed> touchDuplicate(DataFeed dataFeed) {
+        Long latestHash = latestHashes.get(dataFeed.getUrl());
+        Optional<DataFeed> duplicate = Optional.empty();
+        if (latestHash == null || latestHash.equals(dataFeed.getContentHash())) {
+            Instant created = dataFeed.getCreated() != null ? dataFeed.getCreated() : Instant.now();
+            duplicate = dataFeedRepository.touchDuplicate(dataFeed.getUrl(), dataFeed.getContentHash(), created,
+                dataFeed.isFetched());
+        }
+        if (duplicate.isPresent()) {
+            hitCounter.increment();
+            latestHashes.put(dataFeed.getUrl(), dataFeed.getContentHash());
+            duplicate.get().setHtml(dataFeed.getHtml());
+        } else {
+            missCounter.increment();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remember the content hash of a saved dataFeed.
+     *
+     * @param dataFeed the persisted entity
+     */
+    public void remember(DataFeed dataFeed) {
+        if (dataFeed.getUrl() != null && dataFeed.getContentHash() != null) {
+            latestHashes.put(dataFeed.getUrl(), dataFeed.getContentHash());
+        }
+    }
+
+    private double getHitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+}
@@ -0,0 +1,126 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the managed mapping and settings of the DataFeed search repository to the DataFeed index.
+ * <p>
+ * The index is created when it does not exist. Otherwise its dynamic settings are updated and the properties
+ * missing from its mapping are added; properties whose mapping changed only take effect after a reindex. An
+ * index created before the mapping was managed maps the strings dynamically, as text with a keyword subfield:
+ * its mapping is left alone, and filters use the keyword subfields, until it is reindexed.
+ * <p>
+ * When Elasticsearch cannot be reached at startup, the {@link DataFeedIndexer} tries again before sending any
+ * change, so that the first bulk request does not create the index with a dynamic mapping.
+ */
+@Service
+public class DataFeedIndexManager {
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedIndexManager.class);
+
+    private final DataFeedSearchRepository dataFeedSearchRepository;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final ApplicationProperties.SearchIndex properties;
+
+    private volatile boolean initialized;
+
+    private volatile boolean dynamicMapping;
+
+    public DataFeedIndexManager(DataFeedSearchRepository dataFeedSearchRepository,
+                                ElasticsearchOperations elasticsearchOperations,
+                                ApplicationProperties applicationProperties) {
+        this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.properties = applicationProperties.getSearchIndex();
+    }
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            ensureInitialized();
+        } catch (RuntimeException e) {
+            log.warn("Could not apply the mapping and settings to the DataFeed index, retrying before indexing: {}",
+                e.getMessage());
+        }
+    }
+
+    /**
+     * Apply the managed mapping and settings to the DataFeed index, unless they already were.
+     *
+     * @throws org.springframework.data.elasticsearch.ElasticsearchException if Elasticsearch failed to apply them
+     */
+    public void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        synchronized (this) {
+            if (!initialized) {
+                apply();
+                initialized = true;
+            }
+        }
+    }
+
+    /**
+     * Apply the managed mapping and settings again, after the alias was moved to another index.
+     */
+    public void refresh() {
+        initialized = false;
+        initialize();
+    }
+
+    /**
+     * @return true if the index maps the strings dynamically, so that they have to be filtered by their keyword
+     * subfield until it is reindexed
+     */
+    public boolean hasDynamicMapping() {
+        return dynamicMapping;
+    }
+
+    /**
+     * @return the dynamic settings of the DataFeed indices
+     */
+    public Map<String, Object> getIndexSettings() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("number_of_replicas", properties.getReplicas());
+        settings.put("refresh_interval", properties.getRefreshInterval());
+        return settings;
+    }
+
+    private void apply() {
+        String alias = elasticsearchOperations.getPersistentEntityFor(DataFeed.class).getIndexName();
+        if (!dataFeedSearchRepository.indexExists(alias)) {
+            Map<String, Object> settings = getIndexSettings();
+            settings.put("number_of_shards", properties.getShards());
+            dataFeedSearchRepository.createIndex(alias, settings);
+            dynamicMapping = false;
+            log.info("Created index {}", alias);
+            return;
+        }
+        dataFeedSearchRepository.updateIndexSettings(alias, getIndexSettings());
+        if (dataFeedSearchRepository.hasDynamicMapping(alias)) {
+            dynamicMapping = true;
+            log.warn("Index {} has a dynamic mapping, reindex it to apply the managed one", alias);
+            return;
+        }
+        dynamicMapping = false;
+        Set<String> added = dataFeedSearchRepository.putMissingProperties(alias);
+        if (!added.isEmpty()) {
+            log.info("Added the properties {} to the mapping of index {}", added, alias);
+        }
+    }
+}
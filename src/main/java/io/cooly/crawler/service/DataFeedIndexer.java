@@ -0,0 +1,456 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind indexing of DataFeeds into Elasticsearch.
+ * <p>
+ * MongoDB is the source of truth: writers only enqueue the change, and a drain task running on the
+ * {@code taskExecutor} sends the pending changes to Elasticsearch in size and time bounded bulk requests.
+ * The queue is bounded, so writers block when Elasticsearch cannot keep up, and failed documents are
+ * retried with an exponential backoff. A partial update only sends the changed properties, instead of
+ * the whole dataFeed. Changes sent on the caller thread go after the ones enqueued before them, so that a
+ * queued change never overwrites a later one.
+ * <p>
+ * While a reindex is loading a new index, every change is also written to that shadow index, so that
+ * nothing written during the load is missing once the alias is swapped.
+ */
+@Service
+public class DataFeedIndexer {
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedIndexer.class);
+
+    private final DataFeedSearchRepository dataFeedSearchRepository;
+
+    private final DataFeedIndexManager dataFeedIndexManager;
+
+    private final PageRankService pageRankService;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.Indexing properties;
+
+    private final BlockingQueue<PendingOperation> queue;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Held while a batch is collected and sent, so that batches reach Elasticsearch in the order of their changes.
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * Enqueue time of the oldest operation of the batch being flushed, 0 when no batch is in flight.
+     */
+    private volatile long inFlightSince;
+
+    private volatile String shadowIndex;
+
+    private final Set<String> shadowDeletedIds = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Map<String, Object>> shadowUpdates = new ConcurrentHashMap<>();
+
+    private final Counter indexedCounter;
+
+    private final Counter failedCounter;
+
+    public DataFeedIndexer(DataFeedSearchRepository dataFeedSearchRepository,
+                           DataFeedIndexManager dataFeedIndexManager,
+                           PageRankService pageRankService,
+                           @Qualifier("taskExecutor") Executor taskExecutor,
+                           ApplicationProperties applicationProperties,
+                           MeterRegistry meterRegistry) {
+        this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.dataFeedIndexManager = dataFeedIndexManager;
+        this.pageRankService = pageRankService;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getIndexing();
+        this.queue = new LinkedBlockingQueue<>(properties.getQueueCapacity());
+        this.indexedCounter = meterRegistry.counter("indexer.datafeed.indexed");
+        this.failedCounter = meterRegistry.counter("indexer.datafeed.failed");
+        Gauge.builder("indexer.datafeed.queue.size", queue, BlockingQueue::size)
+            .description("Number of DataFeed changes waiting to be indexed")
+            .register(meterRegistry);
+        Gauge.builder("indexer.datafeed.lag", this, DataFeedIndexer::getLagMillis)
+            .description("Age of the oldest DataFeed change not yet indexed")
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Schedule the indexing of a dataFeed.
+     *
+     * @param dataFeed the persisted entity
+     */
+    public void index(DataFeed dataFeed) {
+        enqueue(new PendingOperation(dataFeed.getId(), dataFeed, null));
+    }
+
+    /**
+     * Schedule the indexing of several dataFeeds.
+     *
+     * @param dataFeeds the persisted entities
+     */
+    public void indexAll(Collection<DataFeed> dataFeeds) {
+        for (DataFeed dataFeed : dataFeeds) {
+            index(dataFeed);
+        }
+    }
+
+    /**
+     * Schedule a partial update of an indexed dataFeed.
+     *
+     * @param id the id of the updated entity
+     * @param properties the new values of the changed properties, null to remove a property
+     */
+    public void update(String id, Map<String, Object> properties) {
+        enqueue(new PendingOperation(id, null, properties));
+    }
+
+    /**
+     * Schedule the removal of a dataFeed from the index.
+     *
+     * @param id the id of the deleted entity
+     */
+    public void delete(String id) {
+        enqueue(new PendingOperation(id, null, null));
+    }
+
+    /**
+     * Send changes to Elasticsearch on the caller thread, with the same bulk and retry behaviour, after the
+     * changes still queued.
+     *
+     * @param dataFeeds the entities to index
+     * @param deletedIds the ids of the entities to remove from the index
+     * @return the reason of the given changes still failing after the last retry, keyed by id, empty if every
+     * one was applied
+     */
+    public Map<String, String> indexNow(Collection<DataFeed> dataFeeds, Collection<String> deletedIds) {
+        List<PendingOperation> operations = new ArrayList<>(dataFeeds.size() + deletedIds.size());
+        dataFeeds.forEach(dataFeed -> operations.add(new PendingOperation(dataFeed.getId(), dataFeed, null)));
+        deletedIds.forEach(id -> operations.add(new PendingOperation(id, null, null)));
+        Map<String, String> failures = flushPending(operations);
+        failures.keySet().retainAll(operations.stream().map(operation -> operation.id).collect(Collectors.toSet()));
+        return failures;
+    }
+
+    /**
+     * Send the changes still queued to Elasticsearch on the caller thread, such as before changing the index
+     * by query, which the queued changes would otherwise overwrite.
+     */
+    public void flushPending() {
+        flushPending(new ArrayList<>());
+    }
+
+    /**
+     * Also write every change to the given index, until {@link #stopShadowIndexing()} is called.
+     *
+     * @param indexName the index being loaded
+     */
+    public void startShadowIndexing(String indexName) {
+        shadowDeletedIds.clear();
+        shadowUpdates.clear();
+        shadowIndex = indexName;
+    }
+
+    /**
+     * @return the ids of the dataFeeds deleted since shadow indexing started
+     */
+    public Set<String> getShadowDeletedIds() {
+        return shadowDeletedIds;
+    }
+
+    /**
+     * @return the partial updates since shadow indexing started, of the dataFeeds not indexed again since,
+     * keyed by id
+     */
+    public Map<String, Map<String, Object>> getShadowUpdates() {
+        return shadowUpdates;
+    }
+
+    public void stopShadowIndexing() {
+        shadowIndex = null;
+        shadowDeletedIds.clear();
+        shadowUpdates.clear();
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest change not yet visible in Elasticsearch
+     */
+    public long getLagMillis() {
+        long oldest = inFlightSince;
+        PendingOperation head = queue.peek();
+        if (head != null && (oldest == 0 || head.enqueuedAt < oldest)) {
+            oldest = head.enqueuedAt;
+        }
+        return oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    @PreDestroy
+    public void flushRemaining() {
+        if (!queue.isEmpty()) {
+            log.info("Flushing {} pending DataFeed index operations before shutdown", queue.size());
+            flushPending();
+        }
+    }
+
+    /**
+     * Send the changes still queued, then the given ones, once the batch in flight is sent.
+     */
+    private Map<String, String> flushPending(List<PendingOperation> operations) {
+        synchronized (flushLock) {
+            List<PendingOperation> pending = new ArrayList<>(queue.size() + operations.size());
+            queue.drainTo(pending);
+            pending.addAll(operations);
+            return pending.isEmpty() ? new HashMap<>() : flush(pending);
+        }
+    }
+
+    private void enqueue(PendingOperation operation) {
+        // Never drop a change, nor index it out of order: block until the queue has room
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (queue.offer(operation, properties.getOfferTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                    log.warn("Indexing queue is full, waiting to enqueue DataFeed {}", operation.id);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                // The drain task may have been rejected by the executor
+                scheduleDrain();
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                taskExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                log.warn("Could not schedule the indexing of pending DataFeeds: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void drain() {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        try {
+            boolean sent = true;
+            while (sent) {
+                synchronized (flushLock) {
+                    sent = drainBatch(batchSize);
+                }
+            }
+        } finally {
+            inFlightSince = 0;
+            draining.set(false);
+            // An operation may have been enqueued after the last poll, but before the flag was cleared
+            if (!queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    /**
+     * Collect a batch of the queued changes, until it is full or its oldest change is due, and send it.
+     *
+     * @return true if a batch was sent and the drain goes on
+     */
+    private boolean drainBatch(int batchSize) {
+        PendingOperation first = queue.poll();
+        if (first == null) {
+            return false;
+        }
+        List<PendingOperation> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        inFlightSince = first.enqueuedAt;
+        long deadline = first.enqueuedAt + properties.getFlushIntervalMs();
+        boolean interrupted = false;
+        try {
+            while (batch.size() < batchSize) {
+                long wait = deadline - System.currentTimeMillis();
+                PendingOperation next = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+        }
+        flush(batch);
+        inFlightSince = 0;
+        return !interrupted;
+    }
+
+    private Map<String, String> flush(List<PendingOperation> batch) {
+        // Only the latest change of a dataFeed needs to reach Elasticsearch, and the partial updates since
+        Map<String, PendingOperation> latest = new LinkedHashMap<>();
+        Map<String, PendingOperation> updates = new LinkedHashMap<>();
+        for (PendingOperation operation : batch) {
+            if (operation.properties == null) {
+                latest.put(operation.id, operation);
+                updates.remove(operation.id);
+            } else {
+                updates.merge(operation.id, operation, PendingOperation::merge);
+            }
+        }
+        Collection<PendingOperation> pending = new ArrayList<>(latest.values());
+        pending.addAll(updates.values());
+        long backoff = properties.getRetryBackoffMs();
+        for (int attempt = 0; ; attempt++) {
+            Map<String, String> failures = send(pending);
+            indexedCounter.increment(pending.size() - failures.size());
+            if (failures.isEmpty()) {
+                return failures;
+            }
+            if (attempt >= properties.getMaxRetries()) {
+                log.error("Giving up indexing {} DataFeeds after {} attempts, first failure: {}",
+                    failures.size(), attempt + 1, failures.values().iterator().next());
+                failedCounter.increment(failures.size());
+                return failures;
+            }
+            log.warn("Failed to index {} DataFeeds, retrying in {} ms", failures.size(), backoff);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failedCounter.increment(failures.size());
+                return failures;
+            }
+            backoff = Math.min(backoff * 2, properties.getMaxRetryBackoffMs());
+            pending = pending.stream()
+                .filter(operation -> failures.containsKey(operation.id))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private Map<String, String> send(Collection<PendingOperation> operations) {
+        List<DataFeed> toIndex = new ArrayList<>();
+        List<String> toDelete = new ArrayList<>();
+        Map<String, Map<String, Object>> toUpdate = new LinkedHashMap<>();
+        for (PendingOperation operation : operations) {
+            if (operation.dataFeed != null) {
+                toIndex.add(operation.dataFeed);
+            } else if (operation.properties != null) {
+                toUpdate.put(operation.id, operation.properties);
+            } else {
+                toDelete.add(operation.id);
+            }
+        }
+        Map<String, String> failures = new HashMap<>();
+        try {
+            // Otherwise the first bulk request would create the index with a dynamic mapping
+            dataFeedIndexManager.ensureInitialized();
+        } catch (RuntimeException e) {
+            operations.forEach(operation -> failures.put(operation.id, e.getMessage()));
+            return failures;
+        }
+        try {
+            pageRankService.applyRanks(toIndex);
+            failures.putAll(dataFeedSearchRepository.bulkIndex(toIndex));
+        } catch (RuntimeException e) {
+            toIndex.forEach(dataFeed -> failures.put(dataFeed.getId(), e.getMessage()));
+        }
+        try {
+            failures.putAll(dataFeedSearchRepository.bulkDelete(toDelete));
+        } catch (RuntimeException e) {
+            toDelete.forEach(id -> failures.put(id, e.getMessage()));
+        }
+        // Sent after the whole dataFeeds, which they change
+        try {
+            failures.putAll(dataFeedSearchRepository.bulkUpdate(toUpdate));
+        } catch (RuntimeException e) {
+            toUpdate.keySet().forEach(id -> failures.put(id, e.getMessage()));
+        }
+        String shadow = shadowIndex;
+        if (shadow != null) {
+            shadowDeletedIds.addAll(toDelete);
+            toIndex.forEach(dataFeed -> shadowUpdates.remove(dataFeed.getId()));
+            toDelete.forEach(shadowUpdates::remove);
+            // A dataFeed not loaded yet is not updated, the update is applied again once it is
+            toUpdate.forEach((id, properties) -> shadowUpdates.merge(id, properties, PendingOperation::merge));
+            try {
+                dataFeedSearchRepository.bulkIndex(shadow, toIndex).forEach(failures::putIfAbsent);
+                dataFeedSearchRepository.bulkDelete(shadow, toDelete).forEach(failures::putIfAbsent);
+                dataFeedSearchRepository.bulkUpdate(shadow, toUpdate).forEach(failures::putIfAbsent);
+            } catch (RuntimeException e) {
+                log.warn("Could not write {} DataFeed changes to shadow index {}: {}",
+                    operations.size(), shadow, e.getMessage());
+                operations.forEach(operation -> failures.putIfAbsent(operation.id, e.getMessage()));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * A change waiting to be sent to Elasticsearch: an index operation when {@code dataFeed} is set,
+     * a partial update when {@code properties} are set, a deletion otherwise.
+     */
+    private static final class PendingOperation {
+
+        private final String id;
+
+        private final DataFeed dataFeed;
+
+        private final Map<String, Object> properties;
+
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private PendingOperation(String id, DataFeed dataFeed, Map<String, Object> properties) {
+            this.id = id;
+            this.dataFeed = dataFeed;
+            this.properties = properties;
+        }
+
+        /**
+         * @return the partial update with the properties of both updates, the later ones winning
+         */
+        private static PendingOperation merge(PendingOperation earlier, PendingOperation later) {
+            return new PendingOperation(earlier.id, null, merge(earlier.properties, later.properties));
+        }
+
+        private static Map<String, Object> merge(Map<String, Object> earlier, Map<String, Object> later) {
+            Map<String, Object> properties = new HashMap<>(earlier);
+            properties.putAll(later);
+            return properties;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.service.dto.ReindexStatusDTO;
+import io.cooly.crawler.service.dto.ReindexStatusDTO.State;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds the DataFeed search index from MongoDB without downtime.
+ * <p>
+ * The data_feed collection is split into ObjectId ranges that are scanned in parallel and bulk loaded
+ * into a new {@code <index>_v<N>} index, with replicas and refresh disabled during the load. Changes
+ * made meanwhile are also written to the new index by the {@link DataFeedIndexer}. Once loaded, the
+ * index settings are restored and the DataFeed alias is atomically moved to the new index.
+ * <p>
+ * When near-duplicates are kept out of the search index, a dataFeed with a near-duplicate created before it is
+ * not loaded either, so that the new index leaves out the same dataFeeds as the writes did.
+ * <p>
+ * Indices get the managed mapping of the DataFeed search repository, and the shards, replicas and refresh
+ * interval of the {@code application.search-index} properties; a reindex is how an index created with a
+ * dynamic mapping gets the managed one.
+ */
+@Service
+public class DataFeedReindexService {
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedReindexService.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final DataFeedSearchRepository dataFeedSearchRepository;
+
+    private final DataFeedIndexer dataFeedIndexer;
+
+    private final DataFeedIndexManager dataFeedIndexManager;
+
+    private final PageRankService pageRankService;
+
+    private final NearDuplicateIndex nearDuplicateIndex;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final ApplicationProperties.Reindex properties;
+
+    private final ApplicationProperties.Indexing indexingProperties;
+
+    private final ApplicationProperties.SearchIndex searchIndexProperties;
+
+    private final ApplicationProperties.NearDuplicates nearDuplicatesProperties;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile State state = State.IDLE;
+
+    private volatile String index;
+
+    private volatile long total;
+
+    private volatile Instant startedAt;
+
+    private volatile Instant finishedAt;
+
+    private volatile String error;
+
+    private Thread worker;
+
+    public DataFeedReindexService(DataFeedRepository dataFeedRepository,
+                                  DataFeedSearchRepository dataFeedSearchRepository,
+                                  DataFeedIndexer dataFeedIndexer,
+                                  DataFeedIndexManager dataFeedIndexManager,
+                                  PageRankService pageRankService,
+                                  NearDuplicateIndex nearDuplicateIndex,
+                                  ElasticsearchOperations elasticsearchOperations,
+                                  ApplicationProperties applicationProperties) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.dataFeedIndexer = dataFeedIndexer;
+        this.dataFeedIndexManager = dataFeedIndexManager;
+        this.pageRankService = pageRankService;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.properties = applicationProperties.getReindex();
+        this.indexingProperties = applicationProperties.getIndexing();
+        this.searchIndexProperties = applicationProperties.getSearchIndex();
+        this.nearDuplicatesProperties = applicationProperties.getNearDuplicates();
+    }
+
+    /**
+     * Delete from the search index the duplicate dataFeeds moved out of MongoDB when the urls were made
+     * unique, so that searches stop returning them. Those Elasticsearch fails to delete are retried at the
+     * next startup.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void unindexMigratedDuplicates() {
+        long unindexed = 0;
+        try {
+            List<String> ids;
+            while (!(ids = dataFeedRepository.findDuplicateIdsToUnindex(properties.getBatchSize())).isEmpty()) {
+                Map<String, String> failures = dataFeedSearchRepository.bulkDelete(ids);
+                List<String> deleted = ids.stream().filter(id -> !failures.containsKey(id))
+                    .collect(Collectors.toList());
+                dataFeedRepository.markDuplicatesUnindexed(deleted);
+                unindexed += deleted.size();
+                if (!failures.isEmpty()) {
+                    log.warn("Could not delete {} duplicate DataFeeds from the search index: {}", failures.size(),
+                        failures.values().iterator().next());
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not delete the duplicate DataFeeds from the search index: {}", e.getMessage());
+        }
+        if (unindexed > 0) {
+            log.info("Deleted {} duplicate DataFeeds from the search index", unindexed);
+        }
+    }
+
+    /**
+     * Update in the search index the urls of the dataFeeds renamed when the stored urls were normalized, so that
+     * url searches and lookups agree with MongoDB. Those Elasticsearch fails to update are retried at the next
+     * startup; a dataFeed kept out of the search index stays out of it.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reindexMigratedUrls() {
+        long reindexed = 0;
+        try {
+            Map<String, String> urls;
+            while (!(urls = dataFeedRepository.findRenamedUrlsToReindex(properties.getBatchSize())).isEmpty()) {
+                Map<String, Map<String, Object>> updates = new HashMap<>();
+                urls.forEach((id, url) -> updates.put(id, Collections.singletonMap("url", url)));
+                Map<String, String> failures = dataFeedSearchRepository.bulkUpdate(updates);
+                List<String> updated = urls.keySet().stream().filter(id -> !failures.containsKey(id))
+                    .collect(Collectors.toList());
+                dataFeedRepository.markRenamedReindexed(updated);
+                reindexed += updated.size();
+                if (!failures.isEmpty()) {
+                    log.warn("Could not update the url of {} renamed DataFeeds in the search index: {}",
+                        failures.size(), failures.values().iterator().next());
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not update the urls of the renamed DataFeeds in the search index: {}", e.getMessage());
+        }
+        if (reindexed > 0) {
+            log.info("Updated the url of {} renamed DataFeeds in the search index", reindexed);
+        }
+    }
+
+    /**
+     * Start a reindex in the background, unless one is already running.
+     *
+     * @return true if a reindex was started
+     */
+    public synchronized boolean start() {
+        if (state == State.RUNNING) {
+            return false;
+        }
+        state = State.RUNNING;
+        index = null;
+        total = 0;
+        processed.set(0);
+        failed.set(0);
+        startedAt = Instant.now();
+        finishedAt = null;
+        error = null;
+        worker = new Thread(this::run, "reindex");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    /**
+     * @return the progress of the running reindex, or the outcome of the last one
+     */
+    public ReindexStatusDTO getStatus() {
+        ReindexStatusDTO status = new ReindexStatusDTO();
+        status.setState(state);
+        status.setIndex(index);
+        status.setTotal(total);
+        status.setProcessed(processed.get());
+        status.setFailed(failed.get());
+        status.setStartedAt(startedAt);
+        status.setFinishedAt(finishedAt);
+        status.setError(error);
+        if (startedAt != null) {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            double seconds = Math.max(1, Duration.between(startedAt, end).toMillis()) / 1000.0;
+            status.setDocsPerSecond(status.getProcessed() / seconds);
+            if (state == State.RUNNING && status.getDocsPerSecond() > 0) {
+                long remaining = Math.max(0, total - status.getProcessed() - status.getFailed());
+                status.setEtaSeconds((long) Math.ceil(remaining / status.getDocsPerSecond()));
+            }
+        }
+        return status;
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private void run() {
+        ElasticsearchPersistentEntity<?> entity = elasticsearchOperations.getPersistentEntityFor(DataFeed.class);
+        String alias = entity.getIndexName();
+        String newIndex = null;
+        try {
+            Set<String> oldIndices = dataFeedSearchRepository.getAliasedIndices();
+            newIndex = nextIndexName(alias, oldIndices);
+            index = newIndex;
+            total = dataFeedRepository.count();
+            log.info("Reindexing {} DataFeeds into {}", total, newIndex);
+
+            Map<String, Object> loadSettings = new HashMap<>();
+            loadSettings.put("number_of_shards", searchIndexProperties.getShards());
+            loadSettings.put("number_of_replicas", 0);
+            loadSettings.put("refresh_interval", "-1");
+            dataFeedSearchRepository.createIndex(newIndex, loadSettings);
+            dataFeedIndexer.startShadowIndexing(newIndex);
+
+            load(newIndex);
+            if (failed.get() > 0) {
+                throw new IllegalStateException(failed.get() + " DataFeeds could not be indexed");
+            }
+            // A deletion that happened while its dataFeed was being loaded may have been undone by the load
+            Map<String, String> deleteFailures = dataFeedSearchRepository.bulkDelete(newIndex,
+                new ArrayList<>(dataFeedIndexer.getShadowDeletedIds()));
+            if (!deleteFailures.isEmpty()) {
+                throw new IllegalStateException(deleteFailures.size() + " deleted DataFeeds could not be removed");
+            }
+            // Likewise a partial update of a dataFeed not loaded yet, or overwritten by the load
+            Map<String, String> updateFailures = dataFeedSearchRepository.bulkUpdate(newIndex,
+                new HashMap<>(dataFeedIndexer.getShadowUpdates()));
+            if (!updateFailures.isEmpty()) {
+                throw new IllegalStateException(updateFailures.size() + " partial updates of DataFeeds could not be applied");
+            }
+
+            dataFeedSearchRepository.updateIndexSettings(newIndex, dataFeedIndexManager.getIndexSettings());
+            dataFeedSearchRepository.refreshIndex(newIndex);
+
+            List<String> aliasedIndices = new ArrayList<>(oldIndices);
+            if (aliasedIndices.remove(alias)) {
+                log.warn("{} is an index, not an alias: deleting it, searches fail until the alias is created", alias);
+                dataFeedSearchRepository.deleteIndex(alias);
+            }
+            dataFeedSearchRepository.swapAlias(newIndex, aliasedIndices);
+            dataFeedIndexer.stopShadowIndexing();
+            dataFeedIndexManager.refresh();
+            log.info("Alias {} now points to {}", alias, newIndex);
+
+            for (String oldIndex : aliasedIndices) {
+                try {
+                    dataFeedSearchRepository.deleteIndex(oldIndex);
+                } catch (RuntimeException e) {
+                    log.warn("Could not delete the previous DataFeed index {}: {}", oldIndex, e.getMessage());
+                }
+            }
+            finish(State.COMPLETED, null);
+        } catch (RuntimeException e) {
+            log.error("Reindex of DataFeeds into {} failed", newIndex, e);
+            dataFeedIndexer.stopShadowIndexing();
+            if (newIndex != null) {
+                try {
+                    dataFeedSearchRepository.deleteIndex(newIndex);
+                } catch (RuntimeException deleteError) {
+                    log.warn("Could not delete the incomplete index {}: {}", newIndex, deleteError.getMessage());
+                }
+            }
+            finish(State.FAILED, e.getMessage());
+        }
+    }
+
+    private void finish(State outcome, String message) {
+        finishedAt = Instant.now();
+        error = message;
+        state = outcome;
+        ReindexStatusDTO status = getStatus();
+        log.info("Reindex {}: {} DataFeeds in {} at {} docs/s", outcome, status.getProcessed(),
+            Duration.between(status.getStartedAt(), status.getFinishedAt()), Math.round(status.getDocsPerSecond()));
+    }
+
+    /**
+     * The next {@code <alias>_v<N>} index, after the current one and any leftover of a failed run.
+     */
+    private String nextIndexName(String alias, Set<String> aliasedIndices) {
+        Pattern versioned = Pattern.compile(Pattern.quote(alias) + "_v(\\d+)");
+        int version = 0;
+        for (String aliasedIndex : aliasedIndices) {
+            Matcher matcher = versioned.matcher(aliasedIndex);
+            if (matcher.matches()) {
+                version = Math.max(version, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        String name;
+        do {
+            version++;
+            name = alias + "_v" + version;
+        } while (dataFeedSearchRepository.indexExists(name));
+        return name;
+    }
+
+    private void load(String indexName) {
+        List<Callable<Void>> partitions = new ArrayList<>();
+        Optional<ObjectId> min = dataFeedRepository.findMinObjectId();
+        Optional<ObjectId> max = dataFeedRepository.findMaxObjectId();
+        if (min.isPresent() && max.isPresent()) {
+            // ObjectIds start with their creation time in seconds, which gives evenly spread ranges to split
+            long from = min.get().getTimestamp() & 0xFFFFFFFFL;
+            long to = (max.get().getTimestamp() & 0xFFFFFFFFL) + 1;
+            long step = Math.max(1, (to - from + properties.getPartitions() - 1) / Math.max(1, properties.getPartitions()));
+            for (long lower = from; lower < to; lower += step) {
+                ObjectId lowerId = lowerBound(lower);
+                ObjectId upperId = lowerBound(Math.min(lower + step, to));
+                partitions.add(scan(indexName, () -> dataFeedRepository.streamByObjectIdRange(lowerId, upperId)));
+            }
+        }
+        partitions.add(scan(indexName, dataFeedRepository::streamWithoutObjectId));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, properties.getThreads()),
+            new CustomizableThreadFactory("reindex-"));
+        try {
+            for (Future<Void> partition : executor.invokeAll(partitions)) {
+                partition.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reindex interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ObjectId lowerBound(long timestamp) {
+        return new ObjectId(String.format("%08x0000000000000000", timestamp));
+    }
+
+    private Callable<Void> scan(String indexName, Supplier<CloseableIterator<DataFeed>> partition) {
+        return () -> {
+            int batchSize = Math.max(1, properties.getBatchSize());
+            List<DataFeed> batch = new ArrayList<>(batchSize);
+            try (CloseableIterator<DataFeed> dataFeeds = partition.get()) {
+                while (dataFeeds.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IllegalStateException("Reindex interrupted");
+                    }
+                    batch.add(dataFeeds.next());
+                    if (batch.size() >= batchSize) {
+                        send(indexName, batch);
+                        batch.clear();
+                    }
+                }
+            }
+            send(indexName, batch);
+            return null;
+        };
+    }
+
+    /**
+     * Create a batch of dataFeeds in the index being loaded, except the near-duplicates kept out of the search
+     * index, retrying the failed ones with a backoff.
+     */
+    private void send(String indexName, List<DataFeed> batch) throws InterruptedException {
+        List<DataFeed> pending = withoutNearDuplicates(batch);
+        // The skipped near-duplicates count as processed
+        processed.addAndGet(batch.size() - pending.size());
+        long backoff = indexingProperties.getRetryBackoffMs();
+        pageRankService.applyRanks(pending);
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            Map<String, String> failures;
+            try {
+                failures = dataFeedSearchRepository.bulkCreate(indexName, pending);
+            } catch (RuntimeException e) {
+                failures = pending.stream().collect(Collectors.toMap(DataFeed::getId, dataFeed -> String.valueOf(e.getMessage())));
+            }
+            processed.addAndGet(pending.size() - failures.size());
+            if (failures.isEmpty()) {
+                return;
+            }
+            if (attempt >= indexingProperties.getMaxRetries()) {
+                log.error("Giving up reindexing {} DataFeeds, first failure: {}",
+                    failures.size(), failures.values().iterator().next());
+                failed.addAndGet(failures.size());
+                return;
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, indexingProperties.getMaxRetryBackoffMs());
+            Map<String, String> retry = failures;
+            pending = pending.stream()
+                .filter(dataFeed -> retry.containsKey(dataFeed.getId()))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the dataFeeds of the batch without a near-duplicate created before them, which the writes kept
+     * out of the search index; ObjectIds start with their creation time, so the older one has the smaller id
+     */
+    private List<DataFeed> withoutNearDuplicates(List<DataFeed> batch) {
+        if (!nearDuplicatesProperties.isEnabled() || !nearDuplicatesProperties.isSkipIndexing()) {
+            return batch;
+        }
+        return batch.stream()
+            .filter(dataFeed -> !hasOlderNearDuplicate(dataFeed))
+            .collect(Collectors.toList());
+    }
+
+    private boolean hasOlderNearDuplicate(DataFeed dataFeed) {
+        if (dataFeed.getSimhash() == null) {
+            return false;
+        }
+        int maxDistance = nearDuplicatesProperties.getMaxDistance();
+        return nearDuplicateIndex.find(dataFeed.getId(), dataFeed.getSimhash(), maxDistance).stream()
+            .anyMatch(nearDuplicate -> nearDuplicate.getId().compareTo(dataFeed.getId()) < 0);
+    }
+}
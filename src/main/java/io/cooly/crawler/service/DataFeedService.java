@@ -1,10 +1,23 @@
 package io.cooly.crawler.service;
 
 import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.service.dto.BulkItemResultDTO;
+import io.cooly.crawler.service.dto.DataFeedCriteria;
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
+import io.cooly.crawler.service.dto.KeysetPage;
+import io.cooly.crawler.service.dto.LinkDTO;
+import io.cooly.crawler.service.dto.NearDuplicateDTO;
+import io.cooly.crawler.service.dto.SavedDataFeed;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.util.CloseableIterator;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service Interface for managing DataFeed.
@@ -19,6 +32,63 @@ public interface DataFeedService {
      */
     DataFeed save(DataFeed dataFeed);
 
+    /**
+     * Save a new dataFeed. Urls are unique: if a dataFeed with the same url is stored, the new one replaces it
+     * as a whole and keeps its id, the properties it does not have are removed. If the page is unchanged, only
+     * the created and fetched properties of the stored one are updated.
+     *
+     * @param dataFeed the entity to save, without an id
+     * @return the persisted entity, and whether it was created rather than replacing a stored one
+     */
+    SavedDataFeed create(DataFeed dataFeed);
+
+    /**
+     * Save a dataFeed by its url, in a single atomic write: it is inserted, or it replaces the stored dataFeed
+     * with the same url and keeps its id. Saving the same dataFeed again is idempotent, and it is only
+     * indexed again if its content changed.
+     *
+     * @param dataFeed the entity to save, with a url; its id is ignored
+     * @return the persisted entity
+     * @throws IllegalArgumentException if the dataFeed has no url
+     */
+    DataFeed upsertByUrl(DataFeed dataFeed);
+
+    /**
+     * Update some properties of a dataFeed, with JSON merge patch semantics: the patched properties are set,
+     * or removed when null, and the others are left as is. Only the patched properties are written to
+     * MongoDB and sent to the search index.
+     *
+     * @param id the id of the entity
+     * @param patch the new values of the patched properties
+     * @param properties the patched properties, among domain, fetched, created, engine, data, level and fileName
+     * @param fields the properties to return, the patched ones by default
+     * @return the updated entity, or empty if it does not exist
+     * @throws IllegalArgumentException if a property cannot be patched
+     */
+    Optional<DataFeed> partialUpdate(String id, DataFeed patch, Set<String> properties, Collection<String> fields);
+
+    /**
+     * Apply the same partial update to several dataFeeds, as {@link #partialUpdate(String, DataFeed, Set, Collection)}
+     * does, with one MongoDB update per chunk of ids.
+     *
+     * @param ids the ids of the entities
+     * @param patch the new values of the patched properties
+     * @param properties the patched properties
+     * @return the number of dataFeeds updated
+     * @throws IllegalArgumentException if no property is patched, or a property cannot be patched
+     */
+    long partialUpdate(Collection<String> ids, DataFeed patch, Set<String> properties);
+
+    /**
+     * Save a list of dataFeeds with bulk writes.
+     * <p>
+     * Items are written in chunks, and a failed item does not prevent the others from being saved.
+     *
+     * @param dataFeeds the entities to save
+     * @return the outcome of every item, in the same order as {@code dataFeeds}
+     */
+    List<BulkItemResultDTO> saveAll(List<DataFeed> dataFeeds);
+
     /**
      * Get all the dataFeeds.
      *
@@ -27,6 +97,49 @@ public interface DataFeedService {
      */
     Page<DataFeed> findAll(Pageable pageable);
 
+    /**
+     * Get all the dataFeeds, only loading the given properties; the others are null.
+     *
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    Page<DataFeed> findAll(Pageable pageable, Collection<String> fields);
+
+    /**
+     * Get a page of dataFeeds without counting them all.
+     *
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the slice of entities
+     */
+    Slice<DataFeed> findSlice(Pageable pageable, Collection<String> fields);
+
+    /**
+     * @return the approximate number of dataFeeds, read from the collection metadata
+     */
+    long estimateCount();
+
+    /**
+     * Get a page of dataFeeds after a continuation token, without counting nor skipping the previous pages.
+     *
+     * @param cursor the token of the previous page, empty for the first page
+     * @param pageable the page size, and for the first page the sort order, by id (default) or created
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of entities
+     * @throws IllegalArgumentException if the cursor or the sort order is invalid
+     */
+    KeysetPage<DataFeed> findAll(String cursor, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Stream the dataFeeds matching the criteria straight from a database cursor, in no particular order.
+     *
+     * @param criteria the filters to apply
+     * @param fields the properties to load, all of them when null or empty
+     * @return the matching entities, the iterator must be closed by the caller
+     */
+    CloseableIterator<DataFeed> stream(DataFeedCriteria criteria, Collection<String> fields);
+
 
     /**
      * Get the "id" dataFeed.
@@ -36,6 +149,71 @@ public interface DataFeedService {
      */
     Optional<DataFeed> findOne(String id);
 
+    /**
+     * Get the "id" dataFeed, only loading the given properties; the others are null.
+     *
+     * @param id the id of the entity
+     * @param fields the properties to load, all of them when null or empty
+     * @return the entity
+     */
+    Optional<DataFeed> findOne(String id, Collection<String> fields);
+
+    /**
+     * Get the dataFeeds whose page is a near-duplicate of the page of the "id" dataFeed.
+     *
+     * @param id the id of the entity
+     * @param maxDistance the largest number of differing SimHash bits
+     * @param limit the maximum number of near-duplicates
+     * @return the near-duplicates, closest first, or empty if the dataFeed does not exist
+     */
+    Optional<List<NearDuplicateDTO>> findNearDuplicates(String id, int maxDistance, int limit);
+
+    /**
+     * Get the urls the page of the "id" dataFeed links to.
+     *
+     * @param id the id of the entity
+     * @param pageable the pagination information
+     * @return the outlinks, or empty if the dataFeed does not exist
+     */
+    Optional<Page<LinkDTO>> findOutlinks(String id, Pageable pageable);
+
+    /**
+     * Get the urls of the pages linking to the page of the "id" dataFeed.
+     *
+     * @param id the id of the entity
+     * @param pageable the pagination information
+     * @return the inlinks, or empty if the dataFeed does not exist
+     */
+    Optional<Page<LinkDTO>> findInlinks(String id, Pageable pageable);
+
+    /**
+     * Get the urls of a domain, lowest level first, from an index alone.
+     *
+     * @param domain the domain
+     * @param fetched whether the urls were fetched
+     * @param maxLevel the maximum level of the urls
+     * @param pageable the pagination information, its sort is ignored
+     * @return the slice of dataFeeds, with only their url and level
+     */
+    Slice<DataFeed> findUrlsByDomain(String domain, boolean fetched, int maxLevel, Pageable pageable);
+
+    /**
+     * Count the dataFeeds of a domain from an index alone.
+     *
+     * @param domain the domain
+     * @param fetched whether the dataFeeds were fetched
+     * @return the number of dataFeeds
+     */
+    long countByDomain(String domain, boolean fetched);
+
+    /**
+     * Count the dataFeeds created since a date from an index alone.
+     *
+     * @param since the earliest creation date, inclusive
+     * @return the number of dataFeeds
+     */
+    long countCreatedSince(Instant since);
+
     /**
      * Delete the "id" dataFeed.
      *
@@ -52,4 +230,48 @@ public interface DataFeedService {
      * @return the list of entities
      */
     Page<DataFeed> search(String query, Pageable pageable);
+
+    /**
+     * Search for the dataFeed corresponding to the query, only loading the given properties; the others are null.
+     *
+     * @param query the query of the search
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    Page<DataFeed> search(String query, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Search for the dataFeed corresponding to the query, the top hits ordered by their text score blended with
+     * the rank and the freshness of their page.
+     *
+     * @param query the query of the search
+     * @param pageable the pagination information, unsorted and ending within the rescore window
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    Page<DataFeed> searchRanked(String query, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Search for the dataFeeds matching a structured query.
+     *
+     * @param query the structured query
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     * @throws IllegalArgumentException if the query is too expensive or invalid
+     */
+    Page<DataFeed> search(DataFeedQueryDTO query, Pageable pageable, Collection<String> fields);
+
+    /**
+     * Search for a page of dataFeeds after a continuation token, whatever the depth of the page.
+     *
+     * @param query the query of the search
+     * @param cursor the token of the previous page, empty for the first page
+     * @param pageable the page size, and for the first page the sort order, by score by default
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of entities
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    KeysetPage<DataFeed> search(String query, String cursor, Pageable pageable, Collection<String> fields);
 }
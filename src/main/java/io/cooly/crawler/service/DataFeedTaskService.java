@@ -0,0 +1,398 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.repository.search.ByQueryProgress;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.service.dto.DataFeedFilterDTO;
+import io.cooly.crawler.service.dto.DataFeedTaskDTO;
+import io.cooly.crawler.service.dto.ReindexStatusDTO;
+import io.cooly.crawler.service.util.DataFeedQueryCompiler;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+
+/**
+ * Runs bulk tasks on the dataFeeds matching a filter, such as marking them as fetched or deleting them, in the
+ * background.
+ * <p>
+ * An update is a single updateMany in MongoDB, then a throttled Elasticsearch update by query, once the index
+ * changes queued before are sent so that none of them overwrites the updated dataFeeds. A delete reads
+ * the matching dataFeeds with a single cursor and deletes them by chunks, from MongoDB then from the search
+ * index, with a pause in between. Tasks run one at a time on their own thread, so that they do not hold the
+ * threads of the {@code taskExecutor}; the outcome of the last ones is kept to be polled.
+ */
+@Service
+public class DataFeedTaskService {
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedTaskService.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final DataFeedSearchRepository dataFeedSearchRepository;
+
+    private final DataFeedIndexer dataFeedIndexer;
+
+    private final DataFeedIndexManager dataFeedIndexManager;
+
+    private final DataFeedReindexService dataFeedReindexService;
+
+    private final UrlFrontier urlFrontier;
+
+    private final LinkGraph linkGraph;
+
+    private final NearDuplicateIndex nearDuplicateIndex;
+
+    private final ApplicationProperties.BulkTasks properties;
+
+    private final ApplicationProperties.Indexing indexingProperties;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "datafeed-task");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Tasks by id, oldest first.
+     */
+    private final Map<String, DataFeedTaskDTO> tasks = new LinkedHashMap<>();
+
+    public DataFeedTaskService(DataFeedRepository dataFeedRepository,
+                               DataFeedSearchRepository dataFeedSearchRepository,
+                               DataFeedIndexer dataFeedIndexer,
+                               DataFeedIndexManager dataFeedIndexManager,
+                               DataFeedReindexService dataFeedReindexService,
+                               UrlFrontier urlFrontier,
+                               LinkGraph linkGraph,
+                               NearDuplicateIndex nearDuplicateIndex,
+                               ApplicationProperties applicationProperties) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.dataFeedIndexer = dataFeedIndexer;
+        this.dataFeedIndexManager = dataFeedIndexManager;
+        this.dataFeedReindexService = dataFeedReindexService;
+        this.urlFrontier = urlFrontier;
+        this.linkGraph = linkGraph;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.properties = applicationProperties.getBulkTasks();
+        this.indexingProperties = applicationProperties.getIndexing();
+    }
+
+    /**
+     * Schedule a bulk task, which starts once the previous ones are finished.
+     *
+     * @param type the task to run
+     * @param filter the dataFeeds it applies to
+     * @return the progress of the task
+     * @throws IllegalArgumentException if the filter is empty or not valid
+     * @throws IllegalStateException if a reindex is running, as the new index would miss the changes
+     */
+    public DataFeedTaskDTO start(DataFeedTaskDTO.Type type, DataFeedFilterDTO filter) {
+        if (filter.getMinLevel() != null && filter.getMaxLevel() != null
+            && filter.getMinLevel() > filter.getMaxLevel()) {
+            throw new IllegalArgumentException("minLevel is greater than maxLevel");
+        }
+        // A task on every dataFeed is most likely a mistake, and would lock the whole collection
+        if (filter.getDomain() == null && filter.getMinLevel() == null && filter.getMaxLevel() == null
+            && filter.getCreatedBefore() == null) {
+            throw new IllegalArgumentException("A filter is required to run a task on dataFeeds");
+        }
+        if (dataFeedReindexService.getStatus().getState() == ReindexStatusDTO.State.RUNNING) {
+            throw new IllegalStateException("A reindex is running");
+        }
+        DataFeedTaskDTO task = new DataFeedTaskDTO();
+        task.setId(UUID.randomUUID().toString());
+        task.setType(type);
+        task.setFilter(filter);
+        task.setState(DataFeedTaskDTO.State.PENDING);
+        synchronized (tasks) {
+            tasks.put(task.getId(), task);
+            evictFinishedTasks();
+        }
+        log.info("Scheduled DataFeed task {} {} on {}", task.getId(), type, filter);
+        worker.execute(() -> run(task));
+        return copy(task);
+    }
+
+    /**
+     * @param id the id of the task
+     * @return the progress of the task, or empty if it is unknown or was finished long ago
+     */
+    public Optional<DataFeedTaskDTO> getTask(String id) {
+        synchronized (tasks) {
+            return Optional.ofNullable(tasks.get(id)).map(DataFeedTaskService::copy);
+        }
+    }
+
+    /**
+     * @return the progress of the pending and running tasks, and of the last finished ones, latest first
+     */
+    public List<DataFeedTaskDTO> getTasks() {
+        List<DataFeedTaskDTO> result = new ArrayList<>();
+        synchronized (tasks) {
+            tasks.values().forEach(task -> result.add(copy(task)));
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+    }
+
+    private void run(DataFeedTaskDTO task) {
+        update(task, running -> {
+            running.setState(DataFeedTaskDTO.State.RUNNING);
+            running.setStartedAt(Instant.now());
+        });
+        try {
+            switch (task.getType()) {
+                case MARK_FETCHED:
+                    setFetched(task, true);
+                    break;
+                case REQUEUE:
+                    setFetched(task, false);
+                    break;
+                case DELETE:
+                    delete(task);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown task " + task.getType());
+            }
+            finish(task, DataFeedTaskDTO.State.COMPLETED, null);
+            log.info("DataFeed task {} completed", task.getId());
+        } catch (RuntimeException e) {
+            log.error("DataFeed task {} failed", task.getId(), e);
+            finish(task, DataFeedTaskDTO.State.FAILED, e.getMessage());
+        }
+    }
+
+    private void setFetched(DataFeedTaskDTO task, boolean fetched) {
+        long updated = dataFeedRepository.setFetched(toQuery(task.getFilter()), fetched);
+        update(task, running -> running.setProcessed(updated));
+        if (fetched) {
+            // The frontier may hold some of them, those still to fetch come back with the next refill
+            urlFrontier.clear(task.getFilter().getDomain());
+        }
+        if (indexingProperties.getChangeStream().isEnabled()) {
+            // The change stream reindexes every updated dataFeed
+            return;
+        }
+        // A queued index operation of a dataFeed would overwrite the value set by the update by query
+        dataFeedIndexer.flushPending();
+        BoolQueryBuilder query = toSearchQuery(task.getFilter()).mustNot(termQuery("fetched", fetched));
+        String indexTask = dataFeedSearchRepository.startUpdateByQuery(query, "ctx._source.fetched = params.fetched",
+            Collections.singletonMap("fetched", fetched), properties.getRequestsPerSecond());
+        awaitIndexTask(task, indexTask);
+    }
+
+    /**
+     * Delete the dataFeeds chunk by chunk, so that each deleteMany is short and the other MongoDB operations
+     * run in between. The chunks are read from a single cursor, which goes over every matching dataFeed once;
+     * each chunk is then deleted from the search index by id, so that a dataFeed created meanwhile with the
+     * same properties is kept. The deletes go through the {@link DataFeedIndexer}, after the changes queued
+     * before, so that a queued index operation does not bring a deleted dataFeed back, and they also reach the
+     * index being loaded by a reindex.
+     */
+    private void delete(DataFeedTaskDTO task) {
+        boolean deletesFromIndex = !indexingProperties.getChangeStream().isEnabled();
+        Query query = toQuery(task.getFilter()).noCursorTimeout();
+        query.fields().include("url");
+        long deleted = 0;
+        long sent = 0;
+        long indexFailures = 0;
+        List<DataFeed> chunk = new ArrayList<>(properties.getDeleteChunkSize());
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(query)) {
+            while (dataFeeds.hasNext()) {
+                chunk.add(dataFeeds.next());
+                if (chunk.size() < properties.getDeleteChunkSize() && dataFeeds.hasNext()) {
+                    continue;
+                }
+                List<String> ids = chunk.stream().map(DataFeed::getId).collect(Collectors.toList());
+                deleted += dataFeedRepository.deleteByIds(ids);
+                for (DataFeed dataFeed : chunk) {
+                    linkGraph.remove(dataFeed.getUrl());
+                    nearDuplicateIndex.remove(dataFeed.getId());
+                    urlFrontier.remove(dataFeed.getId());
+                }
+                chunk.clear();
+                if (deletesFromIndex) {
+                    // Otherwise the change stream removes every deleted dataFeed from the index
+                    indexFailures += deleteFromIndex(ids);
+                    sent += ids.size();
+                }
+                long processed = deleted;
+                long indexTotal = sent;
+                long indexProcessed = sent - indexFailures;
+                update(task, running -> {
+                    running.setProcessed(processed);
+                    running.setIndexTotal(indexTotal);
+                    running.setIndexProcessed(indexProcessed);
+                });
+                pause(properties.getDeletePauseMs());
+            }
+        }
+        if (indexFailures > 0) {
+            throw new IllegalStateException(indexFailures
+                + " deleted dataFeeds could not be removed from the search index");
+        }
+    }
+
+    /**
+     * @return the number of dataFeeds which could not be deleted from the search index
+     */
+    private long deleteFromIndex(List<String> ids) {
+        Map<String, String> failures = dataFeedIndexer.indexNow(Collections.emptyList(), ids);
+        if (!failures.isEmpty()) {
+            log.warn("Could not delete {} DataFeeds from the search index: {}", failures.size(),
+                failures.values().iterator().next());
+        }
+        return failures.size();
+    }
+
+    /**
+     * Follow the progress of the Elasticsearch task of a bulk task until it completes.
+     */
+    private void awaitIndexTask(DataFeedTaskDTO task, String indexTask) {
+        while (true) {
+            pause(properties.getPollIntervalMs());
+            ByQueryProgress progress = dataFeedSearchRepository.getByQueryProgress(indexTask);
+            update(task, running -> {
+                running.setIndexTotal(progress.getTotal());
+                running.setIndexProcessed(progress.getProcessed());
+                running.setIndexVersionConflicts(progress.getVersionConflicts());
+            });
+            if (progress.isCompleted()) {
+                if (progress.getFailure() != null) {
+                    throw new IllegalStateException("Elasticsearch task " + indexTask + " failed: "
+                        + progress.getFailure());
+                }
+                return;
+            }
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while a DataFeed task runs");
+        }
+    }
+
+    private static Query toQuery(DataFeedFilterDTO filter) {
+        Query query = new Query();
+        if (filter.getDomain() != null) {
+            query.addCriteria(Criteria.where("domain").is(filter.getDomain()));
+        }
+        if (filter.getMinLevel() != null || filter.getMaxLevel() != null) {
+            Criteria level = Criteria.where("level");
+            if (filter.getMinLevel() != null) {
+                level.gte(filter.getMinLevel());
+            }
+            if (filter.getMaxLevel() != null) {
+                level.lte(filter.getMaxLevel());
+            }
+            query.addCriteria(level);
+        }
+        if (filter.getCreatedBefore() != null) {
+            query.addCriteria(Criteria.where("created").lt(filter.getCreatedBefore()));
+        }
+        return query;
+    }
+
+    private BoolQueryBuilder toSearchQuery(DataFeedFilterDTO filter) {
+        BoolQueryBuilder query = boolQuery();
+        if (filter.getDomain() != null) {
+            String domain = DataFeedQueryCompiler.keywordField("domain", dataFeedIndexManager.hasDynamicMapping());
+            query.filter(termQuery(domain, filter.getDomain()));
+        }
+        if (filter.getMinLevel() != null || filter.getMaxLevel() != null) {
+            RangeQueryBuilder level = rangeQuery("level");
+            if (filter.getMinLevel() != null) {
+                level.gte(filter.getMinLevel());
+            }
+            if (filter.getMaxLevel() != null) {
+                level.lte(filter.getMaxLevel());
+            }
+            query.filter(level);
+        }
+        if (filter.getCreatedBefore() != null) {
+            query.filter(rangeQuery("created").lt(filter.getCreatedBefore().toString()));
+        }
+        return query;
+    }
+
+    private void finish(DataFeedTaskDTO task, DataFeedTaskDTO.State state, String error) {
+        update(task, running -> {
+            running.setState(state);
+            running.setFinishedAt(Instant.now());
+            running.setError(error);
+        });
+    }
+
+    private void update(DataFeedTaskDTO task, Consumer<DataFeedTaskDTO> change) {
+        synchronized (tasks) {
+            change.accept(task);
+        }
+    }
+
+    /**
+     * Forget the oldest finished tasks beyond the number of retained ones.
+     */
+    private void evictFinishedTasks() {
+        long finished = tasks.values().stream().filter(task -> task.getFinishedAt() != null).count();
+        Iterator<DataFeedTaskDTO> iterator = tasks.values().iterator();
+        while (finished > properties.getRetainedTasks() && iterator.hasNext()) {
+            if (iterator.next().getFinishedAt() != null) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    private static DataFeedTaskDTO copy(DataFeedTaskDTO task) {
+        DataFeedTaskDTO copy = new DataFeedTaskDTO();
+        copy.setId(task.getId());
+        copy.setType(task.getType());
+        copy.setFilter(task.getFilter());
+        copy.setState(task.getState());
+        copy.setProcessed(task.getProcessed());
+        copy.setIndexTotal(task.getIndexTotal());
+        copy.setIndexProcessed(task.getIndexProcessed());
+        copy.setIndexVersionConflicts(task.getIndexVersionConflicts());
+        copy.setStartedAt(task.getStartedAt());
+        copy.setFinishedAt(task.getFinishedAt());
+        copy.setError(task.getError());
+        return copy;
+    }
+}
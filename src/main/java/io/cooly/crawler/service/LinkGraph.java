@@ -0,0 +1,590 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.util.CsrGraph;
+import io.cooly.crawler.service.util.LinkExtractor;
+import io.cooly.crawler.service.util.UrlDictionary;
+import io.cooly.crawler.service.util.UrlNormalizer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Graph of the links between pages, parsed from the links of the DataFeeds when they are saved.
+ * <p>
+ * Urls are mapped to dense int ids by a {@link UrlDictionary}, so that the graph is a {@link CsrGraph} of
+ * ints in a memory-mapped file, which holds both the outlinks and the inlinks of every url. The graph file
+ * is immutable: the pages whose links changed since it was written are kept in memory, and in a change log
+ * replayed after a restart, until enough of them are compacted into a new graph file.
+ * <p>
+ * The graph is rebuilt from MongoDB when its file is missing. The urls then get new ids, so a rebuild
+ * starts a new {@link #getGeneration() generation} of the graph.
+ */
+@Service
+public class LinkGraph {
+
+    private static final int[] NO_NODES = new int[0];
+
+    private final Logger log = LoggerFactory.getLogger(LinkGraph.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.LinkGraph properties;
+
+    private final UrlNormalizer urlNormalizer;
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private final Object lock = new Object();
+
+    // The fields below are guarded by the lock
+
+    private UrlDictionary dictionary;
+
+    private CsrGraph graph = CsrGraph.empty();
+
+    private FileChannel changeLog;
+
+    /**
+     * Outlinks of the pages whose links changed since the graph file was written.
+     */
+    private final Map<Integer, int[]> changedOutlinks = new HashMap<>();
+
+    /**
+     * Inlinks from the changed pages, by target.
+     */
+    private final Map<Integer, Set<Integer>> addedInlinks = new HashMap<>();
+
+    /**
+     * Changes received before the graph was loaded.
+     */
+    private final List<Change> pending = new ArrayList<>();
+
+    private boolean loaded;
+
+    private boolean failed;
+
+    private boolean rebuilding;
+
+    private long generation;
+
+    public LinkGraph(DataFeedRepository dataFeedRepository,
+                     @Qualifier("taskExecutor") Executor taskExecutor,
+                     ApplicationProperties applicationProperties,
+                     MeterRegistry meterRegistry) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getLinkGraph();
+        this.urlNormalizer = applicationProperties.getUrlNormalization().isEnabled()
+            ? new UrlNormalizer(applicationProperties.getUrlNormalization().getRemovedParameters()) : null;
+        Gauge.builder("indexer.link-graph.urls", this, linkGraph -> linkGraph.getUrlCount())
+            .description("Number of urls in the link graph")
+            .register(meterRegistry);
+        Gauge.builder("indexer.link-graph.links", this, linkGraph -> linkGraph.getCompactedLinkCount())
+            .description("Number of links in the graph file")
+            .register(meterRegistry);
+        Gauge.builder("indexer.link-graph.changes", this, linkGraph -> linkGraph.getChangeCount())
+            .description("Number of pages whose links changed since the graph file was written")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        taskExecutor.execute(() -> {
+            boolean rebuild;
+            try {
+                synchronized (lock) {
+                    rebuild = open();
+                    for (Change change : pending) {
+                        apply(change);
+                    }
+                    pending.clear();
+                    rebuilding = rebuild;
+                    loaded = true;
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (lock) {
+                    failed = true;
+                    pending.clear();
+                }
+                log.error("Could not load the link graph, links are not recorded", e);
+                return;
+            }
+            if (rebuild) {
+                rebuild();
+            }
+        });
+    }
+
+    /**
+     * Record the links of a saved page, replacing its previous ones.
+     *
+     * @param url the url of the page
+     * @param links the links of the page, as stored in its DataFeed
+     * @param html the html of the page, whose {@code <base href>} relative links are resolved against, may be null
+     */
+    public void update(String url, String links, String html) {
+        if (!properties.isEnabled() || url == null || url.indexOf('\n') >= 0) {
+            return;
+        }
+        record(new Change(url, parse(url, LinkExtractor.findBase(url, html), links), false));
+    }
+
+    /**
+     * Remove the links of a deleted page; the links to it are kept.
+     *
+     * @param url the url of the page
+     */
+    public void remove(String url) {
+        if (!properties.isEnabled() || url == null) {
+            return;
+        }
+        record(new Change(url, Collections.emptyList(), true));
+    }
+
+    /**
+     * @param url the url of a page
+     * @param pageable the pagination information
+     * @return the urls the page links to
+     */
+    public Page<String> getOutlinks(String url, Pageable pageable) {
+        return getLinks(url, pageable, true);
+    }
+
+    /**
+     * @param url the url of a page
+     * @param pageable the pagination information
+     * @return the urls of the pages linking to it
+     */
+    public Page<String> getInlinks(String url, Pageable pageable) {
+        return getLinks(url, pageable, false);
+    }
+
+    /**
+     * @param url a url
+     * @return the id of the url in the graph, -1 if it is not in the graph
+     */
+    public int getId(String url) {
+        synchronized (lock) {
+            return loaded && url != null ? dictionary.getId(url) : -1;
+        }
+    }
+
+    /**
+     * @return the generation of the graph, which changes when it is rebuilt and its urls get new ids; 0 until
+     * the graph is loaded
+     */
+    public long getGeneration() {
+        synchronized (lock) {
+            return loaded ? generation : 0;
+        }
+    }
+
+    /**
+     * Write the changed links to a new graph file, then get the graph of that file.
+     *
+     * @return the graph, without the links changed afterwards; empty until the graph is loaded
+     */
+    public CsrGraph getCompactedGraph() {
+        compact(true);
+        synchronized (lock) {
+            return graph;
+        }
+    }
+
+    /**
+     * Write the changed links to a new graph file, if enough pages changed.
+     */
+    @Scheduled(fixedDelayString = "${application.link-graph.compaction-interval-ms:300000}")
+    public void compact() {
+        compact(false);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (!loaded) {
+                return;
+            }
+            loaded = false;
+            try {
+                dictionary.close();
+                changeLog.close();
+            } finally {
+                graph.close();
+            }
+        }
+    }
+
+    private void record(Change change) {
+        synchronized (lock) {
+            if (!loaded) {
+                if (!failed) {
+                    pending.add(change);
+                }
+                return;
+            }
+            try {
+                apply(change);
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not record the links of {}: {}", change.url, e.getMessage());
+            }
+        }
+    }
+
+    private List<String> parse(String url, String base, String links) {
+        List<String> targets = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String link : LinkExtractor.extract(links, base)) {
+            String target = urlNormalizer != null ? urlNormalizer.normalize(link) : link;
+            if (!target.equals(url) && seen.add(target)) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    private void apply(Change change) throws IOException {
+        int source = change.remove ? dictionary.getId(change.url) : dictionary.getOrAdd(change.url);
+        if (source < 0) {
+            return;
+        }
+        int[] targets = new int[change.targets.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = dictionary.getOrAdd(change.targets.get(i));
+        }
+        Arrays.sort(targets);
+        if (Arrays.equals(targets, outlinksOf(source))) {
+            return;
+        }
+        // The ids of a change must be in the dictionary file before the change is in the log
+        dictionary.flush();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 * targets.length);
+        buffer.putInt(source).putInt(targets.length);
+        for (int target : targets) {
+            buffer.putInt(target);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            changeLog.write(buffer);
+        }
+        setOutlinks(source, targets);
+    }
+
+    private void setOutlinks(int source, int[] targets) {
+        int[] previous = changedOutlinks.put(source, targets);
+        if (previous != null) {
+            for (int target : previous) {
+                Set<Integer> sources = addedInlinks.get(target);
+                sources.remove(source);
+                if (sources.isEmpty()) {
+                    addedInlinks.remove(target);
+                }
+            }
+        }
+        for (int target : targets) {
+            addedInlinks.computeIfAbsent(target, key -> new HashSet<>()).add(source);
+        }
+    }
+
+    private int[] outlinksOf(int node) {
+        int[] changed = changedOutlinks.get(node);
+        return changed != null ? changed : graph.getOutlinks(node);
+    }
+
+    private int[] inlinksOf(int node) {
+        int[] compacted = graph.getInlinks(node);
+        if (changedOutlinks.isEmpty()) {
+            return compacted;
+        }
+        Set<Integer> added = addedInlinks.getOrDefault(node, Collections.emptySet());
+        int[] inlinks = new int[compacted.length + added.size()];
+        int count = 0;
+        for (int source : compacted) {
+            // The current outlinks of a changed page are in the added inlinks
+            if (!changedOutlinks.containsKey(source)) {
+                inlinks[count++] = source;
+            }
+        }
+        for (int source : added) {
+            inlinks[count++] = source;
+        }
+        inlinks = Arrays.copyOf(inlinks, count);
+        Arrays.sort(inlinks);
+        return inlinks;
+    }
+
+    private Page<String> getLinks(String url, Pageable pageable, boolean outlinks) {
+        int[] page;
+        int total;
+        UrlDictionary urls;
+        synchronized (lock) {
+            int node = loaded && url != null ? dictionary.getId(url) : -1;
+            if (node < 0) {
+                return new PageImpl<>(Collections.emptyList(), pageable, 0);
+            }
+            int[] nodes = outlinks ? outlinksOf(node) : inlinksOf(node);
+            total = nodes.length;
+            int from = (int) Math.min(pageable.getOffset(), total);
+            page = Arrays.copyOfRange(nodes, from, Math.min(from + pageable.getPageSize(), total));
+            urls = dictionary;
+        }
+        List<String> content = new ArrayList<>(page.length);
+        for (int node : page) {
+            content.add(urls.getUrl(node));
+        }
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * Open the files of the graph.
+     *
+     * @return true if the graph file is missing, in which case the graph is empty and should be rebuilt
+     */
+    private boolean open() throws IOException {
+        boolean missing = !Files.exists(file("csr"));
+        if (missing) {
+            deleteFiles();
+        }
+        dictionary = new UrlDictionary(file("urls"));
+        if (!missing) {
+            graph = CsrGraph.open(file("csr"));
+            if (graph.getNodeCount() > dictionary.size()) {
+                log.warn("The link graph refers to urls missing from {}, rebuilding it", file("urls"));
+                dictionary.close();
+                graph.close();
+                graph = CsrGraph.empty();
+                deleteFiles();
+                dictionary = new UrlDictionary(file("urls"));
+                missing = true;
+            }
+        }
+        generation = missing ? newGeneration() : readGeneration();
+        replay(file("log.compacting"));
+        replay(file("log"));
+        changeLog = openChangeLog();
+        log.info("Loaded the link graph of {} urls, {} pages changed since it was last compacted",
+            dictionary.size(), changedOutlinks.size());
+        return missing;
+    }
+
+    private void replay(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int nodeCount = dictionary.size();
+        long complete = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int source = in.readInt();
+                int count = in.readInt();
+                if (source < 0 || source >= nodeCount || count < 0 || count > nodeCount) {
+                    break;
+                }
+                int[] targets = new int[count];
+                for (int i = 0; i < count; i++) {
+                    targets[i] = in.readInt();
+                }
+                complete += 8 + 4L * count;
+                if (Arrays.stream(targets).allMatch(target -> target >= 0 && target < nodeCount)) {
+                    setOutlinks(source, targets);
+                }
+            }
+        } catch (EOFException e) {
+            // Reached the end of the log, maybe in a change written partly before a crash
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete);
+        }
+    }
+
+    private void rebuild() {
+        Query query = new Query(Criteria.where("links").exists(true));
+        query.fields().include("url").include("links");
+        long pages = 0;
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(query)) {
+            while (dataFeeds.hasNext()) {
+                DataFeed dataFeed = dataFeeds.next();
+                // The html is not read back, relative links are resolved against the url of the page
+                update(dataFeed.getUrl(), dataFeed.getLinks(), null);
+                pages++;
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not rebuild the link graph, it only holds the links saved from now on", e);
+            return;
+        } finally {
+            synchronized (lock) {
+                rebuilding = false;
+            }
+        }
+        compact(true);
+        log.info("Rebuilt the link graph from {} pages", pages);
+    }
+
+    private void compact(boolean force) {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Map<Integer, int[]> snapshot;
+            CsrGraph compacted;
+            int nodeCount;
+            synchronized (lock) {
+                if (!loaded || rebuilding || !force && changedOutlinks.size() < properties.getCompactionMinChanges()) {
+                    return;
+                }
+                snapshot = new HashMap<>(changedOutlinks);
+                compacted = graph;
+                nodeCount = dictionary.size();
+                rotateChangeLog();
+            }
+            CsrGraph base = compacted;
+            compacted = CsrGraph.write(file("csr"), nodeCount, node -> {
+                int[] changed = snapshot.get(node);
+                return changed != null ? changed : base.getOutlinks(node);
+            });
+            synchronized (lock) {
+                graph = compacted;
+                // Only the pages which did not change again since the snapshot
+                snapshot.forEach(changedOutlinks::remove);
+                addedInlinks.clear();
+                Map<Integer, int[]> remaining = new HashMap<>(changedOutlinks);
+                changedOutlinks.clear();
+                remaining.forEach(this::setOutlinks);
+                Files.deleteIfExists(file("log.compacting"));
+            }
+            base.close();
+            log.debug("Compacted the links of {} pages into the link graph", snapshot.size());
+        } catch (IOException e) {
+            log.warn("Could not compact the link graph: {}", e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Start a new change log, keeping the previous one until the changes it holds are compacted.
+     */
+    private void rotateChangeLog() throws IOException {
+        changeLog.close();
+        try {
+            // Left over from a failed compaction, in which case the current log is kept too
+            if (!Files.exists(file("log.compacting"))) {
+                Files.move(file("log"), file("log.compacting"), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            changeLog = openChangeLog();
+        }
+    }
+
+    private long readGeneration() throws IOException {
+        Path file = file("generation");
+        if (!Files.exists(file) || Files.size(file) != Long.BYTES) {
+            return newGeneration();
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(file)).getLong();
+    }
+
+    private long newGeneration() throws IOException {
+        long created;
+        do {
+            created = ThreadLocalRandom.current().nextLong();
+        } while (created == 0);
+        Files.write(file("generation"), ByteBuffer.allocate(Long.BYTES).putLong(created).array());
+        return created;
+    }
+
+    private FileChannel openChangeLog() throws IOException {
+        return FileChannel.open(file("log"), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    }
+
+    private void deleteFiles() throws IOException {
+        for (String extension : Arrays.asList("csr", "urls", "log", "log.compacting", "generation")) {
+            Files.deleteIfExists(file(extension));
+        }
+    }
+
+    private Path file(String extension) {
+        Path prefix = Paths.get(properties.getFile()).toAbsolutePath();
+        return prefix.resolveSibling(prefix.getFileName() + "." + extension);
+    }
+
+    private int getUrlCount() {
+        synchronized (lock) {
+            return loaded ? dictionary.size() : 0;
+        }
+    }
+
+    private int getCompactedLinkCount() {
+        synchronized (lock) {
+            return graph.getEdgeCount();
+        }
+    }
+
+    private int getChangeCount() {
+        synchronized (lock) {
+            return changedOutlinks.size();
+        }
+    }
+
+    private static final class Change {
+
+        private final String url;
+
+        private final List<String> targets;
+
+        private final boolean remove;
+
+        private Change(String url, List<String> targets, boolean remove) {
+            this.url = url;
+            this.targets = targets;
+            this.remove = remove;
+        }
+    }
+}
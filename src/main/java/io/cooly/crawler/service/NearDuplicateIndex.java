@@ -0,0 +1,292 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.dto.NearDuplicateDTO;
+import io.cooly.crawler.service.util.SimHash;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory locality-sensitive index of the SimHash fingerprints of the DataFeeds.
+ * <p>
+ * The 64 bits of a fingerprint are cut into {@code bands} bands, and a DataFeed is filed under the value of
+ * each of its bands. Two fingerprints within the maximum distance differ in at most
+ * {@code max-distance / bands} bits of one of their bands: looking up the value of each band of a fingerprint,
+ * and the values within that many bits of it, finds every near-duplicate, and only those candidates are
+ * compared. With the default 4 bands of 16 bits, a bucket holds one DataFeed in 65536 on average, and a
+ * lookup within a distance of 6 probes 68 buckets.
+ * <p>
+ * The index is saved to a file at regular intervals and on shutdown, and loaded back at startup; when the
+ * file is missing it is rebuilt from the fingerprints stored in MongoDB. Each instance has its own index,
+ * which misses the DataFeeds saved by the other instances since it was loaded.
+ */
+@Service
+public class NearDuplicateIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x4e445550;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Logger log = LoggerFactory.getLogger(NearDuplicateIndex.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.NearDuplicates properties;
+
+    private final int[] bandShifts;
+
+    private final int[] bandWidths;
+
+    private final long[] bandMasks;
+
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<>();
+
+    private final List<Map<Long, Set<String>>> bands;
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private volatile boolean loaded;
+
+    public NearDuplicateIndex(DataFeedRepository dataFeedRepository,
+                              @Qualifier("taskExecutor") Executor taskExecutor,
+                              ApplicationProperties applicationProperties,
+                              MeterRegistry meterRegistry) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getNearDuplicates();
+        // More bands than differing bits would not narrow the lookups any further
+        int bandCount = Math.max(1, Math.min(properties.getBands(), Math.min(64, properties.getMaxDistance() + 1)));
+        this.bandShifts = new int[bandCount];
+        this.bandWidths = new int[bandCount];
+        this.bandMasks = new long[bandCount];
+        this.bands = new ArrayList<>(bandCount);
+        int shift = 0;
+        for (int band = 0; band < bandCount; band++) {
+            int width = 64 / bandCount + (band < 64 % bandCount ? 1 : 0);
+            bandShifts[band] = shift;
+            bandWidths[band] = width;
+            bandMasks[band] = width == 64 ? -1L : (1L << width) - 1;
+            bands.add(new ConcurrentHashMap<>());
+            shift += width;
+        }
+        Gauge.builder("indexer.datafeed.near-duplicates.size", fingerprints, Map::size)
+            .description("Number of DataFeeds in the near-duplicate index")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        taskExecutor.execute(() -> {
+            try {
+                Path file = Paths.get(properties.getSnapshotFile());
+                if (Files.exists(file)) {
+                    loadSnapshot(file);
+                } else {
+                    rebuild();
+                }
+                loaded = true;
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not load the near-duplicate index, it only holds the DataFeeds saved from now on", e);
+            }
+        });
+    }
+
+    /**
+     * Add or update the fingerprint of a DataFeed.
+     *
+     * @param id the id of the DataFeed
+     * @param fingerprint the SimHash of its page
+     */
+    public void add(String id, long fingerprint) {
+        Long previous = fingerprints.put(id, fingerprint);
+        if (previous != null && previous != fingerprint) {
+            unfile(id, previous);
+        }
+        for (int band = 0; band < bands.size(); band++) {
+            bands.get(band).compute(bandValue(fingerprint, band), (key, filed) -> {
+                Set<String> ids = filed != null ? filed : ConcurrentHashMap.newKeySet();
+                ids.add(id);
+                return ids;
+            });
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * @param id the id of the DataFeed to remove from the index
+     */
+    public void remove(String id) {
+        Long previous = fingerprints.remove(id);
+        if (previous != null) {
+            unfile(id, previous);
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Find the near-duplicates of a page.
+     *
+     * @param id the id of the DataFeed of the page, which is not part of the result, may be null
+     * @param fingerprint the SimHash of the page
+     * @param maxDistance the largest distance to the page, at most the configured maximum distance
+     * @return the ids of the near-duplicates and their distance to the page, closest first
+     */
+    public List<NearDuplicateDTO> find(String id, long fingerprint, int maxDistance) {
+        // A near-duplicate differs in at most this many bits of one of the bands
+        int radius = Math.min(maxDistance, properties.getMaxDistance()) / bands.size();
+        Set<String> candidates = new HashSet<>();
+        for (int band = 0; band < bands.size(); band++) {
+            probe(bands.get(band), bandValue(fingerprint, band), bandWidths[band], 0, radius, candidates);
+        }
+        candidates.remove(id);
+        List<NearDuplicateDTO> nearDuplicates = new ArrayList<>();
+        for (String candidate : candidates) {
+            Long candidateFingerprint = fingerprints.get(candidate);
+            if (candidateFingerprint != null) {
+                int distance = SimHash.distance(fingerprint, candidateFingerprint);
+                if (distance <= maxDistance) {
+                    nearDuplicates.add(new NearDuplicateDTO(candidate, null, distance));
+                }
+            }
+        }
+        nearDuplicates.sort(Comparator.comparingInt(NearDuplicateDTO::getDistance));
+        return nearDuplicates;
+    }
+
+    /**
+     * Save the index to its file, if it changed since the last save.
+     */
+    @Scheduled(fixedDelayString = "${application.near-duplicates.snapshot-interval-ms:300000}")
+    @PreDestroy
+    public void snapshot() {
+        if (!loaded || !dirty.getAndSet(false)) {
+            return;
+        }
+        Path file = Paths.get(properties.getSnapshotFile()).toAbsolutePath();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                List<Map.Entry<String, Long>> entries = new ArrayList<>(fingerprints.entrySet());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Long> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} fingerprints to {}", fingerprints.size(), file);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("Could not save the near-duplicate index to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void loadSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown format of " + file);
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String id = in.readUTF();
+                long fingerprint = in.readLong();
+                // DataFeeds saved since startup are more recent than the snapshot
+                if (!fingerprints.containsKey(id)) {
+                    add(id, fingerprint);
+                }
+            }
+            log.info("Loaded {} fingerprints from {}", size, file);
+        }
+    }
+
+    private void rebuild() {
+        Query query = new Query(Criteria.where("simhash").exists(true));
+        query.fields().include("simhash");
+        long count = 0;
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(query)) {
+            while (dataFeeds.hasNext()) {
+                DataFeed dataFeed = dataFeeds.next();
+                if (dataFeed.getSimhash() != null && !fingerprints.containsKey(dataFeed.getId())) {
+                    add(dataFeed.getId(), dataFeed.getSimhash());
+                    count++;
+                }
+            }
+        }
+        log.info("Rebuilt the near-duplicate index from {} DataFeeds", count);
+    }
+
+    /**
+     * Collect the DataFeeds filed under a band value, and under the values with up to {@code flips} more of its
+     * bits flipped, from {@code fromBit} up.
+     */
+    private static void probe(Map<Long, Set<String>> buckets, long value, int width, int fromBit, int flips,
+                              Set<String> candidates) {
+        Set<String> filed = buckets.get(value);
+        if (filed != null) {
+            candidates.addAll(filed);
+        }
+        if (flips == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < width; bit++) {
+            probe(buckets, value ^ 1L << bit, width, bit + 1, flips - 1, candidates);
+        }
+    }
+
+    private void unfile(String id, long fingerprint) {
+        for (int band = 0; band < bands.size(); band++) {
+            Map<Long, Set<String>> buckets = bands.get(band);
+            buckets.computeIfPresent(bandValue(fingerprint, band), (key, filed) -> {
+                filed.remove(id);
+                return filed.isEmpty() ? null : filed;
+            });
+        }
+    }
+
+    private long bandValue(long fingerprint, int band) {
+        return fingerprint >>> bandShifts[band] & bandMasks[band];
+    }
+}
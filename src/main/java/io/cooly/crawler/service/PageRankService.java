@@ -0,0 +1,365 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.service.util.CsrGraph;
+import io.cooly.crawler.service.util.PageRankCalculator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Computes the PageRank of the pages from the {@link LinkGraph}, and writes it to the {@code rank} property
+ * of their DataFeeds in the search index.
+ * <p>
+ * Each computation starts from the ranks of the previous one, also kept in a file across restarts, so that
+ * only the changes of the graph since have to converge. Only the ranks which changed noticeably since they
+ * were last written are written, with partial-update bulk requests, so that those which failed to be written
+ * are written again by the next computation; DataFeeds indexed in full get their current rank from
+ * {@link #applyRanks(Collection)}.
+ * <p>
+ * Ranks are kept by the ids of the urls in the graph, along with its {@link LinkGraph#getGeneration() generation}:
+ * when the graph is rebuilt, the urls get new ids, so the previous ranks are dropped and every rank is written
+ * again. Computations run on their own thread, so that they do not hold the threads of the scheduled jobs.
+ * <p>
+ * Ranks are scaled so that the average page has a rank of 1.
+ */
+@Service
+public class PageRankService {
+
+    private static final int FILE_MAGIC = 0x50524e4b;
+
+    private static final int FILE_VERSION = 3;
+
+    private static final Ranks NO_RANKS = new Ranks(0, new double[0], new double[0]);
+
+    private final Logger log = LoggerFactory.getLogger(PageRankService.class);
+
+    private final LinkGraph linkGraph;
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final DataFeedSearchRepository dataFeedSearchRepository;
+
+    private final ApplicationProperties.PageRank properties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter updatedCounter;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "page-rank");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Probability of each node of the link graph, by id, null until loaded.
+     */
+    private volatile Ranks ranks;
+
+    public PageRankService(LinkGraph linkGraph, DataFeedRepository dataFeedRepository,
+                           DataFeedSearchRepository dataFeedSearchRepository,
+                           ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.linkGraph = linkGraph;
+        this.dataFeedRepository = dataFeedRepository;
+        this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.properties = applicationProperties.getPageRank();
+        this.updatedCounter = meterRegistry.counter("indexer.page-rank.updated");
+        Gauge.builder("indexer.page-rank.urls", this,
+            pageRankService -> pageRankService.ranks != null ? pageRankService.ranks.values.length : 0)
+            .description("Number of urls of the last computed PageRank")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Start computing the PageRank of the current link graph, unless a computation is still running.
+     */
+    @Scheduled(fixedDelayString = "${application.page-rank.interval-ms:3600000}",
+        initialDelayString = "${application.page-rank.interval-ms:3600000}")
+    public void schedule() {
+        if (!properties.isEnabled() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                compute();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Compute the PageRank of the current link graph and write the changed ranks to the search index.
+     */
+    void compute() {
+        try {
+            CsrGraph graph = linkGraph.getCompactedGraph();
+            long generation = linkGraph.getGeneration();
+            int nodeCount = graph.getNodeCount();
+            if (nodeCount == 0) {
+                return;
+            }
+            Ranks loaded = getRanks();
+            double[] previous = loaded.values;
+            double[] written = loaded.written;
+            if (loaded.generation != generation) {
+                if (previous.length > 0) {
+                    log.info("The link graph was rebuilt since the last PageRank, it is computed from scratch");
+                }
+                previous = new double[0];
+                written = new double[0];
+            }
+            double[] next = warmStart(previous, nodeCount);
+            long start = System.currentTimeMillis();
+            int parallelism = properties.getParallelism() > 0 ? properties.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            int iterations;
+            try {
+                iterations = PageRankCalculator.compute(graph, next, properties.getDamping(),
+                    properties.getTolerance(), properties.getMaxIterations(), pool);
+            } finally {
+                pool.shutdown();
+            }
+            ranks = new Ranks(generation, next, written);
+            log.info("Computed the PageRank of {} urls and {} links in {} iterations and {} ms", nodeCount,
+                graph.getEdgeCount(), iterations, System.currentTimeMillis() - start);
+            Ranks computed = new Ranks(generation, next, writeRanks(written, next));
+            ranks = computed;
+            save(computed);
+        } catch (RuntimeException e) {
+            log.error("Could not compute the PageRank", e);
+        }
+    }
+
+    /**
+     * @param url the url of a page
+     * @return the rank of the page, null if it is not known yet
+     */
+    public Double getRank(String url) {
+        Ranks current = getRanks();
+        if (current.generation != linkGraph.getGeneration()) {
+            // Computed before the graph was rebuilt, the ids of the urls changed since
+            return null;
+        }
+        double[] values = current.values;
+        int node = linkGraph.getId(url);
+        return node >= 0 && node < values.length ? values[node] * values.length : null;
+    }
+
+    /**
+     * Set the rank of DataFeeds about to be indexed, so that indexing them does not drop it.
+     *
+     * @param dataFeeds the DataFeeds
+     */
+    public void applyRanks(Collection<DataFeed> dataFeeds) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        for (DataFeed dataFeed : dataFeeds) {
+            dataFeed.setRank(getRank(dataFeed.getUrl()));
+        }
+    }
+
+    /**
+     * Start from the previous ranks, with the average rank for the new nodes.
+     */
+    private static double[] warmStart(double[] previous, int nodeCount) {
+        double[] start = new double[nodeCount];
+        int known = Math.min(previous.length, nodeCount);
+        System.arraycopy(previous, 0, start, 0, known);
+        double sum = 0;
+        for (int node = 0; node < known; node++) {
+            sum += start[node];
+        }
+        double added = (double) (nodeCount - known) / nodeCount;
+        double scale = known > 0 && sum > 0 ? (1 - added) / sum : 0;
+        for (int node = 0; node < nodeCount; node++) {
+            start[node] = node < known && scale > 0 ? start[node] * scale : 1.0 / nodeCount;
+        }
+        return start;
+    }
+
+    /**
+     * Write the ranks which changed noticeably since they were last written, or were never written, to the
+     * DataFeeds of the search index.
+     *
+     * @param written the ranks last written, by node, 0 when not written
+     * @param next the computed probabilities
+     * @return the ranks last written once these are, by node
+     */
+    private double[] writeRanks(double[] written, double[] next) {
+        double[] nowWritten = Arrays.copyOf(written, next.length);
+        Query query = new Query(Criteria.where("url").exists(true));
+        query.fields().include("url");
+        Map<String, Map<String, Object>> batch = new HashMap<>();
+        Map<String, Integer> batchNodes = new HashMap<>();
+        long updated = 0;
+        long failed = 0;
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(query)) {
+            while (dataFeeds.hasNext()) {
+                DataFeed dataFeed = dataFeeds.next();
+                int node = linkGraph.getId(dataFeed.getUrl());
+                if (node < 0 || node >= next.length) {
+                    continue;
+                }
+                double rank = next[node] * next.length;
+                double writtenRank = nowWritten[node];
+                if (Math.abs(rank - writtenRank) <= properties.getMinRankChange() * writtenRank) {
+                    continue;
+                }
+                batch.put(dataFeed.getId(), Collections.singletonMap("rank", rank));
+                batchNodes.put(dataFeed.getId(), node);
+                if (batch.size() >= properties.getBatchSize()) {
+                    failed += write(batch, batchNodes, nowWritten);
+                    updated += batch.size();
+                    batch.clear();
+                    batchNodes.clear();
+                }
+            }
+        }
+        failed += write(batch, batchNodes, nowWritten);
+        updated += batch.size();
+        updatedCounter.increment(updated - failed);
+        if (failed > 0) {
+            log.warn("Could not write the rank of {} of {} DataFeeds, retrying with the next PageRank", failed,
+                updated);
+        }
+        log.info("Wrote the changed rank of {} DataFeeds", updated - failed);
+        return nowWritten;
+    }
+
+    /**
+     * @return the number of ranks which failed to be written
+     */
+    private int write(Map<String, Map<String, Object>> batch, Map<String, Integer> batchNodes, double[] written) {
+        Map<String, String> failures;
+        try {
+            failures = dataFeedSearchRepository.bulkUpdate(batch);
+        } catch (RuntimeException e) {
+            log.warn("Could not write the rank of {} DataFeeds: {}", batch.size(), e.getMessage());
+            return batch.size();
+        }
+        batch.forEach((id, update) -> {
+            if (!failures.containsKey(id)) {
+                written[batchNodes.get(id)] = (Double) update.get("rank");
+            }
+        });
+        return failures.size();
+    }
+
+    private Ranks getRanks() {
+        Ranks current = ranks;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (ranks == null) {
+                ranks = load();
+            }
+            return ranks;
+        }
+    }
+
+    private Ranks load() {
+        Path file = Paths.get(properties.getFile());
+        if (!Files.exists(file)) {
+            return NO_RANKS;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown format of " + file);
+            }
+            long generation = in.readLong();
+            double[] loaded = new double[in.readInt()];
+            double[] written = new double[loaded.length];
+            for (int node = 0; node < loaded.length; node++) {
+                loaded[node] = in.readDouble();
+                written[node] = in.readDouble();
+            }
+            log.info("Loaded the PageRank of {} urls from {}", loaded.length, file);
+            return new Ranks(generation, loaded, written);
+        } catch (IOException e) {
+            log.warn("Could not load the PageRank from {}, it is computed again: {}", file, e.getMessage());
+            return NO_RANKS;
+        }
+    }
+
+    private void save(Ranks computed) {
+        Path file = Paths.get(properties.getFile()).toAbsolutePath();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeLong(computed.generation);
+                out.writeInt(computed.values.length);
+                for (int node = 0; node < computed.values.length; node++) {
+                    out.writeDouble(computed.values[node]);
+                    out.writeDouble(computed.written[node]);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save the PageRank to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Ranks of the nodes of a generation of the link graph, along with those last written to the search index.
+     */
+    private static final class Ranks {
+
+        private final long generation;
+
+        private final double[] values;
+
+        private final double[] written;
+
+        Ranks(long generation, double[] values, double[] written) {
+            this.generation = generation;
+            this.values = values;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.service.util.TimingWheel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Spaces out the urls handed out for each domain, so that crawler workers do not hammer a single host.
+ * <p>
+ * Every domain has a token bucket refilled with one token per crawl delay, holding up to {@code burst}
+ * tokens. A bucket is stored as the time it would be full again, which is updated atomically for each
+ * url handed out; full buckets are dropped, so only the recently crawled domains take memory.
+ * <p>
+ * Domains whose bucket is empty are deferred to a timing wheel until their next token, so that the
+ * frontier only ever looks at domains it may hand out a url for.
+ */
+@Service
+public class PolitenessScheduler {
+
+    private final ApplicationProperties.Politeness properties;
+
+    private final Clock clock;
+
+    /**
+     * Time each domain's bucket is full again, in milliseconds.
+     */
+    private final Map<String, Long> buckets = new ConcurrentHashMap<>();
+
+    private final TimingWheel<String> deferred;
+
+    @Autowired
+    public PolitenessScheduler(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this(applicationProperties, meterRegistry, Clock.systemUTC());
+    }
+
+    PolitenessScheduler(ApplicationProperties applicationProperties, MeterRegistry meterRegistry, Clock clock) {
+        this.properties = applicationProperties.getPoliteness();
+        this.clock = clock;
+        this.deferred = new TimingWheel<>(properties.getWheelTickMs(), properties.getWheelSlots(), clock.millis());
+        Gauge.builder("indexer.frontier.politeness.domains", buckets, Map::size)
+            .description("Number of domains crawled within their crawl delay")
+            .register(meterRegistry);
+        Gauge.builder("indexer.frontier.politeness.deferred", deferred, TimingWheel::size)
+            .description("Number of domains waiting for their crawl delay")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Take a token from the bucket of a domain, for a url handed out.
+     *
+     * @param domain the domain of the url, which must be eligible
+     * @param now the current time in milliseconds
+     * @return the time from which the domain is eligible again, at most {@code now} if tokens are left
+     */
+    public long acquire(String domain, long now) {
+        if (!properties.isEnabled()) {
+            return now;
+        }
+        long delay = getCrawlDelayMs(domain);
+        long tolerance = tolerance(delay);
+        long full = buckets.merge(domain, now + delay, (previous, next) -> Math.max(previous, now) + delay);
+        return full - tolerance;
+    }
+
+    /**
+     * @param domain a domain
+     * @return the time from which a url of the domain may be handed out, in milliseconds
+     */
+    public long eligibleAt(String domain) {
+        Long full = buckets.get(domain);
+        if (full == null || !properties.isEnabled()) {
+            return Long.MIN_VALUE;
+        }
+        return full - tolerance(getCrawlDelayMs(domain));
+    }
+
+    /**
+     * Set a domain aside until it is eligible again.
+     *
+     * @param domain the domain
+     * @param eligibleAt the time it is eligible from, in milliseconds
+     */
+    public void defer(String domain, long eligibleAt) {
+        deferred.schedule(domain, eligibleAt);
+    }
+
+    /**
+     * Hand back the deferred domains which are eligible again.
+     *
+     * @param now the current time in milliseconds
+     * @param consumer receives the domains
+     */
+    public void resume(long now, Consumer<String> consumer) {
+        deferred.advance(now, consumer);
+    }
+
+    /**
+     * @param domain a domain
+     * @return the minimal interval between two urls of the domain
+     */
+    public long getCrawlDelayMs(String domain) {
+        Long delay = properties.getCrawlDelays().get(domain);
+        return Math.max(1, delay != null ? delay : properties.getCrawlDelayMs());
+    }
+
+    /**
+     * Drop the buckets which are full again.
+     */
+    @Scheduled(fixedDelayString = "${application.politeness.eviction-interval-ms:60000}")
+    public void evictIdle() {
+        long now = clock.millis();
+        // Only removes a bucket if it was not updated in the meantime
+        buckets.forEach((domain, full) -> {
+            if (full <= now) {
+                buckets.remove(domain, full);
+            }
+        });
+    }
+
+    /**
+     * @return how far ahead of the current time a bucket may be full again while tokens are left
+     */
+    private long tolerance(long delay) {
+        return (Math.max(1, properties.getBurst()) - 1) * delay;
+    }
+}
@@ -0,0 +1,50 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.repository.DataFeedRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks at startup that the queries on indexed DataFeed properties are planned with an index, warning
+ * about those which MongoDB would answer by scanning the whole data_feed collection, such as when a
+ * migration did not run.
+ */
+@Service
+public class QueryPlanChecker {
+
+    private final Logger log = LoggerFactory.getLogger(QueryPlanChecker.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Executor taskExecutor;
+
+    public QueryPlanChecker(DataFeedRepository dataFeedRepository, @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void check() {
+        taskExecutor.execute(() -> {
+            try {
+                List<String> collectionScans = dataFeedRepository.findCollectionScans();
+                for (String collectionScan : collectionScans) {
+                    log.warn("Query planned as a collection scan, an index is missing: {}", collectionScan);
+                }
+                if (collectionScans.isEmpty()) {
+                    log.debug("Every DataFeed query is planned with an index");
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not check the query plans of DataFeeds: {}", e.getMessage());
+            }
+        });
+    }
+}
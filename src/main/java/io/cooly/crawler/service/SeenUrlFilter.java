@@ -0,0 +1,231 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.util.ContentHash;
+import io.cooly.crawler.service.util.ScalableBloomFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells whether the url of a new DataFeed is already stored, without querying MongoDB for the urls never seen.
+ * <p>
+ * The urls of the stored DataFeeds are kept in a {@link ScalableBloomFilter}. A url missing from the filter is
+ * new; a url found in it is looked up in the unique index of the urls, since it may be a false positive. The
+ * filter is kept in memory-mapped files, reopened at startup, and only rebuilt from MongoDB when they are
+ * missing or were not completely filled.
+ * <p>
+ * Each instance has its own filter, which misses the urls stored by the other instances: the unique index
+ * still rejects them, and the caller looks them up after the failed insert.
+ */
+@Service
+public class SeenUrlFilter {
+
+    private final Logger log = LoggerFactory.getLogger(SeenUrlFilter.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Executor taskExecutor;
+
+    private final ApplicationProperties.SeenUrls properties;
+
+    private final Counter newCounter;
+
+    private final Counter seenCounter;
+
+    private final Counter falsePositiveCounter;
+
+    private volatile ScalableBloomFilter filter;
+
+    /**
+     * The filter being rebuilt, which records the urls stored in the meantime.
+     */
+    private volatile ScalableBloomFilter building;
+
+    public SeenUrlFilter(DataFeedRepository dataFeedRepository,
+                         @Qualifier("taskExecutor") Executor taskExecutor,
+                         ApplicationProperties applicationProperties,
+                         MeterRegistry meterRegistry) {
+        this.dataFeedRepository = dataFeedRepository;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getSeenUrls();
+        this.newCounter = meterRegistry.counter("indexer.datafeed.seen-urls", "result", "new");
+        this.seenCounter = meterRegistry.counter("indexer.datafeed.seen-urls", "result", "seen");
+        this.falsePositiveCounter = meterRegistry.counter("indexer.datafeed.seen-urls", "result", "false-positive");
+        Gauge.builder("indexer.datafeed.seen-urls.false-positive-rate", this, SeenUrlFilter::getFalsePositiveRate)
+            .description("Share of the new urls the filter took for stored ones")
+            .register(meterRegistry);
+        Gauge.builder("indexer.datafeed.seen-urls.expected-false-positive-rate", this,
+            seenUrlFilter -> seenUrlFilter.filter != null ? seenUrlFilter.filter.getExpectedFalsePositiveRate() : 0)
+            .description("False positive rate expected from the number of urls in the filter")
+            .register(meterRegistry);
+        Gauge.builder("indexer.datafeed.seen-urls.size", this,
+            seenUrlFilter -> seenUrlFilter.filter != null ? seenUrlFilter.filter.size() : 0)
+            .description("Number of urls in the filter")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        taskExecutor.execute(() -> {
+            try {
+                ScalableBloomFilter opened = open();
+                if (!opened.isComplete()) {
+                    building = opened;
+                    rebuild(opened);
+                }
+                filter = opened;
+                building = null;
+            } catch (IOException | RuntimeException e) {
+                log.error("Could not load the seen url filter, every url is looked up in MongoDB", e);
+            }
+        });
+    }
+
+    /**
+     * Find the stored DataFeed with a url.
+     *
+     * @param url the url of a new DataFeed
+     * @return the id of the stored DataFeed, empty if the url is new
+     */
+    public Optional<String> findExisting(String url) {
+        return findExisting(Collections.singletonList(url)).values().stream().findFirst();
+    }
+
+    /**
+     * Find the stored DataFeeds with some urls, with one query for the urls which may be stored.
+     *
+     * @param urls the urls of new DataFeeds
+     * @return the ids of the stored DataFeeds by url, without the new urls
+     */
+    public Map<String, String> findExisting(Collection<String> urls) {
+        ScalableBloomFilter current = filter;
+        List<String> candidates = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            if (current == null || current.mightContain(hash(url))) {
+                candidates.add(url);
+            } else {
+                newCounter.increment();
+            }
+        }
+        if (candidates.isEmpty()) {
+            return new HashMap<>();
+        }
+        Map<String, String> existing = dataFeedRepository.findIdsByUrl(candidates);
+        if (current != null) {
+            seenCounter.increment(existing.size());
+            falsePositiveCounter.increment(candidates.size() - existing.size());
+        }
+        return existing;
+    }
+
+    /**
+     * Record the url of a stored DataFeed.
+     *
+     * @param url the url
+     */
+    public void add(String url) {
+        if (url == null) {
+            return;
+        }
+        ScalableBloomFilter current = filter != null ? filter : building;
+        if (current != null) {
+            current.put(hash(url));
+        }
+    }
+
+    /**
+     * Write the filter to its files.
+     */
+    @Scheduled(fixedDelayString = "${application.seen-urls.flush-interval-ms:60000}")
+    public void flush() {
+        ScalableBloomFilter current = filter;
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        ScalableBloomFilter current = filter;
+        filter = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private ScalableBloomFilter open() throws IOException {
+        Path prefix = Paths.get(properties.getFile());
+        ScalableBloomFilter opened = new ScalableBloomFilter(prefix, properties.getCapacity(),
+            properties.getFalsePositiveRate());
+        if (opened.isComplete()) {
+            log.info("Loaded {} urls in {} stages from {}", opened.size(), opened.getStageCount(), prefix);
+            return opened;
+        }
+        if (opened.size() == 0) {
+            return opened;
+        }
+        // Left over from an interrupted rebuild, start again from empty files
+        opened.close();
+        for (int stage = 0; stage < opened.getStageCount(); stage++) {
+            Files.deleteIfExists(prefix.resolveSibling(prefix.getFileName() + "." + stage + ".bloom"));
+        }
+        return new ScalableBloomFilter(prefix, properties.getCapacity(), properties.getFalsePositiveRate());
+    }
+
+    private void rebuild(ScalableBloomFilter opened) {
+        Query query = new Query(Criteria.where("url").exists(true));
+        query.fields().include("url");
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(query)) {
+            while (dataFeeds.hasNext()) {
+                String url = dataFeeds.next().getUrl();
+                if (url != null) {
+                    opened.put(hash(url));
+                }
+            }
+        }
+        opened.markComplete();
+        log.info("Rebuilt the seen url filter from {} urls", opened.size());
+    }
+
+    private double getFalsePositiveRate() {
+        double falsePositives = falsePositiveCounter.count();
+        double total = falsePositives + newCounter.count();
+        return total == 0 ? 0 : falsePositives / total;
+    }
+
+    private static long hash(String url) {
+        return ContentHash.xxHash64(url.getBytes(StandardCharsets.UTF_8));
+    }
+}
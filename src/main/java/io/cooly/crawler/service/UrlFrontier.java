@@ -0,0 +1,497 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.dto.FrontierUrlDTO;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Hands out the urls of the DataFeeds not fetched yet to crawler workers, lowest level first.
+ * <p>
+ * The frontier holds up to {@code capacity} urls in memory, in one priority queue per domain, and is
+ * refilled from MongoDB when it runs low. Only the urls of the domains allowed one by the
+ * {@link PolitenessScheduler} are handed out; the other domains are parked until their crawl delay has passed.
+ * <p>
+ * Leased urls are recorded in MongoDB before they are handed out, so that after a crash they are neither
+ * lost nor handed out twice: they come back once their lease expires. Only the urls not leased in MongoDB
+ * are handed out, so that instances sharing the database do not hand out the same url. A url leaves the
+ * frontier when its DataFeed is marked as fetched.
+ * <p>
+ * The queues of all the domains share one lock rather than one per domain: a lease picks the lowest level
+ * across every ready domain, so it would take all the stripes anyway. Only in-memory work is done under
+ * the lock, MongoDB is called outside of it.
+ */
+@Service
+public class UrlFrontier {
+
+    private static final Comparator<Entry> ENTRY_ORDER = Comparator
+        .comparingInt((Entry entry) -> entry.level)
+        .thenComparing(entry -> entry.id);
+
+    private static final Comparator<DomainQueue> DOMAIN_ORDER = Comparator
+        .comparing((DomainQueue queue) -> queue.entries.peek(), ENTRY_ORDER)
+        .thenComparing(queue -> queue.domain);
+
+    private final Logger log = LoggerFactory.getLogger(UrlFrontier.class);
+
+    private final DataFeedRepository dataFeedRepository;
+
+    private final Executor taskExecutor;
+
+    private final PolitenessScheduler politenessScheduler;
+
+    private final DataFeedIndexer dataFeedIndexer;
+
+    private final ApplicationProperties.Frontier properties;
+
+    private final ApplicationProperties.Indexing indexingProperties;
+
+    private final Clock clock;
+
+    /**
+     * Guards the queues and leases of every domain.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Queued urls by domain.
+     */
+    private final Map<String, DomainQueue> domains = new HashMap<>();
+
+    /**
+     * Domains with queued urls which are not parked, by the priority of their next url.
+     */
+    private final TreeSet<DomainQueue> ready = new TreeSet<>(DOMAIN_ORDER);
+
+    /**
+     * Queued urls by DataFeed id.
+     */
+    private final Map<String, Entry> queued = new HashMap<>();
+
+    /**
+     * Leased urls by DataFeed id.
+     */
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    @Autowired
+    public UrlFrontier(DataFeedRepository dataFeedRepository,
+                       @Qualifier("taskExecutor") Executor taskExecutor,
+                       PolitenessScheduler politenessScheduler,
+                       DataFeedIndexer dataFeedIndexer,
+                       ApplicationProperties applicationProperties,
+                       MeterRegistry meterRegistry) {
+        this(dataFeedRepository, taskExecutor, politenessScheduler, dataFeedIndexer, applicationProperties,
+            meterRegistry, Clock.systemUTC());
+    }
+
+    UrlFrontier(DataFeedRepository dataFeedRepository, Executor taskExecutor,
+                PolitenessScheduler politenessScheduler, DataFeedIndexer dataFeedIndexer,
+                ApplicationProperties applicationProperties, MeterRegistry meterRegistry, Clock clock) {
+        this.clock = clock;
+        this.dataFeedRepository = dataFeedRepository;
+        this.taskExecutor = taskExecutor;
+        this.politenessScheduler = politenessScheduler;
+        this.dataFeedIndexer = dataFeedIndexer;
+        this.properties = applicationProperties.getFrontier();
+        this.indexingProperties = applicationProperties.getIndexing();
+        Gauge.builder("indexer.frontier.queued", this, UrlFrontier::getQueuedCount)
+            .description("Number of urls waiting in the frontier")
+            .register(meterRegistry);
+        Gauge.builder("indexer.frontier.leased", this, UrlFrontier::getLeasedCount)
+            .description("Number of urls leased to crawler workers")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        taskExecutor.execute(this::refill);
+    }
+
+    /**
+     * Lease urls to a crawler worker.
+     *
+     * @param count the maximum number of urls
+     * @return the leased urls, lowest level first, fewer than {@code count} when the frontier runs low or
+     * its domains wait for their crawl delay
+     */
+    public List<FrontierUrlDTO> lease(int count) {
+        Instant now = clock.instant();
+        Instant expiresAt = now.plusMillis(properties.getLeaseTtlMs());
+        List<Entry> entries = new ArrayList<>(Math.min(count, properties.getMaxLeaseSize()));
+        synchronized (lock) {
+            politenessScheduler.resume(now.toEpochMilli(), this::unpark);
+            while (entries.size() < count && !ready.isEmpty()) {
+                Entry entry = pollNext(now.toEpochMilli());
+                leases.put(entry.id, new Lease(entry, expiresAt));
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> ids = entries.stream().map(entry -> entry.id).collect(Collectors.toList());
+        Set<String> leased;
+        try {
+            leased = dataFeedRepository.acquireLease(ids, now, expiresAt);
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                for (Entry entry : entries) {
+                    if (leases.remove(entry.id) != null) {
+                        enqueue(entry);
+                    }
+                }
+            }
+            throw e;
+        }
+        if (leased.size() < entries.size()) {
+            // Leased by another instance or fetched since they were read, they come back with a refill if needed
+            synchronized (lock) {
+                for (Entry entry : entries) {
+                    if (!leased.contains(entry.id)) {
+                        leases.remove(entry.id);
+                    }
+                }
+            }
+            entries.removeIf(entry -> !leased.contains(entry.id));
+        }
+        if (getQueuedCount() < properties.getCapacity() / 2) {
+            taskExecutor.execute(this::refill);
+        }
+        return entries.stream()
+            .map(entry -> new FrontierUrlDTO(entry.id, entry.url, entry.domain, entry.level, expiresAt))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Mark leased urls as fetched.
+     *
+     * @param ids the ids of the DataFeeds of the urls
+     * @return the number of DataFeeds updated
+     */
+    public long complete(Collection<String> ids) {
+        long updated = dataFeedRepository.markFetched(ids);
+        synchronized (lock) {
+            ids.forEach(this::forget);
+        }
+        if (!indexingProperties.getChangeStream().isEnabled()) {
+            // The change stream reindexes every updated dataFeed otherwise
+            Map<String, Object> fetched = Collections.singletonMap("fetched", true);
+            ids.forEach(id -> dataFeedIndexer.update(id, fetched));
+        }
+        return updated;
+    }
+
+    /**
+     * Give leased urls back to the frontier before their lease expires, for example when a worker stops.
+     *
+     * @param ids the ids of the DataFeeds of the urls
+     */
+    public void release(Collection<String> ids) {
+        dataFeedRepository.releaseLease(ids);
+        synchronized (lock) {
+            for (String id : ids) {
+                Lease lease = leases.remove(id);
+                if (lease != null) {
+                    enqueue(lease.entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Track a saved DataFeed: it joins the frontier if it is not fetched yet and there is room, and leaves
+     * it once fetched.
+     *
+     * @param dataFeed the persisted entity
+     */
+    public void offer(DataFeed dataFeed) {
+        synchronized (lock) {
+            if (Boolean.TRUE.equals(dataFeed.isFetched()) || dataFeed.getUrl() == null) {
+                forget(dataFeed.getId());
+                return;
+            }
+            // Saving the entity dropped the lease recorded in MongoDB, keep the one in memory
+            if (leases.containsKey(dataFeed.getId()) || queued.size() >= properties.getCapacity()) {
+                return;
+            }
+            Entry entry = queued.get(dataFeed.getId());
+            if (entry != null) {
+                remove(entry);
+            }
+            enqueue(new Entry(dataFeed.getId(), dataFeed.getUrl(), dataFeed.getDomain(), dataFeed.getLevel()));
+        }
+    }
+
+    /**
+     * @param id the id of a deleted DataFeed
+     */
+    public void remove(String id) {
+        synchronized (lock) {
+            forget(id);
+        }
+    }
+
+    /**
+     * Drop the queued urls of a domain, or of every domain, for example after their DataFeeds were marked as
+     * fetched in bulk: those still to fetch come back with the next refill. Leased urls are kept.
+     *
+     * @param domain the domain, null for every domain
+     */
+    public void clear(String domain) {
+        synchronized (lock) {
+            if (domain == null) {
+                domains.clear();
+                ready.clear();
+                queued.clear();
+                return;
+            }
+            DomainQueue queue = domains.remove(domain);
+            if (queue != null) {
+                if (!queue.parked) {
+                    ready.remove(queue);
+                }
+                queue.entries.forEach(entry -> queued.remove(entry.id));
+            }
+        }
+    }
+
+    /**
+     * Put the urls whose lease expired back in the frontier, and refill it when it runs low.
+     */
+    @Scheduled(fixedDelayString = "${application.frontier.sweep-interval-ms:1000}")
+    public void sweep() {
+        Instant now = clock.instant();
+        int expired = 0;
+        synchronized (lock) {
+            Iterator<Lease> iterator = leases.values().iterator();
+            while (iterator.hasNext()) {
+                Lease lease = iterator.next();
+                if (lease.expiresAt.isBefore(now)) {
+                    iterator.remove();
+                    enqueue(lease.entry);
+                    expired++;
+                }
+            }
+        }
+        if (expired > 0) {
+            log.debug("{} frontier leases expired", expired);
+        }
+        if (getQueuedCount() < properties.getCapacity() / 2) {
+            refill();
+        }
+    }
+
+    /**
+     * Load the urls to crawl from MongoDB, up to the capacity of the frontier.
+     */
+    public void refill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+        int added = 0;
+        try (CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.streamFrontier(clock.instant())) {
+            List<Entry> batch = new ArrayList<>();
+            while (dataFeeds.hasNext() && getQueuedCount() < properties.getCapacity()) {
+                DataFeed dataFeed = dataFeeds.next();
+                batch.add(new Entry(dataFeed.getId(), dataFeed.getUrl(), dataFeed.getDomain(), dataFeed.getLevel()));
+                if (batch.size() == 1000 || !dataFeeds.hasNext()) {
+                    added += enqueueAll(batch);
+                    batch.clear();
+                }
+            }
+            added += enqueueAll(batch);
+        } catch (RuntimeException e) {
+            log.warn("Could not refill the frontier: {}", e.getMessage());
+        } finally {
+            refilling.set(false);
+        }
+        if (added > 0) {
+            log.debug("Added {} urls to the frontier", added);
+        }
+    }
+
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queued.size();
+        }
+    }
+
+    public int getLeasedCount() {
+        synchronized (lock) {
+            return leases.size();
+        }
+    }
+
+    private int enqueueAll(List<Entry> entries) {
+        int added = 0;
+        synchronized (lock) {
+            for (Entry entry : entries) {
+                if (queued.size() < properties.getCapacity()
+                    && !queued.containsKey(entry.id) && !leases.containsKey(entry.id)) {
+                    enqueue(entry);
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    private void enqueue(Entry entry) {
+        DomainQueue queue = domains.get(entry.domain);
+        if (queue == null) {
+            queue = new DomainQueue(entry.domain);
+            domains.put(entry.domain, queue);
+            // The domain may have been crawled recently, before its last url left the frontier
+            long eligibleAt = politenessScheduler.eligibleAt(entry.domain);
+            if (eligibleAt > clock.millis()) {
+                park(queue, eligibleAt);
+            }
+        }
+        // The position of a domain depends on its head, take it out while the head may change
+        if (!queue.parked && !queue.entries.isEmpty()) {
+            ready.remove(queue);
+        }
+        queue.entries.add(entry);
+        if (!queue.parked) {
+            ready.add(queue);
+        }
+        queued.put(entry.id, entry);
+    }
+
+    private Entry pollNext(long now) {
+        DomainQueue queue = ready.pollFirst();
+        Entry entry = queue.entries.poll();
+        queued.remove(entry.id);
+        long eligibleAt = politenessScheduler.acquire(queue.domain, now);
+        if (queue.entries.isEmpty()) {
+            domains.remove(queue.domain);
+        } else if (eligibleAt > now) {
+            park(queue, eligibleAt);
+        } else {
+            ready.add(queue);
+        }
+        return entry;
+    }
+
+    private void remove(Entry entry) {
+        DomainQueue queue = domains.get(entry.domain);
+        if (!queue.parked) {
+            ready.remove(queue);
+        }
+        queue.entries.remove(entry);
+        queued.remove(entry.id);
+        if (queue.entries.isEmpty()) {
+            domains.remove(queue.domain);
+        } else if (!queue.parked) {
+            ready.add(queue);
+        }
+    }
+
+    private void park(DomainQueue queue, long eligibleAt) {
+        queue.parked = true;
+        politenessScheduler.defer(queue.domain, eligibleAt);
+    }
+
+    /**
+     * Make a parked domain eligible again, once its crawl delay has passed.
+     */
+    private void unpark(String domain) {
+        DomainQueue queue = domains.get(domain);
+        // The domain may have left the frontier, or been parked again since
+        if (queue == null || !queue.parked) {
+            return;
+        }
+        long eligibleAt = politenessScheduler.eligibleAt(domain);
+        if (eligibleAt > clock.millis()) {
+            politenessScheduler.defer(domain, eligibleAt);
+        } else {
+            queue.parked = false;
+            ready.add(queue);
+        }
+    }
+
+    private void forget(String id) {
+        leases.remove(id);
+        Entry entry = queued.get(id);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String id;
+
+        private final String url;
+
+        private final String domain;
+
+        private final int level;
+
+        private Entry(String id, String url, String domain, Integer level) {
+            this.id = id;
+            this.url = url;
+            this.domain = domain != null ? domain : "";
+            this.level = level != null ? level : Integer.MAX_VALUE;
+        }
+    }
+
+    private static final class DomainQueue {
+
+        private final String domain;
+
+        private final PriorityQueue<Entry> entries = new PriorityQueue<>(ENTRY_ORDER);
+
+        /**
+         * Whether the domain waits for its crawl delay, out of the eligible domains.
+         */
+        private boolean parked;
+
+        private DomainQueue(String domain) {
+            this.domain = domain;
+        }
+    }
+
+    private static final class Lease {
+
+        private final Entry entry;
+
+        private final Instant expiresAt;
+
+        private Lease(Entry entry, Instant expiresAt) {
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
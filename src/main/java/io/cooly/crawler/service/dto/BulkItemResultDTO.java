@@ -0,0 +1,75 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a single item of a bulk request.
+ * <p>
+ * The status follows HTTP semantics: 201 when the item was created, 200 when an
+ * existing item was replaced, 4xx or 5xx when it failed, in which case {@code error} is set.
+ */
+public class BulkItemResultDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int index;
+
+    private String id;
+
+    private int status;
+
+    private String error;
+
+    public BulkItemResultDTO() {
+        // Empty public constructor used by Jackson.
+    }
+
+    public BulkItemResultDTO(int index, String id, int status, String error) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkItemResultDTO{" +
+            "index=" + index +
+            ", id='" + id + "'" +
+            ", status=" + status +
+            ", error='" + error + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,48 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The same partial update of several dataFeeds, for example
+ * <code>{"ids": ["5c4b1b5e...", "5c4b1b5f..."], "patch": {"fetched": true}}</code>.
+ */
+public class DataFeedBulkPatchDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<String> ids;
+
+    private Map<String, Object> patch;
+
+    /**
+     * @return the ids of the dataFeeds to update
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * @return the JSON merge patch applied to every dataFeed
+     */
+    public Map<String, Object> getPatch() {
+        return patch;
+    }
+
+    public void setPatch(Map<String, Object> patch) {
+        this.patch = patch;
+    }
+
+    @Override
+    public String toString() {
+        return "DataFeedBulkPatchDTO{" +
+            "ids=" + (ids != null ? ids.size() : 0) +
+            ", patch=" + patch +
+            "}";
+    }
+}
@@ -0,0 +1,71 @@
+package io.cooly.crawler.service.dto;
+
+import io.github.coolys.service.filter.Filter;
+import io.github.coolys.service.filter.InstantFilter;
+import io.github.coolys.service.filter.StringFilter;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Criteria class for the DataFeed entity. This class is used in DataFeedResource to
+ * receive all the possible filtering options from the Http GET request parameters.
+ * For example the following could be a valid request:
+ * <code> /data-feeds/_export?domain.equals=example.com&amp;created.greaterOrEqualThan=2019-01-01T00:00:00Z</code>
+ * As Spring is unable to properly convert the types, unless specific {@link Filter} class are used, we need to use
+ * fix type specific filters.
+ */
+public class DataFeedCriteria implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private StringFilter domain;
+
+    private InstantFilter created;
+
+    public StringFilter getDomain() {
+        return domain;
+    }
+
+    public void setDomain(StringFilter domain) {
+        this.domain = domain;
+    }
+
+    public InstantFilter getCreated() {
+        return created;
+    }
+
+    public void setCreated(InstantFilter created) {
+        this.created = created;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final DataFeedCriteria that = (DataFeedCriteria) o;
+        return
+            Objects.equals(domain, that.domain) &&
+            Objects.equals(created, that.created);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(
+            domain,
+            created
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "DataFeedCriteria{" +
+            (domain != null ? "domain=" + domain + ", " : "") +
+            (created != null ? "created=" + created + ", " : "") +
+            "}";
+    }
+}
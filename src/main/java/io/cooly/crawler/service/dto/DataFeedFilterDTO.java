@@ -0,0 +1,74 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * The dataFeeds a bulk task applies to, all the filters have to match; absent properties do not filter.
+ * <p>
+ * It is bound from the request parameters, for example
+ * <code>?domain=example.com&amp;maxLevel=2&amp;createdBefore=2019-01-01T00:00:00Z</code>
+ */
+public class DataFeedFilterDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String domain;
+
+    private Integer minLevel;
+
+    private Integer maxLevel;
+
+    private Instant createdBefore;
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * @return the lowest level, inclusive
+     */
+    public Integer getMinLevel() {
+        return minLevel;
+    }
+
+    public void setMinLevel(Integer minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * @return the highest level, inclusive
+     */
+    public Integer getMaxLevel() {
+        return maxLevel;
+    }
+
+    public void setMaxLevel(Integer maxLevel) {
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * @return the latest creation date, exclusive
+     */
+    public Instant getCreatedBefore() {
+        return createdBefore;
+    }
+
+    public void setCreatedBefore(Instant createdBefore) {
+        this.createdBefore = createdBefore;
+    }
+
+    @Override
+    public String toString() {
+        return "DataFeedFilterDTO{" +
+            "domain='" + domain + "'" +
+            ", minLevel=" + minLevel +
+            ", maxLevel=" + maxLevel +
+            ", createdBefore=" + createdBefore +
+            "}";
+    }
+}
@@ -0,0 +1,119 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A structured search for dataFeeds: full-text on the data, and filters which all have to match.
+ * Absent properties do not filter.
+ * <p>
+ * For example: <code>{"text": "release notes", "domain": ["example.com"], "fetched": true,
+ * "createdFrom": "2019-01-01T00:00:00Z"}</code>
+ */
+public class DataFeedQueryDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String text;
+
+    private List<String> domain;
+
+    private List<String> engine;
+
+    private Boolean fetched;
+
+    private List<Integer> level;
+
+    private Instant createdFrom;
+
+    private Instant createdTo;
+
+    /**
+     * @return the words searched in the data, with {@code "} for phrases, {@code +}, {@code |} and
+     * {@code -} for and, or and not, and a trailing {@code *} for prefixes
+     */
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return the domains of the dataFeeds, any of them
+     */
+    public List<String> getDomain() {
+        return domain;
+    }
+
+    public void setDomain(List<String> domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * @return the engines of the dataFeeds, any of them
+     */
+    public List<String> getEngine() {
+        return engine;
+    }
+
+    public void setEngine(List<String> engine) {
+        this.engine = engine;
+    }
+
+    public Boolean getFetched() {
+        return fetched;
+    }
+
+    public void setFetched(Boolean fetched) {
+        this.fetched = fetched;
+    }
+
+    /**
+     * @return the levels of the dataFeeds, any of them
+     */
+    public List<Integer> getLevel() {
+        return level;
+    }
+
+    public void setLevel(List<Integer> level) {
+        this.level = level;
+    }
+
+    /**
+     * @return the earliest creation date, inclusive
+     */
+    public Instant getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public void setCreatedFrom(Instant createdFrom) {
+        this.createdFrom = createdFrom;
+    }
+
+    /**
+     * @return the latest creation date, exclusive
+     */
+    public Instant getCreatedTo() {
+        return createdTo;
+    }
+
+    public void setCreatedTo(Instant createdTo) {
+        this.createdTo = createdTo;
+    }
+
+    @Override
+    public String toString() {
+        return "DataFeedQueryDTO{" +
+            "text='" + text + "'" +
+            ", domain=" + domain +
+            ", engine=" + engine +
+            ", fetched=" + fetched +
+            ", level=" + level +
+            ", createdFrom=" + createdFrom +
+            ", createdTo=" + createdTo +
+            "}";
+    }
+}
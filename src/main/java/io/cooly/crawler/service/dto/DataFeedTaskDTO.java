@@ -0,0 +1,163 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Progress of a bulk task on the dataFeeds matching a filter.
+ * <p>
+ * MongoDB is updated first: with a single write, or chunk by chunk when deleting, {@code processed} counting the
+ * dataFeeds changed so far. The search index is then updated by an Elasticsearch task, whose progress is in the
+ * {@code index*} properties.
+ */
+public class DataFeedTaskDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        MARK_FETCHED, REQUEUE, DELETE
+    }
+
+    public enum State {
+        PENDING, RUNNING, COMPLETED, FAILED
+    }
+
+    private String id;
+
+    private Type type;
+
+    private DataFeedFilterDTO filter;
+
+    private State state;
+
+    private long processed;
+
+    private long indexTotal;
+
+    private long indexProcessed;
+
+    private long indexVersionConflicts;
+
+    private Instant startedAt;
+
+    private Instant finishedAt;
+
+    private String error;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public DataFeedFilterDTO getFilter() {
+        return filter;
+    }
+
+    public void setFilter(DataFeedFilterDTO filter) {
+        this.filter = filter;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the number of dataFeeds changed in MongoDB
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return the number of indexed dataFeeds matching the filter
+     */
+    public long getIndexTotal() {
+        return indexTotal;
+    }
+
+    public void setIndexTotal(long indexTotal) {
+        this.indexTotal = indexTotal;
+    }
+
+    /**
+     * @return the number of indexed dataFeeds changed so far
+     */
+    public long getIndexProcessed() {
+        return indexProcessed;
+    }
+
+    public void setIndexProcessed(long indexProcessed) {
+        this.indexProcessed = indexProcessed;
+    }
+
+    /**
+     * @return the number of indexed dataFeeds skipped because they were indexed again while the task ran
+     */
+    public long getIndexVersionConflicts() {
+        return indexVersionConflicts;
+    }
+
+    public void setIndexVersionConflicts(long indexVersionConflicts) {
+        this.indexVersionConflicts = indexVersionConflicts;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "DataFeedTaskDTO{" +
+            "id='" + id + "'" +
+            ", type=" + type +
+            ", filter=" + filter +
+            ", state=" + state +
+            ", processed=" + processed +
+            ", indexTotal=" + indexTotal +
+            ", indexProcessed=" + indexProcessed +
+            ", indexVersionConflicts=" + indexVersionConflicts +
+            ", startedAt=" + startedAt +
+            ", finishedAt=" + finishedAt +
+            ", error='" + error + "'" +
+            "}";
+    }
+}
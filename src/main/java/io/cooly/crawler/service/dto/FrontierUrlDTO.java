@@ -0,0 +1,88 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A url handed out by the frontier, leased to the crawler worker until it is fetched or the lease expires.
+ */
+public class FrontierUrlDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+
+    private String url;
+
+    private String domain;
+
+    private Integer level;
+
+    private Instant leaseExpiresAt;
+
+    public FrontierUrlDTO() {
+        // Empty public constructor used by Jackson.
+    }
+
+    public FrontierUrlDTO(String id, String url, String domain, Integer level, Instant leaseExpiresAt) {
+        this.id = id;
+        this.url = url;
+        this.domain = domain;
+        this.level = level;
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    /**
+     * @return the id of the DataFeed of the url
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public Integer getLevel() {
+        return level;
+    }
+
+    public void setLevel(Integer level) {
+        this.level = level;
+    }
+
+    public Instant getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(Instant leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return "FrontierUrlDTO{" +
+            "id='" + id + "'" +
+            ", url='" + url + "'" +
+            ", domain='" + domain + "'" +
+            ", level=" + level +
+            ", leaseExpiresAt='" + leaseExpiresAt + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,45 @@
+package io.cooly.crawler.service.dto;
+
+import java.util.List;
+
+/**
+ * A page read after a continuation token rather than at an offset.
+ *
+ * @param <T> the type of the content
+ */
+public class KeysetPage<T> {
+
+    private final List<T> content;
+
+    private final int size;
+
+    private final String nextCursor;
+
+    public KeysetPage(List<T> content, int size, String nextCursor) {
+        this.content = content;
+        this.size = size;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the requested page size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the opaque token to read the next page, null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
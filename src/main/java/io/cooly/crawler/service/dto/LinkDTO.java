@@ -0,0 +1,50 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+
+/**
+ * A link of the link graph, to or from the page of a DataFeed.
+ * <p>
+ * The id is the one of the DataFeed stored with the url, null if the url was not crawled.
+ */
+public class LinkDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+
+    private String url;
+
+    public LinkDTO() {
+        // Empty public constructor used by Jackson.
+    }
+
+    public LinkDTO(String id, String url) {
+        this.id = id;
+        this.url = url;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkDTO{" +
+            "id='" + id + "'" +
+            ", url='" + url + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,63 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+
+/**
+ * A DataFeed whose page is a near-duplicate of another one.
+ * <p>
+ * The distance is the number of differing bits between the SimHash fingerprints of the two pages,
+ * 0 for pages with the same text.
+ */
+public class NearDuplicateDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+
+    private String url;
+
+    private int distance;
+
+    public NearDuplicateDTO() {
+        // Empty public constructor used by Jackson.
+    }
+
+    public NearDuplicateDTO(String id, String url, int distance) {
+        this.id = id;
+        this.url = url;
+        this.distance = distance;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+
+    public void setDistance(int distance) {
+        this.distance = distance;
+    }
+
+    @Override
+    public String toString() {
+        return "NearDuplicateDTO{" +
+            "id='" + id + "'" +
+            ", url='" + url + "'" +
+            ", distance=" + distance +
+            "}";
+    }
+}
@@ -0,0 +1,135 @@
+package io.cooly.crawler.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Progress of the last DataFeed reindex.
+ * <p>
+ * {@code docsPerSecond} and {@code etaSeconds} are computed from the documents loaded so far,
+ * {@code etaSeconds} is only set while the reindex is running.
+ */
+public class ReindexStatusDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum State {
+        IDLE, RUNNING, COMPLETED, FAILED
+    }
+
+    private State state;
+
+    private String index;
+
+    private long total;
+
+    private long processed;
+
+    private long failed;
+
+    private Instant startedAt;
+
+    private Instant finishedAt;
+
+    private double docsPerSecond;
+
+    private Long etaSeconds;
+
+    private String error;
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public double getDocsPerSecond() {
+        return docsPerSecond;
+    }
+
+    public void setDocsPerSecond(double docsPerSecond) {
+        this.docsPerSecond = docsPerSecond;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(Long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "ReindexStatusDTO{" +
+            "state=" + state +
+            ", index='" + index + "'" +
+            ", total=" + total +
+            ", processed=" + processed +
+            ", failed=" + failed +
+            ", startedAt='" + startedAt + "'" +
+            ", finishedAt='" + finishedAt + "'" +
+            ", docsPerSecond=" + docsPerSecond +
+            ", etaSeconds=" + etaSeconds +
+            ", error='" + error + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,29 @@
+package io.cooly.crawler.service.dto;
+
+import io.cooly.crawler.domain.DataFeed;
+
+/**
+ * A saved dataFeed, and whether it was created or replaced a stored one.
+ */
+public class SavedDataFeed {
+
+    private final DataFeed dataFeed;
+
+    private final boolean created;
+
+    public SavedDataFeed(DataFeed dataFeed, boolean created) {
+        this.dataFeed = dataFeed;
+        this.created = created;
+    }
+
+    public DataFeed getDataFeed() {
+        return dataFeed;
+    }
+
+    /**
+     * @return false if the dataFeed replaced the stored one with the same id or url
+     */
+    public boolean isCreated() {
+        return created;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Data Transfer Objects.
+ */
+package io.cooly.crawler.service.dto;
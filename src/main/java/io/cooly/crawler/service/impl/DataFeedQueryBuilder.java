@@ -0,0 +1,148 @@
+package io.cooly.crawler.service.impl;
+
+import io.cooly.crawler.service.dto.DataFeedCriteria;
+
+import io.github.coolys.service.filter.Filter;
+import io.github.coolys.service.filter.RangeFilter;
+import io.github.coolys.service.filter.StringFilter;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Translates {@link DataFeedCriteria} and keyset pagination positions into MongoDB queries.
+ */
+final class DataFeedQueryBuilder {
+
+    private DataFeedQueryBuilder() {
+    }
+
+    /**
+     * @param criteria the filters, may be null
+     * @param fields the properties to return, all of them when null or empty
+     * @return the query matching every filter of {@code criteria}
+     */
+    static Query toQuery(DataFeedCriteria criteria, Collection<String> fields) {
+        Query query = new Query();
+        List<Criteria> conditions = toConditions(criteria);
+        if (!conditions.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(conditions.toArray(new Criteria[0])));
+        }
+        if (fields != null) {
+            fields.forEach(field -> query.fields().include(field));
+            if (fields.contains("html")) {
+                // The html may be in the content store
+                query.fields().include("htmlRef");
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Build the condition selecting what comes after a row in the given order, so that the next page is
+     * read with an index range scan instead of skipping the previous pages.
+     * <p>
+     * For a sort on (a, b) after (x, y) this is {@code a > x OR (a = x AND b > y)}, with nulls sorted
+     * before any value as MongoDB does.
+     *
+     * @param sort the sort order, on properties with an index
+     * @param values the sort values of the last row, dates as epoch milliseconds
+     * @return the condition
+     */
+    static Criteria after(Sort sort, List<Object> values) {
+        List<Sort.Order> orders = new ArrayList<>();
+        sort.forEach(orders::add);
+        if (orders.size() != values.size()) {
+            throw new IllegalArgumentException("Expected " + orders.size() + " sort values, got " + values.size());
+        }
+        List<Criteria> alternatives = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            List<Criteria> conditions = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                conditions.add(Criteria.where(orders.get(j).getProperty()).is(toMongoValue(orders.get(j), values.get(j))));
+            }
+            Criteria beyond = beyond(orders.get(i), toMongoValue(orders.get(i), values.get(i)));
+            if (beyond == null) {
+                continue;
+            }
+            conditions.add(beyond);
+            alternatives.add(conditions.size() == 1 ? conditions.get(0)
+                : new Criteria().andOperator(conditions.toArray(new Criteria[0])));
+        }
+        if (alternatives.isEmpty()) {
+            // Nothing can come after the last row
+            return Criteria.where("id").exists(false);
+        }
+        return alternatives.size() == 1 ? alternatives.get(0)
+            : new Criteria().orOperator(alternatives.toArray(new Criteria[0]));
+    }
+
+    /**
+     * @return the condition on a single property selecting what comes after {@code value}, null if nothing does
+     */
+    private static Criteria beyond(Sort.Order order, Object value) {
+        String field = order.getProperty();
+        if (order.isAscending()) {
+            return value == null ? Criteria.where(field).ne(null) : Criteria.where(field).gt(value);
+        }
+        if (value == null) {
+            return null;
+        }
+        return new Criteria().orOperator(Criteria.where(field).lt(value), Criteria.where(field).is(null));
+    }
+
+    private static Object toMongoValue(Sort.Order order, Object value) {
+        if (value instanceof Number && "created".equals(order.getProperty())) {
+            return new Date(((Number) value).longValue());
+        }
+        return value;
+    }
+
+    private static List<Criteria> toConditions(DataFeedCriteria criteria) {
+        List<Criteria> conditions = new ArrayList<>();
+        if (criteria != null) {
+            addConditions(conditions, "domain", criteria.getDomain());
+            addConditions(conditions, "created", criteria.getCreated());
+        }
+        return conditions;
+    }
+
+    private static <T> void addConditions(List<Criteria> conditions, String field, Filter<T> filter) {
+        if (filter == null) {
+            return;
+        }
+        if (filter.getEquals() != null) {
+            conditions.add(Criteria.where(field).is(filter.getEquals()));
+        }
+        if (filter.getIn() != null) {
+            conditions.add(Criteria.where(field).in(filter.getIn()));
+        }
+        if (filter.getSpecified() != null) {
+            conditions.add(filter.getSpecified() ? Criteria.where(field).ne(null) : Criteria.where(field).is(null));
+        }
+        if (filter instanceof StringFilter && ((StringFilter) filter).getContains() != null) {
+            conditions.add(Criteria.where(field).regex(Pattern.quote(((StringFilter) filter).getContains())));
+        }
+        if (filter instanceof RangeFilter) {
+            RangeFilter<?> range = (RangeFilter<?>) filter;
+            if (range.getGreaterThan() != null) {
+                conditions.add(Criteria.where(field).gt(range.getGreaterThan()));
+            }
+            if (range.getGreaterOrEqualThan() != null) {
+                conditions.add(Criteria.where(field).gte(range.getGreaterOrEqualThan()));
+            }
+            if (range.getLessThan() != null) {
+                conditions.add(Criteria.where(field).lt(range.getLessThan()));
+            }
+            if (range.getLessOrEqualThan() != null) {
+                conditions.add(Criteria.where(field).lte(range.getLessOrEqualThan()));
+            }
+        }
+    }
+}
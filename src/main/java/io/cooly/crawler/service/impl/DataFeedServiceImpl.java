@@ -1,18 +1,73 @@
 package io.cooly.crawler.service.impl;
 
+import io.cooly.crawler.config.ApplicationProperties;
 import io.cooly.crawler.domain.DataFeed;
 import io.cooly.crawler.repository.DataFeedRepository;
 import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.repository.search.SearchAfterSlice;
+import io.cooly.crawler.service.DataFeedDeduplicator;
+import io.cooly.crawler.service.DataFeedIndexManager;
+import io.cooly.crawler.service.DataFeedIndexer;
 import io.cooly.crawler.service.DataFeedService;
+import io.cooly.crawler.service.LinkGraph;
+import io.cooly.crawler.service.NearDuplicateIndex;
+import io.cooly.crawler.service.SeenUrlFilter;
+import io.cooly.crawler.service.UrlFrontier;
+import io.cooly.crawler.service.dto.BulkItemResultDTO;
+import io.cooly.crawler.service.dto.DataFeedCriteria;
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
+import io.cooly.crawler.service.dto.KeysetPage;
+import io.cooly.crawler.service.dto.LinkDTO;
+import io.cooly.crawler.service.dto.NearDuplicateDTO;
+import io.cooly.crawler.service.dto.SavedDataFeed;
+import io.cooly.crawler.service.util.ContentHash;
+import io.cooly.crawler.service.util.DataFeedQueryCompiler;
+import io.cooly.crawler.service.util.SimHash;
+import io.cooly.crawler.service.util.UrlNormalizer;
+import org.elasticsearch.common.lucene.search.function.CombineFunction;
+import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
+import org.elasticsearch.common.lucene.search.function.FiltersFunctionScoreQuery;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static org.elasticsearch.index.query.QueryBuilders.functionScoreQuery;
 import static org.elasticsearch.index.query.QueryBuilders.queryStringQuery;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.exponentialDecayFunction;
+import static org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders.fieldValueFactorFunction;
 
 /**
  * Service Implementation for managing DataFeed.
@@ -22,29 +77,479 @@ public class DataFeedServiceImpl implements DataFeedService {
 
     private final Logger log = LoggerFactory.getLogger(DataFeedServiceImpl.class);
 
+    /**
+     * The properties which can be updated alone: the others are derived from the url or the html.
+     */
+    private static final Set<String> PATCHABLE_PROPERTIES = new HashSet<>(Arrays.asList(
+        "domain", "fetched", "created", "engine", "data", "level", "fileName"));
+
+    /**
+     * The properties a search can be sorted by: those with doc values in the search index.
+     */
+    private static final Set<String> SEARCH_SORT_PROPERTIES = new HashSet<>(Arrays.asList(
+        "id", "url", "domain", "fetched", "created", "engine", "level", "contentHash", "rank"));
+
     private final DataFeedRepository dataFeedRepository;
 
     private final DataFeedSearchRepository dataFeedSearchRepository;
 
-    public DataFeedServiceImpl(DataFeedRepository dataFeedRepository, DataFeedSearchRepository dataFeedSearchRepository) {
+    private final DataFeedIndexer dataFeedIndexer;
+
+    private final DataFeedDeduplicator dataFeedDeduplicator;
+
+    private final NearDuplicateIndex nearDuplicateIndex;
+
+    private final UrlFrontier urlFrontier;
+
+    private final SeenUrlFilter seenUrlFilter;
+
+    private final LinkGraph linkGraph;
+
+    private final DataFeedIndexManager dataFeedIndexManager;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final UrlNormalizer urlNormalizer;
+
+    private final DataFeedQueryCompiler queryCompiler;
+
+    public DataFeedServiceImpl(DataFeedRepository dataFeedRepository, DataFeedSearchRepository dataFeedSearchRepository,
+                               DataFeedIndexer dataFeedIndexer, DataFeedDeduplicator dataFeedDeduplicator,
+                               NearDuplicateIndex nearDuplicateIndex, UrlFrontier urlFrontier,
+                               SeenUrlFilter seenUrlFilter, LinkGraph linkGraph,
+                               DataFeedIndexManager dataFeedIndexManager,
+                               ApplicationProperties applicationProperties) {
         this.dataFeedRepository = dataFeedRepository;
         this.dataFeedSearchRepository = dataFeedSearchRepository;
+        this.dataFeedIndexer = dataFeedIndexer;
+        this.dataFeedDeduplicator = dataFeedDeduplicator;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.urlFrontier = urlFrontier;
+        this.seenUrlFilter = seenUrlFilter;
+        this.linkGraph = linkGraph;
+        this.dataFeedIndexManager = dataFeedIndexManager;
+        this.applicationProperties = applicationProperties;
+        this.urlNormalizer = new UrlNormalizer(applicationProperties.getUrlNormalization().getRemovedParameters());
+        ApplicationProperties.StructuredSearch structuredSearch = applicationProperties.getStructuredSearch();
+        this.queryCompiler = new DataFeedQueryCompiler(structuredSearch.getMaxTextLength(),
+            structuredSearch.getMaxTerms(), structuredSearch.getMinPrefixLength());
     }
 
     /**
-     * Save a dataFeed.
+     * Save a dataFeed, the search index is updated asynchronously.
+     * <p>
+     * Urls are stored in their canonical form and are unique: a new dataFeed with the url of a stored one
+     * replaces it, keeping its id. If the html is the same too, the page was fetched again unchanged: only
+     * the created and fetched properties of the stored one are updated, and it is returned instead.
      *
      * @param dataFeed the entity to save
      * @return the persisted entity
      */
     @Override
     public DataFeed save(DataFeed dataFeed) {
+        return create(dataFeed).getDataFeed();
+    }
+
+    /**
+     * Save a dataFeed as {@link #save(DataFeed)}, telling whether it replaced a stored one.
+     *
+     * @param dataFeed the entity to save
+     * @return the persisted entity, and whether it was created
+     */
+    @Override
+    public SavedDataFeed create(DataFeed dataFeed) {
         log.debug("Request to save DataFeed : {}", dataFeed);
-        DataFeed result = dataFeedRepository.save(dataFeed);
-        dataFeedSearchRepository.save(result);
+        normalizeUrl(dataFeed);
+        fingerprint(dataFeed);
+        boolean created = dataFeed.getId() == null;
+        if (created && dataFeed.getUrl() != null) {
+            Optional<String> existingId = seenUrlFilter.findExisting(dataFeed.getUrl());
+            if (existingId.isPresent()) {
+                Optional<DataFeed> duplicate = touchDuplicate(dataFeed);
+                if (duplicate.isPresent()) {
+                    return new SavedDataFeed(duplicate.get(), false);
+                }
+                dataFeed.setId(existingId.get());
+                created = false;
+            }
+        }
+        DataFeed result;
+        try {
+            result = dataFeedRepository.save(dataFeed);
+        } catch (DuplicateKeyException e) {
+            // Stored since it was looked up, by another request or another instance
+            String existingId = created ? dataFeedRepository.findIdsByUrl(Collections.singleton(dataFeed.getUrl()))
+                .get(dataFeed.getUrl()) : null;
+            if (existingId == null) {
+                throw e;
+            }
+            dataFeed.setId(existingId);
+            created = false;
+            result = dataFeedRepository.save(dataFeed);
+        }
+        seenUrlFilter.add(result.getUrl());
+        linkGraph.update(result.getUrl(), result.getLinks(), result.getHtml());
+        dataFeedDeduplicator.remember(result);
+        urlFrontier.offer(result);
+        boolean nearDuplicate = addToNearDuplicateIndex(result, created);
+        if (indexesOnWrite() && !nearDuplicate) {
+            dataFeedIndexer.index(result);
+        }
+        return new SavedDataFeed(result, created);
+    }
+
+    /**
+     * Save a dataFeed by its url with one findAndModify upserting on the unique url index, the search index
+     * is updated asynchronously, only if an indexed property changed.
+     *
+     * @param dataFeed the entity to save
+     * @return the persisted entity
+     */
+    @Override
+    public DataFeed upsertByUrl(DataFeed dataFeed) {
+        log.debug("Request to upsert DataFeed by url : {}", dataFeed);
+        normalizeUrl(dataFeed);
+        if (dataFeed.getUrl() == null) {
+            throw new IllegalArgumentException("A dataFeed cannot be upserted without a url");
+        }
+        fingerprint(dataFeed);
+        Optional<DataFeed> previous = dataFeedRepository.upsertByUrl(dataFeed);
+        boolean created = !previous.isPresent();
+        boolean changed = created || !hasSameIndexedProperties(dataFeed, previous.get());
+        seenUrlFilter.add(dataFeed.getUrl());
+        linkGraph.update(dataFeed.getUrl(), dataFeed.getLinks(), dataFeed.getHtml());
+        dataFeedDeduplicator.remember(dataFeed);
+        urlFrontier.offer(dataFeed);
+        if (changed && !addToNearDuplicateIndex(dataFeed, created) && indexesOnWrite()) {
+            dataFeedIndexer.index(dataFeed);
+        }
+        return dataFeed;
+    }
+
+    /**
+     * @return whether the search index holds the same properties for both dataFeeds, the html being compared
+     * by its content hash
+     */
+    private static boolean hasSameIndexedProperties(DataFeed dataFeed, DataFeed previous) {
+        return dataFeed.getContentHash() != null
+            && dataFeed.getContentHash().equals(previous.getContentHash())
+            && Objects.equals(dataFeed.getDomain(), previous.getDomain())
+            && Objects.equals(dataFeed.isFetched(), previous.isFetched())
+            && Objects.equals(dataFeed.getCreated(), previous.getCreated())
+            && Objects.equals(dataFeed.getEngine(), previous.getEngine())
+            && Objects.equals(dataFeed.getData(), previous.getData())
+            && Objects.equals(dataFeed.getLinks(), previous.getLinks())
+            && Objects.equals(dataFeed.getLevel(), previous.getLevel())
+            && Objects.equals(dataFeed.getFileName(), previous.getFileName())
+            && Objects.equals(dataFeed.getSimhash(), previous.getSimhash());
+    }
+
+    /**
+     * Update some properties of a dataFeed with one findAndModify, the search index is updated
+     * asynchronously with a partial update.
+     *
+     * @param id the id of the entity
+     * @param patch the new values of the patched properties
+     * @param properties the patched properties
+     * @param fields the properties to return, the patched ones by default
+     * @return the updated entity
+     */
+    @Override
+    public Optional<DataFeed> partialUpdate(String id, DataFeed patch, Set<String> properties, Collection<String> fields) {
+        log.debug("Request to partially update DataFeed {} : {}", id, properties);
+        Map<String, Object> values = toPatchValues(patch, properties);
+        Query query = DataFeedQueryBuilder.toQuery(null, fields == null || fields.isEmpty() ? properties : fields)
+            .addCriteria(Criteria.where("id").is(id));
+        if (values.isEmpty()) {
+            Optional<DataFeed> dataFeed = dataFeedRepository.findByQuery(query).stream().findFirst();
+            if (dataFeed.isPresent() && fields != null && fields.contains("html")) {
+                dataFeedRepository.loadHtml(Collections.singletonList(dataFeed.get()));
+            }
+            return dataFeed;
+        }
+        Optional<DataFeed> result = dataFeedRepository.findAndUpdate(query, toUpdate(values));
+        if (result.isPresent()) {
+            afterPartialUpdate(Collections.singletonList(id), values);
+            if (fields != null && fields.contains("html")) {
+                dataFeedRepository.loadHtml(Collections.singletonList(result.get()));
+            }
+        }
         return result;
     }
 
+    /**
+     * Apply the same partial update to several dataFeeds with one MongoDB updateMany per chunk of ids, the
+     * search index is updated asynchronously with partial updates.
+     *
+     * @param ids the ids of the entities
+     * @param patch the new values of the patched properties
+     * @param properties the patched properties
+     * @return the number of dataFeeds updated
+     */
+    @Override
+    public long partialUpdate(Collection<String> ids, DataFeed patch, Set<String> properties) {
+        log.debug("Request to partially update {} DataFeeds : {}", ids.size(), properties);
+        Map<String, Object> values = toPatchValues(patch, properties);
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("A patch must update at least one property");
+        }
+        Update update = toUpdate(values);
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        int chunkSize = Math.max(1, applicationProperties.getBulk().getChunkSize());
+        long updated = 0;
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<String> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+            updated += dataFeedRepository.updateAll(new Query(Criteria.where("id").in(chunk)), update);
+            afterPartialUpdate(chunk, values);
+        }
+        return updated;
+    }
+
+    private static Map<String, Object> toPatchValues(DataFeed patch, Set<String> properties) {
+        DirectFieldAccessor accessor = new DirectFieldAccessor(patch);
+        Map<String, Object> values = new HashMap<>();
+        for (String property : properties) {
+            if (!PATCHABLE_PROPERTIES.contains(property)) {
+                throw new IllegalArgumentException("The property " + property + " cannot be patched");
+            }
+            values.put(property, accessor.getPropertyValue(property));
+        }
+        return values;
+    }
+
+    private static Update toUpdate(Map<String, Object> values) {
+        Update update = new Update();
+        values.forEach((property, value) -> {
+            if (value != null) {
+                update.set(property, value);
+            } else {
+                update.unset(property);
+            }
+        });
+        return update;
+    }
+
+    private void afterPartialUpdate(Collection<String> ids, Map<String, Object> values) {
+        if (values.containsKey("fetched") || values.containsKey("domain") || values.containsKey("level")) {
+            // The frontier reads them from MongoDB again if they still have to be fetched
+            ids.forEach(urlFrontier::remove);
+        }
+        if (indexesOnWrite()) {
+            ids.forEach(id -> dataFeedIndexer.update(id, values));
+        }
+    }
+
+    /**
+     * Save a list of dataFeeds with one MongoDB bulk write per chunk, the search index is
+     * updated asynchronously. As with {@link #save(DataFeed)}, a new dataFeed with the url of a stored one
+     * replaces it, or only updates its fetch if the html is the same; a url repeated in the list starts a new
+     * chunk, so that its items are saved in order.
+     *
+     * @param dataFeeds the entities to save
+     * @return the outcome of every item, in the same order as {@code dataFeeds}
+     */
+    @Override
+    public List<BulkItemResultDTO> saveAll(List<DataFeed> dataFeeds) {
+        log.debug("Request to save {} DataFeeds", dataFeeds.size());
+        List<BulkItemResultDTO> results = new ArrayList<>(dataFeeds.size());
+        int chunkSize = Math.max(1, applicationProperties.getBulk().getChunkSize());
+        int from = 0;
+        Set<String> chunkUrls = new HashSet<>();
+        for (int i = 0; i < dataFeeds.size(); i++) {
+            normalizeUrl(dataFeeds.get(i));
+            String url = dataFeeds.get(i).getUrl();
+            if (i - from == chunkSize || url != null && chunkUrls.contains(url)) {
+                results.addAll(saveChunk(dataFeeds.subList(from, i), from));
+                from = i;
+                chunkUrls.clear();
+            }
+            if (url != null) {
+                chunkUrls.add(url);
+            }
+        }
+        if (from < dataFeeds.size()) {
+            results.addAll(saveChunk(dataFeeds.subList(from, dataFeeds.size()), from));
+        }
+        return results;
+    }
+
+    private List<BulkItemResultDTO> saveChunk(List<DataFeed> chunk, int offset) {
+        boolean[] created = new boolean[chunk.size()];
+        boolean[] unchanged = new boolean[chunk.size()];
+        List<String> newUrls = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            created[i] = chunk.get(i).getId() == null;
+            fingerprint(chunk.get(i));
+            if (created[i] && chunk.get(i).getUrl() != null) {
+                newUrls.add(chunk.get(i).getUrl());
+            }
+        }
+        Map<String, String> existingIds = newUrls.isEmpty() ? new HashMap<>() : seenUrlFilter.findExisting(newUrls);
+        List<Integer> written = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            String existingId = created[i] ? existingIds.get(chunk.get(i).getUrl()) : null;
+            if (existingId != null) {
+                created[i] = false;
+                // An unchanged page only updates the fetch of the stored one, and is not written again
+                unchanged[i] = touchDuplicate(chunk.get(i)).isPresent();
+                if (!unchanged[i]) {
+                    chunk.get(i).setId(existingId);
+                }
+            }
+            if (!unchanged[i]) {
+                written.add(i);
+            }
+        }
+        Map<Integer, String> writeFailures = new HashMap<>();
+        bulkSave(written.stream().map(chunk::get).collect(Collectors.toList()))
+            .forEach((j, failure) -> writeFailures.put(written.get(j), failure));
+        if (!writeFailures.isEmpty()) {
+            retryStoredUrls(chunk, created, writeFailures);
+        }
+        List<DataFeed> saved = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (unchanged[i]) {
+                continue;
+            }
+            if (writeFailures.containsKey(i)) {
+                if (created[i]) {
+                    chunk.get(i).setId(null);
+                }
+            } else {
+                seenUrlFilter.add(chunk.get(i).getUrl());
+                linkGraph.update(chunk.get(i).getUrl(), chunk.get(i).getLinks(), chunk.get(i).getHtml());
+                dataFeedDeduplicator.remember(chunk.get(i));
+                urlFrontier.offer(chunk.get(i));
+                if (!addToNearDuplicateIndex(chunk.get(i), created[i])) {
+                    saved.add(chunk.get(i));
+                }
+            }
+        }
+        if (indexesOnWrite()) {
+            dataFeedIndexer.indexAll(saved);
+        }
+        List<BulkItemResultDTO> results = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            DataFeed dataFeed = chunk.get(i);
+            String writeFailure = writeFailures.get(i);
+            if (writeFailure != null) {
+                results.add(new BulkItemResultDTO(offset + i, dataFeed.getId(),
+                    HttpStatus.INTERNAL_SERVER_ERROR.value(), writeFailure));
+            } else {
+                HttpStatus status = created[i] ? HttpStatus.CREATED : HttpStatus.OK;
+                results.add(new BulkItemResultDTO(offset + i, dataFeed.getId(), status.value(), null));
+            }
+        }
+        return results;
+    }
+
+    private Map<Integer, String> bulkSave(List<DataFeed> dataFeeds) {
+        try {
+            return dataFeedRepository.bulkSave(dataFeeds);
+        } catch (RuntimeException e) {
+            log.warn("Bulk write of {} DataFeeds failed: {}", dataFeeds.size(), e.getMessage());
+            Map<Integer, String> writeFailures = new HashMap<>();
+            for (int i = 0; i < dataFeeds.size(); i++) {
+                writeFailures.put(i, e.getMessage());
+            }
+            return writeFailures;
+        }
+    }
+
+    /**
+     * Save again, as replacements, the new dataFeeds whose url was stored since it was looked up.
+     */
+    private void retryStoredUrls(List<DataFeed> chunk, boolean[] created, Map<Integer, String> writeFailures) {
+        Set<String> failedUrls = new HashSet<>();
+        writeFailures.keySet().stream()
+            .filter(i -> created[i] && chunk.get(i).getUrl() != null)
+            .forEach(i -> failedUrls.add(chunk.get(i).getUrl()));
+        if (failedUrls.isEmpty()) {
+            return;
+        }
+        Map<String, String> existingIds = dataFeedRepository.findIdsByUrl(failedUrls);
+        List<Integer> retried = new ArrayList<>();
+        for (Integer i : writeFailures.keySet()) {
+            String existingId = created[i] ? existingIds.get(chunk.get(i).getUrl()) : null;
+            if (existingId != null) {
+                chunk.get(i).setId(existingId);
+                created[i] = false;
+                retried.add(i);
+            }
+        }
+        if (retried.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> retryFailures = bulkSave(retried.stream().map(chunk::get).collect(Collectors.toList()));
+        for (int j = 0; j < retried.size(); j++) {
+            String retryFailure = retryFailures.get(j);
+            if (retryFailure == null) {
+                writeFailures.remove(retried.get(j));
+            } else {
+                writeFailures.put(retried.get(j), retryFailure);
+            }
+        }
+    }
+
+    /**
+     * If the new dataFeed is an unchanged page, record the new fetch on the stored one, in MongoDB and with a
+     * partial update of the search index.
+     */
+    private Optional<DataFeed> touchDuplicate(DataFeed dataFeed) {
+        if (dataFeed.getContentHash() == null || !applicationProperties.getDedup().isEnabled()) {
+            return Optional.empty();
+        }
+        Optional<DataFeed> duplicate = dataFeedDeduplicator.touchDuplicate(dataFeed);
+        duplicate.ifPresent(stored -> {
+            log.debug("DataFeed {} is unchanged", stored.getId());
+            dataFeed.setId(stored.getId());
+            urlFrontier.offer(stored);
+            if (indexesOnWrite()) {
+                Map<String, Object> fetch = new HashMap<>();
+                fetch.put("created", stored.getCreated());
+                fetch.put("fetched", stored.isFetched());
+                dataFeedIndexer.update(stored.getId(), fetch);
+            }
+        });
+        return duplicate;
+    }
+
+    private void normalizeUrl(DataFeed dataFeed) {
+        if (applicationProperties.getUrlNormalization().isEnabled()) {
+            dataFeed.setUrl(urlNormalizer.normalize(dataFeed.getUrl()));
+        }
+    }
+
+    /**
+     * Compute the fingerprints of the html; they are kept when the html is in the content store and not loaded.
+     */
+    private void fingerprint(DataFeed dataFeed) {
+        if (dataFeed.getHtml() != null) {
+            dataFeed.setContentHash(ContentHash.of(dataFeed.getHtml()));
+            long simhash = applicationProperties.getNearDuplicates().isEnabled() ? SimHash.of(dataFeed.getHtml()) : 0;
+            dataFeed.setSimhash(simhash != 0 ? simhash : null);
+        } else if (dataFeed.getHtmlRef() == null) {
+            dataFeed.setContentHash(null);
+            dataFeed.setSimhash(null);
+        }
+    }
+
+    /**
+     * @return whether the saved dataFeed is new and has a near-duplicate, so that it is kept out of the
+     * search index when configured so
+     */
+    private boolean addToNearDuplicateIndex(DataFeed dataFeed, boolean created) {
+        if (dataFeed.getSimhash() == null) {
+            nearDuplicateIndex.remove(dataFeed.getId());
+            return false;
+        }
+        ApplicationProperties.NearDuplicates properties = applicationProperties.getNearDuplicates();
+        boolean skipped = created && properties.isSkipIndexing()
+            && !nearDuplicateIndex.find(dataFeed.getId(), dataFeed.getSimhash(), properties.getMaxDistance()).isEmpty();
+        nearDuplicateIndex.add(dataFeed.getId(), dataFeed.getSimhash());
+        return skipped;
+    }
+
     /**
      * Get all the dataFeeds.
      *
@@ -54,7 +559,150 @@ public class DataFeedServiceImpl implements DataFeedService {
     @Override
     public Page<DataFeed> findAll(Pageable pageable) {
         log.debug("Request to get all DataFeeds");
-        return dataFeedRepository.findAll(pageable);
+        Page<DataFeed> page = dataFeedRepository.findAll(pageable);
+        dataFeedRepository.loadHtml(page.getContent());
+        return page;
+    }
+
+    /**
+     * Get all the dataFeeds, only loading the given properties.
+     *
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    @Override
+    public Page<DataFeed> findAll(Pageable pageable, Collection<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return findAll(pageable);
+        }
+        log.debug("Request to get all DataFeeds with fields {}", fields);
+        Page<DataFeed> page = dataFeedRepository.findPage(DataFeedQueryBuilder.toQuery(null, fields), pageable);
+        loadStoredHtml(page.getContent(), fields);
+        return page;
+    }
+
+    /**
+     * Get a page of dataFeeds without counting them all.
+     *
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the slice of entities
+     */
+    @Override
+    public Slice<DataFeed> findSlice(Pageable pageable, Collection<String> fields) {
+        log.debug("Request to get a slice of DataFeeds");
+        Slice<DataFeed> slice = dataFeedRepository.findSlice(DataFeedQueryBuilder.toQuery(null, fields), pageable);
+        loadStoredHtml(slice.getContent(), fields);
+        return slice;
+    }
+
+    /**
+     * @return the approximate number of dataFeeds
+     */
+    @Override
+    public long estimateCount() {
+        return dataFeedRepository.estimateCount();
+    }
+
+    /**
+     * Get a page of dataFeeds after a continuation token, with a range scan on the sort keys.
+     *
+     * @param cursor the token of the previous page, empty for the first page
+     * @param pageable the page size, and for the first page the sort order
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of entities
+     */
+    @Override
+    public KeysetPage<DataFeed> findAll(String cursor, Pageable pageable, Collection<String> fields) {
+        log.debug("Request to get a page of DataFeeds after {}", cursor);
+        KeysetCursor after = cursor.isEmpty() ? null : KeysetCursor.decode(cursor);
+        // The sort of a cursor comes from the client, it is checked as the one of a first page
+        Sort sort = toKeysetSort(after != null ? after.getSort() : pageable.getSort());
+        if (after != null) {
+            checkKeysetValues(sort, after.getValues());
+        }
+        Query query = DataFeedQueryBuilder.toQuery(null, fields);
+        if (fields != null && !fields.isEmpty()) {
+            // The sort values of the last row make the next cursor
+            sort.forEach(order -> query.fields().include(order.getProperty()));
+        }
+        if (after != null) {
+            query.addCriteria(DataFeedQueryBuilder.after(sort, after.getValues()));
+        }
+        // Read one more row to know whether there is a next page
+        query.with(sort).limit(pageable.getPageSize() + 1);
+        List<DataFeed> content = dataFeedRepository.findByQuery(query);
+        String nextCursor = null;
+        if (content.size() > pageable.getPageSize()) {
+            content = content.subList(0, pageable.getPageSize());
+            DataFeed last = content.get(content.size() - 1);
+            List<Object> values = new ArrayList<>();
+            for (Sort.Order order : sort) {
+                values.add("created".equals(order.getProperty())
+                    ? (last.getCreated() != null ? last.getCreated().toEpochMilli() : null)
+                    : last.getId());
+            }
+            nextCursor = new KeysetCursor(sort, values).encode();
+        }
+        loadStoredHtml(content, fields);
+        return new KeysetPage<>(content, pageable.getPageSize(), nextCursor);
+    }
+
+    /**
+     * Keyset pagination needs a total order on indexed properties: created when requested, then id.
+     */
+    private static Sort toKeysetSort(Sort requested) {
+        Sort.Direction idDirection = Sort.Direction.ASC;
+        Sort.Order created = null;
+        for (Sort.Order order : requested) {
+            if ("created".equals(order.getProperty())) {
+                created = order;
+                idDirection = order.getDirection();
+            } else if ("id".equals(order.getProperty())) {
+                idDirection = order.getDirection();
+            } else {
+                throw new IllegalArgumentException("Cannot paginate with a cursor sorted by " + order.getProperty());
+            }
+        }
+        Sort.Order id = new Sort.Order(idDirection, "id");
+        return created != null ? Sort.by(Arrays.asList(new Sort.Order(created.getDirection(), "created"), id)) : Sort.by(id);
+    }
+
+    /**
+     * Check that the values of a cursor are those of the last row of a page sorted by {@link #toKeysetSort(Sort)}.
+     */
+    private static void checkKeysetValues(Sort sort, List<Object> values) {
+        List<Sort.Order> orders = sort.stream().collect(Collectors.toList());
+        if (orders.size() != values.size()) {
+            throw new IllegalArgumentException("Invalid cursor: expected " + orders.size() + " sort values, got " + values.size());
+        }
+        for (int i = 0; i < orders.size(); i++) {
+            Object value = values.get(i);
+            boolean valid = "created".equals(orders.get(i).getProperty())
+                ? value == null || value instanceof Number
+                : value instanceof String;
+            if (!valid) {
+                throw new IllegalArgumentException("Invalid cursor: invalid value of " + orders.get(i).getProperty());
+            }
+        }
+    }
+
+    /**
+     * Stream the dataFeeds matching the criteria straight from a database cursor.
+     *
+     * @param criteria the filters to apply
+     * @param fields the properties to load, all of them when null or empty
+     * @return the matching entities, the iterator must be closed by the caller
+     */
+    @Override
+    public CloseableIterator<DataFeed> stream(DataFeedCriteria criteria, Collection<String> fields) {
+        log.debug("Request to stream DataFeeds by criteria: {}", criteria);
+        CloseableIterator<DataFeed> dataFeeds = dataFeedRepository.stream(DataFeedQueryBuilder.toQuery(criteria, fields));
+        if (!wantsHtml(fields)) {
+            return dataFeeds;
+        }
+        return new HtmlLoadingIterator(dataFeeds, applicationProperties.getContentStore().getReadBatchSize());
     }
 
 
@@ -67,19 +715,168 @@ public class DataFeedServiceImpl implements DataFeedService {
     @Override
     public Optional<DataFeed> findOne(String id) {
         log.debug("Request to get DataFeed : {}", id);
-        return dataFeedRepository.findById(id);
+        Optional<DataFeed> dataFeed = dataFeedRepository.findById(id);
+        dataFeed.ifPresent(loaded -> dataFeedRepository.loadHtml(Collections.singletonList(loaded)));
+        return dataFeed;
+    }
+
+    /**
+     * Get one dataFeed by id, only loading the given properties.
+     *
+     * @param id the id of the entity
+     * @param fields the properties to load, all of them when null or empty
+     * @return the entity
+     */
+    @Override
+    public Optional<DataFeed> findOne(String id, Collection<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return findOne(id);
+        }
+        log.debug("Request to get DataFeed : {} with fields {}", id, fields);
+        Query query = DataFeedQueryBuilder.toQuery(null, fields).addCriteria(Criteria.where("id").is(id));
+        List<DataFeed> dataFeed = dataFeedRepository.findByQuery(query);
+        loadStoredHtml(dataFeed, fields);
+        return dataFeed.stream().findFirst();
+    }
+
+    /**
+     * Get the near-duplicates of the "id" dataFeed from the near-duplicate index.
+     *
+     * @param id the id of the entity
+     * @param maxDistance the largest distance to the dataFeed
+     * @param limit the maximum number of near-duplicates
+     * @return the near-duplicates, closest first, or empty if the dataFeed does not exist
+     */
+    @Override
+    public Optional<List<NearDuplicateDTO>> findNearDuplicates(String id, int maxDistance, int limit) {
+        log.debug("Request to get the near-duplicates of DataFeed : {}", id);
+        return findOne(id, Collections.singletonList("simhash")).map(dataFeed -> {
+            if (dataFeed.getSimhash() == null) {
+                return Collections.emptyList();
+            }
+            List<NearDuplicateDTO> nearDuplicates = nearDuplicateIndex.find(id, dataFeed.getSimhash(), maxDistance);
+            Query query = new Query(Criteria.where("id").in(nearDuplicates.stream()
+                .map(NearDuplicateDTO::getId)
+                .collect(Collectors.toList())));
+            query.fields().include("url");
+            Map<String, String> urls = new HashMap<>();
+            dataFeedRepository.findByQuery(query).forEach(nearDuplicate -> urls.put(nearDuplicate.getId(), nearDuplicate.getUrl()));
+            // The index may still hold dataFeeds deleted by other instances
+            List<NearDuplicateDTO> result = new ArrayList<>();
+            for (NearDuplicateDTO nearDuplicate : nearDuplicates) {
+                if (result.size() == limit) {
+                    break;
+                }
+                if (urls.containsKey(nearDuplicate.getId())) {
+                    nearDuplicate.setUrl(urls.get(nearDuplicate.getId()));
+                    result.add(nearDuplicate);
+                }
+            }
+            return result;
+        });
     }
 
     /**
-     * Delete the dataFeed by id.
+     * Get the urls the "id" dataFeed links to, from the link graph.
+     *
+     * @param id the id of the entity
+     * @param pageable the pagination information
+     * @return the outlinks, or empty if the dataFeed does not exist
+     */
+    @Override
+    public Optional<Page<LinkDTO>> findOutlinks(String id, Pageable pageable) {
+        log.debug("Request to get the outlinks of DataFeed : {}", id);
+        return findOne(id, Collections.singletonList("url"))
+            .map(dataFeed -> toLinks(linkGraph.getOutlinks(dataFeed.getUrl(), pageable)));
+    }
+
+    /**
+     * Get the urls linking to the "id" dataFeed, from the link graph.
+     *
+     * @param id the id of the entity
+     * @param pageable the pagination information
+     * @return the inlinks, or empty if the dataFeed does not exist
+     */
+    @Override
+    public Optional<Page<LinkDTO>> findInlinks(String id, Pageable pageable) {
+        log.debug("Request to get the inlinks of DataFeed : {}", id);
+        return findOne(id, Collections.singletonList("url"))
+            .map(dataFeed -> toLinks(linkGraph.getInlinks(dataFeed.getUrl(), pageable)));
+    }
+
+    /**
+     * Get the urls of a domain, lowest level first; the domain_fetched_level_url index covers the query.
+     *
+     * @param domain the domain
+     * @param fetched whether the urls were fetched
+     * @param maxLevel the maximum level of the urls
+     * @param pageable the pagination information, its sort is ignored
+     * @return the slice of dataFeeds, with only their url and level
+     */
+    @Override
+    public Slice<DataFeed> findUrlsByDomain(String domain, boolean fetched, int maxLevel, Pageable pageable) {
+        log.debug("Request to get the urls of domain {} up to level {}", domain, maxLevel);
+        return dataFeedRepository.findUrlsByDomain(domain, fetched, maxLevel,
+            PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("level", "url")));
+    }
+
+    /**
+     * Count the dataFeeds of a domain, with a count scan of the domain_fetched_level_url index.
+     *
+     * @param domain the domain
+     * @param fetched whether the dataFeeds were fetched
+     * @return the number of dataFeeds
+     */
+    @Override
+    public long countByDomain(String domain, boolean fetched) {
+        log.debug("Request to count the DataFeeds of domain {}", domain);
+        return dataFeedRepository.countByDomainAndFetched(domain, fetched);
+    }
+
+    /**
+     * Count the dataFeeds created since a date, with a count scan of the created_desc index.
+     *
+     * @param since the earliest creation date, inclusive
+     * @return the number of dataFeeds
+     */
+    @Override
+    public long countCreatedSince(Instant since) {
+        log.debug("Request to count the DataFeeds created since {}", since);
+        return dataFeedRepository.countByCreatedGreaterThanEqual(since);
+    }
+
+    private Page<LinkDTO> toLinks(Page<String> urls) {
+        Map<String, String> ids = urls.hasContent() ? dataFeedRepository.findIdsByUrl(urls.getContent()) : new HashMap<>();
+        List<LinkDTO> links = urls.getContent().stream()
+            .map(url -> new LinkDTO(ids.get(url), url))
+            .collect(Collectors.toList());
+        return new PageImpl<>(links, urls.getPageable(), urls.getTotalElements());
+    }
+
+    /**
+     * Delete the dataFeed by id, the search index is updated asynchronously.
      *
      * @param id the id of the entity
      */
     @Override
     public void delete(String id) {
         log.debug("Request to delete DataFeed : {}", id);
+        Optional<DataFeed> deleted = applicationProperties.getLinkGraph().isEnabled()
+            ? findOne(id, Collections.singletonList("url")) : Optional.empty();
         dataFeedRepository.deleteById(id);
-        dataFeedSearchRepository.deleteById(id);
+        deleted.ifPresent(dataFeed -> linkGraph.remove(dataFeed.getUrl()));
+        nearDuplicateIndex.remove(id);
+        urlFrontier.remove(id);
+        if (indexesOnWrite()) {
+            dataFeedIndexer.delete(id);
+        }
+    }
+
+    /**
+     * When the change stream indexer is enabled, it is the only writer to the search index.
+     */
+    private boolean indexesOnWrite() {
+        return !applicationProperties.getIndexing().getChangeStream().isEnabled();
     }
 
     /**
@@ -92,5 +889,206 @@ public class DataFeedServiceImpl implements DataFeedService {
     @Override
     public Page<DataFeed> search(String query, Pageable pageable) {
         log.debug("Request to search for a page of DataFeeds for query {}", query);
-        return dataFeedSearchRepository.search(queryStringQuery(query), pageable);    }
+        Page<DataFeed> page = dataFeedSearchRepository.search(queryStringQuery(query), pageable);
+        loadHtml(page.getContent(), null);
+        return page;
+    }
+
+    /**
+     * Search for the dataFeed corresponding to the query, only loading the given properties.
+     *
+     * @param query the query of the search
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    @Override
+    public Page<DataFeed> search(String query, Pageable pageable, Collection<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return search(query, pageable);
+        }
+        log.debug("Request to search for a page of DataFeeds for query {} with fields {}", query, fields);
+        Page<DataFeed> page = dataFeedSearchRepository.search(queryStringQuery(query), pageable, fields);
+        loadHtml(page.getContent(), fields);
+        return page;
+    }
+
+    /**
+     * Search for the dataFeed corresponding to the query, rescoring the top hits of each shard with a
+     * function_score of the query multiplied by the rank and the freshness of the page. The scoring runs in
+     * Elasticsearch, and only on the rescore window: hits past the window keep their text score, which is not
+     * comparable with the rescored ones, so the page must end within the window.
+     *
+     * @param query the query of the search
+     * @param pageable the pagination information, unsorted and ending within the rescore window
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    @Override
+    public Page<DataFeed> searchRanked(String query, Pageable pageable, Collection<String> fields) {
+        log.debug("Request to search for a ranked page of DataFeeds for query {}", query);
+        ApplicationProperties.RankedSearch ranking = applicationProperties.getRankedSearch();
+        FunctionScoreQueryBuilder.FilterFunctionBuilder[] functions = {
+            new FunctionScoreQueryBuilder.FilterFunctionBuilder(fieldValueFactorFunction("rank")
+                .modifier(FieldValueFactorFunction.Modifier.fromString(ranking.getRankModifier()))
+                .factor((float) ranking.getRankFactor())
+                .missing(1)),
+            new FunctionScoreQueryBuilder.FilterFunctionBuilder(exponentialDecayFunction("created", "now",
+                ranking.getFreshnessScale(), ranking.getFreshnessOffset(), ranking.getFreshnessDecay()))
+        };
+        QueryRescorerBuilder rescorer = new QueryRescorerBuilder(functionScoreQuery(queryStringQuery(query), functions)
+            .scoreMode(FiltersFunctionScoreQuery.ScoreMode.MULTIPLY)
+            .boostMode(CombineFunction.MULTIPLY))
+            .windowSize(ranking.getWindowSize())
+            .setQueryWeight(0)
+            .setRescoreQueryWeight(1);
+        Page<DataFeed> page = dataFeedSearchRepository.search(queryStringQuery(query), rescorer, pageable, fields);
+        loadHtml(page.getContent(), fields);
+        return page;
+    }
+
+    /**
+     * Search for the dataFeeds matching a structured query, whose filters are cached by Elasticsearch.
+     *
+     * @param query the structured query
+     * @param pageable the pagination information
+     * @param fields the properties to load, all of them when null or empty
+     * @return the list of entities
+     */
+    @Override
+    public Page<DataFeed> search(DataFeedQueryDTO query, Pageable pageable, Collection<String> fields) {
+        log.debug("Request to search for a page of DataFeeds for structured query {}", query);
+        Page<DataFeed> page = dataFeedSearchRepository.search(queryCompiler.compile(query, dataFeedIndexManager.hasDynamicMapping()), pageable, fields);
+        loadHtml(page.getContent(), fields);
+        return page;
+    }
+
+    /**
+     * Search for a page of dataFeeds with search_after.
+     *
+     * @param query the query of the search
+     * @param cursor the token of the previous page, empty for the first page
+     * @param pageable the page size, and for the first page the sort order
+     * @param fields the properties to load, all of them when null or empty
+     * @return the page of entities
+     */
+    @Override
+    public KeysetPage<DataFeed> search(String query, String cursor, Pageable pageable, Collection<String> fields) {
+        log.debug("Request to search for a page of DataFeeds for query {} after {}", query, cursor);
+        KeysetCursor after = cursor.isEmpty() ? null : KeysetCursor.decode(cursor);
+        // The sort of a cursor comes from the client, it is checked as the one of a first page
+        Sort sort = toSearchAfterSort(after != null ? after.getSort() : pageable.getSort());
+        // The search also sorts by score when unsorted, then by _uid
+        int sortValues = (sort.isSorted() ? (int) sort.stream().count() : 1) + 1;
+        if (after != null && after.getValues().size() != sortValues) {
+            throw new IllegalArgumentException("Invalid cursor: expected " + sortValues + " sort values, got "
+                + after.getValues().size());
+        }
+        SearchAfterSlice<DataFeed> slice = dataFeedSearchRepository.searchAfter(queryStringQuery(query), sort,
+            after != null ? after.getValues() : null, pageable.getPageSize(), fields);
+        loadHtml(slice.getContent(), fields);
+        // A full page may be followed by an empty one, which is cheaper than reading one more hit
+        String nextCursor = slice.getContent().size() == pageable.getPageSize() && slice.getLastSortValues() != null
+            ? new KeysetCursor(sort, slice.getLastSortValues()).encode()
+            : null;
+        return new KeysetPage<>(slice.getContent(), pageable.getPageSize(), nextCursor);
+    }
+
+    /**
+     * A search can only be sorted by properties with doc values, sorting by the others fails or loads them
+     * in memory.
+     */
+    private static Sort toSearchAfterSort(Sort requested) {
+        for (Sort.Order order : requested) {
+            if (!SEARCH_SORT_PROPERTIES.contains(order.getProperty())) {
+                throw new IllegalArgumentException("Cannot paginate with a cursor sorted by " + order.getProperty());
+            }
+        }
+        return requested;
+    }
+
+    private static boolean wantsHtml(Collection<String> fields) {
+        return fields == null || fields.isEmpty() || fields.contains("html");
+    }
+
+    /**
+     * Loaded dataFeeds only reference the html kept in the content store, read it when it is requested.
+     */
+    private void loadStoredHtml(List<DataFeed> dataFeeds, Collection<String> fields) {
+        if (wantsHtml(fields)) {
+            dataFeedRepository.loadHtml(dataFeeds);
+        }
+    }
+
+    /**
+     * The search index does not hold the html kept in the content store, read it with the dataFeeds.
+     */
+    private void loadHtml(List<DataFeed> dataFeeds, Collection<String> fields) {
+        if (!wantsHtml(fields)) {
+            return;
+        }
+        List<String> ids = dataFeeds.stream()
+            .filter(dataFeed -> dataFeed.getHtml() == null)
+            .map(DataFeed::getId)
+            .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return;
+        }
+        Query query = new Query(Criteria.where("id").in(ids));
+        query.fields().include("html").include("htmlRef");
+        List<DataFeed> storedDataFeeds = dataFeedRepository.findByQuery(query);
+        dataFeedRepository.loadHtml(storedDataFeeds);
+        Map<String, String> html = new HashMap<>();
+        for (DataFeed stored : storedDataFeeds) {
+            if (stored.getHtml() != null) {
+                html.put(stored.getId(), stored.getHtml());
+            }
+        }
+        for (DataFeed dataFeed : dataFeeds) {
+            if (dataFeed.getHtml() == null) {
+                dataFeed.setHtml(html.get(dataFeed.getId()));
+            }
+        }
+    }
+
+    /**
+     * Reads the html of streamed dataFeeds a batch at a time, ahead of the caller.
+     */
+    private final class HtmlLoadingIterator implements CloseableIterator<DataFeed> {
+
+        private final CloseableIterator<DataFeed> dataFeeds;
+
+        private final int batchSize;
+
+        private final Deque<DataFeed> batch = new ArrayDeque<>();
+
+        private HtmlLoadingIterator(CloseableIterator<DataFeed> dataFeeds, int batchSize) {
+            this.dataFeeds = dataFeeds;
+            this.batchSize = Math.max(1, batchSize);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (batch.isEmpty()) {
+                while (batch.size() < batchSize && dataFeeds.hasNext()) {
+                    batch.add(dataFeeds.next());
+                }
+                dataFeedRepository.loadHtml(batch);
+            }
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public DataFeed next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.poll();
+        }
+
+        @Override
+        public void close() {
+            dataFeeds.close();
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package io.cooly.crawler.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.data.domain.Sort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Continuation token of keyset pagination: the sort order of the listing and the sort values of the
+ * last item returned, serialized as URL-safe Base64 JSON.
+ * <p>
+ * Carrying the sort order in the token keeps the next page consistent with the first one whatever
+ * the other request parameters.
+ */
+final class KeysetCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Sort sort;
+
+    private final List<Object> values;
+
+    KeysetCursor(Sort sort, List<Object> values) {
+        this.sort = sort;
+        this.values = values;
+    }
+
+    Sort getSort() {
+        return sort;
+    }
+
+    List<Object> getValues() {
+        return values;
+    }
+
+    String encode() {
+        ObjectNode token = MAPPER.createObjectNode();
+        ArrayNode orders = token.putArray("sort");
+        for (Sort.Order order : sort) {
+            orders.add(order.getProperty() + "," + order.getDirection());
+        }
+        token.set("after", MAPPER.valueToTree(values));
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(token));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param token a token returned by {@link #encode()}
+     * @return the decoded cursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    static KeysetCursor decode(String token) {
+        try {
+            JsonNode node = MAPPER.readTree(Base64.getUrlDecoder().decode(token));
+            List<Sort.Order> orders = new ArrayList<>();
+            for (JsonNode order : node.path("sort")) {
+                String[] parts = order.asText().split(",");
+                orders.add(new Sort.Order(Sort.Direction.fromString(parts[1]), parts[0]));
+            }
+            List<Object> values = new ArrayList<>();
+            for (JsonNode value : node.path("after")) {
+                values.add(MAPPER.treeToValue(value, Object.class));
+            }
+            if (!node.path("sort").isArray() || !node.path("after").isArray()) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new KeysetCursor(Sort.by(orders), values);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
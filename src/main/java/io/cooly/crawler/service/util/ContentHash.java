@@ -0,0 +1,104 @@
+package io.cooly.crawler.service.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Fast non-cryptographic fingerprints of crawled contents, to recognize pages fetched again unchanged.
+ * <p>
+ * The hash is XXH64 with seed 0, computed on the UTF-8 bytes of the content with its whitespace
+ * collapsed, so that reformatting alone does not make a page look changed.
+ */
+public final class ContentHash {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private ContentHash() {
+    }
+
+    /**
+     * @param content the content to fingerprint
+     * @return the hash of the normalized content
+     */
+    public static long of(String content) {
+        String normalized = WHITESPACE.matcher(content).replaceAll(" ").trim();
+        return xxHash64(normalized.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param input the bytes to hash
+     * @return the XXH64 hash of {@code input} with seed 0
+     */
+    public static long xxHash64(byte[] input) {
+        int length = input.length;
+        int offset = 0;
+        long hash;
+        if (length >= 32) {
+            long v1 = PRIME1 + PRIME2;
+            long v2 = PRIME2;
+            long v3 = 0;
+            long v4 = -PRIME1;
+            do {
+                v1 = round(v1, readLong(input, offset));
+                v2 = round(v2, readLong(input, offset + 8));
+                v3 = round(v3, readLong(input, offset + 16));
+                v4 = round(v4, readLong(input, offset + 24));
+                offset += 32;
+            } while (offset <= length - 32);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += length;
+        while (offset <= length - 8) {
+            hash ^= round(0, readLong(input, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            offset += 8;
+        }
+        if (offset <= length - 4) {
+            hash ^= (readInt(input, offset) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            offset += 4;
+        }
+        while (offset < length) {
+            hash ^= (input[offset] & 0xFFL) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            offset++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        return (accumulator ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (readInt(bytes, offset) & 0xFFFFFFFFL) | ((long) readInt(bytes, offset + 4) << 32);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+            | (bytes[offset + 1] & 0xFF) << 8
+            | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
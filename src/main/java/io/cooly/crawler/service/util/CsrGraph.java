@@ -0,0 +1,225 @@
+package io.cooly.crawler.service.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+/**
+ * Immutable directed graph of int nodes in Compressed Sparse Row form, in a memory-mapped file.
+ * <p>
+ * The file holds the edges twice: grouped by source for the outlinks, and grouped by target for the
+ * inlinks. Each grouping is an array of offsets, one per node plus the end, into an array of the
+ * neighbours, sorted in ascending order; the neighbours of node {@code n} are between the offsets of
+ * {@code n} and {@code n + 1}. A graph is written once by {@link #write(Path, int, IntFunction)} and
+ * replaced as a whole.
+ */
+public final class CsrGraph implements Closeable {
+
+    private static final int MAGIC = 0x43535247;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int[] NO_NODES = new int[0];
+
+    private static final CsrGraph EMPTY = new CsrGraph(null, null, 0, 0);
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int nodeCount;
+
+    private final int edgeCount;
+
+    private CsrGraph(FileChannel channel, MappedByteBuffer buffer, int nodeCount, int edgeCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * @return a graph without nodes, which has no file
+     */
+    public static CsrGraph empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Write a graph to {@code file}, replacing the previous one atomically, and open it.
+     *
+     * @param file the file of the graph
+     * @param nodeCount the number of nodes
+     * @param outlinks the targets of each node, sorted in ascending order and below {@code nodeCount}; called
+     * twice per node
+     * @return the graph written
+     * @throws IOException if the file cannot be written or the graph does not fit in a mapped file
+     */
+    public static CsrGraph write(Path file, int nodeCount, IntFunction<int[]> outlinks) throws IOException {
+        int[] inOffsets = new int[nodeCount + 1];
+        long edgeCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int[] targets = outlinks.apply(node);
+            edgeCount += targets.length;
+            for (int target : targets) {
+                inOffsets[target + 1]++;
+            }
+        }
+        long size = HEADER_SIZE + 8L * (nodeCount + 1) + 8 * edgeCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("A graph of " + edgeCount + " edges does not fit in a mapped file");
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            inOffsets[node + 1] += inOffsets[node];
+        }
+        int outOffsetsAt = HEADER_SIZE;
+        int outTargetsAt = outOffsetsAt + 4 * (nodeCount + 1);
+        int inOffsetsAt = outTargetsAt + 4 * (int) edgeCount;
+        int inTargetsAt = inOffsetsAt + 4 * (nodeCount + 1);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, nodeCount);
+            buffer.putInt(12, (int) edgeCount);
+            for (int node = 0; node <= nodeCount; node++) {
+                buffer.putInt(inOffsetsAt + 4 * node, inOffsets[node]);
+            }
+            // Sources are visited in ascending order, so that the inlinks of each target are sorted too
+            int outOffset = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                buffer.putInt(outOffsetsAt + 4 * node, outOffset);
+                for (int target : outlinks.apply(node)) {
+                    buffer.putInt(outTargetsAt + 4 * outOffset++, target);
+                    buffer.putInt(inTargetsAt + 4 * inOffsets[target]++, node);
+                }
+            }
+            buffer.putInt(outOffsetsAt + 4 * nodeCount, outOffset);
+            buffer.force();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * Open a graph written by {@link #write(Path, int, IntFunction)}.
+     *
+     * @param file the file of the graph
+     * @return the graph
+     * @throws IOException if the file cannot be read or is not a graph
+     */
+    public static CsrGraph open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Unknown format of " + file);
+            }
+            int nodeCount = buffer.getInt(8);
+            int edgeCount = buffer.getInt(12);
+            if (HEADER_SIZE + 8L * (nodeCount + 1) + 8L * edgeCount != channel.size()) {
+                throw new IOException("Unknown format of " + file);
+            }
+            return new CsrGraph(channel, buffer, nodeCount, edgeCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @param node a node
+     * @return the targets of the edges from the node, in ascending order; none for the nodes above the
+     * node count
+     */
+    public int[] getOutlinks(int node) {
+        return neighbours(HEADER_SIZE, node);
+    }
+
+    /**
+     * @param node a node
+     * @return the sources of the edges to the node, in ascending order; none for the nodes above the
+     * node count
+     */
+    public int[] getInlinks(int node) {
+        return neighbours(inOffsetsAt(), node);
+    }
+
+    /**
+     * @param node a node
+     * @return the number of edges from the node
+     */
+    public int getOutDegree(int node) {
+        return buffer.getInt(HEADER_SIZE + 4 * node + 4) - buffer.getInt(HEADER_SIZE + 4 * node);
+    }
+
+    /**
+     * Position of the inlinks of a node among all the inlinks, to read them one by one without allocation:
+     * the inlinks of node {@code n} are {@link #getInlink(int)} from this position for {@code n} to the one
+     * for {@code n + 1}.
+     *
+     * @param node a node, up to the node count
+     * @return the position of its first inlink
+     */
+    public int getInlinkOffset(int node) {
+        return buffer.getInt(inOffsetsAt() + 4 * node);
+    }
+
+    /**
+     * @param offset a position among all the inlinks, see {@link #getInlinkOffset(int)}
+     * @return the source of the inlink
+     */
+    public int getInlink(int offset) {
+        return buffer.getInt(inOffsetsAt() + 4 * (nodeCount + 1) + 4 * offset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private int[] neighbours(int offsetsAt, int node) {
+        if (node < 0 || node >= nodeCount) {
+            return NO_NODES;
+        }
+        int targetsAt = offsetsAt + 4 * (nodeCount + 1);
+        int start = buffer.getInt(offsetsAt + 4 * node);
+        int end = buffer.getInt(offsetsAt + 4 * node + 4);
+        int[] neighbours = new int[end - start];
+        for (int i = 0; i < neighbours.length; i++) {
+            neighbours[i] = buffer.getInt(targetsAt + 4 * (start + i));
+        }
+        return neighbours;
+    }
+
+    private int inOffsetsAt() {
+        return HEADER_SIZE + 4 * (nodeCount + 1) + 4 * edgeCount;
+    }
+}
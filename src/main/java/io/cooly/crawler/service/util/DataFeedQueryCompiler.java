@@ -0,0 +1,158 @@
+package io.cooly.crawler.service.util;
+
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.SimpleQueryStringFlag;
+
+import java.util.Collection;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.simpleQueryStringQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termsQuery;
+
+/**
+ * Compiles a {@link DataFeedQueryDTO} to an Elasticsearch query which cannot be made expensive.
+ * <p>
+ * Filters become {@code bool.filter} clauses, which do not score and are cached by Elasticsearch. The text
+ * is a {@code simple_query_string} on the data, restricted to phrases, boolean operators and prefixes, so
+ * that it has neither regular expressions nor fuzzy terms; prefixes must be long enough, and a query
+ * cannot have too many terms.
+ * <p>
+ * The domain and engine filters match the keyword properties of the managed mapping, or the keyword subfields
+ * of an index whose mapping is still dynamic.
+ */
+public final class DataFeedQueryCompiler {
+
+    private static final SimpleQueryStringFlag[] TEXT_FLAGS = {
+        SimpleQueryStringFlag.AND, SimpleQueryStringFlag.OR, SimpleQueryStringFlag.NOT,
+        SimpleQueryStringFlag.PHRASE, SimpleQueryStringFlag.PRECEDENCE, SimpleQueryStringFlag.WHITESPACE,
+        SimpleQueryStringFlag.ESCAPE, SimpleQueryStringFlag.PREFIX
+    };
+
+    private final int maxTextLength;
+
+    private final int maxTerms;
+
+    private final int minPrefixLength;
+
+    /**
+     * @param maxTextLength the maximum number of characters of the text
+     * @param maxTerms the maximum number of words of the text and filter values, together
+     * @param minPrefixLength the minimum number of characters before the {@code *} of a prefix
+     */
+    public DataFeedQueryCompiler(int maxTextLength, int maxTerms, int minPrefixLength) {
+        this.maxTextLength = maxTextLength;
+        this.maxTerms = maxTerms;
+        this.minPrefixLength = minPrefixLength;
+    }
+
+    /**
+     * @param field a string property of the DataFeeds, mapped as a keyword
+     * @param dynamicMapping whether the index maps the strings dynamically, as text with a keyword subfield
+     * @return the field to filter the property by
+     */
+    public static String keywordField(String field, boolean dynamicMapping) {
+        return dynamicMapping ? field + ".keyword" : field;
+    }
+
+    /**
+     * @param query the structured query
+     * @param dynamicMapping whether the index maps the strings dynamically, as text with a keyword subfield
+     * @return the Elasticsearch query
+     * @throws InvalidQueryException if the query is too expensive or invalid
+     */
+    public QueryBuilder compile(DataFeedQueryDTO query, boolean dynamicMapping) {
+        BoolQueryBuilder bool = boolQuery();
+        int terms = 0;
+        String text = query.getText();
+        if (text != null && !text.trim().isEmpty()) {
+            terms += checkText(text);
+            bool.must(simpleQueryStringQuery(text).field("data").flags(TEXT_FLAGS));
+        } else {
+            bool.must(matchAllQuery());
+        }
+        terms += addTerms(bool, keywordField("domain", dynamicMapping), query.getDomain());
+        terms += addTerms(bool, keywordField("engine", dynamicMapping), query.getEngine());
+        terms += addTerms(bool, "level", query.getLevel());
+        if (query.getFetched() != null) {
+            bool.filter(termQuery("fetched", query.getFetched().booleanValue()));
+        }
+        if (query.getCreatedFrom() != null || query.getCreatedTo() != null) {
+            if (query.getCreatedFrom() != null && query.getCreatedTo() != null
+                && query.getCreatedFrom().isAfter(query.getCreatedTo())) {
+                throw new InvalidQueryException("createdFrom is after createdTo");
+            }
+            RangeQueryBuilder created = rangeQuery("created");
+            if (query.getCreatedFrom() != null) {
+                created.gte(query.getCreatedFrom().toString());
+            }
+            if (query.getCreatedTo() != null) {
+                created.lt(query.getCreatedTo().toString());
+            }
+            bool.filter(created);
+        }
+        if (terms > maxTerms) {
+            throw new InvalidQueryException("A query cannot have more than " + maxTerms + " terms");
+        }
+        return bool;
+    }
+
+    private static int addTerms(BoolQueryBuilder bool, String field, Collection<?> values) {
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        if (values.contains(null)) {
+            throw new InvalidQueryException("Invalid null value of " + field);
+        }
+        bool.filter(termsQuery(field, values));
+        return values.size();
+    }
+
+    /**
+     * @return the number of words of the text, which are separated by whitespaces and operators
+     */
+    private int checkText(String text) {
+        if (text.length() > maxTextLength) {
+            throw new InvalidQueryException("A text cannot be longer than " + maxTextLength + " characters");
+        }
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (isSeparator(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && !isSeparator(text.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            // A leading - negates the word
+            while (start < end && text.charAt(start) == '-') {
+                start++;
+            }
+            if (start == end) {
+                continue;
+            }
+            words++;
+            int wildcard = text.indexOf('*', start);
+            if (wildcard >= 0 && wildcard < end
+                && (wildcard != end - 1 || wildcard - start < minPrefixLength)) {
+                throw new InvalidQueryException("Invalid prefix " + text.substring(start, end)
+                    + ", a * must end a prefix of at least " + minPrefixLength + " characters");
+            }
+        }
+        return words;
+    }
+
+    private static boolean isSeparator(char c) {
+        return "|+()\"".indexOf(c) >= 0 || Character.isWhitespace(c);
+    }
+}
@@ -0,0 +1,13 @@
+package io.cooly.crawler.service.util;
+
+/**
+ * Thrown by the {@link DataFeedQueryCompiler} when a structured query is too expensive or invalid.
+ */
+public class InvalidQueryException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,236 @@
+package io.cooly.crawler.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class to find the http and https urls in the links of a DataFeed.
+ * <p>
+ * The crawlers store the links as free text, such as a JSON array, one url per line, a comma-separated
+ * list or the markup of the anchors: absolute urls are found wherever they start, and end at a whitespace,
+ * a quote, a bracket or a comma followed by another url.
+ * <p>
+ * Relative links are resolved against the base of the page, which is the url of its {@code <base href>}
+ * or else its own url. Since the text has no structure, only those which cannot be mistaken for a word are
+ * resolved: the links starting with {@code /}, {@code ./}, {@code ../} or {@code ?}, and the quoted ones
+ * holding a dot or a slash, such as the items of a JSON array or the values of href attributes. Links with
+ * another scheme, such as mailto, and links to a fragment of the page itself are ignored.
+ */
+public final class LinkExtractor {
+
+    private static final Pattern BASE_HREF = Pattern.compile(
+        "<base\\b[^>]*?\\bhref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SCHEME = Pattern.compile("^[A-Za-z][A-Za-z0-9+.-]*:");
+
+    private LinkExtractor() {
+    }
+
+    /**
+     * @param url the url of a page
+     * @param html the html of the page, may be null
+     * @return the url the relative links of the page are resolved against: its {@code <base href>} if it has
+     * an http or https one, otherwise its url
+     */
+    public static String findBase(String url, String html) {
+        if (html == null || url == null) {
+            return url;
+        }
+        Matcher matcher = BASE_HREF.matcher(html);
+        if (!matcher.find()) {
+            return url;
+        }
+        String href = matcher.group(1) != null ? matcher.group(1)
+            : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+        href = href.trim();
+        if (startsUrl(href, 0)) {
+            return href;
+        }
+        if (href.isEmpty() || href.startsWith("#") || SCHEME.matcher(href).find()) {
+            return url;
+        }
+        String base = resolve(url, href);
+        return base != null ? base : url;
+    }
+
+    /**
+     * @param links the links of a DataFeed, may be null
+     * @param base the url relative links are resolved against, null to ignore them
+     * @return the urls, in order and possibly repeated
+     */
+    public static List<String> extract(String links, String base) {
+        List<String> urls = new ArrayList<>();
+        if (links == null) {
+            return urls;
+        }
+        int length = links.length();
+        int i = 0;
+        while (i < length) {
+            char c = links.charAt(i);
+            if (c == '"' || c == '\'') {
+                int close = links.indexOf(c, i + 1);
+                if (close < 0) {
+                    close = length;
+                }
+                addQuoted(urls, links, i + 1, close, base);
+                i = close + 1;
+            } else if (c == '<' && !startsUrl(links, i + 1)) {
+                // A tag name, such as the /a of a closing tag
+                i++;
+                while (i < length && links.charAt(i) != '>' && !Character.isWhitespace(links.charAt(i))) {
+                    i++;
+                }
+            } else if (isDelimiter(c)) {
+                i++;
+            } else {
+                int end = i + 1;
+                while (end < length && !isEnd(links, end)) {
+                    end++;
+                }
+                addUnquoted(urls, links.substring(i, end), base);
+                i = end;
+            }
+        }
+        return urls;
+    }
+
+    private static void addUnquoted(List<String> urls, String token, String base) {
+        if (token.regionMatches(true, 0, "href=", 0, 5)) {
+            token = token.substring(5);
+        }
+        int start = indexOfUrl(token, 0);
+        if (start >= 0) {
+            urls.add(token.substring(start));
+        } else if (token.startsWith("/") || token.startsWith("./") || token.startsWith("../")
+            || token.startsWith("?")) {
+            addResolved(urls, base, token);
+        }
+    }
+
+    private static void addQuoted(List<String> urls, String links, int start, int end, String base) {
+        String value = links.substring(start, end).trim();
+        if (value.isEmpty()) {
+            return;
+        }
+        if (indexOfUrl(value, 0) >= 0 || containsWhitespace(value)) {
+            // Text rather than a single link
+            urls.addAll(extract(value, base));
+            return;
+        }
+        if (isKey(links, end + 1) || value.startsWith("#") || SCHEME.matcher(value).find()) {
+            return;
+        }
+        if (value.indexOf('.') >= 0 || value.indexOf('/') >= 0 || value.startsWith("?")) {
+            addResolved(urls, base, value);
+        }
+    }
+
+    private static void addResolved(List<String> urls, String base, String reference) {
+        if (base == null) {
+            return;
+        }
+        String url = resolve(base, reference);
+        if (url != null) {
+            urls.add(url);
+        }
+    }
+
+    /**
+     * Resolve a relative reference against an absolute url, leaving the dot segments to the normalization.
+     *
+     * @return the absolute url, or null if the base is not an absolute url
+     */
+    static String resolve(String base, String reference) {
+        int schemeEnd = base.indexOf("://");
+        if (schemeEnd < 0) {
+            return null;
+        }
+        if (reference.startsWith("//")) {
+            return base.substring(0, schemeEnd + 1) + reference;
+        }
+        int authorityEnd = indexOfAny(base, "/?#", schemeEnd + 3);
+        String origin = base.substring(0, authorityEnd);
+        if (reference.startsWith("/")) {
+            return origin + reference;
+        }
+        String path = base.substring(authorityEnd, indexOfAny(base, "?#", authorityEnd));
+        if (reference.startsWith("?")) {
+            return origin + (path.isEmpty() ? "/" : path) + reference;
+        }
+        int slash = path.lastIndexOf('/');
+        return origin + (slash < 0 ? "/" : path.substring(0, slash + 1)) + reference;
+    }
+
+    /**
+     * @return true if a quoted value ending before {@code from} is followed by a colon, as the keys of a JSON object
+     */
+    private static boolean isKey(String links, int from) {
+        for (int i = from; i < links.length(); i++) {
+            char c = links.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == ':';
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfUrl(String links, int from) {
+        for (int i = from; i < links.length() - 7; i++) {
+            if (startsUrl(links, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfAny(String s, String chars, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    private static boolean containsWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsUrl(String links, int i) {
+        if (i >= links.length()) {
+            return false;
+        }
+        char c = links.charAt(i);
+        return (c == 'h' || c == 'H') && (links.regionMatches(true, i, "http://", 0, 7)
+            || links.regionMatches(true, i, "https://", 0, 8));
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case '<': case '>': case '[': case ']': case '{': case '}': case '\\': case ',':
+                return true;
+            default:
+                return Character.isWhitespace(c);
+        }
+    }
+
+    private static boolean isEnd(String links, int i) {
+        char c = links.charAt(i);
+        switch (c) {
+            case '"': case '\'': case '<': case '>': case '[': case ']': case '{': case '}': case '\\':
+                return true;
+            case ',':
+                return i + 1 == links.length() || Character.isWhitespace(links.charAt(i + 1))
+                    || startsUrl(links, i + 1);
+            default:
+                return Character.isWhitespace(c);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package io.cooly.crawler.service.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scalable Bloom filter of 64-bit hashes, with its bits in memory-mapped files.
+ * <p>
+ * The filter is a series of stages. A hash is added to the last stage, and a new stage twice as large and with
+ * half the false positive rate is added once the last one holds as many hashes as it was sized for, so that
+ * the overall false positive rate stays below twice the configured one however many hashes are added.
+ * <p>
+ * Each stage is a file {@code <prefix>.<stage>.bloom} mapped in memory: the bits live off the Java heap, are
+ * written back to the file by the operating system, and are found again by reopening the filter after a
+ * restart. Bits are set under striped locks; lookups take no lock.
+ */
+public final class ScalableBloomFilter implements Closeable {
+
+    private static final int MAGIC = 0x424c4f4d;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int STRIPES = 1024;
+
+    private final Path prefix;
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Opens the filter at {@code prefix}, creating it if it has no stage yet.
+     *
+     * @param prefix the path of the files of the filter, without the stage number and extension
+     * @param capacity the number of hashes the first stage is sized for
+     * @param falsePositiveRate the false positive rate of the first stage
+     * @throws IOException if the files cannot be read or created
+     */
+    public ScalableBloomFilter(Path prefix, long capacity, double falsePositiveRate) throws IOException {
+        if (capacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid capacity or false positive rate");
+        }
+        this.prefix = prefix.toAbsolutePath();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        if (this.prefix.getParent() != null) {
+            Files.createDirectories(this.prefix.getParent());
+        }
+        for (int index = 0; Files.exists(stageFile(index)); index++) {
+            stages.add(Stage.open(stageFile(index)));
+        }
+        if (stages.isEmpty()) {
+            stages.add(Stage.create(stageFile(0), capacity, falsePositiveRate));
+        }
+    }
+
+    /**
+     * @param hash the hash of an element
+     * @return false if the element was never added, true if it probably was
+     */
+    public boolean mightContain(long hash) {
+        long hash2 = mix(hash);
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add an element.
+     *
+     * @param hash the hash of the element
+     * @return true if the element was not in the filter yet
+     */
+    public boolean put(long hash) {
+        if (mightContain(hash)) {
+            return false;
+        }
+        Stage stage = stages.get(stages.size() - 1);
+        if (stage.count.get() >= stage.capacity) {
+            stage = grow(stage);
+        }
+        stage.put(hash, mix(hash), locks);
+        return true;
+    }
+
+    /**
+     * @return the number of elements added
+     */
+    public long size() {
+        return stages.stream().mapToLong(stage -> stage.count.get()).sum();
+    }
+
+    /**
+     * @return the number of stages
+     */
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    /**
+     * @return the false positive rate expected from the number of elements added to each stage
+     */
+    public double getExpectedFalsePositiveRate() {
+        double negative = 1;
+        for (Stage stage : stages) {
+            negative *= 1 - stage.getExpectedFalsePositiveRate();
+        }
+        return 1 - negative;
+    }
+
+    /**
+     * @return whether the filter was marked as holding every element, see {@link #markComplete()}
+     */
+    public boolean isComplete() {
+        return stages.get(0).buffer.getInt(24) == 1;
+    }
+
+    /**
+     * Mark the filter as holding every element, for example once it was filled from the data it summarizes.
+     */
+    public void markComplete() {
+        stages.get(0).buffer.putInt(24, 1);
+        flush();
+    }
+
+    /**
+     * Write the bits and counts to the files.
+     */
+    public void flush() {
+        for (Stage stage : stages) {
+            stage.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (Stage stage : stages) {
+            stage.channel.close();
+        }
+    }
+
+    private synchronized Stage grow(Stage full) {
+        Stage last = stages.get(stages.size() - 1);
+        if (last != full) {
+            return last;
+        }
+        try {
+            Stage stage = Stage.create(stageFile(stages.size()), full.capacity * 2, full.falsePositiveRate / 2);
+            stages.add(stage);
+            return stage;
+        } catch (IOException e) {
+            // Keep filling the last stage, at the cost of a higher false positive rate
+            return full;
+        }
+    }
+
+    private Path stageFile(int index) {
+        return prefix.resolveSibling(prefix.getFileName() + "." + index + ".bloom");
+    }
+
+    /**
+     * The second hash of the double hashing, derived from the first with the SplitMix64 finalizer.
+     */
+    private static long mix(long hash) {
+        long z = hash + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) | 1;
+    }
+
+    private static final class Stage {
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final long bitCount;
+
+        private final int hashCount;
+
+        private final long capacity;
+
+        private final double falsePositiveRate;
+
+        private final AtomicLong count;
+
+        private Stage(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.bitCount = buffer.getLong(8);
+            this.hashCount = buffer.getInt(16);
+            this.capacity = buffer.getLong(28);
+            this.falsePositiveRate = buffer.getDouble(36);
+            this.count = new AtomicLong(buffer.getLong(44));
+        }
+
+        private static Stage create(Path file, long capacity, double falsePositiveRate) throws IOException {
+            // Optimal number of bits and of hash functions for the capacity and false positive rate
+            long bitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            long words = Math.max(1, (bitCount + 63) / 64);
+            if (HEADER_SIZE + words * 8 > Integer.MAX_VALUE) {
+                throw new IOException("A stage of " + capacity + " elements does not fit in a mapped file");
+            }
+            bitCount = words * 64;
+            int hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + words * 8);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(8, bitCount);
+                buffer.putInt(16, hashCount);
+                buffer.putLong(28, capacity);
+                buffer.putDouble(36, falsePositiveRate);
+                buffer.force();
+            }
+            // A stage file only appears once fully initialized
+            Files.move(temporary, file);
+            return open(file);
+        }
+
+        private static Stage open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || HEADER_SIZE + buffer.getLong(8) / 8 != channel.size()) {
+                    throw new IOException("Unknown format of " + file);
+                }
+                return new Stage(channel, buffer);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private boolean mightContain(long hash1, long hash2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitIndex(hash1, hash2, i);
+                if ((buffer.getLong(wordOffset(bit)) & 1L << bit) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash1, long hash2, Object[] locks) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitIndex(hash1, hash2, i);
+                int offset = wordOffset(bit);
+                long mask = 1L << bit;
+                // Setting a bit reads and writes its whole word, which must not interleave with another write
+                synchronized (locks[(offset >>> 3) % STRIPES]) {
+                    long word = buffer.getLong(offset);
+                    if ((word & mask) == 0) {
+                        buffer.putLong(offset, word | mask);
+                    }
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        private long bitIndex(long hash1, long hash2, int i) {
+            return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+        }
+
+        private static int wordOffset(long bit) {
+            return (int) (HEADER_SIZE + (bit >>> 6) * 8);
+        }
+
+        private double getExpectedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashCount * count.get() / bitCount), hashCount);
+        }
+
+        private void flush() {
+            buffer.putLong(44, count.get());
+            buffer.force();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.cooly.crawler.service.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 64-bit SimHash fingerprints of crawled pages, for near-duplicate detection.
+ * <p>
+ * The text of the page, without markup, scripts and styles, is cut into shingles of consecutive words.
+ * Each shingle votes for the bits of its hash, so pages sharing most of their shingles get fingerprints
+ * differing in a few bits only.
+ */
+public final class SimHash {
+
+    private static final int SHINGLE_SIZE = 4;
+
+    private static final Pattern SCRIPTS = Pattern.compile("(?is)<(script|style)\\b.*?</\\1\\s*>");
+
+    private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private SimHash() {
+    }
+
+    /**
+     * @param html the page
+     * @return the fingerprint of its text, 0 when it has no text
+     */
+    public static long of(String html) {
+        List<String> shingles = shingles(html);
+        int[] votes = new int[64];
+        for (String shingle : shingles) {
+            long hash = ContentHash.xxHash64(shingle.getBytes(StandardCharsets.UTF_8));
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += (hash >>> bit & 1) == 1 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of bits that differ between two fingerprints
+     */
+    public static int distance(long fingerprint1, long fingerprint2) {
+        return Long.bitCount(fingerprint1 ^ fingerprint2);
+    }
+
+    static List<String> shingles(String html) {
+        String text = TAGS.matcher(SCRIPTS.matcher(html).replaceAll(" ")).replaceAll(" ");
+        List<String> words = new ArrayList<>();
+        for (String word : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        List<String> shingles = new ArrayList<>();
+        if (words.size() <= SHINGLE_SIZE) {
+            if (!words.isEmpty()) {
+                shingles.add(String.join(" ", words));
+            }
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE_SIZE <= words.size(); i++) {
+            shingles.add(String.join(" ", words.subList(i, i + SHINGLE_SIZE)));
+        }
+        return shingles;
+    }
+}
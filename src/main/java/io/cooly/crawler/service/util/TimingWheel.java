@@ -0,0 +1,130 @@
+package io.cooly.crawler.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: schedules elements to be handed back once their deadline has passed, in constant
+ * time whatever the number of scheduled elements.
+ * <p>
+ * Time is cut into ticks, and the wheel has one slot per tick of a revolution. An element is filed in the
+ * slot of the first tick at or after its deadline, and handed back when the wheel is advanced past that
+ * tick; elements due in a later revolution stay in their slot. Elements are handed back late by less than
+ * a tick. All operations are lock-free.
+ *
+ * @param <E> the type of the scheduled elements
+ */
+public final class TimingWheel<E> {
+
+    private final long tickMs;
+
+    private final List<Queue<Timeout<E>>> slots;
+
+    /**
+     * Last tick whose slot was handed back.
+     */
+    private final AtomicLong cursor;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param tickMs the duration of a tick in milliseconds
+     * @param slotCount the number of ticks of a revolution
+     * @param now the current time in milliseconds
+     */
+    public TimingWheel(long tickMs, int slotCount, long now) {
+        if (tickMs < 1 || slotCount < 1) {
+            throw new IllegalArgumentException("The tick and the number of slots must be positive");
+        }
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.cursor = new AtomicLong(now / tickMs);
+    }
+
+    /**
+     * @param element the element to hand back
+     * @param deadline the time in milliseconds from which the element is handed back
+     */
+    public void schedule(E element, long deadline) {
+        Timeout<E> timeout = new Timeout<>(element, deadline);
+        size.incrementAndGet();
+        long tick = Math.floorDiv(deadline, tickMs) + (Math.floorMod(deadline, tickMs) == 0 ? 0 : 1);
+        while (true) {
+            long current = cursor.get();
+            long slotTick = Math.max(tick, current + 1);
+            Queue<Timeout<E>> slot = slot(slotTick);
+            slot.add(timeout);
+            // An advance may have handed back this slot before the element was added, file it again
+            if (cursor.get() < slotTick || !slot.remove(timeout)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand back the elements whose deadline has passed.
+     *
+     * @param now the current time in milliseconds
+     * @param consumer receives the elements handed back
+     * @return the number of elements handed back
+     */
+    public int advance(long now, Consumer<E> consumer) {
+        long target = Math.floorDiv(now, tickMs);
+        int expired = 0;
+        int steps = 0;
+        long current;
+        while ((current = cursor.get()) < target) {
+            // After a full revolution every slot was visited, skip the remaining ticks
+            long next = steps < slots.size() ? current + 1 : target;
+            if (!cursor.compareAndSet(current, next)) {
+                continue;
+            }
+            steps++;
+            Queue<Timeout<E>> slot = slot(current + 1);
+            List<Timeout<E>> later = new ArrayList<>();
+            Timeout<E> timeout;
+            while ((timeout = slot.poll()) != null) {
+                if (timeout.deadline <= now) {
+                    size.decrementAndGet();
+                    consumer.accept(timeout.element);
+                    expired++;
+                } else {
+                    later.add(timeout);
+                }
+            }
+            slot.addAll(later);
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled elements
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private Queue<Timeout<E>> slot(long tick) {
+        return slots.get((int) Math.floorMod(tick, (long) slots.size()));
+    }
+
+    private static final class Timeout<E> {
+
+        private final E element;
+
+        private final long deadline;
+
+        private Timeout(E element, long deadline) {
+            this.element = element;
+            this.deadline = deadline;
+        }
+    }
+}
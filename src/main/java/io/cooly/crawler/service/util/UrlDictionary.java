@@ -0,0 +1,233 @@
+package io.cooly.crawler.service.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Dense int ids of urls, 0 for the first url added, 1 for the next one, and so on.
+ * <p>
+ * The urls are appended to a file, one per line in id order, which is read again to find the same ids after
+ * a restart. In memory, the ids are found by the XXH64 hash of the url in an open-addressing table of
+ * primitive arrays, and the urls are read back from the file by their offset; two urls with the same
+ * 64-bit hash would share an id.
+ * <p>
+ * New urls are buffered until {@link #flush()}. Methods are thread-safe.
+ */
+public final class UrlDictionary implements Closeable {
+
+    private final FileChannel channel;
+
+    /**
+     * Hashes of the urls, at the slot found by probing from the hash.
+     */
+    private long[] hashes;
+
+    /**
+     * Id + 1 of the url of each slot, 0 for the empty slots.
+     */
+    private int[] slots;
+
+    /**
+     * Offset of the url of each id in the file, then the end of the last url.
+     */
+    private long[] offsets = new long[1024];
+
+    private int size;
+
+    private long written;
+
+    private byte[] pending = new byte[4096];
+
+    private int pendingLength;
+
+    /**
+     * Opens the dictionary in {@code file}, creating it if it does not exist.
+     *
+     * @param file the file of the urls
+     * @throws IOException if the file cannot be read or created
+     */
+    public UrlDictionary(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        if (absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+        this.channel = FileChannel.open(absolute, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.hashes = new long[1024];
+        this.slots = new int[1024];
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param url a url
+     * @return the id of the url, -1 if it was never added
+     */
+    public synchronized int getId(String url) {
+        long hash = ContentHash.xxHash64(url.getBytes(StandardCharsets.UTF_8));
+        int slot = find(hash);
+        return slots[slot] - 1;
+    }
+
+    /**
+     * @param url a url, without line breaks
+     * @return the id of the url, added if it was never added
+     */
+    public synchronized int getOrAdd(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        long hash = ContentHash.xxHash64(bytes);
+        int slot = find(hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = size;
+        if (pending.length < pendingLength + bytes.length + 1) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + bytes.length + 1));
+        }
+        System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+        pendingLength += bytes.length;
+        pending[pendingLength++] = '\n';
+        append(slot, hash, offsets[id] + bytes.length + 1);
+        return id;
+    }
+
+    /**
+     * @param id an id
+     * @return the url of the id
+     * @throws IndexOutOfBoundsException if no url has the id
+     */
+    public String getUrl(int id) {
+        long start;
+        int length;
+        synchronized (this) {
+            if (id < 0 || id >= size) {
+                throw new IndexOutOfBoundsException("Unknown url id: " + id);
+            }
+            start = offsets[id];
+            length = (int) (offsets[id + 1] - start - 1);
+            if (start >= written) {
+                return new String(pending, (int) (start - written), length, StandardCharsets.UTF_8);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Truncated url dictionary");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of urls, which is also the next id
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Write the urls added since the last flush to the file.
+     */
+    public synchronized void flush() {
+        ByteBuffer buffer = ByteBuffer.wrap(pending, 0, pendingLength);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, written + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        written += pendingLength;
+        pendingLength = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long position = 0;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            position += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    long hash = ContentHash.xxHash64(Arrays.copyOf(line, lineLength));
+                    append(find(hash), hash, offsets[size] + lineLength + 1);
+                    lineLength = 0;
+                } else {
+                    if (line.length == lineLength) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            buffer.clear();
+        }
+        written = offsets[size];
+        // A url written partly before a crash was never handed out
+        channel.truncate(written);
+    }
+
+    private void append(int slot, long hash, long end) {
+        hashes[slot] = hash;
+        slots[slot] = size + 1;
+        size++;
+        if (offsets.length == size) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size] = end;
+        // Keep the table at most half full, so that probes stay short
+        if (size * 2 > slots.length) {
+            resize();
+        }
+    }
+
+    private int find(long hash) {
+        int mask = slots.length - 1;
+        int slot = (int) (hash ^ hash >>> 32) & mask;
+        while (slots[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        int[] oldSlots = slots;
+        hashes = new long[oldSlots.length * 2];
+        slots = new int[oldSlots.length * 2];
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] != 0) {
+                int slot = find(oldHashes[i]);
+                hashes[slot] = oldHashes[i];
+                slots[slot] = oldSlots[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package io.cooly.crawler.service.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Canonical form of http and https urls, so that the spellings of the same page are stored once.
+ * <p>
+ * The scheme and host are lowercased, the default port, the fragment and the dot segments of the path are
+ * removed, the empty path becomes {@code /}, and the query parameters are filtered and sorted by name. In
+ * the path and query, escapes of unreserved characters are decoded, other escapes are uppercased, and
+ * characters not allowed in urls are percent-encoded as UTF-8. Other urls are returned unchanged.
+ * <p>
+ * The url is parsed by hand in a single pass, without {@link java.net.URI} nor regular expressions: the
+ * only allocation is the returned string, none when the url is already canonical.
+ */
+public final class UrlNormalizer {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final String[] removedNames;
+
+    private final String[] removedPrefixes;
+
+    /**
+     * @param removedParameters the names of the query parameters to remove, such as tracking parameters,
+     * compared ignoring case; a name ending with {@code *} removes all the names starting with it
+     */
+    public UrlNormalizer(Collection<String> removedParameters) {
+        List<String> names = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String parameter : removedParameters) {
+            String lowerCase = parameter.toLowerCase(Locale.ROOT);
+            if (lowerCase.endsWith("*")) {
+                prefixes.add(lowerCase.substring(0, lowerCase.length() - 1));
+            } else {
+                names.add(lowerCase);
+            }
+        }
+        this.removedNames = names.toArray(new String[0]);
+        this.removedPrefixes = prefixes.toArray(new String[0]);
+    }
+
+    /**
+     * @param url a url, may be null
+     * @return the canonical form of the url, or the url itself if it is already canonical, not an http or
+     * https url, or malformed
+     */
+    public String normalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        Scratch scratch = SCRATCH.get();
+        StringBuilder out = scratch.out;
+        out.setLength(0);
+        int start = 0;
+        int end = url.length();
+        while (start < end && url.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && url.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int schemeEnd = url.indexOf("://", start);
+        if (schemeEnd < 0 || schemeEnd >= end) {
+            return url;
+        }
+        int defaultPort;
+        if (schemeEnd - start == 4 && url.regionMatches(true, start, "http", 0, 4)) {
+            defaultPort = 80;
+        } else if (schemeEnd - start == 5 && url.regionMatches(true, start, "https", 0, 5)) {
+            defaultPort = 443;
+        } else {
+            return url;
+        }
+        appendLowerCase(out, url, start, schemeEnd);
+        out.append("://");
+
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < end && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        if (!appendAuthority(out, url, authorityStart, authorityEnd, defaultPort)) {
+            return url;
+        }
+
+        int fragment = url.indexOf('#', authorityEnd);
+        int refEnd = fragment >= 0 && fragment < end ? fragment : end;
+        int query = url.indexOf('?', authorityEnd);
+        int pathEnd = query >= 0 && query < refEnd ? query : refEnd;
+
+        int pathStart = out.length();
+        out.append('/');
+        int from = authorityEnd < pathEnd && url.charAt(authorityEnd) == '/' ? authorityEnd + 1 : authorityEnd;
+        appendEscaped(out, url, from, pathEnd, false);
+        removeDotSegments(out, pathStart);
+
+        if (pathEnd < refEnd) {
+            appendQuery(out, url, pathEnd + 1, refEnd, scratch);
+        }
+        return out.length() == url.length() && contentEquals(out, url) ? url : out.toString();
+    }
+
+    private static boolean appendAuthority(StringBuilder out, String url, int start, int end, int defaultPort) {
+        int at = url.lastIndexOf('@', end - 1);
+        int hostStart = start;
+        if (at >= start) {
+            out.append(url, start, at + 1);
+            hostStart = at + 1;
+        }
+        int hostEnd = end;
+        int portStart = -1;
+        if (hostStart < end && url.charAt(hostStart) == '[') {
+            int bracket = url.indexOf(']', hostStart);
+            if (bracket < 0 || bracket >= end) {
+                return false;
+            }
+            hostEnd = bracket + 1;
+            if (hostEnd < end) {
+                if (url.charAt(hostEnd) != ':') {
+                    return false;
+                }
+                portStart = hostEnd + 1;
+            }
+        } else {
+            int colon = url.indexOf(':', hostStart);
+            if (colon >= 0 && colon < end) {
+                hostEnd = colon;
+                portStart = colon + 1;
+            }
+        }
+        // A trailing dot makes a fully qualified name of the same host
+        if (hostEnd > hostStart && url.charAt(hostEnd - 1) == '.') {
+            hostEnd--;
+        }
+        if (hostEnd == hostStart) {
+            return false;
+        }
+        appendLowerCase(out, url, hostStart, hostEnd);
+        if (portStart >= 0 && portStart < end) {
+            int port = 0;
+            for (int i = portStart; i < end; i++) {
+                char c = url.charAt(i);
+                if (c < '0' || c > '9' || port > 65535) {
+                    return false;
+                }
+                port = port * 10 + (c - '0');
+            }
+            if (port > 65535) {
+                return false;
+            }
+            if (port != defaultPort) {
+                out.append(':').append(port);
+            }
+        }
+        return true;
+    }
+
+    private void appendQuery(StringBuilder out, String url, int start, int end, Scratch scratch) {
+        int queryStart = out.length();
+        out.append('?');
+        int count = 0;
+        int i = start;
+        while (i <= end) {
+            int paramEnd = url.indexOf('&', i);
+            if (paramEnd < 0 || paramEnd > end) {
+                paramEnd = end;
+            }
+            if (paramEnd > i) {
+                int paramStart = out.length();
+                if (count > 0) {
+                    out.append('&');
+                }
+                int nameStart = out.length();
+                appendEscaped(out, url, i, paramEnd, true);
+                int nameEnd = indexOf(out, '=', nameStart);
+                if (isRemoved(out, nameStart, nameEnd)) {
+                    out.setLength(paramStart);
+                } else {
+                    scratch.addParameter(count++, nameStart, nameEnd, out.length());
+                }
+            }
+            i = paramEnd + 1;
+        }
+        if (count == 0) {
+            out.setLength(queryStart);
+        } else if (count > 1) {
+            sortParameters(out, queryStart + 1, count, scratch);
+        }
+    }
+
+    private boolean isRemoved(StringBuilder out, int start, int end) {
+        for (String name : removedNames) {
+            if (regionEqualsIgnoreCase(out, start, end, name, name.length())) {
+                return true;
+            }
+        }
+        for (String prefix : removedPrefixes) {
+            if (end - start >= prefix.length() && regionEqualsIgnoreCase(out, start, start + prefix.length(), prefix,
+                prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stable insertion sort of the parameters by name, then rewrite of the query in that order.
+     */
+    private static void sortParameters(StringBuilder out, int start, int count, Scratch scratch) {
+        int[] order = scratch.order(count);
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            int j = i;
+            while (j > 0 && compareNames(out, scratch.parameters, order[j - 1], i) > 0) {
+                j--;
+            }
+            if (j < i) {
+                sorted = false;
+                System.arraycopy(order, j, order, j + 1, i - j);
+            }
+            order[j] = i;
+        }
+        if (sorted) {
+            return;
+        }
+        int length = out.length() - start;
+        char[] query = scratch.chars(length);
+        out.getChars(start, out.length(), query, 0);
+        out.setLength(start);
+        for (int i = 0; i < count; i++) {
+            int[] parameters = scratch.parameters;
+            int parameter = order[i];
+            int paramStart = parameters[parameter * 3] - start;
+            int paramEnd = parameters[parameter * 3 + 2] - start;
+            if (i > 0) {
+                out.append('&');
+            }
+            out.append(query, paramStart, paramEnd - paramStart);
+        }
+    }
+
+    private static int compareNames(StringBuilder out, int[] parameters, int a, int b) {
+        int aStart = parameters[a * 3];
+        int aEnd = parameters[a * 3 + 1];
+        int bStart = parameters[b * 3];
+        int bEnd = parameters[b * 3 + 1];
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int k = 0; k < length; k++) {
+            int diff = out.charAt(aStart + k) - out.charAt(bStart + k);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    /**
+     * Remove the {@code .} and {@code ..} segments of the path starting at {@code start}, in place.
+     */
+    private static void removeDotSegments(StringBuilder out, int start) {
+        int length = out.length();
+        int read = start;
+        int write = start;
+        while (read < length) {
+            int segmentEnd = indexOf(out, '/', read + 1);
+            int segmentLength = segmentEnd - read - 1;
+            boolean dot = segmentLength == 1 && out.charAt(read + 1) == '.';
+            boolean dotDot = segmentLength == 2 && out.charAt(read + 1) == '.' && out.charAt(read + 2) == '.';
+            if (dot || dotDot) {
+                if (dotDot) {
+                    while (write > start && out.charAt(--write) != '/') {
+                        // Back to the start of the previous segment
+                    }
+                }
+                read = segmentEnd;
+                if (read == length) {
+                    out.setCharAt(write++, '/');
+                }
+            } else {
+                while (read < segmentEnd) {
+                    out.setCharAt(write++, out.charAt(read++));
+                }
+            }
+        }
+        if (write == start) {
+            out.setCharAt(write++, '/');
+        }
+        out.setLength(write);
+    }
+
+    /**
+     * Append a path or query, decoding the escapes of unreserved characters and encoding the characters
+     * not allowed in urls.
+     */
+    private static void appendEscaped(StringBuilder out, String url, int start, int end, boolean query) {
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '%' && i + 2 < end && hexValue(url.charAt(i + 1)) >= 0 && hexValue(url.charAt(i + 2)) >= 0) {
+                int decoded = hexValue(url.charAt(i + 1)) << 4 | hexValue(url.charAt(i + 2));
+                if (isUnreserved(decoded)) {
+                    out.append((char) decoded);
+                } else {
+                    out.append('%').append(HEX[decoded >> 4]).append(HEX[decoded & 0xF]);
+                }
+                i += 2;
+            } else if (c == '%') {
+                out.append("%25");
+            } else if (c < 0x80 && isAllowed(c, query)) {
+                out.append(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(url.charAt(i + 1))) {
+                appendUtf8(out, Character.toCodePoint(c, url.charAt(++i)));
+            } else {
+                appendUtf8(out, c);
+            }
+        }
+    }
+
+    private static void appendUtf8(StringBuilder out, int codePoint) {
+        if (codePoint < 0x80) {
+            appendByte(out, codePoint);
+        } else if (codePoint < 0x800) {
+            appendByte(out, 0xC0 | codePoint >> 6);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            appendByte(out, 0xE0 | codePoint >> 12);
+            appendByte(out, 0x80 | codePoint >> 6 & 0x3F);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        } else {
+            appendByte(out, 0xF0 | codePoint >> 18);
+            appendByte(out, 0x80 | codePoint >> 12 & 0x3F);
+            appendByte(out, 0x80 | codePoint >> 6 & 0x3F);
+            appendByte(out, 0x80 | codePoint & 0x3F);
+        }
+    }
+
+    private static void appendByte(StringBuilder out, int b) {
+        out.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static boolean isUnreserved(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+            || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /**
+     * @return whether an ASCII character may appear as is in a path or query
+     */
+    private static boolean isAllowed(char c, boolean query) {
+        if (isUnreserved(c)) {
+            return true;
+        }
+        switch (c) {
+            case '!': case '$': case '&': case '\'': case '(': case ')': case '*': case '+': case ',': case ';':
+            case '=': case ':': case '@': case '/':
+                return true;
+            case '?':
+                return query;
+            default:
+                return false;
+        }
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static void appendLowerCase(StringBuilder out, String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : Character.toLowerCase(c));
+        }
+    }
+
+    private static int indexOf(StringBuilder out, char c, int from) {
+        for (int i = from; i < out.length(); i++) {
+            if (out.charAt(i) == c) {
+                return i;
+            }
+        }
+        return out.length();
+    }
+
+    private static boolean regionEqualsIgnoreCase(StringBuilder out, int start, int end, String lowerCase, int length) {
+        if (end - start != length) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            char c = out.charAt(start + k);
+            if ((c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c) != lowerCase.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contentEquals(StringBuilder out, String s) {
+        for (int i = out.length() - 1; i >= 0; i--) {
+            if (out.charAt(i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Buffers reused by the normalizations of a thread.
+     */
+    private static final class Scratch {
+
+        private final StringBuilder out = new StringBuilder(256);
+
+        /**
+         * Start, end of name and end of each query parameter in {@link #out}.
+         */
+        private int[] parameters = new int[48];
+
+        private int[] order = new int[16];
+
+        private char[] chars = new char[256];
+
+        private void addParameter(int index, int start, int nameEnd, int end) {
+            if (parameters.length < index * 3 + 3) {
+                int[] grown = new int[parameters.length * 2];
+                System.arraycopy(parameters, 0, grown, 0, parameters.length);
+                parameters = grown;
+            }
+            parameters[index * 3] = start;
+            parameters[index * 3 + 1] = nameEnd;
+            parameters[index * 3 + 2] = end;
+        }
+
+        private int[] order(int count) {
+            if (order.length < count) {
+                order = new int[Math.max(count, order.length * 2)];
+            }
+            return order;
+        }
+
+        private char[] chars(int length) {
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            return chars;
+        }
+    }
+}
@@ -1,8 +1,26 @@
 package io.cooly.crawler.web.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.config.ApplicationProperties.Pagination.CountMode;
 import io.cooly.crawler.domain.DataFeed;
 import io.cooly.crawler.service.DataFeedService;
+import io.cooly.crawler.service.dto.BulkItemResultDTO;
+import io.cooly.crawler.service.dto.DataFeedBulkPatchDTO;
+import io.cooly.crawler.service.dto.DataFeedCriteria;
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
+import io.cooly.crawler.service.dto.KeysetPage;
+import io.cooly.crawler.service.dto.LinkDTO;
+import io.cooly.crawler.service.dto.NearDuplicateDTO;
+import io.cooly.crawler.service.dto.SavedDataFeed;
+import io.cooly.crawler.service.util.InvalidQueryException;
 import io.cooly.crawler.web.rest.errors.BadRequestAlertException;
+import io.cooly.crawler.web.rest.util.AsyncRequestTimeoutInterceptor;
 import io.cooly.crawler.web.rest.util.HeaderUtil;
 import io.cooly.crawler.web.rest.util.PaginationUtil;
 import io.github.coolys.web.util.ResponseUtil;
@@ -10,14 +28,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * REST controller for managing DataFeed.
@@ -30,17 +64,38 @@ public class DataFeedResource {
 
     private static final String ENTITY_NAME = "indexerDataFeed";
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final String APPLICATION_MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
+    private static final String X_TOTAL_COUNT_ESTIMATE = "X-Total-Count-Estimate";
+
+    private static final Set<String> FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        "id", "url", "domain", "fetched", "created", "engine", "data", "html", "links", "level", "fileName")));
+
     private final DataFeedService dataFeedService;
 
-    public DataFeedResource(DataFeedService dataFeedService) {
+    private final ObjectMapper objectMapper;
+
+    private final ApplicationProperties applicationProperties;
+
+    public DataFeedResource(DataFeedService dataFeedService, ObjectMapper objectMapper,
+                            ApplicationProperties applicationProperties) {
         this.dataFeedService = dataFeedService;
+        this.objectMapper = objectMapper;
+        this.applicationProperties = applicationProperties;
     }
 
     /**
-     * POST  /data-feeds : Create a new dataFeed.
+     * POST  /data-feeds : Create a new dataFeed, or replace the dataFeed with the same url.
+     * <p>
+     * Urls are unique: a dataFeed with the url of a stored one replaces it as a whole and keeps its id, the
+     * properties it does not have are removed. If the page is unchanged, only the created and fetched
+     * properties of the stored one are updated.
      *
      * @param dataFeed the dataFeed to create
-     * @return the ResponseEntity with status 201 (Created) and with body the new dataFeed, or with status 400 (Bad Request) if the dataFeed has already an ID
+     * @return the ResponseEntity with status 201 (Created) and with body the new dataFeed, with status 200 (OK)
+     * and with body the dataFeed it replaced, or with status 400 (Bad Request) if the dataFeed has already an ID
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PostMapping("/data-feeds")
@@ -49,12 +104,51 @@ public class DataFeedResource {
         if (dataFeed.getId() != null) {
             throw new BadRequestAlertException("A new dataFeed cannot already have an ID", ENTITY_NAME, "idexists");
         }
-        DataFeed result = dataFeedService.save(dataFeed);
+        SavedDataFeed saved = dataFeedService.create(dataFeed);
+        DataFeed result = saved.getDataFeed();
+        if (!saved.isCreated()) {
+            return ResponseEntity.ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, result.getId()))
+                .body(result);
+        }
         return ResponseEntity.created(new URI("/api/data-feeds/" + result.getId()))
             .headers(HeaderUtil.createEntityCreationAlert(ENTITY_NAME, result.getId().toString()))
             .body(result);
     }
 
+    /**
+     * POST  /data-feeds/_bulk : Create or replace a JSON array of dataFeeds.
+     * <p>
+     * DataFeeds without an ID are created, the others replace the existing dataFeed with the same ID.
+     *
+     * @param dataFeeds the dataFeeds to save
+     * @return the ResponseEntity with status 200 (OK) and with body the outcome of every dataFeed, in request order
+     */
+    @PostMapping(value = "/data-feeds/_bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<BulkItemResultDTO>> bulkSaveDataFeeds(@RequestBody List<DataFeed> dataFeeds) {
+        log.debug("REST request to bulk save {} DataFeeds", dataFeeds.size());
+        return ResponseEntity.ok(dataFeedService.saveAll(dataFeeds));
+    }
+
+    /**
+     * POST  /data-feeds/_bulk : Create or replace newline-delimited JSON dataFeeds, one dataFeed per line.
+     *
+     * @param body the NDJSON request body
+     * @return the ResponseEntity with status 200 (OK) and with body the outcome of every dataFeed, in request order,
+     * or with status 400 (Bad Request) if a line is not a valid dataFeed
+     * @throws IOException if the request body cannot be read
+     */
+    @PostMapping(value = "/data-feeds/_bulk", consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<List<BulkItemResultDTO>> bulkSaveDataFeedsNdjson(InputStream body) throws IOException {
+        List<DataFeed> dataFeeds;
+        try (MappingIterator<DataFeed> lines = objectMapper.readerFor(DataFeed.class).readValues(body)) {
+            dataFeeds = lines.readAll();
+        } catch (JsonProcessingException e) {
+            throw new BadRequestAlertException("Invalid NDJSON body: " + e.getOriginalMessage(), ENTITY_NAME, "invalidndjson");
+        }
+        return bulkSaveDataFeeds(dataFeeds);
+    }
+
     /**
      * PUT  /data-feeds : Updates an existing dataFeed.
      *
@@ -76,33 +170,243 @@ public class DataFeedResource {
             .body(result);
     }
 
+    /**
+     * PUT  /data-feeds/by-url : Creates a dataFeed, or updates the dataFeed with the same url.
+     * <p>
+     * The request is idempotent: the id of the request body is ignored, and the dataFeed keeps the id of the
+     * dataFeed with the same url if there is one.
+     *
+     * @param dataFeed the dataFeed to save
+     * @return the ResponseEntity with status 200 (OK) and with body the saved dataFeed,
+     * or with status 400 (Bad Request) if the dataFeed has no url
+     */
+    @PutMapping("/data-feeds/by-url")
+    public ResponseEntity<DataFeed> upsertDataFeedByUrl(@RequestBody DataFeed dataFeed) {
+        log.debug("REST request to upsert DataFeed by url : {}", dataFeed);
+        DataFeed result;
+        try {
+            result = dataFeedService.upsertByUrl(dataFeed);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "urlnull");
+        }
+        return ResponseEntity.ok()
+            .headers(HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, result.getId()))
+            .body(result);
+    }
+
+    /**
+     * PATCH  /data-feeds/:id : Partially updates the "id" dataFeed, with JSON merge patch semantics.
+     * <p>
+     * The properties of the body are set, or removed when null, and the others are left as is; only domain,
+     * fetched, created, engine, data, level and fileName can be patched. For example {@code {"fetched": true}}
+     * marks a dataFeed as fetched without sending its html again.
+     *
+     * @param id the id of the dataFeed to update
+     * @param patch the properties to update
+     * @param fields the properties to return, the patched ones by default; the others are null except the id
+     * @return the ResponseEntity with status 200 (OK) and with body the updated dataFeed, or with status 404 (Not Found),
+     * or with status 400 (Bad Request) if the patch is not valid
+     */
+    @PatchMapping(value = "/data-feeds/{id}", consumes = {APPLICATION_MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<DataFeed> partialUpdateDataFeed(@PathVariable String id, @RequestBody Map<String, Object> patch,
+                                                          @RequestParam(required = false) List<String> fields) {
+        log.debug("REST request to partially update DataFeed {} : {}", id, patch);
+        validateFields(fields);
+        Optional<DataFeed> result;
+        try {
+            result = dataFeedService.partialUpdate(id, toPatch(patch), patch.keySet(), fields);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "invalidpatch");
+        }
+        return ResponseUtil.wrapOrNotFound(result, HeaderUtil.createEntityUpdateAlert(ENTITY_NAME, id));
+    }
+
+    /**
+     * PATCH  /data-feeds/_bulk : Partially updates several dataFeeds with the same JSON merge patch, as
+     * {@code PATCH /data-feeds/:id} does, for example to mark them as fetched.
+     *
+     * @param bulkPatch the ids of the dataFeeds and the patch
+     * @return the ResponseEntity with status 200 (OK), the number of updated dataFeeds being in the alert parameter,
+     * or with status 400 (Bad Request) if the patch is not valid
+     */
+    @PatchMapping(value = "/data-feeds/_bulk", consumes = {APPLICATION_MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Void> bulkPartialUpdateDataFeeds(@RequestBody DataFeedBulkPatchDTO bulkPatch) {
+        log.debug("REST request to partially update DataFeeds : {}", bulkPatch);
+        if (bulkPatch.getIds() == null || bulkPatch.getPatch() == null) {
+            throw new BadRequestAlertException("ids and patch are required", ENTITY_NAME, "invalidpatch");
+        }
+        long updated;
+        try {
+            updated = dataFeedService.partialUpdate(bulkPatch.getIds(), toPatch(bulkPatch.getPatch()),
+                bulkPatch.getPatch().keySet());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "invalidpatch");
+        }
+        return ResponseEntity.ok()
+            .headers(HeaderUtil.createAlert(updated + " " + ENTITY_NAME + " are updated", String.valueOf(updated)))
+            .build();
+    }
+
     /**
      * GET  /data-feeds : get all the dataFeeds.
+     * <p>
+     * With a {@code cursor} parameter, empty for the first page, pages are read after the last dataFeed of the
+     * previous page instead of at an offset, and the next page is linked with the token to pass as {@code cursor}.
+     * <p>
+     * Otherwise the {@code count} parameter tells whether to count all the dataFeeds: {@code exact},
+     * {@code estimated} for the approximate size of the collection, or {@code none}; without total count,
+     * only the previous and next pages are linked.
+     * <p>
+     * The {@code fields} parameter restricts the properties read and returned, the others are null
+     * except the id.
      *
      * @param pageable the pagination information
-     * @return the ResponseEntity with status 200 (OK) and the list of dataFeeds in body
+     * @param cursor the continuation token of keyset pagination
+     * @param count how to count the dataFeeds, the server default when absent
+     * @param fields the properties to return, all of them by default
+     * @return the ResponseEntity with status 200 (OK) and the list of dataFeeds in body,
+     * or with status 400 (Bad Request) if the cursor, count or a field is invalid
      */
     @GetMapping("/data-feeds")
-    public ResponseEntity<List<DataFeed>> getAllDataFeeds(Pageable pageable) {
+    public ResponseEntity<List<DataFeed>> getAllDataFeeds(Pageable pageable, @RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) String count,
+                                                          @RequestParam(required = false) List<String> fields) {
         log.debug("REST request to get a page of DataFeeds");
-        Page<DataFeed> page = dataFeedService.findAll(pageable);
-        HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, "/api/data-feeds");
+        validateFields(fields);
+        if (cursor != null) {
+            KeysetPage<DataFeed> page = withCursor(() -> dataFeedService.findAll(cursor, pageable, fields));
+            HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(page, withFields("/api/data-feeds", fields));
+            return ResponseEntity.ok().headers(headers).body(page.getContent());
+        }
+        CountMode countMode = toCountMode(count);
+        if (countMode != CountMode.EXACT) {
+            Slice<DataFeed> slice = dataFeedService.findSlice(pageable, fields);
+            HttpHeaders headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice,
+                withFields("/api/data-feeds?count=" + countMode.name().toLowerCase(Locale.ROOT), fields));
+            if (countMode == CountMode.ESTIMATED) {
+                headers.add(X_TOTAL_COUNT_ESTIMATE, Long.toString(dataFeedService.estimateCount()));
+            }
+            return ResponseEntity.ok().headers(headers).body(slice.getContent());
+        }
+        Page<DataFeed> page = dataFeedService.findAll(pageable, fields);
+        HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(page, withFields("/api/data-feeds", fields));
         return ResponseEntity.ok().headers(headers).body(page.getContent());
     }
 
+    /**
+     * GET  /data-feeds/_export : stream all the dataFeeds matching the criteria as newline-delimited JSON.
+     * <p>
+     * DataFeeds are read from a database cursor and written as they come, in no particular order,
+     * so the memory used does not depend on the number of dataFeeds exported. The export may last up to
+     * {@code application.export.timeout-ms}, instead of the timeout of the other asynchronous requests.
+     *
+     * @param criteria the criteria which the requested dataFeeds should match
+     * @param fields the properties to export, all of them by default; the others are null
+     * @param request the current request
+     * @return the ResponseEntity with status 200 (OK) and the dataFeeds in body, one per line,
+     * or with status 400 (Bad Request) if a field is unknown
+     */
+    @GetMapping(value = "/data-feeds/_export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportDataFeeds(DataFeedCriteria criteria,
+                                                                 @RequestParam(required = false) List<String> fields,
+                                                                 HttpServletRequest request) {
+        log.debug("REST request to export DataFeeds by criteria: {}", criteria);
+        validateFields(fields);
+        AsyncRequestTimeoutInterceptor.setTimeout(request, applicationProperties.getExport().getTimeoutMs());
+        ObjectWriter writer = objectMapper.writerFor(DataFeed.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = outputStream -> {
+            try (CloseableIterator<DataFeed> dataFeeds = dataFeedService.stream(criteria, fields);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                while (dataFeeds.hasNext()) {
+                    writer.writeValue(generator, dataFeeds.next());
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+            .body(body);
+    }
+
     /**
      * GET  /data-feeds/:id : get the "id" dataFeed.
      *
      * @param id the id of the dataFeed to retrieve
-     * @return the ResponseEntity with status 200 (OK) and with body the dataFeed, or with status 404 (Not Found)
+     * @param fields the properties to return, all of them by default; the others are null except the id
+     * @return the ResponseEntity with status 200 (OK) and with body the dataFeed, or with status 404 (Not Found),
+     * or with status 400 (Bad Request) if a field is unknown
      */
     @GetMapping("/data-feeds/{id}")
-    public ResponseEntity<DataFeed> getDataFeed(@PathVariable String id) {
+    public ResponseEntity<DataFeed> getDataFeed(@PathVariable String id, @RequestParam(required = false) List<String> fields) {
         log.debug("REST request to get DataFeed : {}", id);
-        Optional<DataFeed> dataFeed = dataFeedService.findOne(id);
+        validateFields(fields);
+        Optional<DataFeed> dataFeed = dataFeedService.findOne(id, fields);
         return ResponseUtil.wrapOrNotFound(dataFeed);
     }
 
+    /**
+     * GET  /data-feeds/:id/near-duplicates : get the dataFeeds whose page is nearly the same as the page of
+     * the "id" dataFeed, such as the same article with other ads.
+     *
+     * @param id the id of the dataFeed
+     * @param distance the largest number of differing SimHash bits, the configured maximum by default
+     * @param size the maximum number of near-duplicates
+     * @return the ResponseEntity with status 200 (OK) and the near-duplicates in body, closest first,
+     * or with status 404 (Not Found), or with status 400 (Bad Request) if the distance is out of range
+     */
+    @GetMapping("/data-feeds/{id}/near-duplicates")
+    public ResponseEntity<List<NearDuplicateDTO>> getNearDuplicates(@PathVariable String id,
+                                                                    @RequestParam(required = false) Integer distance,
+                                                                    @RequestParam(defaultValue = "20") int size) {
+        log.debug("REST request to get the near-duplicates of DataFeed : {}", id);
+        int maxDistance = applicationProperties.getNearDuplicates().getMaxDistance();
+        if (distance != null && (distance < 0 || distance > maxDistance)) {
+            throw new BadRequestAlertException("The distance must be between 0 and " + maxDistance, ENTITY_NAME,
+                "invaliddistance");
+        }
+        if (size < 1) {
+            throw new BadRequestAlertException("Invalid size: " + size, ENTITY_NAME, "invalidsize");
+        }
+        return ResponseUtil.wrapOrNotFound(dataFeedService.findNearDuplicates(id,
+            distance != null ? distance : maxDistance, size));
+    }
+
+    /**
+     * GET  /data-feeds/:id/outlinks : get the urls the page of the "id" dataFeed links to, from the link graph.
+     *
+     * @param id the id of the dataFeed
+     * @param pageable the pagination information
+     * @return the ResponseEntity with status 200 (OK) and the outlinks in body, or with status 404 (Not Found)
+     */
+    @GetMapping("/data-feeds/{id}/outlinks")
+    public ResponseEntity<List<LinkDTO>> getOutlinks(@PathVariable String id, Pageable pageable) {
+        log.debug("REST request to get the outlinks of DataFeed : {}", id);
+        return toLinksResponse(dataFeedService.findOutlinks(id, pageable), "/api/data-feeds/" + id + "/outlinks");
+    }
+
+    /**
+     * GET  /data-feeds/:id/inlinks : get the urls of the pages linking to the page of the "id" dataFeed,
+     * from the link graph.
+     *
+     * @param id the id of the dataFeed
+     * @param pageable the pagination information
+     * @return the ResponseEntity with status 200 (OK) and the inlinks in body, or with status 404 (Not Found)
+     */
+    @GetMapping("/data-feeds/{id}/inlinks")
+    public ResponseEntity<List<LinkDTO>> getInlinks(@PathVariable String id, Pageable pageable) {
+        log.debug("REST request to get the inlinks of DataFeed : {}", id);
+        return toLinksResponse(dataFeedService.findInlinks(id, pageable), "/api/data-feeds/" + id + "/inlinks");
+    }
+
+    private ResponseEntity<List<LinkDTO>> toLinksResponse(Optional<Page<LinkDTO>> links, String baseUrl) {
+        return links
+            .map(page -> new ResponseEntity<>(page.getContent(),
+                PaginationUtil.generatePaginationHttpHeaders(page, baseUrl), HttpStatus.OK))
+            .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
     /**
      * DELETE  /data-feeds/:id : delete the "id" dataFeed.
      *
@@ -119,17 +423,150 @@ public class DataFeedResource {
     /**
      * SEARCH  /_search/data-feeds?query=:query : search for the dataFeed corresponding
      * to the query.
+     * <p>
+     * With a {@code cursor} parameter, empty for the first page, pages are read with search_after,
+     * which is not limited by the max result window of the index.
+     * <p>
+     * The {@code count} parameter works as for {@code GET /data-feeds}, Elasticsearch 5 always counts the
+     * hits so it only changes the headers.
+     * <p>
+     * The {@code fields} parameter restricts the properties fetched from the source of the hits, the others
+     * are null except the id.
+     * <p>
+     * With {@code ranked=true}, the top hits are ordered by their text score blended with the rank and the
+     * freshness of their page; a ranked search cannot be sorted nor use a cursor, and its pages must end within
+     * the {@code application.ranked-search.window-size} top hits, past which hits are not ranked.
      *
      * @param query the query of the dataFeed search
      * @param pageable the pagination information
+     * @param cursor the continuation token of keyset pagination
+     * @param count how to count the dataFeeds, the server default when absent
+     * @param fields the properties to return, all of them by default
+     * @param ranked whether to blend the rank and freshness of the pages into the score
      * @return the result of the search
      */
     @GetMapping("/_search/data-feeds")
-    public ResponseEntity<List<DataFeed>> searchDataFeeds(@RequestParam String query, Pageable pageable) {
+    public ResponseEntity<List<DataFeed>> searchDataFeeds(@RequestParam String query, Pageable pageable,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) String count,
+                                                          @RequestParam(required = false) List<String> fields,
+                                                          @RequestParam(defaultValue = "false") boolean ranked) {
         log.debug("REST request to search for a page of DataFeeds for query {}", query);
-        Page<DataFeed> page = dataFeedService.search(query, pageable);
-        HttpHeaders headers = PaginationUtil.generateSearchPaginationHttpHeaders(query, page, "/api/_search/data-feeds");
+        validateFields(fields);
+        if (ranked && cursor != null) {
+            throw new BadRequestAlertException("A ranked search cannot use a cursor", ENTITY_NAME, "invalidcursor");
+        }
+        if (ranked && pageable.getSort().isSorted()) {
+            throw new BadRequestAlertException("A ranked search cannot be sorted", ENTITY_NAME, "invalidsort");
+        }
+        int windowSize = applicationProperties.getRankedSearch().getWindowSize();
+        if (ranked && pageable.getOffset() + pageable.getPageSize() > windowSize) {
+            throw new BadRequestAlertException("A ranked search only ranks its first " + windowSize + " hits",
+                ENTITY_NAME, "invalidpage");
+        }
+        if (cursor != null) {
+            KeysetPage<DataFeed> page = withCursor(() -> dataFeedService.search(query, cursor, pageable, fields));
+            HttpHeaders headers = PaginationUtil.generateSearchKeysetPaginationHttpHeaders(query, page,
+                withFields("/api/_search/data-feeds", fields));
+            return ResponseEntity.ok().headers(headers).body(page.getContent());
+        }
+        CountMode countMode = toCountMode(count);
+        Page<DataFeed> page = ranked
+            ? dataFeedService.searchRanked(query, pageable, fields)
+            : dataFeedService.search(query, pageable, fields);
+        String baseUrl = ranked ? "/api/_search/data-feeds?ranked=true" : "/api/_search/data-feeds";
+        HttpHeaders headers;
+        if (countMode == CountMode.EXACT) {
+            headers = PaginationUtil.generateSearchPaginationHttpHeaders(query, page, withFields(baseUrl, fields));
+        } else {
+            headers = PaginationUtil.generateSearchSlicePaginationHttpHeaders(query, page,
+                withFields(UriComponentsBuilder.fromUriString(baseUrl)
+                    .queryParam("count", countMode.name().toLowerCase(Locale.ROOT)).toUriString(), fields));
+            if (countMode == CountMode.ESTIMATED) {
+                headers.add(X_TOTAL_COUNT_ESTIMATE, Long.toString(page.getTotalElements()));
+            }
+        }
         return ResponseEntity.ok().headers(headers).body(page.getContent());
     }
 
+    /**
+     * POST  /_search/data-feeds : search for the dataFeeds matching a structured query.
+     * <p>
+     * Unlike the query string of {@code GET /_search/data-feeds}, the text cannot hold regular expressions,
+     * fuzzy terms nor leading wildcards, and the filters are cached by Elasticsearch. Since the query is in the
+     * body, the response has the total count but no Link header to the other pages.
+     *
+     * @param query the structured query
+     * @param pageable the pagination information
+     * @param fields the properties to return, all of them by default
+     * @return the ResponseEntity with status 200 (OK) and the list of dataFeeds in body,
+     * or with status 400 (Bad Request) if the query is too expensive or invalid
+     */
+    @PostMapping("/_search/data-feeds")
+    public ResponseEntity<List<DataFeed>> searchDataFeeds(@RequestBody DataFeedQueryDTO query, Pageable pageable,
+                                                          @RequestParam(required = false) List<String> fields) {
+        log.debug("REST request to search for a page of DataFeeds for structured query {}", query);
+        validateFields(fields);
+        Page<DataFeed> page;
+        try {
+            page = dataFeedService.search(query, pageable, fields);
+        } catch (InvalidQueryException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "invalidquery");
+        }
+        // The query is in the body, so the pages cannot be linked to
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("X-Total-Count", Long.toString(page.getTotalElements()));
+        return ResponseEntity.ok().headers(headers).body(page.getContent());
+    }
+
+    private CountMode toCountMode(String count) {
+        if (count == null) {
+            return applicationProperties.getPagination().getCount();
+        }
+        try {
+            return CountMode.valueOf(count.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid count: " + count, ENTITY_NAME, "invalidcount");
+        }
+    }
+
+    private <T> KeysetPage<T> withCursor(Supplier<KeysetPage<T>> query) {
+        try {
+            return query.get();
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "invalidcursor");
+        }
+    }
+
+    /**
+     * @return the dataFeed with the values of the patch, so that they have the types of the properties
+     */
+    private DataFeed toPatch(Map<String, Object> patch) {
+        try {
+            return objectMapper.convertValue(patch, DataFeed.class);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException("Invalid patch: " + e.getMessage(), ENTITY_NAME, "invalidpatch");
+        }
+    }
+
+    private void validateFields(List<String> fields) {
+        if (fields == null) {
+            return;
+        }
+        for (String field : fields) {
+            if (!FIELDS.contains(field)) {
+                throw new BadRequestAlertException("Unknown field: " + field, ENTITY_NAME, "invalidfield");
+            }
+        }
+    }
+
+    /**
+     * @return the base URL of the pagination links, keeping the requested fields
+     */
+    private static String withFields(String baseUrl, List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return baseUrl;
+        }
+        return UriComponentsBuilder.fromUriString(baseUrl).queryParam("fields", String.join(",", fields)).toUriString();
+    }
 }
@@ -0,0 +1,123 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.service.DataFeedTaskService;
+import io.cooly.crawler.service.dto.DataFeedFilterDTO;
+import io.cooly.crawler.service.dto.DataFeedTaskDTO;
+import io.cooly.crawler.web.rest.errors.BadRequestAlertException;
+import io.cooly.crawler.web.rest.util.HeaderUtil;
+import io.github.coolys.web.util.ResponseUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * REST controller for the bulk tasks on the dataFeeds matching a filter.
+ * <p>
+ * A task is started with a single request and runs in the background; its progress is polled at the
+ * location returned when it starts.
+ */
+@RestController
+@RequestMapping("/api")
+public class DataFeedTaskResource {
+
+    private final Logger log = LoggerFactory.getLogger(DataFeedTaskResource.class);
+
+    private static final String ENTITY_NAME = "indexerDataFeed";
+
+    private final DataFeedTaskService dataFeedTaskService;
+
+    public DataFeedTaskResource(DataFeedTaskService dataFeedTaskService) {
+        this.dataFeedTaskService = dataFeedTaskService;
+    }
+
+    /**
+     * POST  /data-feeds/_mark-fetched : Mark the dataFeeds matching a filter as fetched, ending their lease.
+     *
+     * @param filter the dataFeeds to update, from the domain, minLevel, maxLevel and createdBefore parameters,
+     * at least one of them
+     * @return the ResponseEntity with status 202 (Accepted) and with body the task,
+     * or with status 400 (Bad Request) if the filter is empty or not valid, or with status 409 (Conflict) if a reindex is running
+     * @throws URISyntaxException if the Location URI syntax is incorrect
+     */
+    @PostMapping("/data-feeds/_mark-fetched")
+    public ResponseEntity<DataFeedTaskDTO> markFetched(DataFeedFilterDTO filter) throws URISyntaxException {
+        log.debug("REST request to mark DataFeeds as fetched : {}", filter);
+        return start(DataFeedTaskDTO.Type.MARK_FETCHED, filter);
+    }
+
+    /**
+     * POST  /data-feeds/_requeue : Mark the dataFeeds matching a filter as not fetched, so that they are
+     * crawled again.
+     *
+     * @param filter the dataFeeds to update, from the domain, minLevel, maxLevel and createdBefore parameters,
+     * at least one of them
+     * @return the ResponseEntity with status 202 (Accepted) and with body the task,
+     * or with status 400 (Bad Request) if the filter is empty or not valid, or with status 409 (Conflict) if a reindex is running
+     * @throws URISyntaxException if the Location URI syntax is incorrect
+     */
+    @PostMapping("/data-feeds/_requeue")
+    public ResponseEntity<DataFeedTaskDTO> requeue(DataFeedFilterDTO filter) throws URISyntaxException {
+        log.debug("REST request to requeue DataFeeds : {}", filter);
+        return start(DataFeedTaskDTO.Type.REQUEUE, filter);
+    }
+
+    /**
+     * DELETE  /data-feeds : Delete the dataFeeds matching a filter, from MongoDB then from the search index.
+     *
+     * @param filter the dataFeeds to delete, from the domain, minLevel, maxLevel and createdBefore parameters,
+     * at least one of them
+     * @return the ResponseEntity with status 202 (Accepted) and with body the task,
+     * or with status 400 (Bad Request) if the filter is empty or not valid, or with status 409 (Conflict) if a reindex is running
+     * @throws URISyntaxException if the Location URI syntax is incorrect
+     */
+    @DeleteMapping("/data-feeds")
+    public ResponseEntity<DataFeedTaskDTO> deleteDataFeeds(DataFeedFilterDTO filter) throws URISyntaxException {
+        log.debug("REST request to delete DataFeeds : {}", filter);
+        return start(DataFeedTaskDTO.Type.DELETE, filter);
+    }
+
+    /**
+     * GET  /data-feeds/_tasks : get the pending and running tasks, and the last finished ones.
+     *
+     * @return the list of tasks, latest first
+     */
+    @GetMapping("/data-feeds/_tasks")
+    public List<DataFeedTaskDTO> getTasks() {
+        return dataFeedTaskService.getTasks();
+    }
+
+    /**
+     * GET  /data-feeds/_tasks/:id : get the progress of the "id" task.
+     *
+     * @param id the id of the task
+     * @return the ResponseEntity with status 200 (OK) and with body the task, or with status 404 (Not Found)
+     */
+    @GetMapping("/data-feeds/_tasks/{id}")
+    public ResponseEntity<DataFeedTaskDTO> getTask(@PathVariable String id) {
+        return ResponseUtil.wrapOrNotFound(dataFeedTaskService.getTask(id));
+    }
+
+    private ResponseEntity<DataFeedTaskDTO> start(DataFeedTaskDTO.Type type, DataFeedFilterDTO filter)
+        throws URISyntaxException {
+        DataFeedTaskDTO task;
+        try {
+            task = dataFeedTaskService.start(type, filter);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestAlertException(e.getMessage(), ENTITY_NAME, "invalidfilter");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .headers(HeaderUtil.createFailureAlert(ENTITY_NAME, "reindexrunning", e.getMessage()))
+                .build();
+        }
+        return ResponseEntity.accepted()
+            .location(new URI("/api/data-feeds/_tasks/" + task.getId()))
+            .body(task);
+    }
+}
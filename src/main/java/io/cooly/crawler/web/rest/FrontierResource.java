@@ -0,0 +1,78 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.service.UrlFrontier;
+import io.cooly.crawler.service.dto.FrontierUrlDTO;
+import io.cooly.crawler.web.rest.errors.BadRequestAlertException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * REST controller for handing out the urls to crawl to crawler workers.
+ */
+@RestController
+@RequestMapping("/api")
+public class FrontierResource {
+
+    private final Logger log = LoggerFactory.getLogger(FrontierResource.class);
+
+    private static final String ENTITY_NAME = "indexerFrontier";
+
+    private final UrlFrontier urlFrontier;
+
+    private final ApplicationProperties applicationProperties;
+
+    public FrontierResource(UrlFrontier urlFrontier, ApplicationProperties applicationProperties) {
+        this.urlFrontier = urlFrontier;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * POST  /frontier/lease : Lease the next urls to crawl, lowest level first. Leased urls are not handed
+     * out again until their lease expires or they are released.
+     *
+     * @param n the maximum number of urls
+     * @return the ResponseEntity with status 200 (OK) and the leased urls in body, or with status 400
+     * (Bad Request) if n is out of range
+     */
+    @PostMapping("/frontier/lease")
+    public List<FrontierUrlDTO> lease(@RequestParam(defaultValue = "1") int n) {
+        log.debug("REST request to lease {} urls", n);
+        int maxLeaseSize = applicationProperties.getFrontier().getMaxLeaseSize();
+        if (n < 1 || n > maxLeaseSize) {
+            throw new BadRequestAlertException("n must be between 1 and " + maxLeaseSize, ENTITY_NAME, "invalidn");
+        }
+        return urlFrontier.lease(n);
+    }
+
+    /**
+     * POST  /frontier/complete : Mark leased urls as fetched.
+     *
+     * @param ids the ids of the dataFeeds of the urls
+     * @return the ResponseEntity with status 200 (OK)
+     */
+    @PostMapping("/frontier/complete")
+    public ResponseEntity<Void> complete(@RequestBody List<String> ids) {
+        log.debug("REST request to complete {} urls", ids.size());
+        urlFrontier.complete(ids);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * POST  /frontier/release : Give leased urls back to the frontier without fetching them.
+     *
+     * @param ids the ids of the dataFeeds of the urls
+     * @return the ResponseEntity with status 200 (OK)
+     */
+    @PostMapping("/frontier/release")
+    public ResponseEntity<Void> release(@RequestBody List<String> ids) {
+        log.debug("REST request to release {} urls", ids.size());
+        urlFrontier.release(ids);
+        return ResponseEntity.ok().build();
+    }
+}
@@ -0,0 +1,49 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.service.DataFeedReindexService;
+import io.cooly.crawler.service.dto.ReindexStatusDTO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller for rebuilding the DataFeed search index from MongoDB.
+ */
+@RestController
+@RequestMapping("/management")
+public class ReindexResource {
+
+    private final Logger log = LoggerFactory.getLogger(ReindexResource.class);
+
+    private final DataFeedReindexService dataFeedReindexService;
+
+    public ReindexResource(DataFeedReindexService dataFeedReindexService) {
+        this.dataFeedReindexService = dataFeedReindexService;
+    }
+
+    /**
+     * POST  /reindex : Start a full reindex of the dataFeeds into a new index.
+     *
+     * @return the ResponseEntity with status 202 (Accepted) and with body the reindex status,
+     * or with status 409 (Conflict) if a reindex is already running
+     */
+    @PostMapping("/reindex")
+    public ResponseEntity<ReindexStatusDTO> startReindex() {
+        log.debug("REST request to reindex DataFeeds");
+        HttpStatus status = dataFeedReindexService.start() ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT;
+        return ResponseEntity.status(status).body(dataFeedReindexService.getStatus());
+    }
+
+    /**
+     * GET  /reindex : Get the progress of the running reindex, or the outcome of the last one.
+     *
+     * @return the ResponseEntity with status 200 (OK) and with body the reindex status
+     */
+    @GetMapping("/reindex")
+    public ReindexStatusDTO getReindexStatus() {
+        return dataFeedReindexService.getStatus();
+    }
+}
@@ -0,0 +1,37 @@
+package io.cooly.crawler.web.rest.util;
+
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import javax.servlet.ServletRequest;
+import java.util.concurrent.Callable;
+
+/**
+ * Gives an asynchronous request the timeout its controller set with {@link #setTimeout(ServletRequest, long)},
+ * the other asynchronous requests keeping the {@code spring.mvc.async.request-timeout}.
+ * <p>
+ * This is how a {@code StreamingResponseBody}, which cannot carry a timeout of its own, gets a longer one.
+ */
+public class AsyncRequestTimeoutInterceptor implements CallableProcessingInterceptor {
+
+    private static final String TIMEOUT_ATTRIBUTE = AsyncRequestTimeoutInterceptor.class.getName() + ".timeout";
+
+    /**
+     * @param request the request about to be handled asynchronously
+     * @param timeoutMs its timeout in milliseconds
+     */
+    public static void setTimeout(ServletRequest request, long timeoutMs) {
+        request.setAttribute(TIMEOUT_ATTRIBUTE, timeoutMs);
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        Object timeout = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        // Called before the asynchronous processing starts, which applies the timeout
+        if (timeout instanceof Long && request instanceof AsyncWebRequest) {
+            ((AsyncWebRequest) request).setTimeout((Long) timeout);
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package io.cooly.crawler.web.rest.util;
 
+import io.cooly.crawler.service.dto.KeysetPage;
+
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility class for handling pagination.
@@ -13,6 +18,9 @@ import java.net.URLEncoder;
  * <p>
  * Pagination uses the same principles as the <a href="https://developer.github.com/v3/#pagination">GitHub API</a>,
  * and follow <a href="http://tools.ietf.org/html/rfc5988">RFC 5988 (Link header)</a>.
+ * <p>
+ * Slices, which are not counted, only link to the previous and next pages.
+ * Keyset pages only link to the next page, through an opaque {@code cursor} parameter, and have no total count.
  */
 public final class PaginationUtil {
 
@@ -73,4 +81,60 @@ public final class PaginationUtil {
         headers.add(HttpHeaders.LINK, link);
         return headers;
     }
+
+    public static <T> HttpHeaders generateSlicePaginationHttpHeaders(Slice<T> slice, String baseUrl) {
+        return generateSliceHttpHeaders(slice, baseUrl, "");
+    }
+
+    public static <T> HttpHeaders generateSearchSlicePaginationHttpHeaders(String query, Slice<T> slice, String baseUrl) {
+        String escapedQuery;
+        try {
+            escapedQuery = URLEncoder.encode(query, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return generateSliceHttpHeaders(slice, baseUrl, "&query=" + escapedQuery);
+    }
+
+    private static <T> HttpHeaders generateSliceHttpHeaders(Slice<T> slice, String baseUrl, String extraParameters) {
+        HttpHeaders headers = new HttpHeaders();
+        List<String> links = new ArrayList<>();
+        if (slice.hasNext()) {
+            links.add("<" + generateUri(baseUrl, slice.getNumber() + 1, slice.getSize()) + extraParameters + ">; rel=\"next\"");
+        }
+        if (slice.hasPrevious()) {
+            links.add("<" + generateUri(baseUrl, slice.getNumber() - 1, slice.getSize()) + extraParameters + ">; rel=\"prev\"");
+        }
+        if (!links.isEmpty()) {
+            headers.add(HttpHeaders.LINK, String.join(",", links));
+        }
+        return headers;
+    }
+
+    public static <T> HttpHeaders generateKeysetPaginationHttpHeaders(KeysetPage<T> page, String baseUrl) {
+        HttpHeaders headers = new HttpHeaders();
+        if (page.hasNext()) {
+            headers.add(HttpHeaders.LINK, "<" + generateKeysetUri(baseUrl, page) + ">; rel=\"next\"");
+        }
+        return headers;
+    }
+
+    public static <T> HttpHeaders generateSearchKeysetPaginationHttpHeaders(String query, KeysetPage<T> page, String baseUrl) {
+        String escapedQuery;
+        try {
+            escapedQuery = URLEncoder.encode(query, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (page.hasNext()) {
+            headers.add(HttpHeaders.LINK, "<" + generateKeysetUri(baseUrl, page) + "&query=" + escapedQuery + ">; rel=\"next\"");
+        }
+        return headers;
+    }
+
+    private static <T> String generateKeysetUri(String baseUrl, KeysetPage<T> page) {
+        return UriComponentsBuilder.fromUriString(baseUrl).queryParam("cursor", page.getNextCursor())
+            .queryParam("size", page.getSize()).toUriString();
+    }
 }
@@ -0,0 +1,91 @@
+package io.cooly.crawler.benchmark;
+
+import io.cooly.crawler.service.util.UrlNormalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link UrlNormalizer} against a normalization built on {@link URI}, on a mix of
+ * canonical and non canonical urls.
+ * <p>
+ * Run the {@link #main(String[])} method from the IDE, or with the test classpath once the test
+ * sources are compiled; add {@code -prof gc} to the JMH arguments to compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlNormalizerBenchmark {
+
+    private static final String[] URLS = {
+        "https://www.example.com/articles/2019/03/some-article-title?id=42&page=2",
+        "HTTP://WWW.Example.COM:80/a/./b/../c/index.html#comments",
+        "https://shop.example.org/search?q=red+shoes&utm_source=newsletter&sort=price&utm_medium=email",
+        "http://example.net/%7Euser/files/r%C3%A9sum%C3%A9.pdf",
+        "https://news.example.com/",
+        "https://example.com/category/sub-category/item-123456789?ref=home&lang=en&b=2&a=1"
+    };
+
+    private final UrlNormalizer normalizer = new UrlNormalizer(Arrays.asList("utm_*", "gclid", "fbclid"));
+
+    @Benchmark
+    public void handWritten(Blackhole blackhole) {
+        for (String url : URLS) {
+            blackhole.consume(normalizer.normalize(url));
+        }
+    }
+
+    @Benchmark
+    public void javaNetUri(Blackhole blackhole) {
+        for (String url : URLS) {
+            blackhole.consume(normalizeWithUri(url));
+        }
+    }
+
+    /**
+     * The part of the normalization {@link URI} covers: case of the scheme and host, default port, dot
+     * segments and fragment; the query parameters are left as they are.
+     */
+    private static String normalizeWithUri(String url) {
+        try {
+            URI uri = new URI(url).normalize();
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (port == 80 && "http".equals(scheme) || port == 443 && "https".equals(scheme)) {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return new URI(scheme, uri.getRawUserInfo(), uri.getHost().toLowerCase(Locale.ROOT), port, path,
+                uri.getRawQuery(), null).toASCIIString();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(UrlNormalizerBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
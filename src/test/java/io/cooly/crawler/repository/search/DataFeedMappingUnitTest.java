@@ -0,0 +1,53 @@
+package io.cooly.crawler.repository.search;
+
+import io.cooly.crawler.domain.DataFeed;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the managed mapping of the DataFeed index.
+ *
+ * @see DataFeedSearchRepositoryImpl
+ */
+public class DataFeedMappingUnitTest {
+
+    @Test
+    public void mapsEveryPropertyOfDataFeed() throws Exception {
+        JsonObject properties = read("/config/elasticsearch/datafeed-mapping.json").getAsJsonObject("properties");
+
+        // The mapping is not dynamic, a property missing from it would not be searchable
+        assertThat(properties.keySet()).containsAll(Arrays.stream(DataFeed.class.getDeclaredFields())
+            .filter(field -> !Modifier.isStatic(field.getModifiers()))
+            .map(Field::getName)
+            .collect(Collectors.toList()));
+        assertThat(properties.getAsJsonObject("domain").get("type").getAsString()).isEqualTo("keyword");
+        assertThat(properties.getAsJsonObject("html").get("index").getAsBoolean()).isFalse();
+        assertThat(properties.getAsJsonObject("data").get("analyzer").getAsString()).isEqualTo("html_text");
+    }
+
+    @Test
+    public void definesTheAnalyzersOfTheMapping() throws Exception {
+        JsonObject analyzers = read("/config/elasticsearch/datafeed-settings.json")
+            .getAsJsonObject("analysis").getAsJsonObject("analyzer");
+
+        assertThat(analyzers.has("html_text")).isTrue();
+    }
+
+    private static JsonObject read(String path) throws Exception {
+        try (InputStream in = DataFeedMappingUnitTest.class.getResourceAsStream(path)) {
+            return new JsonParser().parse(StreamUtils.copyToString(in, StandardCharsets.UTF_8)).getAsJsonObject();
+        }
+    }
+}
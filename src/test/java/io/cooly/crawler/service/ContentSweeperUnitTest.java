@@ -0,0 +1,88 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.repository.ContentStore;
+import io.cooly.crawler.repository.DataFeedRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the ContentSweeper.
+ *
+ * @see ContentSweeper
+ */
+public class ContentSweeperUnitTest {
+
+    private ApplicationProperties applicationProperties;
+
+    private ContentStore contentStore;
+
+    private DataFeedRepository dataFeedRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getContentStore().setSweepBatchSize(2);
+        contentStore = mock(ContentStore.class);
+        dataFeedRepository = mock(DataFeedRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void deletesOnlyTheUnreferencedContents() {
+        when(contentStore.findRefsSavedBefore(any(Instant.class), eq(""), eq(2)))
+            .thenReturn(Arrays.asList("a", "b"));
+        when(contentStore.findRefsSavedBefore(any(Instant.class), eq("b"), eq(2)))
+            .thenReturn(Collections.singletonList("c"));
+        when(contentStore.findRefsSavedBefore(any(Instant.class), eq("c"), eq(2)))
+            .thenReturn(Collections.emptyList());
+        when(dataFeedRepository.findReferencedHtmlRefs(Arrays.asList("a", "b")))
+            .thenReturn(Collections.singleton("a"));
+        when(dataFeedRepository.findReferencedHtmlRefs(Collections.singletonList("c")))
+            .thenReturn(new HashSet<>());
+        when(contentStore.deleteSavedBefore(any(), any(Instant.class))).thenReturn(1L);
+
+        newSweeper().sweep();
+
+        verify(contentStore).deleteSavedBefore(eq(Collections.singletonList("b")), any(Instant.class));
+        verify(contentStore).deleteSavedBefore(eq(Collections.singletonList("c")), any(Instant.class));
+        assertThat(meterRegistry.counter("indexer.content-store.swept").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsTheContentsSavedDuringTheGracePeriod() {
+        when(contentStore.findRefsSavedBefore(any(Instant.class), eq(""), anyInt()))
+            .thenReturn(Collections.emptyList());
+
+        long gracePeriod = applicationProperties.getContentStore().getSweepGracePeriodMs();
+        Instant start = Instant.now();
+        newSweeper().sweep();
+        Instant end = Instant.now();
+
+        ArgumentCaptor<Instant> savedBefore = ArgumentCaptor.forClass(Instant.class);
+        verify(contentStore).findRefsSavedBefore(savedBefore.capture(), eq(""), eq(2));
+        assertThat(savedBefore.getValue()).isBetween(start.minusMillis(gracePeriod), end.minusMillis(gracePeriod));
+    }
+
+    private ContentSweeper newSweeper() {
+        return new ContentSweeper(contentStore, dataFeedRepository, applicationProperties, meterRegistry);
+    }
+}
@@ -0,0 +1,174 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the DataFeedChangeStreamIndexer.
+ *
+ * @see DataFeedChangeStreamIndexer
+ */
+public class DataFeedChangeStreamIndexerUnitTest {
+
+    private static final String REJECTED_ID = "rejected";
+
+    private static final String LATER_ID = "later";
+
+    private ChangeStreamIterable<Document> changes;
+
+    private FindIterable<BsonDocument> resumeTokenState;
+
+    private MongoCollection<Document> resumeTokens;
+
+    private MongoCollection<Document> deadLetters;
+
+    private DataFeedReindexService dataFeedReindexService;
+
+    private final List<String> indexedIds = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch laterIndexed = new CountDownLatch(1);
+
+    private DataFeedChangeStreamIndexer changeStreamIndexer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getIndexing().setBatchSize(1);
+        applicationProperties.getIndexing().setRetryBackoffMs(1);
+        applicationProperties.getIndexing().setMaxRetryBackoffMs(1);
+        applicationProperties.getIndexing().getChangeStream().setEnabled(true);
+        applicationProperties.getIndexing().getChangeStream().setMaxBatchRetries(2);
+
+        MongoCursor<ChangeStreamDocument<Document>> cursor = mock(MongoCursor.class);
+        when(cursor.tryNext()).thenReturn(change(REJECTED_ID, "1"), change(LATER_ID, "2"), null);
+        changes = mock(ChangeStreamIterable.class, RETURNS_SELF);
+        when(changes.iterator()).thenReturn(cursor);
+        MongoCollection<Document> dataFeeds = mock(MongoCollection.class);
+        when(dataFeeds.watch()).thenReturn(changes);
+
+        resumeTokenState = mock(FindIterable.class);
+        MongoCollection<BsonDocument> resumeTokensAsBson = mock(MongoCollection.class);
+        when(resumeTokensAsBson.find(any(Bson.class))).thenReturn(resumeTokenState);
+        resumeTokens = mock(MongoCollection.class);
+        when(resumeTokens.withDocumentClass(BsonDocument.class)).thenReturn(resumeTokensAsBson);
+        deadLetters = mock(MongoCollection.class);
+
+        MongoConverter converter = mock(MongoConverter.class);
+        when(converter.read(eq(DataFeed.class), any(Document.class)))
+            .thenAnswer(invocation -> {
+                DataFeed dataFeed = new DataFeed();
+                dataFeed.setId(invocation.<Document>getArgument(1).getString("_id"));
+                return dataFeed;
+            });
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollectionName(DataFeed.class)).thenReturn("data_feed");
+        when(mongoTemplate.getCollection("data_feed")).thenReturn(dataFeeds);
+        when(mongoTemplate.getCollection(DataFeedChangeStreamIndexer.RESUME_TOKEN_COLLECTION)).thenReturn(resumeTokens);
+        when(mongoTemplate.getCollection(DataFeedChangeStreamIndexer.DEAD_LETTER_COLLECTION)).thenReturn(deadLetters);
+
+        // Elasticsearch always rejects one of the documents
+        DataFeedIndexer dataFeedIndexer = mock(DataFeedIndexer.class);
+        when(dataFeedIndexer.indexNow(anyCollection(), anyCollection())).thenAnswer(invocation -> {
+            Collection<DataFeed> toIndex = invocation.getArgument(0);
+            for (DataFeed dataFeed : toIndex) {
+                indexedIds.add(dataFeed.getId());
+                if (LATER_ID.equals(dataFeed.getId())) {
+                    laterIndexed.countDown();
+                }
+            }
+            return toIndex.stream().anyMatch(dataFeed -> REJECTED_ID.equals(dataFeed.getId()))
+                ? Collections.singletonMap(REJECTED_ID, "mapper_parsing_exception")
+                : Collections.emptyMap();
+        });
+
+        dataFeedReindexService = mock(DataFeedReindexService.class);
+        when(dataFeedReindexService.start()).thenReturn(true);
+        changeStreamIndexer = new DataFeedChangeStreamIndexer(mongoTemplate, dataFeedIndexer, dataFeedReindexService,
+            applicationProperties);
+    }
+
+    @After
+    public void stop() {
+        changeStreamIndexer.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deadLettersARejectedDocumentAndIndexesTheLaterChanges() throws Exception {
+        changeStreamIndexer.start();
+
+        assertThat(laterIndexed.await(10, TimeUnit.SECONDS)).isTrue();
+        // Indexed once, then retried max-batch-retries times
+        assertThat(indexedIds).containsExactly(REJECTED_ID, REJECTED_ID, REJECTED_ID, LATER_ID);
+        ArgumentCaptor<List<Document>> recorded = ArgumentCaptor.forClass(List.class);
+        verify(deadLetters, timeout(1000)).insertMany(recorded.capture());
+        assertThat(recorded.getValue()).extracting(deadLetter -> deadLetter.getString("data_feed_id"))
+            .containsExactly(REJECTED_ID);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void restartsFromNowAndReindexesWhenTheResumeTokenIsNoLongerInTheOplog() throws Exception {
+        BsonDocument resumeToken = new BsonDocument("_data", new BsonString("0"));
+        when(resumeTokenState.first()).thenReturn(new BsonDocument("token", resumeToken), (BsonDocument) null);
+        MongoCursor<ChangeStreamDocument<Document>> cursor = changes.iterator();
+        when(changes.iterator())
+            .thenThrow(new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                .append("code", new BsonInt32(286))
+                .append("errmsg", new BsonString("Resume of change stream was not possible")), new ServerAddress()))
+            .thenReturn(cursor);
+
+        changeStreamIndexer.start();
+
+        assertThat(laterIndexed.await(10, TimeUnit.SECONDS)).isTrue();
+        verify(changes).resumeAfter(resumeToken);
+        verify(resumeTokens).deleteOne(any(Bson.class));
+        verify(dataFeedReindexService).start();
+    }
+
+    private static ChangeStreamDocument<Document> change(String id, String token) {
+        return new ChangeStreamDocument<>(new BsonDocument("_data", new BsonString(token)),
+            new MongoNamespace("indexer", "data_feed"), new Document("_id", id),
+            new BsonDocument("_id", new BsonString(id)), OperationType.INSERT, null);
+    }
+}
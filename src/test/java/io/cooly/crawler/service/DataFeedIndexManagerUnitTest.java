@@ -0,0 +1,102 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the DataFeedIndexManager.
+ *
+ * @see DataFeedIndexManager
+ */
+public class DataFeedIndexManagerUnitTest {
+
+    private static final String ALIAS = "datafeed";
+
+    private DataFeedSearchRepository dataFeedSearchRepository;
+
+    private DataFeedIndexManager dataFeedIndexManager;
+
+    @Before
+    public void setup() {
+        ElasticsearchPersistentEntity<?> entity = mock(ElasticsearchPersistentEntity.class);
+        when(entity.getIndexName()).thenReturn(ALIAS);
+        ElasticsearchOperations elasticsearchOperations = mock(ElasticsearchOperations.class);
+        doReturn(entity).when(elasticsearchOperations).getPersistentEntityFor(DataFeed.class);
+        dataFeedSearchRepository = mock(DataFeedSearchRepository.class);
+        dataFeedIndexManager = new DataFeedIndexManager(dataFeedSearchRepository, elasticsearchOperations,
+            new ApplicationProperties());
+    }
+
+    @Test
+    public void createsAMissingIndex() {
+        dataFeedIndexManager.initialize();
+
+        verify(dataFeedSearchRepository).createIndex(eq(ALIAS), anyMap());
+        assertThat(dataFeedIndexManager.hasDynamicMapping()).isFalse();
+    }
+
+    @Test
+    public void addsOnlyTheMissingPropertiesOfAManagedIndex() {
+        when(dataFeedSearchRepository.indexExists(ALIAS)).thenReturn(true);
+        when(dataFeedSearchRepository.putMissingProperties(ALIAS)).thenReturn(Collections.singleton("rank"));
+
+        dataFeedIndexManager.initialize();
+
+        verify(dataFeedSearchRepository).updateIndexSettings(eq(ALIAS), anyMap());
+        verify(dataFeedSearchRepository).putMissingProperties(ALIAS);
+        verify(dataFeedSearchRepository, never()).createIndex(anyString(), anyMap());
+        assertThat(dataFeedIndexManager.hasDynamicMapping()).isFalse();
+    }
+
+    @Test
+    public void leavesADynamicMappingUntilReindexed() {
+        when(dataFeedSearchRepository.indexExists(ALIAS)).thenReturn(true);
+        when(dataFeedSearchRepository.hasDynamicMapping(ALIAS)).thenReturn(true);
+
+        dataFeedIndexManager.initialize();
+
+        verify(dataFeedSearchRepository, never()).putMissingProperties(anyString());
+        assertThat(dataFeedIndexManager.hasDynamicMapping()).isTrue();
+
+        // The reindexed index has the managed mapping
+        when(dataFeedSearchRepository.hasDynamicMapping(ALIAS)).thenReturn(false);
+        dataFeedIndexManager.refresh();
+
+        assertThat(dataFeedIndexManager.hasDynamicMapping()).isFalse();
+    }
+
+    @Test
+    public void retriesBeforeIndexingWhenElasticsearchWasUnavailable() {
+        when(dataFeedSearchRepository.indexExists(ALIAS))
+            .thenThrow(new ElasticsearchException("Request to Elasticsearch failed"))
+            .thenReturn(false);
+
+        dataFeedIndexManager.initialize();
+        verify(dataFeedSearchRepository, never()).createIndex(anyString(), anyMap());
+
+        dataFeedIndexManager.ensureInitialized();
+        dataFeedIndexManager.ensureInitialized();
+
+        verify(dataFeedSearchRepository, times(1)).createIndex(eq(ALIAS), anyMap());
+    }
+}
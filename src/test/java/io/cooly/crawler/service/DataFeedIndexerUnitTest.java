@@ -0,0 +1,211 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the DataFeedIndexer.
+ *
+ * @see DataFeedIndexer
+ */
+public class DataFeedIndexerUnitTest {
+
+    private ApplicationProperties applicationProperties;
+
+    private DataFeedSearchRepository dataFeedSearchRepository;
+
+    /**
+     * Tasks submitted to the executor, run by the tests.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private DataFeedIndexer dataFeedIndexer;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getIndexing().setFlushIntervalMs(0);
+        applicationProperties.getIndexing().setRetryBackoffMs(1);
+        applicationProperties.getIndexing().setOfferTimeoutMs(10);
+        dataFeedSearchRepository = mock(DataFeedSearchRepository.class);
+        dataFeedIndexer = newIndexer();
+    }
+
+    @Test
+    public void retriesTheFailedDataFeeds() {
+        DataFeed a = dataFeed("a");
+        DataFeed b = dataFeed("b");
+        when(dataFeedSearchRepository.bulkIndex(anyCollection()))
+            .thenReturn(Collections.singletonMap("b", "es_rejected_execution_exception"))
+            .thenReturn(Collections.emptyMap());
+
+        dataFeedIndexer.indexAll(Arrays.asList(a, b));
+        runTasks();
+
+        InOrder inOrder = inOrder(dataFeedSearchRepository);
+        inOrder.verify(dataFeedSearchRepository).bulkIndex(Arrays.asList(a, b));
+        inOrder.verify(dataFeedSearchRepository).bulkIndex(Collections.singletonList(b));
+        assertThat(dataFeedIndexer.getLagMillis()).isZero();
+    }
+
+    @Test
+    public void givesUpAfterTheLastRetry() {
+        applicationProperties.getIndexing().setMaxRetries(2);
+        DataFeed a = dataFeed("a");
+        when(dataFeedSearchRepository.bulkIndex(anyCollection()))
+            .thenReturn(Collections.singletonMap("a", "mapper_parsing_exception"));
+
+        Map<String, String> failures = dataFeedIndexer.indexNow(Collections.singletonList(a),
+            Collections.emptyList());
+
+        assertThat(failures).containsEntry("a", "mapper_parsing_exception");
+        verify(dataFeedSearchRepository, times(3)).bulkIndex(Collections.singletonList(a));
+    }
+
+    @Test
+    public void sendsOnlyTheLatestOfTheChangesOfADataFeed() {
+        DataFeed a = dataFeed("a");
+        DataFeed b = dataFeed("b");
+        dataFeedIndexer.index(a);
+        dataFeedIndexer.delete("a");
+        dataFeedIndexer.delete("b");
+        dataFeedIndexer.index(b);
+        runTasks();
+
+        verify(dataFeedSearchRepository).bulkIndex(Collections.singletonList(b));
+        verify(dataFeedSearchRepository).bulkDelete(Collections.singletonList("a"));
+    }
+
+    @Test
+    public void sendsThePartialUpdatesAfterTheDataFeeds() {
+        DataFeed a = dataFeed("a");
+        dataFeedIndexer.update("a", Collections.singletonMap("fetched", false));
+        dataFeedIndexer.index(a);
+        dataFeedIndexer.update("a", Collections.singletonMap("fetched", true));
+        runTasks();
+
+        InOrder inOrder = inOrder(dataFeedSearchRepository);
+        inOrder.verify(dataFeedSearchRepository).bulkIndex(Collections.singletonList(a));
+        inOrder.verify(dataFeedSearchRepository)
+            .bulkUpdate(Collections.singletonMap("a", Collections.singletonMap("fetched", true)));
+    }
+
+    @Test
+    public void sendsTheQueuedChangesBeforeTheChangesSentNow() {
+        DataFeed a = dataFeed("a");
+        DataFeed b = dataFeed("b");
+        when(dataFeedSearchRepository.bulkIndex(anyCollection()))
+            .thenReturn(Collections.singletonMap("b", "mapper_parsing_exception"));
+        applicationProperties.getIndexing().setMaxRetries(0);
+        dataFeedIndexer.index(a);
+        dataFeedIndexer.index(b);
+
+        Map<String, String> failures = dataFeedIndexer.indexNow(Collections.emptyList(),
+            Collections.singletonList("a"));
+
+        // The queued index operation of a does not resurrect it, and only the failures of the delete are returned
+        verify(dataFeedSearchRepository).bulkIndex(Collections.singletonList(b));
+        verify(dataFeedSearchRepository).bulkDelete(Collections.singletonList("a"));
+        assertThat(failures).isEmpty();
+
+        runTasks();
+        verify(dataFeedSearchRepository, times(1)).bulkIndex(anyCollection());
+    }
+
+    @Test
+    public void blocksWritersWhileTheQueueIsFull() throws Exception {
+        applicationProperties.getIndexing().setQueueCapacity(1);
+        dataFeedIndexer = newIndexer();
+        List<String> indexed = new ArrayList<>();
+        when(dataFeedSearchRepository.bulkIndex(anyCollection())).thenAnswer(invocation -> {
+            invocation.<Collection<DataFeed>>getArgument(0).forEach(dataFeed -> indexed.add(dataFeed.getId()));
+            return Collections.emptyMap();
+        });
+        DataFeed a = dataFeed("a");
+        DataFeed b = dataFeed("b");
+        dataFeedIndexer.index(a);
+
+        Thread writer = new Thread(() -> dataFeedIndexer.index(b));
+        writer.start();
+        writer.join(100);
+        assertThat(writer.isAlive()).isTrue();
+        verify(dataFeedSearchRepository, never()).bulkIndex(anyCollection());
+
+        while (writer.isAlive()) {
+            runTasks();
+            writer.join(10);
+        }
+        runTasks();
+
+        // The blocked writer may join the batch of the first dataFeed, but never overtakes it
+        assertThat(indexed).containsExactly("a", "b");
+    }
+
+    @Test
+    public void writesTheChangesToTheShadowIndex() {
+        DataFeed a = dataFeed("a");
+        dataFeedIndexer.startShadowIndexing("datafeed-2");
+        dataFeedIndexer.index(a);
+        dataFeedIndexer.delete("b");
+        dataFeedIndexer.update("c", Collections.singletonMap("fetched", true));
+        runTasks();
+
+        verify(dataFeedSearchRepository).bulkIndex("datafeed-2", Collections.singletonList(a));
+        verify(dataFeedSearchRepository).bulkDelete("datafeed-2", Collections.singletonList("b"));
+        verify(dataFeedSearchRepository)
+            .bulkUpdate("datafeed-2", Collections.singletonMap("c", Collections.singletonMap("fetched", true)));
+        assertThat(dataFeedIndexer.getShadowDeletedIds()).containsExactly("b");
+        assertThat(dataFeedIndexer.getShadowUpdates()).containsOnlyKeys("c");
+
+        dataFeedIndexer.stopShadowIndexing();
+        dataFeedIndexer.index(a);
+        runTasks();
+
+        verify(dataFeedSearchRepository, times(1)).bulkIndex(anyString(), anyCollection());
+        verify(dataFeedSearchRepository, times(1)).bulkUpdate(anyString(), anyMap());
+    }
+
+    private DataFeedIndexer newIndexer() {
+        return new DataFeedIndexer(dataFeedSearchRepository, mock(DataFeedIndexManager.class),
+            mock(PageRankService.class), tasks::add, applicationProperties, new SimpleMeterRegistry());
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static DataFeed dataFeed(String id) {
+        DataFeed dataFeed = new DataFeed().url("http://" + id + ".test/").domain(id + ".test");
+        dataFeed.setId(id);
+        return dataFeed;
+    }
+}
@@ -0,0 +1,149 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.util.CloseableIterator;
+
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the LinkGraph.
+ *
+ * @see LinkGraph
+ */
+public class LinkGraphUnitTest {
+
+    private static final String A = "http://a.test/";
+
+    private static final String B = "http://b.test/";
+
+    private static final String C = "http://c.test/page";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationProperties applicationProperties;
+
+    private DataFeedRepository dataFeedRepository;
+
+    private LinkGraph linkGraph;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getLinkGraph().setFile(folder.getRoot().toPath().resolve("graph").toString());
+        applicationProperties.getLinkGraph().setCompactionMinChanges(1);
+        dataFeedRepository = mock(DataFeedRepository.class);
+        when(dataFeedRepository.stream(any())).thenAnswer(invocation -> iterator(Collections.emptyList()));
+        linkGraph = open();
+    }
+
+    @After
+    public void close() throws Exception {
+        linkGraph.close();
+    }
+
+    @Test
+    public void recordsOutlinksAndInlinks() {
+        linkGraph.update(A, "[\"http://B.test\", \"" + C + "#top\", \"" + A + "\", \"/relative\"]", null);
+        linkGraph.update(B, C + "?utm_source=x\n" + C, null);
+
+        assertThat(outlinks(A)).containsExactly(B, C, A + "relative");
+        assertThat(outlinks(B)).containsExactly(C);
+        assertThat(inlinks(C)).containsExactly(A, B);
+        assertThat(inlinks(A)).isEmpty();
+        assertThat(outlinks("http://unknown.test/")).isEmpty();
+    }
+
+    @Test
+    public void keepsLinksAcrossCompactionsAndRestarts() throws Exception {
+        linkGraph.update(A, B + " " + C, null);
+        linkGraph.update(B, C, null);
+        linkGraph.compact();
+        linkGraph.update(A, B, null);
+        linkGraph.remove(B);
+
+        assertThat(outlinks(A)).containsExactly(B);
+        assertThat(inlinks(B)).containsExactly(A);
+        assertThat(inlinks(C)).isEmpty();
+
+        long generation = linkGraph.getGeneration();
+        linkGraph.close();
+        linkGraph = open();
+        assertThat(outlinks(A)).containsExactly(B);
+        assertThat(inlinks(C)).isEmpty();
+        assertThat(linkGraph.getGeneration()).isEqualTo(generation).isNotZero();
+
+        linkGraph.update(C, A, null);
+        linkGraph.compact();
+        linkGraph.close();
+        linkGraph = open();
+        assertThat(inlinks(A)).containsExactly(C);
+        assertThat(inlinks(B)).containsExactly(A);
+    }
+
+    @Test
+    public void rebuildsMissingGraphFromDataFeeds() throws Exception {
+        long generation = linkGraph.getGeneration();
+        linkGraph.close();
+        Files.delete(folder.getRoot().toPath().resolve("graph.csr"));
+        when(dataFeedRepository.stream(any())).thenAnswer(invocation -> iterator(Collections.singletonList(
+            new DataFeed().url(A).links(B))));
+        linkGraph = open();
+
+        assertThat(inlinks(B)).containsExactly(A);
+        // The rebuilt graph gave the urls new ids
+        assertThat(linkGraph.getGeneration()).isNotEqualTo(generation);
+    }
+
+    private LinkGraph open() {
+        LinkGraph opened = new LinkGraph(dataFeedRepository, Runnable::run, applicationProperties,
+            new SimpleMeterRegistry());
+        opened.load();
+        return opened;
+    }
+
+    private List<String> outlinks(String url) {
+        return linkGraph.getOutlinks(url, PageRequest.of(0, 20)).getContent();
+    }
+
+    private List<String> inlinks(String url) {
+        return linkGraph.getInlinks(url, PageRequest.of(0, 20)).getContent();
+    }
+
+    private static CloseableIterator<DataFeed> iterator(List<DataFeed> dataFeeds) {
+        Iterator<DataFeed> iterator = dataFeeds.iterator();
+        return new CloseableIterator<DataFeed>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public DataFeed next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
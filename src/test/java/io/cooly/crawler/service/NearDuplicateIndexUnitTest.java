@@ -0,0 +1,158 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.dto.NearDuplicateDTO;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the NearDuplicateIndex.
+ *
+ * @see NearDuplicateIndex
+ */
+public class NearDuplicateIndexUnitTest {
+
+    private static final long FINGERPRINT = 0x5a3c_96e1_0f27_d84bL;
+
+    // The fingerprints are cut into 4 bands of 16 bits: 2, 2, 1 and 1 flipped bits differ in every band
+    private static final int[] AT_LIMIT_BITS = {0, 1, 16, 17, 32, 48};
+
+    // 2, 2, 2 and 1 flipped bits
+    private static final int[] PAST_LIMIT_BITS = {0, 1, 16, 17, 32, 33, 48};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationProperties applicationProperties;
+
+    private DataFeedRepository dataFeedRepository;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getNearDuplicates().setMaxDistance(6);
+        applicationProperties.getNearDuplicates()
+            .setSnapshotFile(new File(folder.getRoot(), "near-duplicates.bin").getPath());
+        dataFeedRepository = mock(DataFeedRepository.class);
+        when(dataFeedRepository.stream(any(Query.class))).thenReturn(mock(CloseableIterator.class));
+    }
+
+    @Test
+    public void testFindsNearDuplicatesAtTheDistanceLimit() {
+        NearDuplicateIndex index = newIndex();
+        // No band is shared, the last two are within one bit
+        long atLimit = flip(FINGERPRINT, AT_LIMIT_BITS);
+        long pastLimit = flip(FINGERPRINT, PAST_LIMIT_BITS);
+        index.add("at-limit", atLimit);
+        index.add("past-limit", pastLimit);
+
+        assertThat(index.find(null, FINGERPRINT, 6))
+            .extracting(NearDuplicateDTO::getId, NearDuplicateDTO::getDistance)
+            .containsExactly(tuple("at-limit", 6));
+        assertThat(index.find(null, FINGERPRINT, 5)).isEmpty();
+    }
+
+    @Test
+    public void testFindsClosestFirstWithoutThePageItself() {
+        NearDuplicateIndex index = newIndex();
+        index.add("page", FINGERPRINT);
+        index.add("far", flip(FINGERPRINT, 0, 16, 32));
+        index.add("close", FINGERPRINT ^ 1L);
+
+        assertThat(index.find("page", FINGERPRINT, 6)).extracting(NearDuplicateDTO::getId)
+            .containsExactly("close", "far");
+    }
+
+    @Test
+    public void testFindsEveryFingerprintWithinTheMaximumDistance() {
+        NearDuplicateIndex index = newIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long fingerprint = random.nextLong();
+            int distance = random.nextInt(7);
+            long nearDuplicate = fingerprint;
+            while (Long.bitCount(nearDuplicate ^ fingerprint) < distance) {
+                nearDuplicate ^= 1L << random.nextInt(64);
+            }
+            index.add("near-" + i, nearDuplicate);
+
+            assertThat(index.find(null, fingerprint, 6)).extracting(NearDuplicateDTO::getId)
+                .contains("near-" + i);
+        }
+    }
+
+    @Test
+    public void testRemoveAndUpdate() {
+        NearDuplicateIndex index = newIndex();
+        index.add("removed", FINGERPRINT);
+        index.add("updated", FINGERPRINT);
+
+        index.remove("removed");
+        // The bands of the previous fingerprint no longer lead to the updated DataFeed
+        index.add("updated", ~FINGERPRINT);
+
+        assertThat(index.find(null, FINGERPRINT, 6)).isEmpty();
+        assertThat(index.find(null, ~FINGERPRINT, 6)).extracting(NearDuplicateDTO::getId)
+            .containsExactly("updated");
+    }
+
+    @Test
+    public void testSnapshotIsLoadedAtStartup() {
+        NearDuplicateIndex index = newIndex();
+        index.load();
+        index.add("kept", FINGERPRINT);
+        index.add("removed", FINGERPRINT ^ 1L);
+        index.remove("removed");
+        index.snapshot();
+        verify(dataFeedRepository).stream(any(Query.class));
+
+        DataFeedRepository restartedRepository = mock(DataFeedRepository.class);
+        NearDuplicateIndex restarted = new NearDuplicateIndex(restartedRepository, Runnable::run,
+            applicationProperties, new SimpleMeterRegistry());
+        restarted.load();
+
+        assertThat(restarted.find(null, FINGERPRINT, 6)).extracting(NearDuplicateDTO::getId)
+            .containsExactly("kept");
+        verify(restartedRepository, never()).stream(any(Query.class));
+    }
+
+    @Test
+    public void testSnapshotWaitsForTheIndexToBeLoaded() {
+        NearDuplicateIndex index = newIndex();
+        index.add("unsaved", FINGERPRINT);
+        index.snapshot();
+
+        assertThat(new File(applicationProperties.getNearDuplicates().getSnapshotFile())).doesNotExist();
+    }
+
+    private NearDuplicateIndex newIndex() {
+        return new NearDuplicateIndex(dataFeedRepository, Runnable::run, applicationProperties,
+            new SimpleMeterRegistry());
+    }
+
+    private static long flip(long fingerprint, int... bits) {
+        for (int bit : bits) {
+            fingerprint ^= 1L << bit;
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,181 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.service.util.CsrGraph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the PageRankService.
+ *
+ * @see PageRankService
+ */
+public class PageRankServiceUnitTest {
+
+    private static final List<String> URLS = Arrays.asList("http://a.test/", "http://b.test/", "http://c.test/");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationProperties applicationProperties;
+
+    private LinkGraph linkGraph;
+
+    private DataFeedRepository dataFeedRepository;
+
+    private DataFeedSearchRepository dataFeedSearchRepository;
+
+    private CsrGraph graph;
+
+    private final List<Map<String, Map<String, Object>>> bulkUpdates = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getPageRank().setFile(new File(folder.getRoot(), "page-rank.bin").getPath());
+
+        // a and b link to each other, c links to a
+        int[][] outlinks = {{1}, {0}, {0}};
+        graph = CsrGraph.write(folder.getRoot().toPath().resolve("graph.csr"), 3, node -> outlinks[node]);
+        linkGraph = mock(LinkGraph.class);
+        when(linkGraph.getCompactedGraph()).thenReturn(graph);
+        when(linkGraph.getGeneration()).thenReturn(1L);
+        when(linkGraph.getId(anyString())).thenAnswer(invocation -> URLS.indexOf(invocation.<String>getArgument(0)));
+
+        dataFeedRepository = mock(DataFeedRepository.class);
+        when(dataFeedRepository.stream(any(Query.class))).thenAnswer(invocation -> dataFeeds());
+        dataFeedSearchRepository = mock(DataFeedSearchRepository.class);
+        when(dataFeedSearchRepository.bulkUpdate(anyMap())).thenAnswer(invocation -> {
+            bulkUpdates.add(new HashMap<>(invocation.<Map<String, Map<String, Object>>>getArgument(0)));
+            return Collections.emptyMap();
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        graph.close();
+    }
+
+    @Test
+    public void writesOnlyTheChangedRanks() {
+        PageRankService pageRankService = newService();
+        pageRankService.compute();
+
+        // The DataFeed whose url is not in the graph gets no rank
+        assertThat(bulkUpdates).hasSize(1);
+        Map<String, Map<String, Object>> written = bulkUpdates.get(0);
+        assertThat(written).containsOnlyKeys("a", "b", "c");
+        double sum = written.values().stream().mapToDouble(update -> (Double) update.get("rank")).sum();
+        assertThat(sum).isCloseTo(3, within(1e-6));
+        assertThat((Double) written.get("a").get("rank")).isGreaterThan((Double) written.get("b").get("rank"));
+        assertThat(pageRankService.getRank(URLS.get(0))).isEqualTo(written.get("a").get("rank"));
+
+        pageRankService.compute();
+
+        assertThat(bulkUpdates).hasSize(2);
+        assertThat(bulkUpdates.get(1)).isEmpty();
+    }
+
+    @Test
+    public void keepsTheRanksAcrossRestarts() {
+        newService().compute();
+
+        PageRankService restarted = newService();
+        assertThat(restarted.getRank(URLS.get(0))).isEqualTo(bulkUpdates.get(0).get("a").get("rank"));
+        restarted.compute();
+
+        assertThat(bulkUpdates).hasSize(2);
+        assertThat(bulkUpdates.get(1)).isEmpty();
+    }
+
+    @Test
+    public void writesTheFailedRanksAgain() {
+        doAnswer(invocation -> {
+            bulkUpdates.add(new HashMap<>(invocation.<Map<String, Map<String, Object>>>getArgument(0)));
+            return bulkUpdates.size() == 1 ? Collections.singletonMap("b", "es_rejected_execution_exception")
+                : Collections.emptyMap();
+        }).when(dataFeedSearchRepository).bulkUpdate(anyMap());
+        newService().compute();
+
+        // The rank of b did not change, but was not written
+        newService().compute();
+
+        assertThat(bulkUpdates).hasSize(2);
+        assertThat(bulkUpdates.get(1)).containsOnlyKeys("b");
+        assertThat((Double) bulkUpdates.get(1).get("b").get("rank"))
+            .isCloseTo((Double) bulkUpdates.get(0).get("b").get("rank"), within(1e-3));
+    }
+
+    @Test
+    public void dropsTheRanksOfARebuiltGraph() {
+        PageRankService pageRankService = newService();
+        pageRankService.compute();
+
+        // The urls of the rebuilt graph got new ids
+        when(linkGraph.getGeneration()).thenReturn(2L);
+        assertThat(pageRankService.getRank(URLS.get(0))).isNull();
+        newService().compute();
+
+        assertThat(bulkUpdates).hasSize(2);
+        assertThat(bulkUpdates.get(1)).containsOnlyKeys("a", "b", "c");
+    }
+
+    private PageRankService newService() {
+        return new PageRankService(linkGraph, dataFeedRepository, dataFeedSearchRepository, applicationProperties,
+            new SimpleMeterRegistry());
+    }
+
+    private static CloseableIterator<DataFeed> dataFeeds() {
+        List<DataFeed> dataFeeds = new ArrayList<>();
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            DataFeed dataFeed = new DataFeed();
+            dataFeed.setId(id);
+            dataFeed.setUrl("http://" + id + ".test/");
+            dataFeeds.add(dataFeed);
+        }
+        Iterator<DataFeed> iterator = dataFeeds.iterator();
+        return new CloseableIterator<DataFeed>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public DataFeed next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package io.cooly.crawler.service;
+
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.dto.FrontierUrlDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the UrlFrontier and its politeness.
+ *
+ * @see UrlFrontier
+ * @see PolitenessScheduler
+ */
+public class UrlFrontierUnitTest {
+
+    private ApplicationProperties applicationProperties;
+
+    private DataFeedRepository dataFeedRepository;
+
+    private DataFeedIndexer dataFeedIndexer;
+
+    private MutableClock clock;
+
+    private UrlFrontier urlFrontier;
+
+    @Before
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getPoliteness().setCrawlDelayMs(200);
+        applicationProperties.getPoliteness().setWheelTickMs(10);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        dataFeedRepository = mock(DataFeedRepository.class);
+        when(dataFeedRepository.acquireLease(anyCollection(), any(Instant.class), any(Instant.class)))
+            .thenAnswer(invocation -> new HashSet<>(invocation.<Collection<String>>getArgument(0)));
+        dataFeedIndexer = mock(DataFeedIndexer.class);
+        clock = new MutableClock(Instant.parse("2019-01-01T00:00:00Z"));
+        urlFrontier = new UrlFrontier(dataFeedRepository, Runnable::run,
+            new PolitenessScheduler(applicationProperties, meterRegistry, clock), dataFeedIndexer,
+            applicationProperties, meterRegistry, clock);
+        urlFrontier.offer(dataFeed("1", "a.test", 0));
+        urlFrontier.offer(dataFeed("2", "a.test", 1));
+        urlFrontier.offer(dataFeed("3", "b.test", 2));
+    }
+
+    @Test
+    public void leasesOneUrlPerDomainWithinTheCrawlDelay() {
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("1", "3");
+        assertThat(urlFrontier.lease(10)).isEmpty();
+
+        clock.advance(150);
+        assertThat(urlFrontier.lease(10)).isEmpty();
+
+        clock.advance(100);
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("2");
+    }
+
+    @Test
+    public void leasesBurstsAfterIdleDomains() {
+        applicationProperties.getPoliteness().setBurst(2);
+
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void leasesEverythingWhenDisabled() {
+        applicationProperties.getPoliteness().setEnabled(false);
+
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void clearsTheQueuedUrlsOfADomain() {
+        urlFrontier.clear("a.test");
+
+        assertThat(urlFrontier.getQueuedCount()).isEqualTo(1);
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("3");
+
+        urlFrontier.offer(dataFeed("4", "a.test", 0));
+        urlFrontier.clear(null);
+        assertThat(urlFrontier.getQueuedCount()).isZero();
+        assertThat(urlFrontier.getLeasedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void leasesTheLowestLevelsAcrossSeveralDomains() {
+        applicationProperties.getPoliteness().setEnabled(false);
+        urlFrontier.offer(dataFeed("4", "c.test", 1));
+        urlFrontier.offer(dataFeed("5", "d.test", 0));
+        urlFrontier.offer(dataFeed("6", "c.test", 0));
+        urlFrontier.offer(dataFeed("7", "b.test", 0));
+
+        assertThat(ids(urlFrontier.lease(4))).containsExactly("1", "5", "6", "7");
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("2", "4", "3");
+    }
+
+    @Test
+    public void skipsTheUrlsLeasedByAnotherInstance() {
+        when(dataFeedRepository.acquireLease(anyCollection(), any(Instant.class), any(Instant.class)))
+            .thenReturn(Collections.singleton("3"));
+
+        assertThat(ids(urlFrontier.lease(10))).containsExactly("3");
+        assertThat(urlFrontier.getLeasedCount()).isEqualTo(1);
+        assertThat(urlFrontier.getQueuedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void updatesTheSearchIndexOfCompletedUrls() {
+        urlFrontier.lease(10);
+        urlFrontier.complete(Collections.singletonList("1"));
+
+        verify(dataFeedRepository).markFetched(Collections.singletonList("1"));
+        verify(dataFeedIndexer).update("1", Collections.singletonMap("fetched", true));
+        assertThat(urlFrontier.getLeasedCount()).isEqualTo(1);
+    }
+
+    private static DataFeed dataFeed(String id, String domain, int level) {
+        DataFeed dataFeed = new DataFeed().url("http://" + domain + "/" + id).domain(domain).fetched(false).level(level);
+        dataFeed.setId(id);
+        return dataFeed;
+    }
+
+    private static List<String> ids(List<FrontierUrlDTO> urls) {
+        return urls.stream().map(FrontierUrlDTO::getId).collect(Collectors.toList());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void advance(long millis) {
+            instant = instant.plusMillis(millis);
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the ContentHash utility class.
+ *
+ * @see ContentHash
+ */
+public class ContentHashUnitTest {
+
+    @Test
+    public void testXxHash64ReferenceValues() {
+        assertThat(ContentHash.xxHash64(new byte[0])).isEqualTo(0xEF46DB3751D8E999L);
+        assertThat(ContentHash.xxHash64("a".getBytes(StandardCharsets.UTF_8))).isEqualTo(0xD24EC4F1A98C6E5BL);
+        assertThat(ContentHash.xxHash64("abc".getBytes(StandardCharsets.UTF_8))).isEqualTo(0x44BC2CF5AD770999L);
+        assertThat(ContentHash.xxHash64("Nobody inspects the spammish repetition".getBytes(StandardCharsets.UTF_8)))
+            .isEqualTo(0xFBCEA83C8A378BF1L);
+    }
+
+    @Test
+    public void testOfIgnoresWhitespaceChanges() {
+        assertThat(ContentHash.of("<p>\n  Hello   world</p>\n")).isEqualTo(ContentHash.of("<p> Hello world</p>"));
+        assertThat(ContentHash.of("<p>Hello world</p>")).isNotEqualTo(ContentHash.of("<p>Hello World</p>"));
+    }
+}
@@ -0,0 +1,60 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the CsrGraph and UrlDictionary utility classes.
+ *
+ * @see CsrGraph
+ * @see UrlDictionary
+ */
+public class CsrGraphUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storesOutlinksAndInlinks() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("graph.csr");
+        int[][] outlinks = {{1, 2}, {2}, {}, {0, 1, 2}};
+        try (CsrGraph graph = CsrGraph.write(file, 4, node -> outlinks[node])) {
+            assertThat(graph.getNodeCount()).isEqualTo(4);
+            assertThat(graph.getEdgeCount()).isEqualTo(6);
+            assertThat(graph.getOutlinks(3)).containsExactly(0, 1, 2);
+            assertThat(graph.getOutlinks(2)).isEmpty();
+            assertThat(graph.getInlinks(2)).containsExactly(0, 1, 3);
+            assertThat(graph.getInlinks(3)).isEmpty();
+            assertThat(graph.getOutlinks(4)).isEmpty();
+        }
+        try (CsrGraph graph = CsrGraph.open(file)) {
+            assertThat(graph.getInlinks(1)).containsExactly(0, 3);
+        }
+    }
+
+    @Test
+    public void keepsUrlIdsAcrossReopens() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("graph.urls");
+        try (UrlDictionary dictionary = new UrlDictionary(file)) {
+            for (int i = 0; i < 3000; i++) {
+                assertThat(dictionary.getOrAdd("http://example.com/" + i)).isEqualTo(i);
+            }
+            assertThat(dictionary.getOrAdd("http://example.com/7")).isEqualTo(7);
+            assertThat(dictionary.getUrl(2999)).isEqualTo("http://example.com/2999");
+            dictionary.flush();
+            dictionary.getOrAdd("http://example.com/pending");
+            assertThat(dictionary.getUrl(3000)).isEqualTo("http://example.com/pending");
+        }
+        try (UrlDictionary dictionary = new UrlDictionary(file)) {
+            assertThat(dictionary.size()).isEqualTo(3001);
+            assertThat(dictionary.getId("http://example.com/1234")).isEqualTo(1234);
+            assertThat(dictionary.getId("http://example.com/missing")).isEqualTo(-1);
+            assertThat(dictionary.getUrl(1234)).isEqualTo("http://example.com/1234");
+        }
+    }
+}
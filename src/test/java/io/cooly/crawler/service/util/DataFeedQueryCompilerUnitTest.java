@@ -0,0 +1,100 @@
+package io.cooly.crawler.service.util;
+
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.SimpleQueryStringBuilder;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the DataFeedQueryCompiler utility class.
+ *
+ * @see DataFeedQueryCompiler
+ */
+public class DataFeedQueryCompilerUnitTest {
+
+    private final DataFeedQueryCompiler compiler = new DataFeedQueryCompiler(100, 5, 3);
+
+    @Test
+    public void compilesFiltersToBoolFilterClauses() {
+        DataFeedQueryDTO query = new DataFeedQueryDTO();
+        query.setText("\"release notes\" -draft");
+        query.setDomain(Collections.singletonList("example.com"));
+        query.setFetched(true);
+        query.setCreatedFrom(Instant.parse("2019-01-01T00:00:00Z"));
+
+        BoolQueryBuilder bool = (BoolQueryBuilder) compiler.compile(query, false);
+
+        assertThat(bool.must()).hasSize(1);
+        assertThat(bool.must().get(0)).isInstanceOf(SimpleQueryStringBuilder.class);
+        assertThat(bool.filter()).hasSize(3);
+        assertThat(bool.filter()).filteredOn(TermsQueryBuilder.class::isInstance)
+            .extracting(filter -> ((TermsQueryBuilder) filter).fieldName())
+            .containsExactly("domain");
+        RangeQueryBuilder created = (RangeQueryBuilder) bool.filter().get(2);
+        assertThat(created.from()).isEqualTo("2019-01-01T00:00:00Z");
+        assertThat(created.to()).isNull();
+    }
+
+    @Test
+    public void filtersTheKeywordSubfieldsOfADynamicMapping() {
+        DataFeedQueryDTO query = new DataFeedQueryDTO();
+        query.setDomain(Collections.singletonList("example.com"));
+        query.setEngine(Collections.singletonList("google"));
+
+        BoolQueryBuilder bool = (BoolQueryBuilder) compiler.compile(query, true);
+
+        assertThat(bool.filter()).extracting(filter -> ((TermsQueryBuilder) filter).fieldName())
+            .containsExactly("domain.keyword", "engine.keyword");
+    }
+
+    @Test
+    public void acceptsLongPrefixes() {
+        DataFeedQueryDTO query = new DataFeedQueryDTO();
+        query.setText("(relea* | notes)");
+
+        assertThat(compiler.compile(query, false)).isInstanceOf(BoolQueryBuilder.class);
+
+        query.setText("notes|relea*+-draft");
+
+        assertThat(compiler.compile(query, false)).isInstanceOf(BoolQueryBuilder.class);
+    }
+
+    @Test
+    public void rejectsExpensiveQueries() {
+        DataFeedQueryDTO leadingWildcard = new DataFeedQueryDTO();
+        leadingWildcard.setText("*notes");
+        assertThatThrownBy(() -> compiler.compile(leadingWildcard, false)).isInstanceOf(IllegalArgumentException.class);
+
+        DataFeedQueryDTO shortPrefix = new DataFeedQueryDTO();
+        shortPrefix.setText("re*");
+        assertThatThrownBy(() -> compiler.compile(shortPrefix, false)).isInstanceOf(IllegalArgumentException.class);
+
+        // Operators separate words without whitespace
+        for (String text : Arrays.asList("zz|a*", "x+ab*", "q(ab*", "\"notes\"-ab*", "notes|*")) {
+            DataFeedQueryDTO shortPrefixAfterOperator = new DataFeedQueryDTO();
+            shortPrefixAfterOperator.setText(text);
+            assertThatThrownBy(() -> compiler.compile(shortPrefixAfterOperator, false))
+                .as(text).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        DataFeedQueryDTO tooManyTerms = new DataFeedQueryDTO();
+        tooManyTerms.setText("a b c");
+        tooManyTerms.setEngine(Arrays.asList("x", "y", "z"));
+        assertThatThrownBy(() -> compiler.compile(tooManyTerms, false)).isInstanceOf(IllegalArgumentException.class);
+
+        DataFeedQueryDTO invalidRange = new DataFeedQueryDTO();
+        invalidRange.setCreatedFrom(Instant.parse("2019-02-01T00:00:00Z"));
+        invalidRange.setCreatedTo(Instant.parse("2019-01-01T00:00:00Z"));
+        assertThatThrownBy(() -> compiler.compile(invalidRange, false)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,57 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the LinkExtractor utility class.
+ *
+ * @see LinkExtractor
+ */
+public class LinkExtractorUnitTest {
+
+    private static final String PAGE = "http://example.com/blog/post.html?id=1";
+
+    @Test
+    public void findsAbsoluteUrlsInFreeText() {
+        assertThat(LinkExtractor.extract("[\"http://a.test/x\", \"https://b.test/y,z\"]", PAGE))
+            .containsExactly("http://a.test/x", "https://b.test/y,z");
+        assertThat(LinkExtractor.extract("http://a.test/1,http://a.test/2\nhref=HTTP://c.test", PAGE))
+            .containsExactly("http://a.test/1", "http://a.test/2", "HTTP://c.test");
+        assertThat(LinkExtractor.extract("<http://d.test/>", PAGE)).containsExactly("http://d.test/");
+        assertThat(LinkExtractor.extract(null, PAGE)).isEmpty();
+    }
+
+    @Test
+    public void resolvesRelativeLinksAgainstThePage() {
+        String links = "[\"/about\", \"next.html\", \"../up/\", \"?page=2\", \"//cdn.test/a.js\"]";
+        assertThat(LinkExtractor.extract(links, PAGE)).containsExactly(
+            "http://example.com/about", "http://example.com/blog/next.html", "http://example.com/blog/../up/",
+            "http://example.com/blog/post.html?page=2", "http://cdn.test/a.js");
+        assertThat(LinkExtractor.extract("/a\n./b, ../c", "http://example.com"))
+            .containsExactly("http://example.com/a", "http://example.com/./b", "http://example.com/../c");
+        assertThat(LinkExtractor.extract("<a href=\"contact.html\">Contact us</a> <a href=/faq>", PAGE))
+            .containsExactly("http://example.com/blog/contact.html", "http://example.com/faq");
+    }
+
+    @Test
+    public void ignoresWordsFragmentsOtherSchemesAndKeys() {
+        String links = "[\"#top\", \"mailto:a@b.test\", \"javascript:void(0)\", \"nofollow\"]";
+        assertThat(LinkExtractor.extract(links, PAGE)).isEmpty();
+        assertThat(LinkExtractor.extract("{\"url.path\": \"/a\"} see the docs", PAGE))
+            .containsExactly("http://example.com/a");
+        assertThat(LinkExtractor.extract("[\"/a\"]", null)).isEmpty();
+    }
+
+    @Test
+    public void findsTheBaseOfThePage() {
+        assertThat(LinkExtractor.findBase(PAGE, "<head><BASE target=_top HREF='https://static.test/v2/'></head>"))
+            .isEqualTo("https://static.test/v2/");
+        assertThat(LinkExtractor.findBase(PAGE, "<base href=\"/docs/\">")).isEqualTo("http://example.com/docs/");
+        assertThat(LinkExtractor.findBase(PAGE, "<base target=\"_blank\"><p>no base</p>")).isEqualTo(PAGE);
+        assertThat(LinkExtractor.findBase(PAGE, null)).isEqualTo(PAGE);
+        assertThat(LinkExtractor.extract("[\"img/a.png\"]", LinkExtractor.findBase(PAGE, "<base href=\"/docs/\">")))
+            .containsExactly("http://example.com/docs/img/a.png");
+    }
+}
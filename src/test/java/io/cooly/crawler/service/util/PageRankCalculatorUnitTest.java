@@ -0,0 +1,86 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Test class for the PageRankCalculator utility class.
+ *
+ * @see PageRankCalculator
+ */
+public class PageRankCalculatorUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void ranksLinkedNodesHigher() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("graph.csr");
+        // 3 has no outlinks, 4 has no inlinks
+        int[][] outlinks = {{1, 2}, {2}, {0}, {}, {2, 3}};
+        try (CsrGraph graph = CsrGraph.write(file, 5, node -> outlinks[node])) {
+            double[] ranks = uniform(5);
+            int iterations = PageRankCalculator.compute(graph, ranks, 0.85, 1e-10, 200, pool);
+
+            assertThat(iterations).isLessThan(200);
+            assertThat(Arrays.stream(ranks).sum()).isCloseTo(1, within(1e-9));
+            assertThat(ranks[2]).isGreaterThan(ranks[0]);
+            assertThat(ranks[0]).isGreaterThan(ranks[1]);
+            assertThat(ranks[4]).isLessThan(ranks[3]);
+        }
+    }
+
+    @Test
+    public void convergesFasterFromPreviousRanks() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("graph.csr");
+        int nodeCount = 20000;
+        try (CsrGraph graph = CsrGraph.write(file, nodeCount, node -> links(node, nodeCount))) {
+            double[] ranks = uniform(nodeCount);
+            int coldIterations = PageRankCalculator.compute(graph, ranks, 0.85, 1e-9, 200, pool);
+            double[] expected = ranks.clone();
+
+            int warmIterations = PageRankCalculator.compute(graph, ranks, 0.85, 1e-9, 200, pool);
+
+            assertThat(warmIterations).isLessThan(coldIterations);
+            for (int node = 0; node < nodeCount; node++) {
+                assertThat(ranks[node]).isCloseTo(expected[node], within(1e-9));
+            }
+        }
+    }
+
+    private static double[] uniform(int nodeCount) {
+        double[] ranks = new double[nodeCount];
+        Arrays.fill(ranks, 1.0 / nodeCount);
+        return ranks;
+    }
+
+    private static int[] links(int node, int nodeCount) {
+        if (node % 10 == 0) {
+            return new int[0];
+        }
+        return Arrays.stream(new int[]{node / 2, node / 3, (int) ((node * 7919L) % nodeCount)})
+            .filter(target -> target != node).distinct().sorted().toArray();
+    }
+}
@@ -0,0 +1,61 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the ScalableBloomFilter utility class.
+ *
+ * @see ScalableBloomFilter
+ */
+public class ScalableBloomFilterUnitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hasNoFalseNegativesAndFewFalsePositives() throws Exception {
+        try (ScalableBloomFilter filter = new ScalableBloomFilter(prefix(), 1000, 0.01)) {
+            for (long i = 0; i < 5000; i++) {
+                filter.put(ContentHash.xxHash64(("http://example.com/" + i).getBytes("UTF-8")));
+            }
+            assertThat(filter.getStageCount()).isGreaterThan(1);
+            for (long i = 0; i < 5000; i++) {
+                assertThat(filter.mightContain(ContentHash.xxHash64(("http://example.com/" + i).getBytes("UTF-8"))))
+                    .isTrue();
+            }
+            int falsePositives = 0;
+            for (long i = 0; i < 10000; i++) {
+                if (filter.mightContain(ContentHash.xxHash64(("http://example.org/" + i).getBytes("UTF-8")))) {
+                    falsePositives++;
+                }
+            }
+            assertThat(falsePositives).isLessThan(200);
+            assertThat(filter.getExpectedFalsePositiveRate()).isLessThan(0.02);
+        }
+    }
+
+    @Test
+    public void reopensFromItsFiles() throws Exception {
+        Path prefix = prefix();
+        try (ScalableBloomFilter filter = new ScalableBloomFilter(prefix, 1000, 0.01)) {
+            filter.put(42);
+            filter.markComplete();
+        }
+        try (ScalableBloomFilter filter = new ScalableBloomFilter(prefix, 1000, 0.01)) {
+            assertThat(filter.isComplete()).isTrue();
+            assertThat(filter.size()).isEqualTo(1);
+            assertThat(filter.mightContain(42)).isTrue();
+            assertThat(filter.mightContain(43)).isFalse();
+        }
+    }
+
+    private Path prefix() {
+        return folder.getRoot().toPath().resolve("seen-urls");
+    }
+}
@@ -0,0 +1,58 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the SimHash utility class.
+ *
+ * @see SimHash
+ */
+public class SimHashUnitTest {
+
+    private static final String ARTICLE = "<html><head><style>p { color: red; }</style></head><body>"
+        + "<h1>Rates left unchanged</h1><p>The central bank left its key interest rate unchanged on Thursday, "
+        + "citing a steady labour market and inflation close to its target. Policymakers signalled that "
+        + "they expect to keep rates on hold for the rest of the year, although two members voted for a cut. "
+        + "Markets had widely expected the decision and bond yields barely moved after the announcement.</p>"
+        + "<p>In its statement, the bank said that price pressures in the services sector were easing more slowly "
+        + "than in goods, and that wage growth remained higher than it would like. The governor told reporters "
+        + "that the committee would look closely at the next two quarterly forecasts before changing course, and "
+        + "warned against reading too much into a single month of data.</p>"
+        + "<p>Economists were divided on the outlook. Some argued that the bank risked keeping policy too tight "
+        + "for too long as lending to households and small firms slowed, while others pointed to the strength "
+        + "of consumer spending over the summer and the recent rise in energy prices as reasons for caution. "
+        + "Business groups welcomed the stability but asked for clearer guidance on the path of borrowing costs "
+        + "next year, saying that uncertainty was holding back investment decisions across manufacturing.</p>"
+        + "<p>The decision comes a week after the government published its budget, which included new spending "
+        + "on infrastructure and a freeze on some fuel duties. The bank said it had taken those measures into "
+        + "account and that they were unlikely to add materially to inflation in the near term.</p>"
+        + "<div class=\"ad\">%s</div><p>Updated %s</p></body></html>";
+
+    @Test
+    public void testShinglesIgnoreMarkup() {
+        assertThat(SimHash.shingles("<p>One, <b>two</b></p><script>var three = 3;</script> four! five"))
+            .containsExactly("one two four five");
+        assertThat(SimHash.shingles("<p>a b c d e</p>")).containsExactly("a b c d", "b c d e");
+        assertThat(SimHash.shingles("<br/>")).isEmpty();
+    }
+
+    @Test
+    public void testNearDuplicatesHaveCloseFingerprints() {
+        long original = SimHash.of(String.format(ARTICLE, "Buy shoes now", "10:02"));
+        long withOtherAd = SimHash.of(String.format(ARTICLE, "Cheap flights to Lisbon", "10:47"));
+        long unrelated = SimHash.of("<p>Heavy rain is expected across the north of the country this weekend, "
+            + "with flood warnings in place for several rivers and travel disruption likely on Sunday.</p>");
+
+        assertThat(SimHash.distance(original, withOtherAd)).isLessThanOrEqualTo(6);
+        assertThat(SimHash.distance(original, unrelated)).isGreaterThan(16);
+    }
+
+    @Test
+    public void testDistance() {
+        assertThat(SimHash.distance(0L, 0L)).isEqualTo(0);
+        assertThat(SimHash.distance(0L, -1L)).isEqualTo(64);
+        assertThat(SimHash.distance(0b1010L, 0b0110L)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,56 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the TimingWheel utility class.
+ *
+ * @see TimingWheel
+ */
+public class TimingWheelUnitTest {
+
+    @Test
+    public void handsBackElementsOnceDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000);
+        wheel.schedule("a", 1025);
+        wheel.schedule("b", 1050);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(1024, expired::add);
+        assertThat(expired).isEmpty();
+        wheel.advance(1030, expired::add);
+        assertThat(expired).containsExactly("a");
+        wheel.advance(1050, expired::add);
+        assertThat(expired).containsExactly("a", "b");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    public void keepsElementsDueInALaterRevolution() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000);
+        wheel.schedule("later", 1000 + 10 * 8 * 3 + 5);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(1000 + 10 * 8 * 2, expired::add);
+        assertThat(expired).isEmpty();
+        assertThat(wheel.size()).isEqualTo(1);
+        wheel.advance(1000 + 10 * 8 * 3 + 10, expired::add);
+        assertThat(expired).containsExactly("later");
+    }
+
+    @Test
+    public void handsBackPastDeadlinesOnNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000);
+        wheel.advance(1100, element -> { });
+        wheel.schedule("past", 900);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(1110, expired::add);
+        assertThat(expired).containsExactly("past");
+    }
+}
@@ -0,0 +1,65 @@
+package io.cooly.crawler.service.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the UrlNormalizer utility class.
+ *
+ * @see UrlNormalizer
+ */
+public class UrlNormalizerUnitTest {
+
+    private final UrlNormalizer normalizer = new UrlNormalizer(Arrays.asList("utm_*", "gclid"));
+
+    @Test
+    public void lowercasesSchemeAndHostAndDropsDefaultPortAndFragment() {
+        assertThat(normalizer.normalize("HTTP://WWW.Example.COM:80/Path#top"))
+            .isEqualTo("http://www.example.com/Path");
+        assertThat(normalizer.normalize("https://example.com.:443")).isEqualTo("https://example.com/");
+        assertThat(normalizer.normalize("https://example.com:8443/a")).isEqualTo("https://example.com:8443/a");
+        assertThat(normalizer.normalize("http://user@[::1]:0080/")).isEqualTo("http://user@[::1]/");
+    }
+
+    @Test
+    public void removesDotSegments() {
+        assertThat(normalizer.normalize("http://example.com/a/./b/../c")).isEqualTo("http://example.com/a/c");
+        assertThat(normalizer.normalize("http://example.com/a/b/..")).isEqualTo("http://example.com/a/");
+        assertThat(normalizer.normalize("http://example.com/../../a")).isEqualTo("http://example.com/a");
+        assertThat(normalizer.normalize("http://example.com/a//b/.")).isEqualTo("http://example.com/a//b/");
+    }
+
+    @Test
+    public void normalizesPercentEscapes() {
+        assertThat(normalizer.normalize("http://example.com/%7euser/%2Fa%2fb%41"))
+            .isEqualTo("http://example.com/~user/%2Fa%2FbA");
+        assertThat(normalizer.normalize("http://example.com/a b/café?q=\"x\""))
+            .isEqualTo("http://example.com/a%20b/caf%C3%A9?q=%22x%22");
+        assertThat(normalizer.normalize("http://example.com/100%/%2e%2E/x"))
+            .isEqualTo("http://example.com/x");
+        assertThat(normalizer.normalize("http://example.com/100%")).isEqualTo("http://example.com/100%25");
+    }
+
+    @Test
+    public void sortsAndFiltersQueryParameters() {
+        assertThat(normalizer.normalize("http://example.com/?b=2&a=1&UTM_Source=x&&gclid=y&a=0"))
+            .isEqualTo("http://example.com/?a=1&a=0&b=2");
+        assertThat(normalizer.normalize("http://example.com/p?utm_medium=email#x")).isEqualTo("http://example.com/p");
+        assertThat(normalizer.normalize("http://example.com/p?")).isEqualTo("http://example.com/p");
+        assertThat(normalizer.normalize("http://example.com/?gclids=1")).isEqualTo("http://example.com/?gclids=1");
+    }
+
+    @Test
+    public void returnsCanonicalAndUnsupportedUrlsUnchanged() {
+        String canonical = "https://example.com/a?b=1&c=2";
+        assertThat(normalizer.normalize(canonical)).isSameAs(canonical);
+        assertThat(normalizer.normalize(null)).isNull();
+        assertThat(normalizer.normalize("AAAAAAAAAA")).isEqualTo("AAAAAAAAAA");
+        assertThat(normalizer.normalize("ftp://Example.com/")).isEqualTo("ftp://Example.com/");
+        assertThat(normalizer.normalize("http://example.com:port/")).isEqualTo("http://example.com:port/");
+        assertThat(normalizer.normalize("http:///path")).isEqualTo("http:///path");
+    }
+}
@@ -2,14 +2,20 @@ package io.cooly.crawler.web.rest;
 
 import io.cooly.crawler.IndexerApp;
 
+import io.cooly.crawler.config.ApplicationProperties;
 import io.cooly.crawler.config.SecurityBeanOverrideConfiguration;
 
 import io.cooly.crawler.domain.DataFeed;
 import io.cooly.crawler.repository.DataFeedRepository;
 import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.repository.search.SearchAfterSlice;
 import io.cooly.crawler.service.DataFeedService;
+import io.cooly.crawler.service.dto.DataFeedQueryDTO;
 import io.cooly.crawler.web.rest.errors.ExceptionTranslator;
 
+import org.bson.Document;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -18,24 +24,37 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.validation.Validator;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 
 import static io.cooly.crawler.web.rest.TestUtil.createFormattingConversionService;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.elasticsearch.index.query.QueryBuilders.queryStringQuery;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -51,6 +70,7 @@ public class DataFeedResourceIntTest {
 
     private static final String DEFAULT_URL = "AAAAAAAAAA";
     private static final String UPDATED_URL = "BBBBBBBBBB";
+    private static final String OTHER_URL = "CCCCCCCCCC";
 
     private static final String DEFAULT_DOMAIN = "AAAAAAAAAA";
     private static final String UPDATED_DOMAIN = "BBBBBBBBBB";
@@ -79,6 +99,11 @@ public class DataFeedResourceIntTest {
     private static final String DEFAULT_FILE_NAME = "AAAAAAAAAA";
     private static final String UPDATED_FILE_NAME = "BBBBBBBBBB";
 
+    /**
+     * Elasticsearch is updated asynchronously, this is how long the tests wait for it.
+     */
+    private static final long INDEXING_TIMEOUT = 5000;
+
     @Autowired
     private DataFeedRepository dataFeedRepository;
 
@@ -93,6 +118,12 @@ public class DataFeedResourceIntTest {
     @Autowired
     private DataFeedSearchRepository mockDataFeedSearchRepository;
 
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
@@ -112,7 +143,8 @@ public class DataFeedResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final DataFeedResource dataFeedResource = new DataFeedResource(dataFeedService);
+        final DataFeedResource dataFeedResource = new DataFeedResource(dataFeedService, jacksonMessageConverter.getObjectMapper(),
+            applicationProperties);
         this.restDataFeedMockMvc = MockMvcBuilders.standaloneSetup(dataFeedResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -162,6 +194,7 @@ public class DataFeedResourceIntTest {
         List<DataFeed> dataFeedList = dataFeedRepository.findAll();
         assertThat(dataFeedList).hasSize(databaseSizeBeforeCreate + 1);
         DataFeed testDataFeed = dataFeedList.get(dataFeedList.size() - 1);
+        dataFeedRepository.loadHtml(Collections.singletonList(testDataFeed));
         assertThat(testDataFeed.getUrl()).isEqualTo(DEFAULT_URL);
         assertThat(testDataFeed.getDomain()).isEqualTo(DEFAULT_DOMAIN);
         assertThat(testDataFeed.isFetched()).isEqualTo(DEFAULT_FETCHED);
@@ -174,7 +207,78 @@ public class DataFeedResourceIntTest {
         assertThat(testDataFeed.getFileName()).isEqualTo(DEFAULT_FILE_NAME);
 
         // Validate the DataFeed in Elasticsearch
-        verify(mockDataFeedSearchRepository, times(1)).save(testDataFeed);
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkIndex(argThat(dataFeeds -> dataFeeds.contains(testDataFeed)));
+    }
+
+    @Test
+    public void createDataFeedWithHtmlInContentStore() throws Exception {
+        // Create the DataFeed
+        restDataFeedMockMvc.perform(post("/api/data-feeds")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(dataFeed)))
+            .andExpect(status().isCreated());
+
+        // The html is referenced, not stored in the document
+        Document document = mongoTemplate.getCollection("data_feed").find().first();
+        assertThat(document).doesNotContainKey("html");
+        assertThat(document.getString("html_ref")).isNotEmpty();
+
+        // The html is only read back from the content store by the reads which return it
+        assertThat(dataFeedRepository.findById(document.get("_id").toString()).get().getHtml()).isNull();
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}", document.get("_id").toString()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.html").value(DEFAULT_HTML));
+        restDataFeedMockMvc.perform(get("/api/data-feeds?sort=id,desc"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].html").value(hasItem(DEFAULT_HTML)));
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}?fields=url", document.get("_id").toString()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.html").isEmpty());
+    }
+
+    @Test
+    public void createUnchangedDataFeed() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        int databaseSizeBeforeCreate = dataFeedRepository.findAll().size();
+
+        // Fetch the same page again, with different whitespace
+        DataFeed refetched = createEntity()
+            .html(" " + DEFAULT_HTML + "\n")
+            .fetched(UPDATED_FETCHED)
+            .created(UPDATED_CREATED);
+        restDataFeedMockMvc.perform(post("/api/data-feeds")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(refetched)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(dataFeed.getId()));
+
+        // Only the fetch of the stored DataFeed is updated
+        List<DataFeed> dataFeedList = dataFeedRepository.findAll();
+        assertThat(dataFeedList).hasSize(databaseSizeBeforeCreate);
+        DataFeed testDataFeed = dataFeedList.get(dataFeedList.size() - 1);
+        dataFeedRepository.loadHtml(Collections.singletonList(testDataFeed));
+        assertThat(testDataFeed.isFetched()).isEqualTo(UPDATED_FETCHED);
+        assertThat(testDataFeed.getCreated()).isEqualTo(UPDATED_CREATED);
+        assertThat(testDataFeed.getHtml()).isEqualTo(DEFAULT_HTML);
+        // So is the search index, with a partial update
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkUpdate(argThat(updates -> updates.containsKey(dataFeed.getId())
+                && UPDATED_FETCHED.equals(updates.get(dataFeed.getId()).get("fetched"))
+                && UPDATED_CREATED.equals(updates.get(dataFeed.getId()).get("created"))));
+
+        // A changed page replaces the stored DataFeed
+        restDataFeedMockMvc.perform(post("/api/data-feeds")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(createEntity().html(UPDATED_HTML).data(null))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(dataFeed.getId()));
+        assertThat(dataFeedRepository.findAll()).hasSize(databaseSizeBeforeCreate);
+        DataFeed replaced = dataFeedService.findOne(dataFeed.getId()).get();
+        assertThat(replaced.getHtml()).isEqualTo(UPDATED_HTML);
+        // The properties the new DataFeed does not have are removed
+        assertThat(replaced.getData()).isNull();
     }
 
     @Test
@@ -195,7 +299,98 @@ public class DataFeedResourceIntTest {
         assertThat(dataFeedList).hasSize(databaseSizeBeforeCreate);
 
         // Validate the DataFeed in Elasticsearch
-        verify(mockDataFeedSearchRepository, times(0)).save(dataFeed);
+        verify(mockDataFeedSearchRepository, never()).bulkIndex(argThat(dataFeeds -> dataFeeds.contains(dataFeed)));
+    }
+
+    @Test
+    public void bulkSaveDataFeeds() throws Exception {
+        // Initialize the database with a dataFeed to replace
+        dataFeedRepository.save(dataFeed);
+        int databaseSizeBeforeCreate = dataFeedRepository.findAll().size();
+
+        // Replace the existing DataFeed and create a new one
+        dataFeed.setUrl(UPDATED_URL);
+        restDataFeedMockMvc.perform(post("/api/data-feeds/_bulk")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(Arrays.asList(dataFeed, createEntity().url(OTHER_URL)))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].index").value(0))
+            .andExpect(jsonPath("$.[0].id").value(dataFeed.getId()))
+            .andExpect(jsonPath("$.[0].status").value(200))
+            .andExpect(jsonPath("$.[1].index").value(1))
+            .andExpect(jsonPath("$.[1].id").isNotEmpty())
+            .andExpect(jsonPath("$.[1].status").value(201));
+
+        // Validate the DataFeeds in the database
+        List<DataFeed> dataFeedList = dataFeedRepository.findAll();
+        assertThat(dataFeedList).hasSize(databaseSizeBeforeCreate + 1);
+        assertThat(dataFeedRepository.findById(dataFeed.getId()).get().getUrl()).isEqualTo(UPDATED_URL);
+
+        // Validate the DataFeeds in Elasticsearch
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkIndex(argThat(dataFeeds -> dataFeeds.contains(dataFeed)));
+    }
+
+    @Test
+    public void bulkSaveUnchangedDataFeeds() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        String htmlRef = dataFeedRepository.findById(dataFeed.getId()).get().getHtmlRef();
+        int databaseSizeBeforeCreate = dataFeedRepository.findAll().size();
+
+        // Fetch the same page again, along with a new one
+        DataFeed refetched = createEntity()
+            .fetched(UPDATED_FETCHED)
+            .created(UPDATED_CREATED);
+        restDataFeedMockMvc.perform(post("/api/data-feeds/_bulk")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(Arrays.asList(refetched, createEntity().url(OTHER_URL)))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].id").value(dataFeed.getId()))
+            .andExpect(jsonPath("$.[0].status").value(200))
+            .andExpect(jsonPath("$.[1].status").value(201));
+
+        // Only the fetch of the stored DataFeed is updated
+        assertThat(dataFeedRepository.findAll()).hasSize(databaseSizeBeforeCreate + 1);
+        DataFeed testDataFeed = dataFeedRepository.findById(dataFeed.getId()).get();
+        assertThat(testDataFeed.isFetched()).isEqualTo(UPDATED_FETCHED);
+        assertThat(testDataFeed.getCreated()).isEqualTo(UPDATED_CREATED);
+        assertThat(testDataFeed.getHtmlRef()).isEqualTo(htmlRef);
+
+        // The search index gets a partial update of the fetch, not the whole DataFeed again
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkUpdate(argThat(updates -> updates.containsKey(dataFeed.getId())
+                && UPDATED_FETCHED.equals(updates.get(dataFeed.getId()).get("fetched"))));
+        verify(mockDataFeedSearchRepository, never()).bulkIndex(argThat(dataFeeds -> dataFeeds.stream()
+            .anyMatch(indexed -> dataFeed.getId().equals(indexed.getId())
+                && UPDATED_FETCHED.equals(indexed.isFetched()))));
+    }
+
+    @Test
+    public void bulkSaveDataFeedsNdjson() throws Exception {
+        int databaseSizeBeforeCreate = dataFeedRepository.findAll().size();
+
+        // Create two DataFeeds, one per line
+        String line = new String(TestUtil.convertObjectToJsonBytes(dataFeed), StandardCharsets.UTF_8);
+        String other = new String(TestUtil.convertObjectToJsonBytes(createEntity().url(OTHER_URL)),
+            StandardCharsets.UTF_8);
+        restDataFeedMockMvc.perform(post("/api/data-feeds/_bulk")
+            .contentType("application/x-ndjson")
+            .content(line + "\n" + other + "\n"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].status").value(everyItem(is(201))));
+
+        // Validate the DataFeeds in the database
+        List<DataFeed> dataFeedList = dataFeedRepository.findAll();
+        assertThat(dataFeedList).hasSize(databaseSizeBeforeCreate + 2);
+
+        // A url sent again replaces its DataFeed, even twice in the same request
+        restDataFeedMockMvc.perform(post("/api/data-feeds/_bulk")
+            .contentType("application/x-ndjson")
+            .content(line + "\n" + line + "\n"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].status").value(everyItem(is(200))));
+        assertThat(dataFeedRepository.findAll()).hasSize(databaseSizeBeforeCreate + 2);
     }
 
     @Test
@@ -220,6 +415,107 @@ public class DataFeedResourceIntTest {
             .andExpect(jsonPath("$.[*].fileName").value(hasItem(DEFAULT_FILE_NAME.toString())));
     }
     
+    @Test
+    public void getAllDataFeedsWithoutCount() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+        dataFeedRepository.save(createEntity().url(UPDATED_URL));
+
+        // Get the first page without counting
+        restDataFeedMockMvc.perform(get("/api/data-feeds?count=none&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())))
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andExpect(header().string(HttpHeaders.LINK, "</api/data-feeds?count=none&page=1&size=1>; rel=\"next\""));
+
+        // Get the last page with an estimated count
+        restDataFeedMockMvc.perform(get("/api/data-feeds?count=estimated&page=1&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count-Estimate", "2"))
+            .andExpect(header().string(HttpHeaders.LINK, "</api/data-feeds?count=estimated&page=0&size=1>; rel=\"prev\""));
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds?count=approximately"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAllDataFeedsWithCursor() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+        DataFeed other = dataFeedRepository.save(createEntity().url(UPDATED_URL));
+
+        // Get the first page, by id
+        MvcResult result = restDataFeedMockMvc.perform(get("/api/data-feeds?cursor=&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())))
+            .andExpect(header().string(HttpHeaders.LINK, startsWith("</api/data-feeds?cursor=")))
+            .andExpect(header().doesNotExist("X-Total-Count"))
+            .andReturn();
+        String link = result.getResponse().getHeader(HttpHeaders.LINK);
+        String next = link.substring(1, link.indexOf('>'));
+
+        // Follow the next link to the last page
+        restDataFeedMockMvc.perform(get(next))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(other.getId())))
+            .andExpect(jsonPath("$.[*].id").value(not(hasItem(dataFeed.getId()))))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void getAllDataFeedsWithInvalidCursor() throws Exception {
+        restDataFeedMockMvc.perform(get("/api/data-feeds?cursor=notacursor"))
+            .andExpect(status().isBadRequest());
+        restDataFeedMockMvc.perform(get("/api/data-feeds?cursor=&sort=url,asc"))
+            .andExpect(status().isBadRequest());
+        // A crafted cursor cannot sort by a property without an index, nor have the wrong number of values
+        restDataFeedMockMvc.perform(get("/api/data-feeds?cursor=" + cursor("[\"html,ASC\",\"id,ASC\"]", "[\"a\",\"b\"]")))
+            .andExpect(status().isBadRequest());
+        restDataFeedMockMvc.perform(get("/api/data-feeds?cursor=" + cursor("[\"created,ASC\",\"id,ASC\"]", "[\"b\"]")))
+            .andExpect(status().isBadRequest());
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=*&cursor=" + cursor("[\"html,ASC\"]", "[\"a\",\"b\"]")))
+            .andExpect(status().isBadRequest());
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=*&cursor=" + cursor("[\"url,ASC\"]", "[\"a\"]")))
+            .andExpect(status().isBadRequest());
+    }
+
+    private static String cursor(String sort, String after) {
+        String token = "{\"sort\":" + sort + ",\"after\":" + after + "}";
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void exportDataFeeds() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+
+        // Export the dataFeeds of the domain, without their html
+        MvcResult result = restDataFeedMockMvc.perform(get("/api/data-feeds/_export?domain.equals=" + DEFAULT_DOMAIN
+            + "&fields=url,domain"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        restDataFeedMockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("application/x-ndjson"))
+            .andExpect(content().string(containsString("\"id\":\"" + dataFeed.getId() + "\"")))
+            .andExpect(content().string(containsString("\"url\":\"" + DEFAULT_URL + "\"")))
+            .andExpect(content().string(containsString("\"html\":null")));
+
+        // Other domains are not exported
+        result = restDataFeedMockMvc.perform(get("/api/data-feeds/_export?domain.equals=" + UPDATED_DOMAIN))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        restDataFeedMockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(content().string(not(containsString(dataFeed.getId()))));
+    }
+
+    @Test
+    public void exportDataFeedsWithUnknownField() throws Exception {
+        restDataFeedMockMvc.perform(get("/api/data-feeds/_export?fields=url,password"))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void getDataFeed() throws Exception {
         // Initialize the database
@@ -242,6 +538,80 @@ public class DataFeedResourceIntTest {
             .andExpect(jsonPath("$.fileName").value(DEFAULT_FILE_NAME.toString()));
     }
 
+    @Test
+    public void getDataFeedWithFields() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+
+        // Get only the url and domain of the dataFeed
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}?fields=url,domain", dataFeed.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(dataFeed.getId()))
+            .andExpect(jsonPath("$.url").value(DEFAULT_URL.toString()))
+            .andExpect(jsonPath("$.domain").value(DEFAULT_DOMAIN.toString()))
+            .andExpect(jsonPath("$.html").isEmpty())
+            .andExpect(jsonPath("$.data").isEmpty());
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}?fields=password", dataFeed.getId()))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAllDataFeedsWithFields() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+        dataFeedRepository.save(createEntity().url(UPDATED_URL));
+
+        // Get the first page of urls, the links keep the fields
+        restDataFeedMockMvc.perform(get("/api/data-feeds?fields=url&count=none&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].url").value(DEFAULT_URL.toString()))
+            .andExpect(jsonPath("$.[0].html").isEmpty())
+            .andExpect(header().string(HttpHeaders.LINK,
+                "</api/data-feeds?count=none&fields=url&page=1&size=1>; rel=\"next\""));
+    }
+
+    @Test
+    public void getNearDuplicates() throws Exception {
+        // Initialize the database with the same page at another url
+        dataFeedService.save(dataFeed);
+        DataFeed copy = dataFeedService.save(createEntity().url(UPDATED_URL));
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/near-duplicates", dataFeed.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].id").value(copy.getId()))
+            .andExpect(jsonPath("$.[0].url").value(UPDATED_URL))
+            .andExpect(jsonPath("$.[0].distance").value(0));
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/near-duplicates?distance=65", dataFeed.getId()))
+            .andExpect(status().isBadRequest());
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/near-duplicates", Long.MAX_VALUE))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getOutlinksAndInlinks() throws Exception {
+        // Initialize the database with a page linking to another one
+        DataFeed source = dataFeedService.save(createEntity().url("http://source.test/")
+            .links("[\"http://Target.test\", \"http://missing.test/page#top\"]"));
+        DataFeed target = dataFeedService.save(createEntity().url("http://target.test/").html(UPDATED_HTML));
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/outlinks", source.getId()))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Total-Count", "2"))
+            .andExpect(jsonPath("$.[0].id").value(target.getId()))
+            .andExpect(jsonPath("$.[0].url").value("http://target.test/"))
+            .andExpect(jsonPath("$.[1].id").doesNotExist())
+            .andExpect(jsonPath("$.[1].url").value("http://missing.test/page"));
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/inlinks", target.getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[0].id").value(source.getId()))
+            .andExpect(jsonPath("$.[0].url").value("http://source.test/"));
+
+        restDataFeedMockMvc.perform(get("/api/data-feeds/{id}/outlinks", Long.MAX_VALUE))
+            .andExpect(status().isNotFound());
+    }
+
     @Test
     public void getNonExistingDataFeed() throws Exception {
         // Get the dataFeed
@@ -281,6 +651,7 @@ public class DataFeedResourceIntTest {
         List<DataFeed> dataFeedList = dataFeedRepository.findAll();
         assertThat(dataFeedList).hasSize(databaseSizeBeforeUpdate);
         DataFeed testDataFeed = dataFeedList.get(dataFeedList.size() - 1);
+        dataFeedRepository.loadHtml(Collections.singletonList(testDataFeed));
         assertThat(testDataFeed.getUrl()).isEqualTo(UPDATED_URL);
         assertThat(testDataFeed.getDomain()).isEqualTo(UPDATED_DOMAIN);
         assertThat(testDataFeed.isFetched()).isEqualTo(UPDATED_FETCHED);
@@ -293,7 +664,8 @@ public class DataFeedResourceIntTest {
         assertThat(testDataFeed.getFileName()).isEqualTo(UPDATED_FILE_NAME);
 
         // Validate the DataFeed in Elasticsearch
-        verify(mockDataFeedSearchRepository, times(1)).save(testDataFeed);
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkIndex(argThat(dataFeeds -> dataFeeds.contains(testDataFeed)));
     }
 
     @Test
@@ -313,7 +685,112 @@ public class DataFeedResourceIntTest {
         assertThat(dataFeedList).hasSize(databaseSizeBeforeUpdate);
 
         // Validate the DataFeed in Elasticsearch
-        verify(mockDataFeedSearchRepository, times(0)).save(dataFeed);
+        verify(mockDataFeedSearchRepository, never()).bulkIndex(argThat(dataFeeds -> dataFeeds.contains(dataFeed)));
+    }
+
+    @Test
+    public void upsertDataFeedByUrl() throws Exception {
+        int databaseSizeBeforeUpsert = dataFeedRepository.findAll().size();
+
+        // Create the DataFeed, then save it again with another html
+        restDataFeedMockMvc.perform(put("/api/data-feeds/by-url")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(dataFeed)))
+            .andExpect(status().isOk());
+        String id = dataFeedRepository.findAll().get(databaseSizeBeforeUpsert).getId();
+
+        dataFeed.html(UPDATED_HTML);
+        restDataFeedMockMvc.perform(put("/api/data-feeds/by-url")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(dataFeed)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(id));
+
+        // Validate the DataFeed is saved once, with the latest html
+        List<DataFeed> dataFeedList = dataFeedRepository.findAll();
+        assertThat(dataFeedList).hasSize(databaseSizeBeforeUpsert + 1);
+        DataFeed testDataFeed = dataFeedList.get(dataFeedList.size() - 1);
+        dataFeedRepository.loadHtml(Collections.singletonList(testDataFeed));
+        assertThat(testDataFeed.getId()).isEqualTo(id);
+        assertThat(testDataFeed.getUrl()).isEqualTo(DEFAULT_URL);
+        assertThat(testDataFeed.getHtml()).isEqualTo(UPDATED_HTML);
+
+        // A change of another indexed property is indexed too, though the html is the same
+        dataFeed.data(UPDATED_DATA);
+        restDataFeedMockMvc.perform(put("/api/data-feeds/by-url")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(dataFeed)))
+            .andExpect(status().isOk());
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkIndex(argThat(dataFeeds -> dataFeeds.stream()
+                .anyMatch(indexed -> UPDATED_DATA.equals(indexed.getData()))));
+
+        // A dataFeed without url is rejected
+        restDataFeedMockMvc.perform(put("/api/data-feeds/by-url")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(dataFeed.url(null))))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void partialUpdateDataFeed() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        reset(mockDataFeedSearchRepository);
+
+        restDataFeedMockMvc.perform(patch("/api/data-feeds/{id}", dataFeed.getId())
+            .contentType("application/merge-patch+json")
+            .content("{\"fetched\": " + UPDATED_FETCHED + ", \"engine\": null}"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value(dataFeed.getId()))
+            .andExpect(jsonPath("$.fetched").value(UPDATED_FETCHED))
+            .andExpect(jsonPath("$.html").doesNotExist());
+
+        // Validate that only the patched properties changed
+        DataFeed testDataFeed = dataFeedRepository.findById(dataFeed.getId()).get();
+        dataFeedRepository.loadHtml(Collections.singletonList(testDataFeed));
+        assertThat(testDataFeed.isFetched()).isEqualTo(UPDATED_FETCHED);
+        assertThat(testDataFeed.getEngine()).isNull();
+        assertThat(testDataFeed.getHtml()).isEqualTo(DEFAULT_HTML);
+        assertThat(testDataFeed.getData()).isEqualTo(DEFAULT_DATA);
+
+        // Validate that only the patched properties are sent to Elasticsearch
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkUpdate(argThat(documents -> documents.containsKey(dataFeed.getId())
+                && documents.get(dataFeed.getId()).keySet().equals(new HashSet<>(Arrays.asList("fetched", "engine")))));
+        verify(mockDataFeedSearchRepository, never()).bulkIndex(argThat(dataFeeds -> dataFeeds.contains(dataFeed)));
+
+        // Derived properties cannot be patched
+        restDataFeedMockMvc.perform(patch("/api/data-feeds/{id}", dataFeed.getId())
+            .contentType("application/merge-patch+json")
+            .content("{\"url\": \"" + UPDATED_URL + "\"}"))
+            .andExpect(status().isBadRequest());
+
+        restDataFeedMockMvc.perform(patch("/api/data-feeds/{id}", Long.MAX_VALUE)
+            .contentType("application/merge-patch+json")
+            .content("{\"fetched\": true}"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void bulkPartialUpdateDataFeeds() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        DataFeed other = createEntity().url(UPDATED_URL);
+        dataFeedService.save(other);
+        reset(mockDataFeedSearchRepository);
+
+        restDataFeedMockMvc.perform(patch("/api/data-feeds/_bulk")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content("{\"ids\": [\"" + dataFeed.getId() + "\", \"" + other.getId() + "\"], \"patch\": {\"level\": "
+                + UPDATED_LEVEL + "}}"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-indexerApp-params", "2"));
+
+        assertThat(dataFeedRepository.findAllById(Arrays.asList(dataFeed.getId(), other.getId())))
+            .extracting(DataFeed::getLevel).containsOnly(UPDATED_LEVEL);
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkUpdate(argThat(documents -> documents.containsKey(other.getId())));
     }
 
     @Test
@@ -333,7 +810,8 @@ public class DataFeedResourceIntTest {
         assertThat(dataFeedList).hasSize(databaseSizeBeforeDelete - 1);
 
         // Validate the DataFeed in Elasticsearch
-        verify(mockDataFeedSearchRepository, times(1)).deleteById(dataFeed.getId());
+        verify(mockDataFeedSearchRepository, timeout(INDEXING_TIMEOUT).atLeastOnce())
+            .bulkDelete(argThat(ids -> ids.contains(dataFeed.getId())));
     }
 
     @Test
@@ -359,6 +837,80 @@ public class DataFeedResourceIntTest {
             .andExpect(jsonPath("$.[*].fileName").value(hasItem(DEFAULT_FILE_NAME)));
     }
 
+    @Test
+    public void searchDataFeedWithCursor() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        when(mockDataFeedSearchRepository.searchAfter(queryStringQuery("id:" + dataFeed.getId()), Sort.unsorted(), null, 1, null))
+            .thenReturn(new SearchAfterSlice<>(Collections.singletonList(dataFeed), Arrays.asList(1.0, "dataFeed#" + dataFeed.getId())));
+        // Search the first page of dataFeeds
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=id:" + dataFeed.getId() + "&cursor=&size=1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())))
+            .andExpect(header().string(HttpHeaders.LINK, startsWith("</api/_search/data-feeds?cursor=")));
+    }
+
+    @Test
+    public void searchRankedDataFeed() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        when(mockDataFeedSearchRepository.search(eq(queryStringQuery("id:" + dataFeed.getId())),
+            any(QueryRescorerBuilder.class), eq(PageRequest.of(0, 20)), isNull()))
+            .thenReturn(new PageImpl<>(Collections.singletonList(dataFeed), PageRequest.of(0, 1), 1));
+        // Search the dataFeed
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=id:" + dataFeed.getId() + "&ranked=true"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())));
+        // A ranked search cannot be sorted
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=id:" + dataFeed.getId() + "&ranked=true&sort=url"))
+            .andExpect(status().isBadRequest());
+        // Nor page past the rescore window, whose hits are not ranked
+        restDataFeedMockMvc.perform(get("/api/_search/data-feeds?query=id:" + dataFeed.getId() + "&ranked=true&page=5"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void searchDataFeedWithStructuredQuery() throws Exception {
+        // Initialize the database
+        dataFeedService.save(dataFeed);
+        when(mockDataFeedSearchRepository.search(any(BoolQueryBuilder.class), eq(PageRequest.of(0, 20)), isNull()))
+            .thenReturn(new PageImpl<>(Collections.singletonList(dataFeed), PageRequest.of(0, 1), 1));
+        DataFeedQueryDTO query = new DataFeedQueryDTO();
+        query.setText("release notes");
+        query.setDomain(Collections.singletonList(DEFAULT_DOMAIN));
+        // Search the dataFeed
+        restDataFeedMockMvc.perform(post("/api/_search/data-feeds")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(query)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())))
+            .andExpect(header().string("X-Total-Count", "1"))
+            .andExpect(header().doesNotExist(HttpHeaders.LINK));
+        // Leading wildcards are rejected
+        query.setText("*notes");
+        restDataFeedMockMvc.perform(post("/api/_search/data-feeds")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(query)))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void findUrlsByDomainFromIndex() throws Exception {
+        // Initialize the database
+        dataFeedRepository.save(dataFeed);
+
+        List<DataFeed> urls = dataFeedService.findUrlsByDomain(DEFAULT_DOMAIN, DEFAULT_FETCHED, DEFAULT_LEVEL,
+            PageRequest.of(0, 20)).getContent();
+        assertThat(urls).extracting(DataFeed::getUrl).containsExactly(DEFAULT_URL);
+        assertThat(urls).extracting(DataFeed::getLevel).containsExactly(DEFAULT_LEVEL);
+        assertThat(urls).extracting(DataFeed::getData).containsNull();
+        assertThat(dataFeedService.findUrlsByDomain(DEFAULT_DOMAIN, DEFAULT_FETCHED, DEFAULT_LEVEL - 1,
+            PageRequest.of(0, 20))).isEmpty();
+        assertThat(dataFeedService.countByDomain(DEFAULT_DOMAIN, DEFAULT_FETCHED)).isEqualTo(1);
+        assertThat(dataFeedService.countCreatedSince(DEFAULT_CREATED)).isEqualTo(1);
+        assertThat(dataFeedService.countCreatedSince(DEFAULT_CREATED.plusSeconds(1))).isZero();
+    }
+
     @Test
     public void equalsVerifier() throws Exception {
         TestUtil.equalsVerifier(DataFeed.class);
@@ -0,0 +1,183 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.IndexerApp;
+import io.cooly.crawler.config.SecurityBeanOverrideConfiguration;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.repository.search.ByQueryProgress;
+import io.cooly.crawler.repository.search.DataFeedSearchRepository;
+import io.cooly.crawler.service.DataFeedService;
+import io.cooly.crawler.service.DataFeedTaskService;
+import io.cooly.crawler.service.dto.DataFeedTaskDTO;
+import io.cooly.crawler.web.rest.errors.ExceptionTranslator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test class for the DataFeedTaskResource REST controller.
+ *
+ * @see DataFeedTaskResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {SecurityBeanOverrideConfiguration.class, IndexerApp.class})
+public class DataFeedTaskResourceIntTest {
+
+    private static final long TASK_TIMEOUT = 10000;
+
+    @Autowired
+    private DataFeedTaskService dataFeedTaskService;
+
+    @Autowired
+    private DataFeedService dataFeedService;
+
+    @Autowired
+    private DataFeedRepository dataFeedRepository;
+
+    /**
+     * This repository is mocked in the io.cooly.crawler.repository.search test package.
+     *
+     * @see io.cooly.crawler.repository.search.DataFeedSearchRepositoryMockConfiguration
+     */
+    @Autowired
+    private DataFeedSearchRepository mockDataFeedSearchRepository;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restDataFeedTaskMockMvc;
+
+    @Before
+    public void setup() {
+        DataFeedTaskResource dataFeedTaskResource = new DataFeedTaskResource(dataFeedTaskService);
+        this.restDataFeedTaskMockMvc = MockMvcBuilders.standaloneSetup(dataFeedTaskResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setConversionService(TestUtil.createFormattingConversionService())
+            .setMessageConverters(jacksonMessageConverter)
+            .build();
+    }
+
+    @Test
+    public void markFetchedByDomain() throws Exception {
+        DataFeed shallow = dataFeedService.save(new DataFeed().url("http://tasks.test/a").domain("tasks.test")
+            .fetched(false).level(0));
+        DataFeed deep = dataFeedService.save(new DataFeed().url("http://tasks.test/a/b/c").domain("tasks.test")
+            .fetched(false).level(3));
+        when(mockDataFeedSearchRepository.startUpdateByQuery(any(), anyString(), anyMap(), anyFloat()))
+            .thenReturn("node:1");
+        when(mockDataFeedSearchRepository.getByQueryProgress("node:1"))
+            .thenReturn(new ByQueryProgress(true, 1, 1, 0, null));
+
+        String location = restDataFeedTaskMockMvc.perform(post("/api/data-feeds/_mark-fetched?domain={domain}&maxLevel={maxLevel}",
+            "tasks.test", 2))
+            .andExpect(status().isAccepted())
+            .andExpect(jsonPath("$.type").value(DataFeedTaskDTO.Type.MARK_FETCHED.toString()))
+            .andExpect(jsonPath("$.filter.domain").value("tasks.test"))
+            .andExpect(header().exists("Location"))
+            .andReturn().getResponse().getHeader("Location");
+
+        String id = location.substring(location.lastIndexOf('/') + 1);
+        DataFeedTaskDTO task = awaitTask(id);
+        assertThat(task.getState()).isEqualTo(DataFeedTaskDTO.State.COMPLETED);
+        assertThat(task.getProcessed()).isEqualTo(1);
+        assertThat(task.getIndexProcessed()).isEqualTo(1);
+        verify(mockDataFeedSearchRepository).startUpdateByQuery(any(), anyString(), eq(Collections.singletonMap("fetched", true)), anyFloat());
+
+        assertThat(dataFeedRepository.findAllById(Arrays.asList(shallow.getId(), deep.getId())))
+            .extracting(DataFeed::getUrl, DataFeed::isFetched)
+            .containsOnly(
+                tuple("http://tasks.test/a", true),
+                tuple("http://tasks.test/a/b/c", false));
+
+        restDataFeedTaskMockMvc.perform(get("/api/data-feeds/_tasks/{id}", id))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.state").value(DataFeedTaskDTO.State.COMPLETED.toString()));
+    }
+
+    @Test
+    public void deleteByDomain() throws Exception {
+        DataFeed deleted = dataFeedService.save(new DataFeed().url("http://deletes.test/a").domain("deletes.test").level(0));
+        DataFeed kept = dataFeedService.save(new DataFeed().url("http://kept.test/a").domain("kept.test").level(0));
+        String location = restDataFeedTaskMockMvc.perform(delete("/api/data-feeds?domain={domain}", "deletes.test"))
+            .andExpect(status().isAccepted())
+            .andExpect(jsonPath("$.type").value(DataFeedTaskDTO.Type.DELETE.toString()))
+            .andReturn().getResponse().getHeader("Location");
+
+        DataFeedTaskDTO task = awaitTask(location.substring(location.lastIndexOf('/') + 1));
+        assertThat(task.getState()).isEqualTo(DataFeedTaskDTO.State.COMPLETED);
+        assertThat(task.getProcessed()).isEqualTo(1);
+        assertThat(task.getIndexProcessed()).isEqualTo(1);
+        assertThat(dataFeedRepository.existsById(deleted.getId())).isFalse();
+        assertThat(dataFeedRepository.existsById(kept.getId())).isTrue();
+        // Deleted from the search index by id, chunk by chunk
+        verify(mockDataFeedSearchRepository).bulkDelete(Collections.singletonList(deleted.getId()));
+    }
+
+    @Test
+    public void deleteWithoutFilter() throws Exception {
+        restDataFeedTaskMockMvc.perform(delete("/api/data-feeds"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void markFetchedWithoutFilter() throws Exception {
+        restDataFeedTaskMockMvc.perform(post("/api/data-feeds/_mark-fetched"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void requeueWithoutFilter() throws Exception {
+        restDataFeedTaskMockMvc.perform(post("/api/data-feeds/_requeue"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void startTaskWithInvalidFilter() throws Exception {
+        restDataFeedTaskMockMvc.perform(post("/api/data-feeds/_requeue?minLevel=3&maxLevel=1"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getNonExistingTask() throws Exception {
+        restDataFeedTaskMockMvc.perform(get("/api/data-feeds/_tasks/{id}", "unknown"))
+            .andExpect(status().isNotFound());
+    }
+
+    private DataFeedTaskDTO awaitTask(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TASK_TIMEOUT;
+        DataFeedTaskDTO task = dataFeedTaskService.getTask(id).get();
+        while (task.getFinishedAt() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            task = dataFeedTaskService.getTask(id).get();
+        }
+        return task;
+    }
+}
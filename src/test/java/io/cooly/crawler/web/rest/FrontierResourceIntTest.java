@@ -0,0 +1,116 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.IndexerApp;
+import io.cooly.crawler.config.ApplicationProperties;
+import io.cooly.crawler.config.SecurityBeanOverrideConfiguration;
+import io.cooly.crawler.domain.DataFeed;
+import io.cooly.crawler.repository.DataFeedRepository;
+import io.cooly.crawler.service.DataFeedService;
+import io.cooly.crawler.service.UrlFrontier;
+import io.cooly.crawler.web.rest.errors.ExceptionTranslator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test class for the FrontierResource REST controller.
+ *
+ * @see FrontierResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {SecurityBeanOverrideConfiguration.class, IndexerApp.class})
+public class FrontierResourceIntTest {
+
+    @Autowired
+    private UrlFrontier urlFrontier;
+
+    @Autowired
+    private DataFeedService dataFeedService;
+
+    @Autowired
+    private DataFeedRepository dataFeedRepository;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jacksonMessageConverter;
+
+    @Autowired
+    private ExceptionTranslator exceptionTranslator;
+
+    private MockMvc restFrontierMockMvc;
+
+    @Before
+    public void setup() {
+        FrontierResource frontierResource = new FrontierResource(urlFrontier, applicationProperties);
+        this.restFrontierMockMvc = MockMvcBuilders.standaloneSetup(frontierResource)
+            .setControllerAdvice(exceptionTranslator)
+            .setMessageConverters(jacksonMessageConverter)
+            .build();
+    }
+
+    @Test
+    public void leaseAndComplete() throws Exception {
+        DataFeed dataFeed = dataFeedService.save(new DataFeed().url("http://frontier.test/a").domain("frontier.test")
+            .fetched(false).level(0));
+
+        int maxLeaseSize = applicationProperties.getFrontier().getMaxLeaseSize();
+        restFrontierMockMvc.perform(post("/api/frontier/lease?n={n}", maxLeaseSize))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())))
+            .andExpect(jsonPath("$.[*].url").value(hasItem("http://frontier.test/a")));
+
+        // A leased url is not handed out twice
+        restFrontierMockMvc.perform(post("/api/frontier/lease?n={n}", maxLeaseSize))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.[*].id").value(not(hasItem(dataFeed.getId()))));
+
+        restFrontierMockMvc.perform(post("/api/frontier/complete")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(Collections.singletonList(dataFeed.getId()))))
+            .andExpect(status().isOk());
+
+        assertThat(dataFeedRepository.findById(dataFeed.getId()).get().isFetched()).isTrue();
+    }
+
+    @Test
+    public void leaseAndRelease() throws Exception {
+        DataFeed dataFeed = dataFeedService.save(new DataFeed().url("http://frontier.test/b").domain("frontier.test")
+            .fetched(false).level(0));
+        int maxLeaseSize = applicationProperties.getFrontier().getMaxLeaseSize();
+        restFrontierMockMvc.perform(post("/api/frontier/lease?n={n}", maxLeaseSize))
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())));
+
+        restFrontierMockMvc.perform(post("/api/frontier/release")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(Collections.singletonList(dataFeed.getId()))))
+            .andExpect(status().isOk());
+
+        restFrontierMockMvc.perform(post("/api/frontier/lease?n={n}", maxLeaseSize))
+            .andExpect(jsonPath("$.[*].id").value(hasItem(dataFeed.getId())));
+        urlFrontier.release(Collections.singletonList(dataFeed.getId()));
+    }
+
+    @Test
+    public void leaseTooMany() throws Exception {
+        int maxLeaseSize = applicationProperties.getFrontier().getMaxLeaseSize();
+        restFrontierMockMvc.perform(post("/api/frontier/lease?n={n}", maxLeaseSize + 1))
+            .andExpect(status().isBadRequest());
+    }
+}
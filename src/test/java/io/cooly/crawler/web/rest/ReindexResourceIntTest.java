@@ -0,0 +1,69 @@
+package io.cooly.crawler.web.rest;
+
+import io.cooly.crawler.IndexerApp;
+import io.cooly.crawler.config.SecurityBeanOverrideConfiguration;
+import io.cooly.crawler.service.DataFeedReindexService;
+import io.cooly.crawler.service.dto.ReindexStatusDTO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test class for the ReindexResource REST controller.
+ *
+ * @see ReindexResource
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {SecurityBeanOverrideConfiguration.class, IndexerApp.class})
+public class ReindexResourceIntTest {
+
+    @Autowired
+    private DataFeedReindexService dataFeedReindexService;
+
+    private MockMvc restReindexMockMvc;
+
+    @Before
+    public void setup() {
+        ReindexResource reindexResource = new ReindexResource(dataFeedReindexService);
+        this.restReindexMockMvc = MockMvcBuilders
+            .standaloneSetup(reindexResource)
+            .build();
+    }
+
+    @Test
+    public void getReindexStatus() throws Exception {
+        restReindexMockMvc.perform(get("/management/reindex"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(jsonPath("$.state").value(ReindexStatusDTO.State.IDLE.toString()))
+            .andExpect(jsonPath("$.processed").value(0));
+    }
+
+    @Test
+    public void startReindexWhileRunning() throws Exception {
+        DataFeedReindexService runningReindexService = mock(DataFeedReindexService.class);
+        ReindexStatusDTO running = new ReindexStatusDTO();
+        running.setState(ReindexStatusDTO.State.RUNNING);
+        when(runningReindexService.start()).thenReturn(false);
+        when(runningReindexService.getStatus()).thenReturn(running);
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new ReindexResource(runningReindexService)).build();
+
+        mockMvc.perform(post("/management/reindex"))
+            .andExpect(status().isConflict())
+            .andExpect(jsonPath("$.state").value(ReindexStatusDTO.State.RUNNING.toString()));
+    }
+}
@@ -1,16 +1,20 @@
 package io.cooly.crawler.web.rest.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import io.cooly.crawler.service.dto.KeysetPage;
 import org.junit.Test;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.HttpHeaders;
 
 /**
@@ -155,4 +159,55 @@ public class PaginationUtilUnitTest {
         assertTrue(xTotalCountHeaders.size() == 1);
         assertTrue(Long.valueOf(xTotalCountHeaders.get(0)).equals(0L));
     }
+
+    @Test
+    public void slicePaginationHttpHeadersTest() {
+        String baseUrl = "/api/example";
+        List<String> content = new ArrayList<>();
+        Slice<String> slice = new SliceImpl<>(content, PageRequest.of(6, 50), true);
+        HttpHeaders headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice, baseUrl);
+        List<String> strHeaders = headers.get(HttpHeaders.LINK);
+        assertNotNull(strHeaders);
+        assertTrue(strHeaders.size() == 1);
+        String expectedData = "</api/example?page=7&size=50>; rel=\"next\","
+                + "</api/example?page=5&size=50>; rel=\"prev\"";
+        assertEquals(expectedData, strHeaders.get(0));
+        assertFalse(headers.containsKey("X-Total-Count"));
+
+        // Last slice
+        slice = new SliceImpl<>(content, PageRequest.of(7, 50), false);
+        headers = PaginationUtil.generateSearchSlicePaginationHttpHeaders("Test1, test2", slice, baseUrl);
+        assertEquals("</api/example?page=6&size=50&query=Test1%2C+test2>; rel=\"prev\"", headers.getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void keysetPaginationHttpHeadersTest() {
+        String baseUrl = "/api/example";
+        List<String> content = new ArrayList<>();
+        KeysetPage<String> page = new KeysetPage<>(content, 50, "eyJhZnRlciI6WzFdfQ");
+        HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(page, baseUrl);
+        List<String> strHeaders = headers.get(HttpHeaders.LINK);
+        assertNotNull(strHeaders);
+        assertTrue(strHeaders.size() == 1);
+        assertEquals("</api/example?cursor=eyJhZnRlciI6WzFdfQ&size=50>; rel=\"next\"", strHeaders.get(0));
+        assertFalse(headers.containsKey("X-Total-Count"));
+
+        // Last page
+        page = new KeysetPage<>(content, 50, null);
+        headers = PaginationUtil.generateKeysetPaginationHttpHeaders(page, baseUrl);
+        assertFalse(headers.containsKey(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void searchKeysetPaginationHttpHeadersTest() {
+        String baseUrl = "/api/_search/example";
+        List<String> content = new ArrayList<>();
+        KeysetPage<String> page = new KeysetPage<>(content, 50, "eyJhZnRlciI6WzFdfQ");
+        HttpHeaders headers = PaginationUtil.generateSearchKeysetPaginationHttpHeaders("Test1, test2", page, baseUrl);
+        List<String> strHeaders = headers.get(HttpHeaders.LINK);
+        assertNotNull(strHeaders);
+        assertTrue(strHeaders.size() == 1);
+        assertEquals("</api/_search/example?cursor=eyJhZnRlciI6WzFdfQ&size=50&query=Test1%2C+test2>; rel=\"next\"",
+            strHeaders.get(0));
+    }
 }